@@ -30,6 +30,8 @@ import java.io.IOException;
 import java.util.Properties;
 
 import org.apache.log4j.Logger;
+import org.helios.redis.ts.server.LineProtocolServer;
+import org.helios.redis.ts.server.StatsdServer;
 
 /**
  * <p>Title: Boot</p>
@@ -62,7 +64,13 @@ public class Boot {
 		try {
 			fos = new FileInputStream(f);
 			p.load(fos);
-			new TSController(p);
+			TSController controller = new TSController(p);
+			if(Boolean.parseBoolean(p.getProperty("redis.ts.server.tcp.enabled", "false"))) {
+				new LineProtocolServer(controller.getWriter(), p).start();
+			}
+			if(Boolean.parseBoolean(p.getProperty("redis.ts.server.udp.enabled", "false"))) {
+				new StatsdServer(controller.getWriter(), controller.getModel().getLiveTier(), p).start();
+			}
 		} catch (IOException ioe) {
 			LOG.error("Failed to read properties from [" + f + "]", ioe);
 			System.exit(-3);
@@ -41,9 +41,41 @@ public interface TSConfiguration {
 	public static final String TS_CONFIG_ROOT =  TS_ROOT + TS_DELIM + "config";
 	/** The redis-ts configured model */
 	public static final String TS_MODEL = TS_CONFIG_ROOT + TS_DELIM + "model";
+	/** The redis-ts storage layout descriptor, recorded with the model when the instance is initialized */
+	public static final String TS_LAYOUT = TS_CONFIG_ROOT + TS_DELIM + "layout";
 	/** The redis-ts tier names */
 	public static final String TS_TIER_NAMES = TS_CONFIG_ROOT + TS_DELIM + "tier-names";
-	
+	/** The start of the last sealed block of each sealed tier keyed by tier name */
+	public static final String TS_SEALED = TS_CONFIG_ROOT + TS_DELIM + "sealed";
+	/** The root redis-ts sealed block index namespace. Index keys are <code>&lt;TS_BLOCK_INDEX&gt;.&lt;tier name&gt;</code> sorted sets of the sealed block starts of the tier, scored by block start */
+	public static final String TS_BLOCK_INDEX = TS_CONFIG_ROOT + TS_DELIM + "blocks";
+	/** The loaded redis-ts script SHA1s keyed by script alias */
+	public static final String TS_SCRIPTS = TS_CONFIG_ROOT + TS_DELIM + "scripts";
+	/** The root redis-ts time-series data namespace. Data keys are <code>&lt;TS_DATA_ROOT&gt;.&lt;tier name&gt;.&lt;encoded series ID&gt;</code> */
+	public static final String TS_DATA_ROOT = TS_ROOT + TS_DELIM + "data";
+	/** The root redis-ts dirty series namespace. Dirty keys are <code>&lt;TS_DIRTY_ROOT&gt;.&lt;tier name&gt;.&lt;bucket&gt;</code> sets of the series written in that tier bucket */
+	public static final String TS_DIRTY_ROOT = TS_ROOT + TS_DELIM + "dirty";
+	/** The root redis-ts sealed block namespace. Block keys are <code>&lt;TS_BLOCK_ROOT&gt;.&lt;tier name&gt;.&lt;encoded series ID&gt;</code> hashes of compressed blocks keyed by block start */
+	public static final String TS_BLOCK_ROOT = TS_ROOT + TS_DELIM + "block";
+	/** The root redis-ts quantile sketch namespace. Sketch keys are <code>&lt;TS_SKETCH_ROOT&gt;.&lt;tier name&gt;.&lt;encoded series ID&gt;</code> hashes of stamped binary sketches keyed by tier slot */
+	public static final String TS_SKETCH_ROOT = TS_ROOT + TS_DELIM + "sketch";
+	/** The root redis-ts HyperLogLog namespace. HyperLogLog keys are <code>&lt;TS_HLL_ROOT&gt;.&lt;tier name&gt;.&lt;encoded series ID&gt;.&lt;bucket&gt;</code>, expiring when their tier slot rotates */
+	public static final String TS_HLL_ROOT = TS_ROOT + TS_DELIM + "hll";
+	/** The root redis-ts tag index namespace. Tag keys are <code>&lt;TS_TAG_ROOT&gt;.&lt;tagk=tagv&gt;.&lt;high 16 bits of the series ID&gt;</code> compressed bitmap containers of the low 16 bits of the IDs of the series with the tag */
+	public static final String TS_TAG_ROOT = TS_ROOT + TS_DELIM + "tags";
+	/** The set of the encoded IDs of all series written to redis-ts */
+	public static final String TS_SERIES = TS_ROOT + TS_DELIM + "series";
+	/** The value type ordinal of each series keyed by encoded series ID */
+	public static final String TS_SERIES_TYPES = TS_SERIES + TS_DELIM + "types";
+	/** The series IDs keyed by series name */
+	public static final String TS_IDS = TS_ROOT + TS_DELIM + "ids";
+	/** The series names keyed by series ID */
+	public static final String TS_ID_NAMES = TS_ROOT + TS_DELIM + "names";
+	/** The sequence series IDs are assigned from */
+	public static final String TS_ID_SEQ = TS_IDS + TS_DELIM + "seq";
+	/** The sorted set of all series names, all with a score of 0, so names are ordered lexicographically and can be range scanned by prefix with ZRANGEBYLEX */
+	public static final String TS_NAME_INDEX = TS_IDS + TS_DELIM + "lex";
+
 	
 	
 	/** The pubsub delimeter used by redis-ts */
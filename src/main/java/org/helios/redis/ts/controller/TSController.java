@@ -24,11 +24,26 @@
  */
 package org.helios.redis.ts.controller;
 
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.helios.redis.ts.controller.conn.ConnectionManagerListener;
 import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.ingest.TSWriter;
+import org.helios.redis.ts.query.TSAggregator;
+import org.helios.redis.ts.query.TSReader;
+import org.helios.redis.ts.rollup.RollupEngine;
+import org.helios.redis.ts.rollup.RollupMode;
+import org.helios.redis.ts.series.SeriesDictionary;
+import org.helios.redis.ts.series.SeriesIndex;
+import org.helios.redis.ts.series.TagIndex;
+import org.helios.redis.ts.store.BlockStore;
+import org.helios.redis.ts.store.BucketCodec;
+import org.helios.redis.ts.store.StorageLayout;
+import org.helios.redis.ts.tsmodel.Tier;
 import org.helios.redis.ts.tsmodel.TimeSeriesModel;
 
 import redis.clients.jedis.Jedis;
@@ -53,6 +68,25 @@ public class TSController implements ConnectionManagerListener {
 	
 	/** The time-series model */
 	protected TimeSeriesModel tsModel = null;
+	/** The lua script registry */
+	protected final ScriptRegistry scriptRegistry;
+	/** The time-series writer */
+	protected final TSWriter tsWriter;
+	/** The series name to ID dictionary */
+	protected final SeriesDictionary seriesDictionary;
+	/** The tier rollup engine, null if rollups are disabled or the tiers are populated by fan-out */
+	protected final RollupEngine rollupEngine;
+	/** The sealed block store, null if block sealing is disabled */
+	protected final BlockStore blockStore;
+	/** The time-series range query service */
+	protected final TSReader tsReader;
+	/** The time-series cross-series aggregation service */
+	protected final TSAggregator tsAggregator;
+	/** The series name index */
+	protected final SeriesIndex seriesIndex;
+	/** The series tag index */
+	protected final TagIndex tagIndex;
+	
 	/**
 	 * Creates a new TSController
 	 * @param props The configured properties
@@ -66,9 +100,117 @@ public class TSController implements ConnectionManagerListener {
 		tsModelExpr = tmp.replace(" ", ""); 
 		tsModel = TimeSeriesModel.create(tsModelExpr);
 		log.info("Time Series Model: [" + tsModelExpr + "]");
+		RollupMode rollupMode = RollupMode.forCode(props.getProperty("redis.ts.rollup.mode", RollupMode.CASCADE.code));
+		scriptRegistry = new ScriptRegistry(tsModel, StorageLayout.forCode(props.getProperty("redis.ts.layout", StorageLayout.HASH.code)), 
+				Integer.parseInt(props.getProperty("redis.ts.layout.bucket.size", "" + BucketCodec.DEFAULT_BUCKET_SIZE)), rollupMode);
+		log.info("Storage Layout: [" + scriptRegistry.getLayoutDescriptor() + "] Rollup Mode: [" + rollupMode.code + "]");
 		connectionManager = new RedisConnectionManager(props);
 		connectionManager.addListener(this);
+		seriesDictionary = new SeriesDictionary(scriptRegistry);
+		tsWriter = new TSWriter(connectionManager, tsModel, scriptRegistry, seriesDictionary, props);
+		rollupEngine = rollupMode==RollupMode.CASCADE && Boolean.parseBoolean(props.getProperty("redis.ts.rollup.enabled", "true")) ? new RollupEngine(connectionManager, tsModel, scriptRegistry, props) : null;
+		if(Boolean.parseBoolean(props.getProperty("redis.ts.block.enabled", "false"))) {
+			blockStore = new BlockStore(connectionManager, tsModel, scriptRegistry.getLayout(), rollupEngine, props);
+			Tier[] sealedTiers = blockStore.getTiers();
+			if(sealedTiers.length>0) {
+				long rate = sealedTiers[0].getPeriodDuration().seconds;
+				connectionManager.getScheduler().scheduleAtFixedRate(blockStore, rate, rate, TimeUnit.SECONDS);
+				log.info("Sealing tiers into blocks of [" + blockStore.getBlockPeriods() + "] periods every [" + rate + "] s");
+			} else {
+				log.warn("Block sealing enabled but no tier is sealable in the [" + scriptRegistry.getLayout().code + "] layout");
+			}
+		} else {
+			blockStore = null;
+		}
+		tsReader = new TSReader(connectionManager, tsModel, scriptRegistry, seriesDictionary, blockStore, props);
+		tsWriter.setQueryCache(tsReader.getCache());
+		if(rollupEngine!=null) rollupEngine.setQueryCache(tsReader.getCache());
+		tsAggregator = new TSAggregator(connectionManager, scriptRegistry, tsReader, seriesDictionary, blockStore, props);
+		seriesIndex = new SeriesIndex(scriptRegistry, props);
+		tagIndex = new TagIndex(props);
 		connectionManager.start();
+		tsWriter.start();
+		if(rollupEngine!=null) rollupEngine.start();
+	}
+	
+	/**
+	 * Returns the time-series writer
+	 * @return the time-series writer
+	 */
+	public TSWriter getWriter() {
+		return tsWriter;
+	}
+	
+	/**
+	 * Returns the time-series range query service
+	 * @return the time-series range query service
+	 */
+	public TSReader getReader() {
+		return tsReader;
+	}
+	
+	/**
+	 * Returns the time-series cross-series aggregation service
+	 * @return the time-series cross-series aggregation service
+	 */
+	public TSAggregator getAggregator() {
+		return tsAggregator;
+	}
+	
+	/**
+	 * Returns the series name index
+	 * @return the series name index
+	 */
+	public SeriesIndex getSeriesIndex() {
+		return seriesIndex;
+	}
+	
+	/**
+	 * Returns the series tag index
+	 * @return the series tag index
+	 */
+	public TagIndex getTagIndex() {
+		return tagIndex;
+	}
+	
+	/**
+	 * Returns the time-series model
+	 * @return the time-series model
+	 */
+	public TimeSeriesModel getModel() {
+		return tsModel;
+	}
+	
+	/**
+	 * Returns the series name to ID dictionary
+	 * @return the series name to ID dictionary
+	 */
+	public SeriesDictionary getSeriesDictionary() {
+		return seriesDictionary;
+	}
+	
+	/**
+	 * Returns the tier rollup engine
+	 * @return the tier rollup engine, or null if rollups are disabled or the tiers are populated by fan-out
+	 */
+	public RollupEngine getRollupEngine() {
+		return rollupEngine;
+	}
+	
+	/**
+	 * Returns the sealed block store
+	 * @return the sealed block store, or null if block sealing is disabled
+	 */
+	public BlockStore getBlockStore() {
+		return blockStore;
+	}
+	
+	/**
+	 * Returns the lua script registry
+	 * @return the lua script registry
+	 */
+	public ScriptRegistry getScriptRegistry() {
+		return scriptRegistry;
 	}
 	
 	/**
@@ -78,13 +220,16 @@ public class TSController implements ConnectionManagerListener {
 	@Override
 	public void onConnectNewInstance() {
 		log.info("Processing New Instance Connect");
+		if(tsReader.getCache()!=null) tsReader.getCache().clear();
+		seriesIndex.clear();
+		tagIndex.clear();
 		Jedis jedis = null;
 		try {
 			jedis = connectionManager.getJedis();
 			String storedModel = jedis.get(TSConfiguration.TS_MODEL);
 			if(storedModel==null) {
 				fullInit(jedis);
-			} else if(tsModelExpr.equals(storedModel)) {
+			} else if(tsModelExpr.equals(storedModel) && matchesLayout(jedis)) {
 				refresh(jedis);
 			} else {
 				blowUp();
@@ -100,7 +245,48 @@ public class TSController implements ConnectionManagerListener {
 	 */
 	protected void fullInit(Jedis jedis) {
 		log.info("redis-ts full init");
-		jedis.set(TSConfiguration.TS_MODEL, tsModelExpr);		
+		jedis.set(TSConfiguration.TS_MODEL, tsModelExpr);
+		jedis.set(TSConfiguration.TS_LAYOUT, scriptRegistry.getLayoutDescriptor());
+		if(scriptRegistry.getLayout()==StorageLayout.BUCKETED) {
+			checkCompactEncoding(jedis);
+		}
+		scriptRegistry.load(jedis);
+	}
+	
+	/**
+	 * Determines if the storage layout recorded in redis matches the configured layout, recording the configured layout if none is recorded
+	 * @param jedis A jedis connection
+	 * @return true if the layouts match
+	 */
+	protected boolean matchesLayout(Jedis jedis) {
+		String storedLayout = jedis.get(TSConfiguration.TS_LAYOUT);
+		if(storedLayout==null) {
+			log.warn("No storage layout recorded. Recording [" + scriptRegistry.getLayoutDescriptor() + "]");
+			jedis.set(TSConfiguration.TS_LAYOUT, scriptRegistry.getLayoutDescriptor());
+			return true;
+		}
+		if(storedLayout.equals(scriptRegistry.getLayoutDescriptor())) return true;
+		log.error("Configured storage layout [" + scriptRegistry.getLayoutDescriptor() + "] does not match the layout [" + storedLayout + "] the instance was initialized with");
+		return false;
+	}
+	
+	/**
+	 * Warns if the redis compact hash encoding limits are too small to hold a full bucketed group hash
+	 * @param jedis A jedis connection
+	 */
+	protected void checkCompactEncoding(Jedis jedis) {
+		try {
+			List<String> entries = jedis.configGet("hash-max-ziplist-entries");
+			List<String> value = jedis.configGet("hash-max-ziplist-value");
+			if(entries.size()>1 && Integer.parseInt(entries.get(1))<scriptRegistry.getBucketSize()) {
+				log.warn("hash-max-ziplist-entries [" + entries.get(1) + "] is less than the bucket size [" + scriptRegistry.getBucketSize() + "]. Group hashes will not use the compact encoding.");
+			}
+			if(value.size()>1 && Integer.parseInt(value.get(1))<BucketCodec.RECORD_SIZE) {
+				log.warn("hash-max-ziplist-value [" + value.get(1) + "] is less than the record size [" + BucketCodec.RECORD_SIZE + "]. Group hashes will not use the compact encoding.");
+			}
+		} catch (Exception e) {
+			log.warn("Failed to read the redis hash encoding limits:" + e);
+		}
 	}
 	
 	/**
@@ -111,6 +297,11 @@ public class TSController implements ConnectionManagerListener {
 	 */
 	protected void refresh(Jedis jedis) {
 		log.info("redis-ts refresh");
+		scriptRegistry.load(jedis);
+		if(!jedis.exists(TSConfiguration.TS_NAME_INDEX) && jedis.exists(TSConfiguration.TS_IDS)) {
+			seriesIndex.rebuild(jedis);
+			tagIndex.rebuild(jedis);
+		}
 	}
 	
 	/**
@@ -126,8 +317,8 @@ public class TSController implements ConnectionManagerListener {
 	 */
 	@Override
 	public void onConnect() {
-		// TODO Auto-generated method stub
-		
+		// the journal is replayed on reconnect, backfilling periods the query cache may already hold
+		if(tsReader.getCache()!=null) tsReader.getCache().clear();
 	}
 	
 	/**
@@ -46,6 +46,7 @@ import org.apache.log4j.Logger;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.exceptions.JedisConnectionException;
 import redis.clients.jedis.netty.ConnectionListener;
 import redis.clients.jedis.netty.OptimizedPubSub;
 import redis.clients.jedis.netty.SubListener;
@@ -55,6 +56,9 @@ import redis.clients.jedis.netty.jmx.ThreadPoolMonitor;
  * <p>Title: RedisConnectionManager</p>
  * <p>Description: Manages connections and connection retry against the redis instance 
  * and publishing events to interested listeners.</p> 
+ * <p>Connectivity is derived from the outcome of redis commands: the redis-ts services report connection failures with 
+ * {@link #connectionFailed(Throwable)}, as does a heartbeat timeout whose probe fails, which marks the manager disconnected and starts 
+ * a reconnect loop that probes the instance <code>run_id</code> every <code>redis.reconnect.period</code> seconds until it answers.</p> 
  * <p>Company: Helios Development Group LLC</p>
  * @author Whitehead (nwhitehead AT heliosdev DOT org)
  * <p><code>org.helios.redis.ts.controller.conn.RedisConnectionManager</code></p>
@@ -199,9 +203,68 @@ public class RedisConnectionManager implements ConnectionListener {
 			fireConnectNewInstance();
 		} catch (Exception e) {
 			log.warn("Failed initial connection. Initiating reconnect loop");
+			scheduleReconnect();
 		}		
 	}
 	
+	/**
+	 * Reports a connection failure seen by a redis-ts service. Marks the manager disconnected, 
+	 * firing a disconnect event if it was connected, and starts the reconnect loop.
+	 * @param cause The connection failure
+	 */
+	public void connectionFailed(Throwable cause) {
+		if(connected.compareAndSet(true, false)) {
+			log.warn("Connection Lost:" + cause);
+			fireDisconnect();
+		}
+		scheduleReconnect();
+	}
+	
+	/**
+	 * Starts the reconnect loop if it is not running. The loop probes redis every {@link #reconnectPeriod} seconds until a probe succeeds.
+	 */
+	protected synchronized void scheduleReconnect() {
+		if(reconnectScheduleHandle!=null) return;
+		reconnectScheduleHandle = scheduler.scheduleWithFixedDelay(new Runnable(){
+			public void run() {
+				reconnect();
+			}
+		}, reconnectPeriod, reconnectPeriod, TimeUnit.SECONDS);
+		log.info("Reconnect loop started. Period:" + reconnectPeriod + " s");
+	}
+	
+	/**
+	 * Probes redis for its run_id. On success the reconnect loop is stopped, the manager is marked connected and 
+	 * a new instance connect event is fired if the run_id changed, or a connect event if it did not.
+	 */
+	protected void reconnect() {
+		String id = null;
+		try {
+			id = getInfo("run_id");
+		} catch (Exception e) {
+			if(log.isDebugEnabled()) log.debug("Reconnect probe failed:" + e);
+			return;
+		}
+		synchronized(this) {
+			if(reconnectScheduleHandle!=null) {
+				reconnectScheduleHandle.cancel(false);
+				reconnectScheduleHandle = null;
+			}
+		}
+		boolean newInstance = runId==null || !runId.equals(id);
+		runId = id;
+		if(heartbeatSendHandle==null) onSuccessfulConnect();
+		if(connected.compareAndSet(false, true)) {
+			if(newInstance) {
+				log.info("Connected to new instance. Redis Run ID:" + runId);
+				fireConnectNewInstance();
+			} else {
+				log.info("Connection Restored");
+				fireConnect();
+			}
+		}
+	}
+	
 	protected void onSuccessfulConnect() {
 		heartbeatSendHandle = scheduler.scheduleAtFixedRate(new Runnable(){			
 			public void run() {
@@ -240,7 +303,12 @@ public class RedisConnectionManager implements ConnectionListener {
 	 */
 	@Override
 	public void onConnect(OptimizedPubSub pubSub) {
-		
+		if(connected.get()) return;
+		scheduler.execute(new Runnable(){
+			public void run() {
+				reconnect();
+			}
+		});
 	}
 
 	/**
@@ -249,7 +317,7 @@ public class RedisConnectionManager implements ConnectionListener {
 	 */
 	@Override
 	public void onDisconnect(OptimizedPubSub pubSub, Throwable cause) {
-		
+		connectionFailed(cause);
 	}	
 	
 	
@@ -269,7 +337,7 @@ public class RedisConnectionManager implements ConnectionListener {
 	}
 	
 	/**
-	 * Called when a heartbeat timeout occurs
+	 * Called when a heartbeat timeout occurs. Probes redis through the pool so a lost connection is detected while no service is using it.
 	 */
 	protected void processHeartbeatTimeout() {
 		consecutiveHeartbeatTimeouts.incrementAndGet();
@@ -279,6 +347,21 @@ public class RedisConnectionManager implements ConnectionListener {
 				"\n\tTotal:" + totalHeartbeatTimeouts.get() + 
 				"\n\t=======================\n");		
 		fireHeartbeatFailed();
+		if(connected.get()) {
+			try {
+				getInfo("run_id");
+			} catch (Exception e) {
+				connectionFailed(e);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the scheduler shared by redis-ts background tasks
+	 * @return the scheduler
+	 */
+	public ScheduledThreadPoolExecutor getScheduler() {
+		return scheduler;
 	}
 	
 	/**
@@ -296,7 +379,17 @@ public class RedisConnectionManager implements ConnectionListener {
 	public void returnJedis(Jedis jedis) {
 		jedisPool.returnResource(jedis);
 	}
-	
+
+	/**
+	 * Returns a jedis instance that failed with a connection error to the pool so it is discarded
+	 * @param jedis the broken instance to return to the pool
+	 */
+	public void returnBrokenJedis(Jedis jedis) {
+		if(jedis!=null) {
+			jedisPool.returnBrokenResource(jedis);
+		}
+	}
+
 	/**
 	 * Registers a new connection manager event listener
 	 * @param listener the new connection manager event listener to register
@@ -326,11 +419,18 @@ public class RedisConnectionManager implements ConnectionListener {
 		Map<String, String> infoMap = new HashMap<String, String>(52);
 		Jedis jedis = null;
 		String infoString = null; 
+		boolean broken = false;
 		try {
 			jedis = jedisPool.getResource();
 			infoString = jedis.info();
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			throw jce;
 		} finally {
-			jedisPool.returnResource(jedis);
+			if(jedis!=null) {
+				if(broken) jedisPool.returnBrokenResource(jedis);
+				else jedisPool.returnResource(jedis);
+			}
 		}
 		if(infoString==null) {
 			throw new RuntimeException("Failed to get INFO from redis", new Throwable());
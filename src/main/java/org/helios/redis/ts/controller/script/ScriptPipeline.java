@@ -0,0 +1,98 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+import java.util.List;
+
+import redis.clients.jedis.Builder;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * <p>Title: ScriptPipeline</p>
+ * <p>Description: A pipeline that returns the undecoded replies of pipelined script invocations.</p>
+ * <p>The jedis pipeline decodes every <b><code>EVALSHA</code></b> reply as a string, so an integer or table script reply fails with a 
+ * <code>ClassCastException</code> out of <code>syncAndReturnAll()</code>, after redis has applied the script. Script invocations queued with 
+ * {@link #evalshaRaw(String, List, List)} and read with {@link #syncRaw()} are returned as redis sent them: a <code>Long</code> for an integer, 
+ * a <code>byte[]</code> for a bulk string, a <code>List</code> of those for a table and a <code>JedisDataException</code> for an error.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.ScriptPipeline</code></p>
+ */
+public class ScriptPipeline extends Pipeline {
+	
+	/** A builder that returns replies undecoded */
+	protected static final Builder<Object> RAW = new Builder<Object>() {
+		@Override
+		public Object build(Object data) {
+			return data;
+		}
+		@Override
+		public String toString() {
+			return "Object";
+		}
+	};
+	
+	/**
+	 * Creates a new ScriptPipeline on the connection of the passed jedis
+	 * @param jedis The jedis connection
+	 * @return the pipeline
+	 */
+	public static ScriptPipeline pipelined(Jedis jedis) {
+		ScriptPipeline pipeline = new ScriptPipeline();
+		pipeline.setClient(jedis.getClient());
+		return pipeline;
+	}
+	
+	/**
+	 * Queues a script invocation by SHA1 whose reply is not decoded
+	 * @param sha The SHA1 of the script
+	 * @param keys The script keys
+	 * @param args The script arguments
+	 * @return the pipelined response
+	 */
+	public Response<Object> evalshaRaw(String sha, List<String> keys, List<String> args) {
+		String[] params = new String[keys.size() + args.size()];
+		int i = 0;
+		for(String key: keys) params[i++] = key;
+		for(String arg: args) params[i++] = arg;
+		client.evalsha(sha, keys.size(), params);
+		return getResponse(RAW);
+	}
+	
+	/**
+	 * Reads the replies of every queued command without decoding them. Error replies are returned as the <code>JedisDataException</code> 
+	 * and are not thrown, so they can be checked with {@link ScriptRegistry#isNoScript(Object)} and {@link ScriptRegistry#getError(List)}.
+	 * @return the undecoded replies in the order the commands were queued
+	 */
+	public List<Object> syncRaw() {
+		List<Object> replies = client.getAll();
+		for(Object reply: replies) {
+			generateResponse(reply);
+		}
+		return replies;
+	}
+}
@@ -0,0 +1,424 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.rollup.RollupMode;
+import org.helios.redis.ts.store.BucketCodec;
+import org.helios.redis.ts.store.RingCodec;
+import org.helios.redis.ts.store.StorageLayout;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * <p>Title: ScriptRegistry</p>
+ * <p>Description: Renders the {@link TSScript} lua templates from the time-series model once, 
+ * loads them into redis with <b><code>SCRIPT LOAD</code></b> and invokes them by SHA1 with <b><code>EVALSHA</code></b>.
+ * The SHA1 of each script is published under {@link TSConfiguration#TS_SCRIPTS} keyed by the script alias.
+ * If redis does not have a script (e.g. after a restart or a <code>SCRIPT FLUSH</code>) the script is reloaded and the call retried.</p>
+ * <p>Model tokens available to all templates:<ul>
+ * <li><b>tsTypes</b>:&nbsp;The lua type map from {@link TSType#renderLuaTypeMap()}</li>
+ * <li><b>modelMatrix</b>:&nbsp;The lua table of <code>{period, tier duration, period count}</code> for each tier from {@link TimeSeriesModel#getModelMatrix()}</li>
+ * <li><b>tierNames</b>:&nbsp;The lua table of tier names in level order</li>
+ * <li><b>tierCount</b>:&nbsp;The number of tiers</li>
+ * <li><b>delim</b>, <b>dataRoot</b>, <b>dirtyRoot</b>, <b>sketchRoot</b>, <b>hllRoot</b>, <b>tagRoot</b>:&nbsp;The key delimeter and key namespaces from {@link TSConfiguration}</li>
+ * <li><b>layout</b>:&nbsp;The {@link StorageLayout} code</li>
+ * <li><b>ringFormat</b>, <b>recordSize</b>:&nbsp;The lua struct format and size of a stamped binary record from {@link RingCodec}</li>
+ * <li><b>rollupMode</b>:&nbsp;The {@link RollupMode} code</li>
+ * <li><b>bucketSize</b>:&nbsp;The number of series grouped into one hash in the {@link StorageLayout#BUCKETED} layout, whose records use the ring record format</li>
+ * <li><b>sketchLib</b>:&nbsp;The quantile sketch lua functions from {@link #SKETCH_LIB}</li>
+ * </ul></p>
+ * <p>Additional tokens available to per tier templates:<ul>
+ * <li><b>tierName</b>, <b>tierLevel</b>, <b>periodDuration</b>, <b>tierDuration</b>, <b>periodCount</b></li>
+ * </ul></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.ScriptRegistry</code></p>
+ */
+public class ScriptRegistry {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The time-series model */
+	protected final TimeSeriesModel tsModel;
+	/** The storage layout the scripts write */
+	protected final StorageLayout layout;
+	/** The number of series grouped into one hash in the {@link StorageLayout#BUCKETED} layout */
+	protected final int bucketSize;
+	/** The mode the upper tiers are populated in */
+	protected final RollupMode rollupMode;
+	/** The rendered script sources keyed by alias */
+	protected final Map<String, String> scripts = new LinkedHashMap<String, String>();
+	/** The loaded script SHA1s keyed by alias */
+	protected final Map<String, String> shas = new ConcurrentHashMap<String, String>();
+	
+	/** The regex to match a template token */
+	public static final Pattern TOKEN_REGEX = Pattern.compile("\\$\\{(.*?)\\}");
+	/** The prefix of the redis error returned when EVALSHA references an unknown script */
+	public static final String NOSCRIPT = "NOSCRIPT";
+	/** The classpath resource of the quantile sketch lua functions, which must not contain tokens */
+	public static final String SKETCH_LIB = "lua/lib/ts-sketch.lua";
+	
+	/**
+	 * Creates a new ScriptRegistry for the {@link StorageLayout#HASH} layout and renders all the script templates
+	 * @param tsModel The time-series model
+	 */
+	public ScriptRegistry(TimeSeriesModel tsModel) {
+		this(tsModel, StorageLayout.HASH);
+	}
+	
+	/**
+	 * Creates a new ScriptRegistry and renders all the script templates
+	 * @param tsModel The time-series model
+	 * @param layout The storage layout the scripts write
+	 */
+	public ScriptRegistry(TimeSeriesModel tsModel, StorageLayout layout) {
+		this(tsModel, layout, BucketCodec.DEFAULT_BUCKET_SIZE);
+	}
+	
+	/**
+	 * Creates a new ScriptRegistry and renders all the script templates
+	 * @param tsModel The time-series model
+	 * @param layout The storage layout the scripts write
+	 * @param bucketSize The number of series grouped into one hash in the {@link StorageLayout#BUCKETED} layout
+	 */
+	public ScriptRegistry(TimeSeriesModel tsModel, StorageLayout layout, int bucketSize) {
+		this(tsModel, layout, bucketSize, RollupMode.CASCADE);
+	}
+	
+	/**
+	 * Creates a new ScriptRegistry and renders all the script templates
+	 * @param tsModel The time-series model
+	 * @param layout The storage layout the scripts write
+	 * @param bucketSize The number of series grouped into one hash in the {@link StorageLayout#BUCKETED} layout
+	 * @param rollupMode The mode the upper tiers are populated in
+	 */
+	public ScriptRegistry(TimeSeriesModel tsModel, StorageLayout layout, int bucketSize, RollupMode rollupMode) {
+		if(tsModel==null) throw new IllegalArgumentException("The passed model was null", new Throwable());
+		if(layout==null) throw new IllegalArgumentException("The passed layout was null", new Throwable());
+		if(bucketSize<1) throw new IllegalArgumentException("Invalid bucket size [" + bucketSize + "]", new Throwable());
+		if(rollupMode==null) throw new IllegalArgumentException("The passed rollup mode was null", new Throwable());
+		this.tsModel = tsModel;
+		this.layout = layout;
+		this.bucketSize = bucketSize;
+		this.rollupMode = rollupMode;
+		Map<String, String> modelTokens = modelTokens();
+		for(TSScript script: TSScript.values()) {
+			String template = readTemplate(script.getResourceName());
+			if(script.perTier) {
+				for(Tier tier: tsModel.getTiers()) {
+					Map<String, String> tokens = new HashMap<String, String>(modelTokens);
+					tokens.putAll(tierTokens(tier));
+					scripts.put(script.alias(tier.getName()), render(template, tokens));
+				}
+			} else {
+				scripts.put(script.alias(null), render(template, modelTokens));
+			}
+		}
+		log.info("Rendered " + scripts.size() + " scripts:" + scripts.keySet());
+	}
+	
+	/**
+	 * Loads all the rendered scripts into redis and publishes the aliases. 
+	 * Called whenever redis-ts connects to a new redis instance.
+	 * @param jedis A jedis connection
+	 */
+	public void load(Jedis jedis) {
+		for(String alias: scripts.keySet()) {
+			reload(jedis, alias);
+		}
+		log.info("Loaded " + scripts.size() + " scripts");
+	}
+	
+	/**
+	 * Loads one script into redis and publishes the alias
+	 * @param jedis A jedis connection
+	 * @param alias The alias of the script to load
+	 * @return the SHA1 of the loaded script
+	 */
+	public String reload(Jedis jedis, String alias) {
+		String sha = jedis.scriptLoad(getScript(alias));
+		shas.put(alias, sha);
+		jedis.hset(TSConfiguration.TS_SCRIPTS, alias, sha);
+		if(log.isDebugEnabled()) log.debug("Loaded script [" + alias + "]:" + sha);
+		return sha;
+	}
+	
+	/**
+	 * Invokes a script by SHA1, reloading and retrying once if redis does not have the script
+	 * @param jedis A jedis connection
+	 * @param alias The alias of the script to invoke
+	 * @param keys The script keys
+	 * @param args The script arguments
+	 * @return the script return value
+	 */
+	public Object evalsha(Jedis jedis, String alias, List<String> keys, List<String> args) {
+		try {
+			return jedis.evalsha(getSha(alias), keys, args);
+		} catch (JedisDataException jde) {
+			if(!isNoScript(jde)) throw jde;
+			log.warn("Script [" + alias + "] not found in redis. Reloading.");
+			return jedis.evalsha(reload(jedis, alias), keys, args);
+		}
+	}
+	
+	/**
+	 * Queues a script invocation by SHA1 into the passed pipeline. The reply is not decoded, see {@link ScriptPipeline}.
+	 * Callers should check the {@link ScriptPipeline#syncRaw() pipeline replies} with {@link #containsNoScript(List)} and call {@link #load(Jedis)} and replay on a miss.
+	 * @param pipeline The pipeline to queue the invocation into
+	 * @param alias The alias of the script to invoke
+	 * @param keys The script keys
+	 * @param args The script arguments
+	 * @return the pipelined response
+	 */
+	public Response<Object> evalsha(ScriptPipeline pipeline, String alias, List<String> keys, List<String> args) {
+		return pipeline.evalshaRaw(getSha(alias), keys, args);
+	}
+	
+	/**
+	 * Determines if the passed object is a redis NOSCRIPT error
+	 * @param result A pipeline result or exception
+	 * @return true if the passed object is a redis NOSCRIPT error
+	 */
+	public static boolean isNoScript(Object result) {
+		while(result instanceof JedisDataException) {
+			JedisDataException jde = (JedisDataException)result;
+			String message = jde.getMessage();
+			if(message!=null && message.startsWith(NOSCRIPT)) return true;
+			// a reply decoded by Response.get() is rethrown wrapping the original error
+			result = jde.getCause();
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the first error in the passed pipeline results
+	 * @param results The pipeline results
+	 * @return the first error or null if no result is an error
+	 */
+	public static JedisDataException getError(List<Object> results) {
+		if(results==null) return null;
+		for(Object result: results) {
+			if(result instanceof JedisDataException) return (JedisDataException)result;
+		}
+		return null;
+	}
+	
+	/**
+	 * Determines if any of the passed pipeline results is a redis NOSCRIPT error
+	 * @param results The pipeline results
+	 * @return true if a result is a redis NOSCRIPT error
+	 */
+	public static boolean containsNoScript(List<Object> results) {
+		if(results==null) return false;
+		for(Object result: results) {
+			if(isNoScript(result)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the SHA1 of the loaded script
+	 * @param alias The script alias
+	 * @return the SHA1 of the loaded script
+	 */
+	public String getSha(String alias) {
+		String sha = shas.get(alias);
+		if(sha==null) throw new IllegalStateException("The script [" + alias + "] has not been loaded", new Throwable());
+		return sha;
+	}
+	
+	/**
+	 * Returns the rendered source of the script
+	 * @param alias The script alias
+	 * @return the rendered script source
+	 */
+	public String getScript(String alias) {
+		String script = scripts.get(alias);
+		if(script==null) throw new IllegalArgumentException("No script registered for alias [" + alias + "]", new Throwable());
+		return script;
+	}
+	
+	/**
+	 * Returns the registered script aliases
+	 * @return the registered script aliases
+	 */
+	public Set<String> getAliases() {
+		return Collections.unmodifiableSet(scripts.keySet());
+	}
+	
+	/**
+	 * Indicates if the scripts have been loaded into redis
+	 * @return true if the scripts have been loaded
+	 */
+	public boolean isLoaded() {
+		return shas.size()==scripts.size();
+	}
+	
+	/**
+	 * Returns the storage layout the scripts write
+	 * @return the storage layout
+	 */
+	public StorageLayout getLayout() {
+		return layout;
+	}
+	
+	/**
+	 * Returns the number of series grouped into one hash in the {@link StorageLayout#BUCKETED} layout
+	 * @return the bucket size
+	 */
+	public int getBucketSize() {
+		return bucketSize;
+	}
+	
+	/**
+	 * Returns the mode the upper tiers are populated in
+	 * @return the rollup mode
+	 */
+	public RollupMode getRollupMode() {
+		return rollupMode;
+	}
+	
+	/**
+	 * Returns the descriptor of the storage layout recorded with the model
+	 * @return the layout descriptor
+	 */
+	public String getLayoutDescriptor() {
+		return layout.describe(bucketSize);
+	}
+	
+	/**
+	 * Builds the model tokens available to all templates
+	 * @return a map of token values keyed by token name
+	 */
+	protected Map<String, String> modelTokens() {
+		Map<String, String> tokens = new HashMap<String, String>();
+		tokens.put("tsTypes", TSType.renderLuaTypeMap());
+		StringBuilder matrix = new StringBuilder("{");
+		for(long[] row: tsModel.getModelMatrix()) {
+			if(matrix.length()>1) matrix.append(",");
+			matrix.append("{").append(row[0]).append(",").append(row[1]).append(",").append(row[2]).append("}");
+		}
+		tokens.put("modelMatrix", matrix.append("}").toString());
+		StringBuilder names = new StringBuilder("{");
+		Tier[] tiers = tsModel.getTiers();
+		for(Tier tier: tiers) {
+			if(names.length()>1) names.append(",");
+			names.append("'").append(tier.getName()).append("'");
+		}
+		tokens.put("tierNames", names.append("}").toString());
+		tokens.put("tierCount", "" + tiers.length);
+		tokens.put("delim", TSConfiguration.TS_DELIM);
+		tokens.put("dataRoot", TSConfiguration.TS_DATA_ROOT);
+		tokens.put("dirtyRoot", TSConfiguration.TS_DIRTY_ROOT);
+		tokens.put("sketchRoot", TSConfiguration.TS_SKETCH_ROOT);
+		tokens.put("hllRoot", TSConfiguration.TS_HLL_ROOT);
+		tokens.put("tagRoot", TSConfiguration.TS_TAG_ROOT);
+		tokens.put("layout", layout.code);
+		tokens.put("ringFormat", RingCodec.LUA_FORMAT);
+		tokens.put("recordSize", "" + RingCodec.RECORD_SIZE);
+		tokens.put("bucketSize", "" + bucketSize);
+		tokens.put("rollupMode", rollupMode.code);
+		tokens.put("sketchLib", readTemplate(SKETCH_LIB));
+		return tokens;
+	}
+	
+	/**
+	 * Builds the tier tokens available to per tier templates
+	 * @param tier The tier to build tokens for
+	 * @return a map of token values keyed by token name
+	 */
+	protected Map<String, String> tierTokens(Tier tier) {
+		Map<String, String> tokens = new HashMap<String, String>();
+		tokens.put("tierName", tier.getName());
+		tokens.put("tierLevel", "" + tier.getLevel());
+		tokens.put("periodDuration", "" + tier.getPeriodDuration().seconds);
+		tokens.put("tierDuration", "" + tier.getTierDuration().seconds);
+		tokens.put("periodCount", "" + tier.getPeriodCount());
+		return tokens;
+	}
+	
+	/**
+	 * Replaces all the <code>${token}</code> tokens in the passed template
+	 * @param template The template to render
+	 * @param tokens The token values keyed by token name
+	 * @return the rendered template
+	 */
+	public static String render(String template, Map<String, String> tokens) {
+		Matcher matcher = TOKEN_REGEX.matcher(template);
+		StringBuffer b = new StringBuffer(template.length());
+		while(matcher.find()) {
+			String value = tokens.get(matcher.group(1));
+			if(value==null) throw new IllegalArgumentException("Unresolved script token [" + matcher.group() + "]", new Throwable());
+			matcher.appendReplacement(b, Matcher.quoteReplacement(value));
+		}
+		matcher.appendTail(b);
+		return b.toString();
+	}
+	
+	/**
+	 * Reads a script template from the classpath
+	 * @param resourceName The classpath resource name
+	 * @return the template source
+	 */
+	protected static String readTemplate(String resourceName) {
+		InputStream is = null;
+		try {
+			is = ScriptRegistry.class.getClassLoader().getResourceAsStream(resourceName);
+			if(is==null) throw new RuntimeException("Failed to find script template [" + resourceName + "]", new Throwable());
+			Reader reader = new InputStreamReader(is, "UTF-8");
+			StringBuilder b = new StringBuilder();
+			char[] buff = new char[1024];
+			int read = -1;
+			while((read = reader.read(buff))!=-1) {
+				b.append(buff, 0, read);
+			}
+			return b.toString();
+		} catch (IOException ioe) {
+			throw new RuntimeException("Failed to read script template [" + resourceName + "]", ioe);
+		} finally {
+			try { is.close(); } catch (Exception e) {}
+		}
+	}
+}
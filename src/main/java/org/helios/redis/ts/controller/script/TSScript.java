@@ -0,0 +1,83 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+/**
+ * <p>Title: TSScript</p>
+ * <p>Description: Enumerates the lua script templates loaded from <code>lua/&lt;name&gt;.lua</code> on the classpath.
+ * Per tier scripts are rendered once for each tier in the model and are aliased as <code>&lt;name&gt;.&lt;tier name&gt;</code>.
+ * Model scripts are rendered once and aliased by name.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.TSScript</code></p>
+ */
+public enum TSScript {
+	/** Adds one sample to one tier */
+	TS_ADD("ts-add", true),
+	/** Adds a batch of samples to all tiers */
+	TS_BATCH("ts-batch", false),
+	/** Resolves series names to IDs, assigning IDs to new series */
+	TS_IDS("ts-ids", false),
+	/** Rolls up a chunk of the series of a closed tier bucket from the tier below */
+	TS_ROLLUP("ts-rollup", false),
+	/** Counts the distinct members of per period HyperLogLogs */
+	TS_CARDINALITY("ts-cardinality", false),
+	/** Aggregates a range of a tier across many series */
+	TS_AGGREGATE("ts-aggregate", false),
+	/** Pages through the lexicographic series name index by prefix */
+	TS_NAMES("ts-names", false);
+	
+	/**
+	 * Creates a new TSScript
+	 * @param scriptName The script template name
+	 * @param perTier true if the script is rendered once per tier
+	 */
+	private TSScript(String scriptName, boolean perTier) {
+		this.scriptName = scriptName;
+		this.perTier = perTier;
+	}
+	
+	/** The script template name */
+	public final String scriptName;
+	/** Indicates if the script is rendered once per tier */
+	public final boolean perTier;
+	
+	/**
+	 * Returns the classpath resource name of the script template
+	 * @return the classpath resource name
+	 */
+	public String getResourceName() {
+		return "lua/" + scriptName + ".lua";
+	}
+	
+	/**
+	 * Returns the alias of this script for the passed tier
+	 * @param tierName The tier name, ignored if this is not a per tier script
+	 * @return the script alias
+	 */
+	public String alias(String tierName) {
+		return perTier ? scriptName + "." + tierName : scriptName;
+	}
+}
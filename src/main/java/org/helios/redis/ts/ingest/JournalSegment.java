@@ -0,0 +1,307 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: JournalSegment</p>
+ * <p>Description: One memory-mapped file of a {@link SampleJournal}. The segment is a fixed size header followed by fixed width binary slots.
+ * The header holds the number of slots and records written and replayed and the segment's sequence in the journal, so a segment 
+ * is recycled by resetting its header rather than by deleting and re-creating the file.</p>
+ * <p>Record slot layout ({@link #RECORD_SIZE} bytes):<ul>
+ * <li>0:&nbsp;series name length (short)</li>
+ * <li>2:&nbsp;type ordinal (byte)</li>
+ * <li>3:&nbsp;flags (byte), {@link #FLAG_SKETCH} if the record has a sketch</li>
+ * <li>4:&nbsp;series name, UTF-8, up to {@link #MAX_NAME_BYTES} bytes</li>
+ * <li>204:&nbsp;timestamp, count (longs), sum, min, max, last (doubles)</li>
+ * <li>252:&nbsp;sketch length in bytes (int)</li>
+ * </ul>
+ * The quantile sketch text or distinct member hashes of a record with a sketch follow it in as many continuation slots as they fill.</p>
+ * <p>Not thread safe. Access is serialized by the owning journal.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.JournalSegment</code></p>
+ */
+public class JournalSegment {
+	/** The segment file */
+	protected final File file;
+	/** The mapped segment */
+	protected final MappedByteBuffer buffer;
+	/** The number of slots the segment holds */
+	protected final int capacity;
+	/** The journal sequence of the segment */
+	protected long sequence;
+	/** The number of slots written */
+	protected int written;
+	/** The number of slots replayed */
+	protected int replayed;
+	/** The number of records written */
+	protected int recordsWritten;
+	/** The number of records replayed */
+	protected int recordsReplayed;
+	
+	/** The segment header magic */
+	public static final int MAGIC = 0x52545331;
+	/** The size of the segment header in bytes */
+	public static final int HEADER_SIZE = 32;
+	/** The size of one record or continuation slot in bytes */
+	public static final int RECORD_SIZE = 256;
+	/** The record flag indicating the record is followed by its sketch */
+	public static final byte FLAG_SKETCH = 1;
+	/** The maximum length of an encoded series name in bytes */
+	public static final int MAX_NAME_BYTES = 200;
+	/** The series name character set */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/** The offset of the written count in the header */
+	private static final int WRITTEN_OFFSET = 4;
+	/** The offset of the replayed count in the header */
+	private static final int REPLAYED_OFFSET = 8;
+	/** The offset of the written record count in the header */
+	private static final int RECORDS_WRITTEN_OFFSET = 12;
+	/** The offset of the sequence in the header */
+	private static final int SEQUENCE_OFFSET = 16;
+	/** The offset of the replayed record count in the header */
+	private static final int RECORDS_REPLAYED_OFFSET = 24;
+	/** The offset of the series name in a record */
+	private static final int NAME_OFFSET = 4;
+	/** The offset of the numeric fields in a record */
+	private static final int VALUES_OFFSET = NAME_OFFSET + MAX_NAME_BYTES;
+	/** The offset of the sketch length in a record */
+	private static final int SKETCH_LENGTH_OFFSET = VALUES_OFFSET + 48;
+	
+	/**
+	 * Maps a segment file, creating it if it does not exist
+	 * @param file The segment file
+	 * @param segmentSize The size of the segment file in bytes
+	 * @throws IOException thrown if the file cannot be mapped
+	 */
+	public JournalSegment(File file, int segmentSize) throws IOException {
+		this.file = file;
+		capacity = capacity(segmentSize);
+		if(capacity<1) throw new IllegalArgumentException("Segment size [" + segmentSize + "] too small for one record", new Throwable());
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			if(raf.length()!=segmentSize) raf.setLength(segmentSize);
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		} finally {
+			if(raf!=null) try { raf.close(); } catch (Exception e) {}
+		}
+		if(buffer.getInt(0)==MAGIC) {
+			written = Math.min(capacity, buffer.getInt(WRITTEN_OFFSET));
+			replayed = Math.min(written, buffer.getInt(REPLAYED_OFFSET));
+			sequence = buffer.getLong(SEQUENCE_OFFSET);
+			recordsWritten = buffer.getInt(RECORDS_WRITTEN_OFFSET);
+			recordsReplayed = buffer.getInt(RECORDS_REPLAYED_OFFSET);
+			if(recordsWritten==0 && written>0) {
+				// written before records could carry a sketch, when every record was one slot
+				recordsWritten = written;
+				recordsReplayed = replayed;
+				buffer.putInt(RECORDS_WRITTEN_OFFSET, recordsWritten);
+				buffer.putInt(RECORDS_REPLAYED_OFFSET, recordsReplayed);
+			}
+		} else {
+			reset(-1L);
+		}
+	}
+	
+	/**
+	 * Returns the number of slots in a segment of the passed size
+	 * @param segmentSize The size of the segment file in bytes
+	 * @return the number of slots
+	 */
+	public static int capacity(int segmentSize) {
+		return (segmentSize - HEADER_SIZE) / RECORD_SIZE;
+	}
+	
+	/**
+	 * Returns the number of slots a record with a sketch of the passed length occupies
+	 * @param sketchLength The length of the encoded sketch in bytes, 0 for a record without a sketch
+	 * @return the number of slots
+	 */
+	public static int slots(int sketchLength) {
+		return 1 + (sketchLength + RECORD_SIZE - 1) / RECORD_SIZE;
+	}
+	
+	/**
+	 * Empties the segment for reuse
+	 * @param newSequence The journal sequence the segment is reused as
+	 */
+	public void reset(long newSequence) {
+		sequence = newSequence;
+		written = 0;
+		replayed = 0;
+		recordsWritten = 0;
+		recordsReplayed = 0;
+		buffer.putInt(WRITTEN_OFFSET, 0);
+		buffer.putInt(REPLAYED_OFFSET, 0);
+		buffer.putInt(RECORDS_WRITTEN_OFFSET, 0);
+		buffer.putInt(RECORDS_REPLAYED_OFFSET, 0);
+		buffer.putLong(SEQUENCE_OFFSET, newSequence);
+		buffer.putInt(0, MAGIC);
+	}
+	
+	/**
+	 * Appends one record from the passed batch
+	 * @param batch The batch to append from
+	 * @param index The index of the record in the batch
+	 * @param name The UTF-8 encoded series name of the record, at most {@link #MAX_NAME_BYTES} long
+	 * @param sketch The UTF-8 encoded sketch of the record, or null to journal the record without its sketch
+	 * @return true if the record was appended, false if the segment does not have room for it
+	 */
+	public boolean append(RecordBatch batch, int index, byte[] name, byte[] sketch) {
+		int sketchLength = sketch==null ? 0 : sketch.length;
+		int slots = slots(sketchLength);
+		if(written + slots > capacity) return false;
+		int pos = HEADER_SIZE + written * RECORD_SIZE;
+		buffer.putShort(pos, (short)name.length);
+		buffer.put(pos + 2, (byte)batch.types[index].ordinal());
+		buffer.put(pos + 3, sketch==null ? 0 : FLAG_SKETCH);
+		for(int b = 0; b < name.length; b++) {
+			buffer.put(pos + NAME_OFFSET + b, name[b]);
+		}
+		buffer.putInt(pos + SKETCH_LENGTH_OFFSET, sketchLength);
+		pos += VALUES_OFFSET;
+		buffer.putLong(pos, batch.timestamps[index]);
+		buffer.putLong(pos + 8, batch.counts[index]);
+		buffer.putDouble(pos + 16, batch.sums[index]);
+		buffer.putDouble(pos + 24, batch.mins[index]);
+		buffer.putDouble(pos + 32, batch.maxs[index]);
+		buffer.putDouble(pos + 40, batch.lasts[index]);
+		pos = HEADER_SIZE + (written + 1) * RECORD_SIZE;
+		for(int b = 0; b < sketchLength; b++) {
+			buffer.put(pos + b, sketch[b]);
+		}
+		written += slots;
+		recordsWritten++;
+		buffer.putInt(WRITTEN_OFFSET, written);
+		buffer.putInt(RECORDS_WRITTEN_OFFSET, recordsWritten);
+		return true;
+	}
+	
+	/**
+	 * Reads unreplayed records into the passed batch without marking them replayed
+	 * @param batch The batch to read into
+	 * @param max The maximum number of records to read
+	 * @return the number of records read
+	 */
+	public int read(RecordBatch batch, int max) {
+		int count = 0;
+		byte[] name = new byte[MAX_NAME_BYTES];
+		for(int r = replayed; r < written && count < max && !batch.isFull(); r += slotsAt(r)) {
+			int pos = HEADER_SIZE + r * RECORD_SIZE;
+			int length = buffer.getShort(pos);
+			TSType type = TSType.forOrdinal(buffer.get(pos + 2));
+			for(int b = 0; b < length; b++) {
+				name[b] = buffer.get(pos + NAME_OFFSET + b);
+			}
+			String sketch = null;
+			if(buffer.get(pos + 3)==FLAG_SKETCH) {
+				byte[] text = new byte[buffer.getInt(pos + SKETCH_LENGTH_OFFSET)];
+				int sketchPos = pos + RECORD_SIZE;
+				for(int b = 0; b < text.length; b++) {
+					text[b] = buffer.get(sketchPos + b);
+				}
+				sketch = new String(text, UTF8);
+			}
+			pos += VALUES_OFFSET;
+			batch.add(new String(name, 0, length, UTF8), type, buffer.getLong(pos), buffer.getLong(pos + 8), 
+					buffer.getDouble(pos + 16), buffer.getDouble(pos + 24), buffer.getDouble(pos + 32), buffer.getDouble(pos + 40), sketch);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of slots occupied by the record starting at the passed slot
+	 * @param slot The slot of the record
+	 * @return the number of slots of the record and its sketch
+	 */
+	protected int slotsAt(int slot) {
+		int pos = HEADER_SIZE + slot * RECORD_SIZE;
+		return buffer.get(pos + 3)==FLAG_SKETCH ? slots(buffer.getInt(pos + SKETCH_LENGTH_OFFSET)) : 1;
+	}
+	
+	/**
+	 * Marks records as replayed
+	 * @param count The number of records replayed
+	 */
+	public void commit(int count) {
+		for(int i = 0; i < count && replayed < written; i++) {
+			replayed += slotsAt(replayed);
+			recordsReplayed++;
+		}
+		buffer.putInt(REPLAYED_OFFSET, replayed);
+		buffer.putInt(RECORDS_REPLAYED_OFFSET, recordsReplayed);
+	}
+	
+	/**
+	 * Flushes the mapped segment to disk
+	 */
+	public void force() {
+		buffer.force();
+	}
+	
+	/**
+	 * Indicates if the segment has no room for more records
+	 * @return true if the segment is full
+	 */
+	public boolean isFull() {
+		return written==capacity;
+	}
+	
+	/**
+	 * Returns the number of records written but not yet replayed
+	 * @return the number of pending records
+	 */
+	public int getPending() {
+		return recordsWritten - recordsReplayed;
+	}
+	
+	/**
+	 * Returns the journal sequence of the segment
+	 * @return the journal sequence of the segment
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * Returns the segment file
+	 * @return the segment file
+	 */
+	public File getFile() {
+		return file;
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.helios.redis.ts.series.LongHashSet;
+import org.helios.redis.ts.sketch.QuantileSketch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+
+/**
+ * <p>Title: LiveAggregator</p>
+ * <p>Description: Pre-aggregates samples in-process for the open periods of the live tier so that one 
+ * <code>count, sum, min, max, last</code> record per series per live period is written to redis instead of every raw sample.</p>
+ * <p>A live period is closed, and its records emitted, once the wall clock passes the end of the period plus the grace time.
+ * A sample for a period that has already been emitted is reported as late and should be written as its own record.</p>
+ * <p>Series of the configured sketch types also accumulate a {@link QuantileSketch} of their samples in each period, emitted with the record as sketch text. 
+ * The samples of {@link TSType#DISTINCT} series are member hashes, collected into a set per period and emitted as a record of the distinct member count 
+ * carrying the base 36 member hashes as its sketch text.</p>
+ * <p>Not thread safe. The aggregator is owned by the single {@link TSWriter} flush thread.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.LiveAggregator</code></p>
+ */
+public class LiveAggregator {
+	/** The live tier */
+	protected final Tier liveTier;
+	/** The live period in seconds */
+	protected final long period;
+	/** The time in seconds after the end of a period before it is closed */
+	protected final long grace;
+	/** The series value types that accumulate quantile sketches */
+	protected final Set<TSType> sketchTypes;
+	/** The relative accuracy of the quantile sketches */
+	protected final double sketchAccuracy;
+	/** The accumulators of the open periods keyed by series, keyed by period bucket */
+	protected final TreeMap<Long, Map<String, Accumulator>> openPeriods = new TreeMap<Long, Map<String, Accumulator>>();
+	/** Recycled accumulators */
+	protected final LinkedList<Accumulator> pool = new LinkedList<Accumulator>();
+	/** The most recent period bucket emitted */
+	protected long closedThrough = Long.MIN_VALUE;
+	/** The total number of samples accumulated */
+	protected volatile long accumulated = 0;
+	/** The total number of records emitted */
+	protected volatile long emitted = 0;
+	/** The total number of late samples */
+	protected volatile long late = 0;
+	
+	/**
+	 * Creates a new LiveAggregator
+	 * @param liveTier The live tier
+	 * @param grace The time in seconds after the end of a period before it is closed
+	 */
+	public LiveAggregator(Tier liveTier, long grace) {
+		this(liveTier, grace, Collections.<TSType>emptySet(), QuantileSketch.DEFAULT_ACCURACY);
+	}
+	
+	/**
+	 * Creates a new LiveAggregator
+	 * @param liveTier The live tier
+	 * @param grace The time in seconds after the end of a period before it is closed
+	 * @param sketchTypes The series value types that accumulate quantile sketches
+	 * @param sketchAccuracy The relative accuracy of the quantile sketches
+	 */
+	public LiveAggregator(Tier liveTier, long grace, Set<TSType> sketchTypes, double sketchAccuracy) {
+		if(liveTier==null) throw new IllegalArgumentException("The passed tier was null", new Throwable());
+		if(grace<0) throw new IllegalArgumentException("Invalid grace time [" + grace + "]", new Throwable());
+		this.liveTier = liveTier;
+		this.grace = grace;
+		this.sketchTypes = sketchTypes.isEmpty() ? Collections.<TSType>emptySet() : EnumSet.copyOf(sketchTypes);
+		this.sketchAccuracy = sketchAccuracy;
+		period = liveTier.getPeriodDuration().seconds;
+	}
+	
+	/**
+	 * Accumulates a sample into its live period
+	 * @param series The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 * @return true if the sample was accumulated, false if the sample's period has already been emitted
+	 */
+	public boolean accumulate(String series, TSType type, long timestamp, double value) {
+		long bucket = liveTier.getBucket(timestamp);
+		if(bucket<=closedThrough) {
+			late++;
+			return false;
+		}
+		Map<String, Accumulator> accumulators = openPeriods.get(bucket);
+		if(accumulators==null) {
+			accumulators = new HashMap<String, Accumulator>();
+			openPeriods.put(bucket, accumulators);
+		}
+		Accumulator acc = accumulators.get(series);
+		if(acc==null) {
+			acc = pool.isEmpty() ? new Accumulator() : pool.removeFirst();
+			acc.reset(type, value, sketchTypes.contains(type) ? sketchAccuracy : 0);
+			accumulators.put(series, acc);
+		} else {
+			acc.add(value);
+		}
+		accumulated++;
+		return true;
+	}
+	
+	/**
+	 * Emits the records of closed periods into the passed batch
+	 * @param now The current time as unix time in seconds
+	 * @param out The batch to emit into
+	 * @return true if the batch filled up and there may be more closed records to emit
+	 */
+	public boolean drainClosed(long now, RecordBatch out) {
+		return drain(now, false, out);
+	}
+	
+	/**
+	 * Emits the records of all open periods into the passed batch, regardless of whether the period has closed. Called on shutdown.
+	 * @param out The batch to emit into
+	 * @return true if the batch filled up and there may be more records to emit
+	 */
+	public boolean drainAll(RecordBatch out) {
+		return drain(0, true, out);
+	}
+	
+	/**
+	 * Emits records into the passed batch
+	 * @param now The current time as unix time in seconds
+	 * @param all true to emit all open periods, false to emit only closed periods
+	 * @param out The batch to emit into
+	 * @return true if the batch filled up and there may be more records to emit
+	 */
+	protected boolean drain(long now, boolean all, RecordBatch out) {
+		while(!openPeriods.isEmpty()) {
+			long bucket = openPeriods.firstKey();
+			if(!all && now < bucket + period + grace) return false;
+			if(bucket>closedThrough) closedThrough = bucket;
+			Map<String, Accumulator> accumulators = openPeriods.get(bucket);
+			for(Iterator<Map.Entry<String, Accumulator>> iter = accumulators.entrySet().iterator(); iter.hasNext();) {
+				if(out.isFull()) return true;
+				Map.Entry<String, Accumulator> entry = iter.next();
+				Accumulator acc = entry.getValue();
+				if(acc.type==TSType.DISTINCT) {
+					int distinct = acc.members.size();
+					out.add(entry.getKey(), acc.type, bucket, acc.count, distinct, distinct, distinct, distinct, acc.members.join(36, ','));
+				} else {
+					out.add(entry.getKey(), acc.type, bucket, acc.count, acc.sum, acc.min, acc.max, acc.last, acc.sketching ? acc.sketch.toText() : null);
+				}
+				iter.remove();
+				pool.addLast(acc);
+				emitted++;
+			}
+			openPeriods.remove(bucket);
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the number of open live periods
+	 * @return the number of open live periods
+	 */
+	public int getOpenPeriods() {
+		return openPeriods.size();
+	}
+	
+	/**
+	 * Returns the total number of samples accumulated
+	 * @return the total number of samples accumulated
+	 */
+	public long getAccumulated() {
+		return accumulated;
+	}
+	
+	/**
+	 * Returns the total number of records emitted
+	 * @return the total number of records emitted
+	 */
+	public long getEmitted() {
+		return emitted;
+	}
+	
+	/**
+	 * Returns the total number of samples that arrived after their period was emitted
+	 * @return the total number of late samples
+	 */
+	public long getLate() {
+		return late;
+	}
+	
+	/**
+	 * <p>Title: Accumulator</p>
+	 * <p>Description: The running aggregate of one series in one live period</p> 
+	 */
+	protected static class Accumulator {
+		/** The series value type */
+		protected TSType type;
+		/** The sample count */
+		protected long count;
+		/** The sample sum */
+		protected double sum;
+		/** The sample minimum */
+		protected double min;
+		/** The sample maximum */
+		protected double max;
+		/** The last sample value */
+		protected double last;
+		/** The quantile sketch of the samples, retained across resets */
+		protected QuantileSketch sketch;
+		/** Indicates if the sketch is in use for the current period */
+		protected boolean sketching;
+		/** The distinct member hashes of a {@link TSType#DISTINCT} series, retained across resets */
+		protected LongHashSet members;
+		
+		/**
+		 * Resets the accumulator to the passed first value
+		 * @param type The series value type
+		 * @param value The first value of the period
+		 * @param sketchAccuracy The relative accuracy of the period's quantile sketch, or 0 for no sketch
+		 */
+		protected void reset(TSType type, double value, double sketchAccuracy) {
+			this.type = type;
+			if(type==TSType.DISTINCT) {
+				if(members==null) members = new LongHashSet();
+				else members.clear();
+				members.add((long)value);
+				sketchAccuracy = 0;
+			}
+			sketching = sketchAccuracy>0;
+			if(sketching) {
+				if(sketch==null || sketch.getAccuracy()!=sketchAccuracy) sketch = new QuantileSketch(sketchAccuracy);
+				else sketch.clear();
+				sketch.add(value);
+			}
+			count = 1;
+			sum = value;
+			min = value;
+			max = value;
+			last = value;
+		}
+		
+		/**
+		 * Adds a value to the accumulator
+		 * @param value The value to add
+		 */
+		protected void add(double value) {
+			count++;
+			sum += value;
+			if(value<min) min = value;
+			if(value>max) max = value;
+			last = value;
+			if(sketching) sketch.add(value);
+			else if(type==TSType.DISTINCT) members.add((long)value);
+		}
+	}
+}
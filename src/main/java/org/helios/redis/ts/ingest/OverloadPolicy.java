@@ -0,0 +1,58 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+/**
+ * <p>Title: OverloadPolicy</p>
+ * <p>Description: Enumerates how the {@link TSWriter} treats producers while it is overloaded, i.e. while the redis heartbeat 
+ * is failing, the connection is down or connections are slow to come out of the pool.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.OverloadPolicy</code></p>
+ */
+public enum OverloadPolicy {
+	/** Producers wait for space in the ring buffer up to the block timeout, and the sample is shed if the timeout elapses */
+	BLOCK,
+	/** The oldest queued samples are discarded by the flush thread to make space for new ones */
+	DROP_OLDEST,
+	/** New samples are shed immediately when the ring buffer is full */
+	DROP_NEWEST,
+	/** Only one in every N samples is accepted, the rest are shed */
+	SAMPLE;
+	
+	/**
+	 * Decodes the passed name to an OverloadPolicy, ignoring case
+	 * @param name The policy name
+	 * @return the OverloadPolicy
+	 */
+	public static OverloadPolicy forName(String name) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		try {
+			return OverloadPolicy.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException iae) {
+			throw new IllegalArgumentException("Invalid OverloadPolicy [" + name + "]", new Throwable());
+		}
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: RecordBatch</p>
+ * <p>Description: A reusable, pre-allocated batch of aggregated period records held in parallel primitive arrays.
+ * A record is the <code>count, sum, min, max, last</code> of the samples of one series in one live period. 
+ * A raw sample is written as a record with a count of 1.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.RecordBatch</code></p>
+ */
+public class RecordBatch {
+	/** The series names */
+	public final String[] series;
+	/** The series value types */
+	public final TSType[] types;
+	/** The record timestamps as unix time in seconds */
+	public final long[] timestamps;
+	/** The sample counts */
+	public final long[] counts;
+	/** The sample sums */
+	public final double[] sums;
+	/** The sample minimums */
+	public final double[] mins;
+	/** The sample maximums */
+	public final double[] maxs;
+	/** The last sample values */
+	public final double[] lasts;
+	/** The quantile sketch texts, or the comma separated base 36 member hashes of {@link TSType#DISTINCT} records, or null for records without a sketch */
+	public final String[] sketches;
+	/** The number of records in the batch */
+	protected int size = 0;
+	
+	/**
+	 * Creates a new RecordBatch
+	 * @param capacity The maximum number of records in the batch
+	 */
+	public RecordBatch(int capacity) {
+		if(capacity<1) throw new IllegalArgumentException("Invalid batch capacity [" + capacity + "]", new Throwable());
+		series = new String[capacity];
+		types = new TSType[capacity];
+		timestamps = new long[capacity];
+		counts = new long[capacity];
+		sums = new double[capacity];
+		mins = new double[capacity];
+		maxs = new double[capacity];
+		lasts = new double[capacity];
+		sketches = new String[capacity];
+	}
+	
+	/**
+	 * Adds a single raw sample to the batch as a record with a count of 1. 
+	 * A {@link TSType#DISTINCT} sample is a member hash, added as a record of one distinct member carrying the base 36 hash as its sketch text.
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 * @return true if the sample was added, false if the batch is full
+	 */
+	public boolean add(String seriesName, TSType type, long timestamp, double value) {
+		if(type==TSType.DISTINCT) return add(seriesName, type, timestamp, 1, 1, 1, 1, 1, Long.toString((long)value, 36));
+		return add(seriesName, type, timestamp, 1, value, value, value, value);
+	}
+	
+	/**
+	 * Adds an aggregated record to the batch
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The record timestamp as unix time in seconds
+	 * @param count The sample count
+	 * @param sum The sample sum
+	 * @param min The sample minimum
+	 * @param max The sample maximum
+	 * @param last The last sample value
+	 * @return true if the record was added, false if the batch is full
+	 */
+	public boolean add(String seriesName, TSType type, long timestamp, long count, double sum, double min, double max, double last) {
+		return add(seriesName, type, timestamp, count, sum, min, max, last, null);
+	}
+	
+	/**
+	 * Adds an aggregated record with a quantile sketch to the batch
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The record timestamp as unix time in seconds
+	 * @param count The sample count
+	 * @param sum The sample sum
+	 * @param min The sample minimum
+	 * @param max The sample maximum
+	 * @param last The last sample value
+	 * @param sketch The quantile sketch text of the record's samples, or null
+	 * @return true if the record was added, false if the batch is full
+	 */
+	public boolean add(String seriesName, TSType type, long timestamp, long count, double sum, double min, double max, double last, String sketch) {
+		if(size==series.length) return false;
+		series[size] = seriesName;
+		types[size] = type;
+		timestamps[size] = timestamp;
+		counts[size] = count;
+		sums[size] = sum;
+		mins[size] = min;
+		maxs[size] = max;
+		lasts[size] = last;
+		sketches[size] = sketch;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Adds a copy of a record of another batch to the batch
+	 * @param source The batch to copy from
+	 * @param index The index of the record in the source batch
+	 * @return true if the record was added, false if the batch is full
+	 */
+	public boolean add(RecordBatch source, int index) {
+		return add(source.series[index], source.types[index], source.timestamps[index], source.counts[index], source.sums[index],
+				source.mins[index], source.maxs[index], source.lasts[index], source.sketches[index]);
+	}
+
+	/**
+	 * Returns the number of records in the batch
+	 * @return the number of records in the batch
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the maximum number of records in the batch
+	 * @return the capacity of the batch
+	 */
+	public int capacity() {
+		return series.length;
+	}
+	
+	/**
+	 * Removes the records with a timestamp before the passed timestamp, keeping the order of the remaining records
+	 * @param timestamp The earliest timestamp to keep as unix time in seconds
+	 * @return the number of records removed
+	 */
+	public int removeBefore(long timestamp) {
+		int kept = 0;
+		for(int i = 0; i < size; i++) {
+			if(timestamps[i]<timestamp) continue;
+			if(kept!=i) {
+				series[kept] = series[i];
+				types[kept] = types[i];
+				timestamps[kept] = timestamps[i];
+				counts[kept] = counts[i];
+				sums[kept] = sums[i];
+				mins[kept] = mins[i];
+				maxs[kept] = maxs[i];
+				lasts[kept] = lasts[i];
+				sketches[kept] = sketches[i];
+			}
+			kept++;
+		}
+		int removed = size - kept;
+		for(int i = kept; i < size; i++) {
+			series[i] = null;
+			sketches[i] = null;
+		}
+		size = kept;
+		return removed;
+	}
+	
+	/**
+	 * Indicates if the batch is empty
+	 * @return true if the batch is empty
+	 */
+	public boolean isEmpty() {
+		return size==0;
+	}
+	
+	/**
+	 * Indicates if the batch is full
+	 * @return true if the batch is full
+	 */
+	public boolean isFull() {
+		return size==series.length;
+	}
+	
+	/**
+	 * Clears the batch, releasing the series name and sketch references
+	 */
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			series[i] = null;
+			sketches[i] = null;
+		}
+		size = 0;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: Sample</p>
+ * <p>Description: A single time-series sample queued for writing to redis-ts</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.Sample</code></p>
+ */
+public class Sample {
+	/** The series name */
+	public final String series;
+	/** The value type of the series */
+	public final TSType type;
+	/** The sample timestamp as unix time in seconds */
+	public final long timestamp;
+	/** The sample value */
+	public final double value;
+	
+	/**
+	 * Creates a new Sample
+	 * @param series The series name
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 */
+	public Sample(String series, long timestamp, double value) {
+		this(series, TSType.GAUGE, timestamp, value);
+	}
+	
+	/**
+	 * Creates a new Sample
+	 * @param series The series name
+	 * @param type The value type of the series
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 */
+	public Sample(String series, TSType type, long timestamp, double value) {
+		if(series==null) throw new IllegalArgumentException("The passed series was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed type was null", new Throwable());
+		this.series = series;
+		this.type = type;
+		this.timestamp = timestamp;
+		this.value = value;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("Sample [").append(series).append(",").append(type).append(",").append(timestamp).append(",").append(value).append("]").toString();
+	}
+}
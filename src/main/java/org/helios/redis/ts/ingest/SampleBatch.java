@@ -0,0 +1,120 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: SampleBatch</p>
+ * <p>Description: A reusable, pre-allocated batch of samples held in parallel primitive arrays, 
+ * filled by the consumer side of the {@link SampleRingBuffer} and written by the {@link TSWriter}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleBatch</code></p>
+ */
+public class SampleBatch {
+	/** The series names */
+	public final String[] series;
+	/** The series value types */
+	public final TSType[] types;
+	/** The sample timestamps as unix time in seconds */
+	public final long[] timestamps;
+	/** The sample values */
+	public final double[] values;
+	/** The number of samples in the batch */
+	protected int size = 0;
+	
+	/**
+	 * Creates a new SampleBatch
+	 * @param capacity The maximum number of samples in the batch
+	 */
+	public SampleBatch(int capacity) {
+		if(capacity<1) throw new IllegalArgumentException("Invalid batch capacity [" + capacity + "]", new Throwable());
+		series = new String[capacity];
+		types = new TSType[capacity];
+		timestamps = new long[capacity];
+		values = new double[capacity];
+	}
+	
+	/**
+	 * Adds a sample to the batch
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 * @return true if the sample was added, false if the batch is full
+	 */
+	public boolean add(String seriesName, TSType type, long timestamp, double value) {
+		if(size==series.length) return false;
+		series[size] = seriesName;
+		types[size] = type;
+		timestamps[size] = timestamp;
+		values[size] = value;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Returns the number of samples in the batch
+	 * @return the number of samples in the batch
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the maximum number of samples in the batch
+	 * @return the maximum number of samples in the batch
+	 */
+	public int capacity() {
+		return series.length;
+	}
+	
+	/**
+	 * Indicates if the batch is empty
+	 * @return true if the batch is empty
+	 */
+	public boolean isEmpty() {
+		return size==0;
+	}
+	
+	/**
+	 * Indicates if the batch is full
+	 * @return true if the batch is full
+	 */
+	public boolean isFull() {
+		return size==series.length;
+	}
+	
+	/**
+	 * Clears the batch, releasing the series name references
+	 */
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			series[i] = null;
+		}
+		size = 0;
+	}
+}
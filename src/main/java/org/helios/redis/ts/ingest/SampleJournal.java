@@ -0,0 +1,263 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * <p>Title: SampleJournal</p>
+ * <p>Description: A segmented, memory-mapped, append-only journal of records that could not be written to redis.
+ * Records are appended to the newest {@link JournalSegment} and replayed from the oldest, and a fully replayed segment is 
+ * recycled as a future write segment so the journal never holds its backlog on the heap and does not churn files.
+ * The write and replay positions are kept in the segment headers, so records journaled before a restart are replayed after it.</p>
+ * <p>When all <code>maxSegments</code> segments are full, further records are dropped and counted. The quantile sketch or distinct members of a record 
+ * are journaled with it, unless they are too long to fit in one segment, in which case the record is journaled without them and the dropped sketch is counted.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleJournal</code></p>
+ */
+public class SampleJournal {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The journal directory */
+	protected final File directory;
+	/** The size of each segment file in bytes */
+	protected final int segmentSize;
+	/** The maximum number of segment files */
+	protected final int maxSegments;
+	/** The segments holding unreplayed records, oldest first. The last is the write segment. */
+	protected final LinkedList<JournalSegment> active = new LinkedList<JournalSegment>();
+	/** Replayed segments available for reuse */
+	protected final LinkedList<JournalSegment> free = new LinkedList<JournalSegment>();
+	/** The number of segment files created */
+	protected int segmentCount = 0;
+	/** The sequence of the next write segment */
+	protected long nextSequence = 0;
+	
+	/** The total number of records appended */
+	protected final AtomicLong appended = new AtomicLong(0);
+	/** The total number of records replayed */
+	protected final AtomicLong replayed = new AtomicLong(0);
+	/** The total number of records dropped because the journal was full or the series name too long */
+	protected final AtomicLong dropped = new AtomicLong(0);
+	/** The total number of sketches dropped from journaled records because they were too long for a segment */
+	protected final AtomicLong droppedSketches = new AtomicLong(0);
+	
+	/** The segment file name prefix */
+	public static final String SEGMENT_PREFIX = "segment-";
+	/** The segment file name suffix */
+	public static final String SEGMENT_SUFFIX = ".journal";
+	
+	/**
+	 * Opens the journal in the passed directory, recovering any unreplayed segments
+	 * @param directory The journal directory, created if it does not exist
+	 * @param segmentSize The size of each segment file in bytes
+	 * @param maxSegments The maximum number of segment files
+	 * @throws IOException thrown if the directory or an existing segment cannot be opened
+	 */
+	public SampleJournal(File directory, int segmentSize, int maxSegments) throws IOException {
+		if(maxSegments<1) throw new IllegalArgumentException("Invalid max segments [" + maxSegments + "]", new Throwable());
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Failed to create journal directory [" + directory + "]");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSegments = maxSegments;
+		File[] files = directory.listFiles(new FilenameFilter(){
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		List<JournalSegment> recovered = new ArrayList<JournalSegment>();
+		for(File f: files) {
+			JournalSegment segment = new JournalSegment(f, segmentSize);
+			segmentCount++;
+			nextSequence = Math.max(nextSequence, segment.getSequence() + 1);
+			if(segment.getPending()>0) recovered.add(segment);
+			else free.add(segment);
+		}
+		Collections.sort(recovered, new Comparator<JournalSegment>(){
+			public int compare(JournalSegment s1, JournalSegment s2) {
+				return s1.getSequence()<s2.getSequence() ? -1 : (s1.getSequence()==s2.getSequence() ? 0 : 1);
+			}
+		});
+		active.addAll(recovered);
+		if(!recovered.isEmpty()) log.info("Recovered [" + getPending() + "] journaled records in [" + recovered.size() + "] segments from [" + directory + "]");
+	}
+	
+	/**
+	 * Appends the records in the passed batch
+	 * @param batch The batch of records to append
+	 * @return the number of records appended
+	 */
+	public synchronized int append(RecordBatch batch) {
+		int count = 0;
+		JournalSegment segment = active.isEmpty() ? null : active.getLast();
+		for(int i = 0; i < batch.size(); i++) {
+			byte[] name = batch.series[i].getBytes(JournalSegment.UTF8);
+			if(name.length>JournalSegment.MAX_NAME_BYTES) {
+				dropped.incrementAndGet();
+				continue;
+			}
+			byte[] sketch = batch.sketches[i]==null ? null : batch.sketches[i].getBytes(JournalSegment.UTF8);
+			if(sketch!=null && JournalSegment.slots(sketch.length)>JournalSegment.capacity(segmentSize)) {
+				droppedSketches.incrementAndGet();
+				log.warn("Sketch of [" + sketch.length + "] bytes too long for a journal segment. Journaling record of [" + batch.series[i] + "] without it.");
+				sketch = null;
+			}
+			if(segment==null || !segment.append(batch, i, name, sketch)) {
+				segment = roll();
+				if(segment==null) {
+					dropped.addAndGet(batch.size() - i);
+					break;
+				}
+				segment.append(batch, i, name, sketch);
+			}
+			count++;
+		}
+		appended.addAndGet(count);
+		return count;
+	}
+	
+	/**
+	 * Starts a new write segment, reusing a replayed segment if one is available
+	 * @return the new write segment or null if the journal is full
+	 */
+	protected JournalSegment roll() {
+		if(!active.isEmpty()) active.getLast().force();
+		JournalSegment segment = free.poll();
+		if(segment==null) {
+			if(segmentCount>=maxSegments) return null;
+			try {
+				segment = new JournalSegment(new File(directory, SEGMENT_PREFIX + segmentCount + SEGMENT_SUFFIX), segmentSize);
+				segmentCount++;
+			} catch (IOException ioe) {
+				log.error("Failed to create journal segment", ioe);
+				return null;
+			}
+		}
+		segment.reset(nextSequence++);
+		active.add(segment);
+		return segment;
+	}
+	
+	/**
+	 * Reads the oldest unreplayed records into the passed batch without marking them replayed. 
+	 * The records read are marked replayed by {@link #commit(int)}. Must only be called by one replay thread.
+	 * @param batch The batch to read into
+	 * @param max The maximum number of records to read
+	 * @return the number of records read
+	 */
+	public synchronized int read(RecordBatch batch, int max) {
+		JournalSegment segment = active.peek();
+		if(segment==null) return 0;
+		return segment.read(batch, max);
+	}
+	
+	/**
+	 * Marks records returned by the last {@link #read(RecordBatch, int)} as replayed, recycling the oldest segment once it is fully replayed
+	 * @param count The number of records replayed
+	 */
+	public synchronized void commit(int count) {
+		JournalSegment segment = active.peek();
+		if(segment==null) return;
+		segment.commit(count);
+		replayed.addAndGet(count);
+		if(segment.getPending()==0 && (segment.isFull() || active.size()>1)) {
+			active.poll();
+			segment.reset(-1L);
+			free.add(segment);
+		}
+	}
+	
+	/**
+	 * Flushes all active segments to disk
+	 */
+	public synchronized void force() {
+		for(JournalSegment segment: active) {
+			segment.force();
+		}
+	}
+	
+	/**
+	 * Returns the number of records waiting to be replayed
+	 * @return the number of pending records
+	 */
+	public synchronized long getPending() {
+		long pending = 0;
+		for(JournalSegment segment: active) {
+			pending += segment.getPending();
+		}
+		return pending;
+	}
+	
+	/**
+	 * Returns the total number of records appended
+	 * @return the total number of records appended
+	 */
+	public long getAppended() {
+		return appended.get();
+	}
+	
+	/**
+	 * Returns the total number of records replayed
+	 * @return the total number of records replayed
+	 */
+	public long getReplayed() {
+		return replayed.get();
+	}
+	
+	/**
+	 * Returns the total number of records dropped
+	 * @return the total number of records dropped
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Returns the total number of sketches dropped from journaled records
+	 * @return the total number of sketches dropped
+	 */
+	public long getDroppedSketches() {
+		return droppedSketches.get();
+	}
+	
+	/**
+	 * Returns the journal directory
+	 * @return the journal directory
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+}
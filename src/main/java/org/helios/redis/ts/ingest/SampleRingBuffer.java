@@ -0,0 +1,289 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: SampleRingBuffer</p>
+ * <p>Description: A pre-allocated, lock-free, multi-producer / single-consumer ring buffer of samples.
+ * Samples are stored in parallel primitive arrays so publishing a sample allocates nothing.</p>
+ * <p>Producers claim a sequence with a single atomic operation and are then the only writer of that slot. 
+ * The slot is published by storing its sequence into the published array, which the consumer 
+ * checks before reading the slot, so producers never lock and never wait on each other. 
+ * A producer only waits (or fails, for {@link #offer(String, TSType, long, double)}) when the buffer is full.</p>
+ * <p>Only one thread may call {@link #drainTo(SampleBatch, int)} and {@link #discard(int)}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleRingBuffer</code></p>
+ */
+public class SampleRingBuffer implements SampleRingBufferMBean {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The number of slots, always a power of 2 */
+	protected final int capacity;
+	/** The mask to convert a sequence to a slot index */
+	protected final int mask;
+	/** The series names by slot */
+	protected final String[] series;
+	/** The series value types by slot */
+	protected final TSType[] types;
+	/** The sample timestamps by slot */
+	protected final long[] timestamps;
+	/** The sample values by slot */
+	protected final double[] values;
+	/** The sequence most recently published into each slot */
+	protected final AtomicLongArray published;
+	/** The highest claimed sequence */
+	protected final AtomicLong claimSequence = new AtomicLong(-1L);
+	/** The highest drained sequence */
+	protected final AtomicLong consumedSequence = new AtomicLong(-1L);
+	/** The drained count at the last drain rate update, only accessed by the consumer thread */
+	protected long rateDrained = 0;
+	/** The timestamp of the last drain rate update, only accessed by the consumer thread */
+	protected long rateTime = System.currentTimeMillis();
+	/** The drain rate in samples per second over the last rate interval, computed by the consumer thread */
+	protected volatile long drainRate = 0;
+	
+	/** The time in nanos a producer parks while waiting for space */
+	public static final long WAIT_PARK_NANOS = 1000;
+	/** The interval in ms over which the drain rate is computed */
+	public static final long RATE_INTERVAL = 1000;
+	
+	/**
+	 * Creates a new SampleRingBuffer
+	 * @param requestedCapacity The requested number of slots which is rounded up to the next power of 2
+	 */
+	public SampleRingBuffer(int requestedCapacity) {
+		if(requestedCapacity<1 || requestedCapacity>(1<<30)) throw new IllegalArgumentException("Invalid ring buffer capacity [" + requestedCapacity + "]", new Throwable());
+		capacity = Integer.highestOneBit(requestedCapacity)==requestedCapacity ? requestedCapacity : Integer.highestOneBit(requestedCapacity) << 1;
+		mask = capacity - 1;
+		series = new String[capacity];
+		types = new TSType[capacity];
+		timestamps = new long[capacity];
+		values = new double[capacity];
+		published = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++) {
+			published.set(i, -1L);
+		}
+	}
+	
+	/**
+	 * Registers this ring buffer's management interface
+	 * @param objectName The JMX ObjectName to register with
+	 */
+	public void registerMBean(CharSequence objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName.toString()));
+		} catch (Exception e) {
+			log.warn("Failed to register ring buffer management interface [" + objectName + "]", e);
+		}
+	}
+	
+	/**
+	 * Publishes a sample, waiting for space if the buffer is full
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 */
+	public void put(String seriesName, TSType type, long timestamp, double value) {
+		long sequence = claimSequence.incrementAndGet();
+		long wrapPoint = sequence - capacity;
+		while(wrapPoint > consumedSequence.get()) {
+			LockSupport.parkNanos(WAIT_PARK_NANOS);
+		}
+		publish(sequence, seriesName, type, timestamp, value);
+	}
+	
+	/**
+	 * Publishes a sample if there is space in the buffer
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 * @return true if the sample was published, false if the buffer was full
+	 */
+	public boolean offer(String seriesName, TSType type, long timestamp, double value) {
+		long current, next;
+		do {
+			current = claimSequence.get();
+			next = current + 1;
+			if(next - capacity > consumedSequence.get()) return false;
+		} while(!claimSequence.compareAndSet(current, next));
+		publish(next, seriesName, type, timestamp, value);
+		return true;
+	}
+	
+	/**
+	 * Publishes a sample, waiting up to the passed timeout for space if the buffer is full
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 * @param timeout The maximum time to wait
+	 * @param unit The unit of the timeout
+	 * @return true if the sample was published, false if the timeout elapsed
+	 */
+	public boolean offer(String seriesName, TSType type, long timestamp, double value, long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while(!offer(seriesName, type, timestamp, value)) {
+			if(System.nanoTime() >= deadline) return false;
+			LockSupport.parkNanos(WAIT_PARK_NANOS);
+		}
+		return true;
+	}
+	
+	/**
+	 * Writes a sample into the claimed slot and publishes the slot
+	 * @param sequence The claimed sequence
+	 * @param seriesName The series name
+	 * @param type The series value type
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 */
+	protected void publish(long sequence, String seriesName, TSType type, long timestamp, double value) {
+		int index = (int)(sequence & mask);
+		series[index] = seriesName;
+		types[index] = type;
+		timestamps[index] = timestamp;
+		values[index] = value;
+		published.lazySet(index, sequence);
+	}
+	
+	/**
+	 * Drains published samples into the passed batch in sequence order. Must only be called by the single consumer thread.
+	 * @param batch The batch to drain into
+	 * @param max The maximum number of samples to drain
+	 * @return the number of samples drained
+	 */
+	public int drainTo(SampleBatch batch, int max) {
+		long consumed = consumedSequence.get();
+		int count = 0;
+		while(count < max && !batch.isFull()) {
+			long next = consumed + 1;
+			int index = (int)(next & mask);
+			if(published.get(index)!=next) break;
+			batch.add(series[index], types[index], timestamps[index], values[index]);
+			series[index] = null;
+			consumed = next;
+			count++;
+		}
+		if(count>0) {
+			consumedSequence.lazySet(consumed);
+		}
+		updateDrainRate(consumed + 1);
+		return count;
+	}
+	
+	/**
+	 * Recomputes the drain rate once the rate interval has elapsed. Called by the consumer thread on every drain.
+	 * @param drained The total number of samples drained
+	 */
+	protected void updateDrainRate(long drained) {
+		long now = System.currentTimeMillis();
+		long elapsed = now - rateTime;
+		if(elapsed<RATE_INTERVAL) return;
+		drainRate = (drained - rateDrained) * 1000 / elapsed;
+		rateDrained = drained;
+		rateTime = now;
+	}
+	
+	/**
+	 * Discards the oldest published samples to make space for producers. Must only be called by the single consumer thread.
+	 * @param max The maximum number of samples to discard
+	 * @return the number of samples discarded
+	 */
+	public int discard(int max) {
+		long consumed = consumedSequence.get();
+		int count = 0;
+		while(count < max) {
+			long next = consumed + 1;
+			int index = (int)(next & mask);
+			if(published.get(index)!=next) break;
+			series[index] = null;
+			consumed = next;
+			count++;
+		}
+		if(count>0) {
+			consumedSequence.lazySet(consumed);
+		}
+		return count;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleRingBufferMBean#getCapacity()
+	 */
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleRingBufferMBean#getQueueDepth()
+	 */
+	@Override
+	public long getQueueDepth() {
+		return Math.max(0, claimSequence.get() - consumedSequence.get());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleRingBufferMBean#getPublished()
+	 */
+	@Override
+	public long getPublished() {
+		return claimSequence.get() + 1;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleRingBufferMBean#getDrained()
+	 */
+	@Override
+	public long getDrained() {
+		return consumedSequence.get() + 1;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleRingBufferMBean#getDrainRate()
+	 */
+	@Override
+	public long getDrainRate() {
+		return drainRate;
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+/**
+ * <p>Title: SampleRingBufferMBean</p>
+ * <p>Description: JMX management interface for the {@link SampleRingBuffer}</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleRingBufferMBean</code></p>
+ */
+public interface SampleRingBufferMBean {
+	/**
+	 * Returns the number of slots in the ring buffer
+	 * @return the number of slots in the ring buffer
+	 */
+	public int getCapacity();
+	
+	/**
+	 * Returns the number of published samples not yet drained
+	 * @return the number of pending samples
+	 */
+	public long getQueueDepth();
+	
+	/**
+	 * Returns the total number of samples published
+	 * @return the total number of samples published
+	 */
+	public long getPublished();
+	
+	/**
+	 * Returns the total number of samples drained
+	 * @return the total number of samples drained
+	 */
+	public long getDrained();
+	
+	/**
+	 * Returns the number of samples drained per second over the last rate interval, as computed by the consumer thread. 
+	 * Reading it does not reset anything, so any number of monitors may poll it at any interval.
+	 * @return the drain rate in samples per second
+	 */
+	public long getDrainRate();
+}
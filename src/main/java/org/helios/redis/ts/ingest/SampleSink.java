@@ -0,0 +1,53 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: SampleSink</p>
+ * <p>Description: Defines a receiver of time-series samples, implemented by the {@link TSWriter} and fed by the ingestion servers</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleSink</code></p>
+ */
+public interface SampleSink {
+	/**
+	 * Submits a {@link TSType#GAUGE} sample for writing
+	 * @param series The series name
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 */
+	public void write(String series, long timestamp, double value);
+	
+	/**
+	 * Submits a typed sample for writing
+	 * @param series The series name
+	 * @param type The value type of the series
+	 * @param timestamp The sample timestamp as unix time in seconds
+	 * @param value The sample value
+	 */
+	public void write(String series, TSType type, long timestamp, double value);
+}
@@ -0,0 +1,787 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.conn.ConnectionManagerListener;
+import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.controller.script.ScriptPipeline;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.controller.script.TSScript;
+import org.helios.redis.ts.query.QueryCache;
+import org.helios.redis.ts.series.SeriesDictionary;
+import org.helios.redis.ts.sketch.QuantileSketch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * <p>Title: TSWriter</p>
+ * <p>Description: The redis-ts ingestion service. Samples submitted by any number of producer threads are published 
+ * into a lock-free {@link SampleRingBuffer} and a single flush thread drains them into pipelined batches, so producers 
+ * never touch the connection pool and one pooled connection carries a full batch per round trip.</p>
+ * <p>Samples are written with <b><code>EVALSHA</code></b> of the <code>ts-batch</code> script from the {@link ScriptRegistry}, 
+ * up to <b><code>redis.ts.writer.script.batch.size</code></b> records per invocation, so one script execution updates every tier for many records.
+ * If redis reports a missing script, the scripts are reloaded and the batch is replayed once. Records carry the {@link SeriesDictionary} 
+ * encoded ID of their series rather than the name, and the names in a batch that are not yet cached are resolved in one script call before it is written.</p>
+ * <p>Unless <b><code>redis.ts.writer.aggregate</code></b> is false, samples are pre-aggregated by a {@link LiveAggregator} 
+ * and one record per series per live period is written once the period closes 
+ * (<b><code>redis.ts.writer.aggregate.grace</code></b> seconds after the end of the period, defaulting to one live period). 
+ * If <b><code>redis.ts.sketch.enabled</code></b> is true, series of the types in <b><code>redis.ts.sketch.types</code></b> also carry a 
+ * {@link QuantileSketch} of each period's samples, at a relative accuracy of <b><code>redis.ts.sketch.accuracy</code></b>. 
+ * Late and unaggregated samples are written as single sample records without a sketch, which <code>ts-batch</code> merges into the record 
+ * already stored for their live period. Late samples are counted by {@link #getLateSamples()}.</p>
+ * <p>A batch is flushed when it reaches <b><code>redis.ts.writer.batch.size</code></b> records or when 
+ * <b><code>redis.ts.writer.linger</code></b> ms have elapsed since the first record of the batch was taken.</p> 
+ * <p>Producers never wait on redis for longer than <b><code>redis.ts.writer.overload.timeout</code></b> ms. The writer becomes overloaded when 
+ * the connection manager reports a heartbeat failure or disconnect, when a flush fails, or when taking a connection from the pool takes longer than 
+ * <b><code>redis.ts.writer.overload.poolwait</code></b> ms, and recovers on the next fast, successful flush. While overloaded, 
+ * samples are shed according to the {@link OverloadPolicy} set in <b><code>redis.ts.writer.overload.policy</code></b> 
+ * (sampling one in <b><code>redis.ts.writer.overload.sample</code></b> for {@link OverloadPolicy#SAMPLE}).</p>
+ * <p>If <b><code>redis.ts.journal.enabled</code></b> is true, batches that cannot be written because redis is disconnected are 
+ * spilled into a memory-mapped {@link SampleJournal} in <b><code>redis.ts.journal.dir</code></b> 
+ * (<b><code>redis.ts.journal.segments</code></b> segments of <b><code>redis.ts.journal.segment.size</code></b> bytes) and replayed in the background 
+ * at up to <b><code>redis.ts.journal.replay.rate</code></b> records per second once the connection is restored. 
+ * Journaled records older than the live tier duration are discarded on replay, since their live slots have since been reused.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.TSWriter</code></p>
+ */
+public class TSWriter implements Runnable, SampleSink, ConnectionManagerListener {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The connection manager */
+	protected final RedisConnectionManager connectionManager;
+	/** The time-series model */
+	protected final TimeSeriesModel tsModel;
+	/** The lua script registry */
+	protected final ScriptRegistry scriptRegistry;
+	/** The series name to ID dictionary */
+	protected final SeriesDictionary dictionary;
+	/** The live tier */
+	protected final Tier liveTier;
+	/** The live tier pre-aggregator, null if aggregation is disabled */
+	protected final LiveAggregator aggregator;
+	/** The maximum number of samples in one batch script invocation */
+	protected final int scriptBatchSize;
+	/** The alias of the batch add script */
+	protected final String batchScript = TSScript.TS_BATCH.alias(null);
+	/** The keys passed to the batch add script */
+	protected static final List<String> SERIES_KEYS = Collections.unmodifiableList(Arrays.asList(TSConfiguration.TS_SERIES, TSConfiguration.TS_SERIES_TYPES));
+	/** The maximum number of samples in one pipelined flush */
+	protected final int batchSize;
+	/** The maximum time in ms a partial batch waits for more samples before being flushed */
+	protected final long lingerTime;
+	/** The ring buffer of samples pending write */
+	protected final SampleRingBuffer ringBuffer;
+	/** Indicates if the writer is running */
+	protected final AtomicBoolean running = new AtomicBoolean(false);
+	/** The flush thread */
+	protected Thread flushThread = null;
+	/** The policy applied to producers while overloaded */
+	protected final OverloadPolicy overloadPolicy;
+	/** The maximum time in ms a producer waits for space in the ring buffer */
+	protected final long overloadTimeout;
+	/** The pool wait time in ms above which the writer becomes overloaded */
+	protected final long overloadPoolWait;
+	/** The one in N rate samples are accepted at by {@link OverloadPolicy#SAMPLE} */
+	protected final int overloadSample;
+	/** The journal batches are spilled into while redis is disconnected, null if journaling is disabled */
+	protected final SampleJournal journal;
+	/** The maximum number of journaled records replayed per second */
+	protected final int replayRate;
+	/** Indicates if the journal is being replayed */
+	protected final AtomicBoolean replaying = new AtomicBoolean(false);
+	/** Indicates if the writer is overloaded */
+	protected volatile boolean overloaded = false;
+	/** The query cache cleared when replayed records are written, or null */
+	protected volatile QueryCache queryCache = null;
+	/** The sample sequence used by {@link OverloadPolicy#SAMPLE} */
+	protected final AtomicLong sampleSequence = new AtomicLong(0);
+	
+	/** The total number of records written to redis */
+	protected final AtomicLong recordsWritten = new AtomicLong(0);
+	/** The total number of pipelined flushes */
+	protected final AtomicLong flushCount = new AtomicLong(0);
+	/** The total number of failed flushes */
+	protected final AtomicLong flushErrors = new AtomicLong(0);
+	/** The total number of samples shed */
+	protected final AtomicLong samplesShed = new AtomicLong(0);
+	/** The total number of times the writer became overloaded */
+	protected final AtomicLong overloadCount = new AtomicLong(0);
+	/** The total number of journaled records discarded on replay because they were older than the live tier */
+	protected final AtomicLong replayExpired = new AtomicLong(0);
+	/** The total number of late samples written as single sample records because their live period had already been emitted */
+	protected final AtomicLong lateSamples = new AtomicLong(0);
+	/** The time in ms of the last late sample warning */
+	protected long lateWarningTime = 0;
+	
+	/** The default maximum batch size */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+	/** The default maximum number of samples in one batch script invocation */
+	public static final int DEFAULT_SCRIPT_BATCH_SIZE = 250;
+	/** The number of script arguments per record */
+	public static final int RECORD_ARGS = 9;
+	/** The default linger time in ms */
+	public static final long DEFAULT_LINGER_TIME = 100;
+	/** The default sample ring buffer size */
+	public static final int DEFAULT_QUEUE_SIZE = 131072;
+	/** The default maximum time in ms a producer waits for space in the ring buffer */
+	public static final long DEFAULT_OVERLOAD_TIMEOUT = 1000;
+	/** The default pool wait time in ms above which the writer becomes overloaded */
+	public static final long DEFAULT_OVERLOAD_POOL_WAIT = 250;
+	/** The default one in N rate samples are accepted at by {@link OverloadPolicy#SAMPLE} */
+	public static final int DEFAULT_OVERLOAD_SAMPLE = 10;
+	/** The default journal segment size in bytes */
+	public static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+	/** The default maximum number of journal segments */
+	public static final int DEFAULT_JOURNAL_SEGMENTS = 16;
+	/** The default maximum number of journaled records replayed per second */
+	public static final int DEFAULT_REPLAY_RATE = 10000;
+	/** The time in nanos the flush thread parks while waiting for samples */
+	public static final long IDLE_PARK_NANOS = 100000;
+	
+	/**
+	 * Creates a new TSWriter
+	 * @param connectionManager The redis connection manager
+	 * @param tsModel The time-series model
+	 * @param scriptRegistry The lua script registry
+	 * @param dictionary The series name to ID dictionary
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public TSWriter(RedisConnectionManager connectionManager, TimeSeriesModel tsModel, ScriptRegistry scriptRegistry, SeriesDictionary dictionary, Properties configProps) {
+		if(connectionManager==null) throw new IllegalArgumentException("The passed connection manager was null", new Throwable());
+		if(tsModel==null) throw new IllegalArgumentException("The passed model was null", new Throwable());
+		this.connectionManager = connectionManager;
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null", new Throwable());
+		this.tsModel = tsModel;
+		this.scriptRegistry = scriptRegistry;
+		if(dictionary==null) throw new IllegalArgumentException("The passed dictionary was null", new Throwable());
+		this.dictionary = dictionary;
+		liveTier = tsModel.getLiveTier();
+		batchSize = Integer.parseInt(configProps.getProperty("redis.ts.writer.batch.size", "" + DEFAULT_BATCH_SIZE));
+		lingerTime = Long.parseLong(configProps.getProperty("redis.ts.writer.linger", "" + DEFAULT_LINGER_TIME));
+		scriptBatchSize = Integer.parseInt(configProps.getProperty("redis.ts.writer.script.batch.size", "" + DEFAULT_SCRIPT_BATCH_SIZE));
+		if(Boolean.parseBoolean(configProps.getProperty("redis.ts.writer.aggregate", "true"))) {
+			long grace = aggregateGrace(configProps, liveTier);
+			if(Boolean.parseBoolean(configProps.getProperty("redis.ts.sketch.enabled", "false"))) {
+				aggregator = new LiveAggregator(liveTier, grace, 
+						TSType.forCodes(configProps.getProperty("redis.ts.sketch.types", TSType.TIMER.shortCode)), 
+						Double.parseDouble(configProps.getProperty("redis.ts.sketch.accuracy", "" + QuantileSketch.DEFAULT_ACCURACY)));
+			} else {
+				aggregator = new LiveAggregator(liveTier, grace);
+			}
+		} else {
+			aggregator = null;
+		}
+		ringBuffer = new SampleRingBuffer(Integer.parseInt(configProps.getProperty("redis.ts.writer.queue.size", "" + DEFAULT_QUEUE_SIZE)));
+		ringBuffer.registerMBean(new StringBuilder(getClass().getPackage().getName()).append(":service=SampleRingBuffer,name=TSWriter"));
+		overloadPolicy = OverloadPolicy.forName(configProps.getProperty("redis.ts.writer.overload.policy", OverloadPolicy.BLOCK.name()));
+		overloadTimeout = Long.parseLong(configProps.getProperty("redis.ts.writer.overload.timeout", "" + DEFAULT_OVERLOAD_TIMEOUT));
+		overloadPoolWait = Long.parseLong(configProps.getProperty("redis.ts.writer.overload.poolwait", "" + DEFAULT_OVERLOAD_POOL_WAIT));
+		overloadSample = Integer.parseInt(configProps.getProperty("redis.ts.writer.overload.sample", "" + DEFAULT_OVERLOAD_SAMPLE));
+		if(overloadSample<1) throw new IllegalArgumentException("Invalid overload sample rate [" + overloadSample + "]", new Throwable());
+		replayRate = Integer.parseInt(configProps.getProperty("redis.ts.journal.replay.rate", "" + DEFAULT_REPLAY_RATE));
+		if(replayRate<1) throw new IllegalArgumentException("Invalid journal replay rate [" + replayRate + "]", new Throwable());
+		if(Boolean.parseBoolean(configProps.getProperty("redis.ts.journal.enabled", "false"))) {
+			File dir = new File(configProps.getProperty("redis.ts.journal.dir", System.getProperty("java.io.tmpdir") + File.separator + "redis-ts-journal"));
+			try {
+				journal = new SampleJournal(dir, 
+						Integer.parseInt(configProps.getProperty("redis.ts.journal.segment.size", "" + DEFAULT_JOURNAL_SEGMENT_SIZE)), 
+						Integer.parseInt(configProps.getProperty("redis.ts.journal.segments", "" + DEFAULT_JOURNAL_SEGMENTS)));
+			} catch (IOException ioe) {
+				throw new RuntimeException("Failed to open journal in [" + dir + "]", ioe);
+			}
+		} else {
+			journal = null;
+		}
+		if(batchSize<1) throw new IllegalArgumentException("Invalid batch size [" + batchSize + "]", new Throwable());
+		if(scriptBatchSize<1) throw new IllegalArgumentException("Invalid script batch size [" + scriptBatchSize + "]", new Throwable());
+	}
+	
+	/**
+	 * Starts the flush thread
+	 */
+	public void start() {
+		if(running.compareAndSet(false, true)) {
+			connectionManager.addListener(this);
+			flushThread = new Thread(this, getClass().getSimpleName() + "FlushThread");
+			flushThread.setDaemon(true);
+			flushThread.start();
+			log.info("TSWriter Started. Batch Size:" + batchSize + " Linger:" + lingerTime + " ms");
+			if(connectionManager.isConnected()) startReplay();
+		}
+	}
+	
+	/**
+	 * Stops the flush thread after flushing any queued samples
+	 */
+	public void stop() {
+		if(running.compareAndSet(true, false)) {
+			try {
+				flushThread.join(lingerTime * 10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flushThread = null;
+			connectionManager.removeListener(this);
+			if(journal!=null) journal.force();
+			log.info("TSWriter Stopped");
+		}
+	}
+	
+	/**
+	 * Submits a sample for writing, subject to the overload policy
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleSink#write(java.lang.String, long, double)
+	 */
+	@Override
+	public void write(String series, long timestamp, double value) {
+		write(series, TSType.GAUGE, timestamp, value);
+	}
+	
+	/**
+	 * Submits a typed sample for writing, subject to the overload policy
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.ingest.SampleSink#write(java.lang.String, org.helios.redis.ts.tsmodel.TSType, long, double)
+	 */
+	@Override
+	public void write(String series, TSType type, long timestamp, double value) {
+		if(series==null) throw new IllegalArgumentException("The passed series was null", new Throwable());
+		if(type==null) throw new IllegalArgumentException("The passed type was null", new Throwable());
+		boolean accepted;
+		if(!overloaded) {
+			accepted = ringBuffer.offer(series, type, timestamp, value, overloadTimeout, TimeUnit.MILLISECONDS);
+		} else {
+			switch(overloadPolicy) {
+				case DROP_NEWEST:
+					accepted = ringBuffer.offer(series, type, timestamp, value);
+					break;
+				case SAMPLE:
+					accepted = sampleSequence.incrementAndGet()%overloadSample==0 && ringBuffer.offer(series, type, timestamp, value);
+					break;
+				default:
+					// BLOCK waits for the flush thread, DROP_OLDEST waits for it to discard the oldest samples
+					accepted = ringBuffer.offer(series, type, timestamp, value, overloadTimeout, TimeUnit.MILLISECONDS);
+			}
+		}
+		if(!accepted) samplesShed.incrementAndGet();
+	}
+	
+	/**
+	 * Submits a sample for writing, subject to the overload policy
+	 * @param sample The sample to write
+	 */
+	public void write(Sample sample) {
+		write(sample.series, sample.type, sample.timestamp, sample.value);
+	}
+	
+	/**
+	 * Marks the writer as overloaded or recovered
+	 * @param overload true if the writer is overloaded, false if it has recovered
+	 * @param reason The reason for the change
+	 */
+	protected void setOverloaded(boolean overload, String reason) {
+		if(overloaded==overload) return;
+		overloaded = overload;
+		if(overload) {
+			overloadCount.incrementAndGet();
+			log.warn("TSWriter overloaded [" + reason + "]. Applying policy [" + overloadPolicy + "]");
+		} else {
+			log.info("TSWriter recovered [" + reason + "]. Samples shed so far:" + samplesShed.get());
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.controller.conn.ConnectionManagerListener#onConnectNewInstance()
+	 */
+	@Override
+	public void onConnectNewInstance() {
+		dictionary.clear();
+		setOverloaded(false, "connected to new instance");
+		startReplay();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.controller.conn.ConnectionManagerListener#onConnect()
+	 */
+	@Override
+	public void onConnect() {
+		setOverloaded(false, "reconnected");
+		startReplay();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.controller.conn.ConnectionManagerListener#onDisconnect()
+	 */
+	@Override
+	public void onDisconnect() {
+		setOverloaded(true, "disconnected");
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see org.helios.redis.ts.controller.conn.ConnectionManagerListener#onHeartbeatFailed()
+	 */
+	@Override
+	public void onHeartbeatFailed() {
+		setOverloaded(true, "heartbeat failed");
+	}
+	
+	/**
+	 * The flush loop. Drains the ring buffer into the live aggregator (or straight into the record batch if aggregation is disabled), 
+	 * emits the records of closed live periods and flushes the record batch when it is full or the linger time 
+	 * since its first record expires.
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		final SampleBatch samples = new SampleBatch(batchSize);
+		final RecordBatch records = new RecordBatch(batchSize);
+		long firstRecordTime = -1L;
+		while(running.get() || ringBuffer.getQueueDepth()>0) {
+			try {
+				if(overloaded && overloadPolicy==OverloadPolicy.DROP_OLDEST) {
+					long excess = ringBuffer.getQueueDepth() - ringBuffer.getCapacity()/2;
+					if(excess>0) samplesShed.addAndGet(ringBuffer.discard((int)excess));
+				}
+				int drained = ringBuffer.drainTo(samples, batchSize);
+				for(int i = 0; i < drained; i++) {
+					if(aggregator==null || !aggregator.accumulate(samples.series[i], samples.types[i], samples.timestamps[i], samples.values[i])) {
+						if(aggregator!=null) late();
+						if(records.isFull()) flushAndClear(records);
+						records.add(samples.series[i], samples.types[i], samples.timestamps[i], samples.values[i]);
+					}
+				}
+				samples.clear();
+				long now = System.currentTimeMillis();
+				if(aggregator!=null) {
+					while(aggregator.drainClosed(now/1000, records)) {
+						flushAndClear(records);
+					}
+				}
+				if(records.isEmpty()) {
+					firstRecordTime = -1L;
+				} else {
+					if(firstRecordTime==-1L) firstRecordTime = now;
+					if(records.isFull() || !running.get() || now-firstRecordTime >= lingerTime) {
+						flushAndClear(records);
+						firstRecordTime = -1L;
+						continue;
+					}
+				}
+				if(drained==0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+			} catch (Exception e) {
+				log.error("Unexpected exception in flush loop", e);
+				samples.clear();
+				records.clear();
+				firstRecordTime = -1L;
+			}
+		}
+		if(aggregator!=null) {
+			while(aggregator.drainAll(records)) {
+				flushAndClear(records);
+			}
+		}
+		flushAndClear(records);
+	}
+	
+	/**
+	 * Flushes and then clears the passed batch
+	 * @param batch The batch to flush
+	 */
+	protected void flushAndClear(RecordBatch batch) {
+		try {
+			flush(batch);
+		} finally {
+			batch.clear();
+		}
+	}
+	
+	/**
+	 * Writes the passed batch of records to redis in one pipeline, spilling it to the journal if redis is disconnected.
+	 * A successful write starts the replay of any journaled records, so records spilled during an outage are replayed once redis is writable again.
+	 * @param batch The records to write
+	 */
+	protected void flush(RecordBatch batch) {
+		if(batch.isEmpty()) return;
+		if(journal!=null && !connectionManager.isConnected()) {
+			spill(batch);
+			return;
+		}
+		try {
+			long poolWait = writeBatch(batch);
+			recordsWritten.addAndGet(batch.size());
+			flushCount.incrementAndGet();
+			if(overloaded && poolWait<=overloadPoolWait && connectionManager.isConnected()) setOverloaded(false, "flush succeeded");
+			if(journal!=null && journal.getPending()>0) startReplay();
+		} catch (JedisConnectionException jce) {
+			flushErrors.incrementAndGet();
+			setOverloaded(true, "connection failure");
+			log.error("Connection failure flushing batch of [" + batch.size() + "] records", jce);
+			spill(batch);
+		} catch (Exception e) {
+			flushErrors.incrementAndGet();
+			log.error("Failed to flush batch of [" + batch.size() + "] records", e);
+		}
+	}
+	
+	/**
+	 * Appends the passed batch to the journal if journaling is enabled
+	 * @param batch The records to journal
+	 */
+	protected void spill(RecordBatch batch) {
+		if(journal==null) return;
+		int appended = journal.append(batch);
+		if(appended<batch.size()) log.warn("Journal full. Dropped [" + (batch.size()-appended) + "] records");
+	}
+	
+	/**
+	 * Writes the passed batch of records to redis in one pipeline, reloading the scripts and replaying the missed chunks once if redis reports them missing
+	 * @param batch The records to write
+	 * @return the time in ms spent waiting for a pooled connection
+	 * @throws JedisDataException thrown with the first script error reply
+	 */
+	protected long writeBatch(RecordBatch batch) {
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			long start = System.nanoTime();
+			jedis = connectionManager.getJedis();
+			long poolWait = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-start);
+			if(poolWait>overloadPoolWait) setOverloaded(true, "pool wait of " + poolWait + " ms");
+			if(!scriptRegistry.isLoaded()) {
+				scriptRegistry.load(jedis);
+			}
+			dictionary.resolve(jedis, batch.series, 0, batch.size());
+			List<Object> replies = pipeline(jedis, batch);
+			if(ScriptRegistry.containsNoScript(replies)) {
+				log.warn("Scripts missing from redis. Reloading and replaying the missed chunks.");
+				scriptRegistry.load(jedis);
+				replies = replay(jedis, batch, replies);
+			}
+			JedisDataException error = ScriptRegistry.getError(replies);
+			if(error!=null) throw error;
+			return poolWait;
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+	}
+	
+	/**
+	 * Starts the background journal replay if there are journaled records and it is not already running
+	 */
+	protected void startReplay() {
+		if(journal==null || journal.getPending()==0 || !replaying.compareAndSet(false, true)) return;
+		Thread t = new Thread(new Runnable(){
+			public void run() {
+				try {
+					replayJournal();
+				} finally {
+					replaying.set(false);
+				}
+			}
+		}, getClass().getSimpleName() + "ReplayThread");
+		t.setDaemon(true);
+		t.start();
+	}
+	
+	/**
+	 * Replays the journal into redis at up to {@link #replayRate} records per second until it is empty or the connection is lost
+	 */
+	protected void replayJournal() {
+		log.info("Replaying [" + journal.getPending() + "] journaled records");
+		RecordBatch batch = new RecordBatch(Math.min(batchSize, replayRate));
+		try {
+			while(connectionManager.isConnected()) {
+				long start = System.currentTimeMillis();
+				int read = journal.read(batch, batch.capacity());
+				if(read==0) break;
+				replayExpired.addAndGet(batch.removeBefore(start/1000 - liveTier.getTierDuration().seconds));
+				if(!batch.isEmpty()) {
+					writeBatch(batch);
+					recordsWritten.addAndGet(batch.size());
+					// replayed records backfill periods the query cache may already hold
+					QueryCache cache = queryCache;
+					if(cache!=null) cache.clear();
+				}
+				journal.commit(read);
+				batch.clear();
+				long pause = (read * 1000L / replayRate) - (System.currentTimeMillis() - start);
+				if(pause>0) Thread.sleep(pause);
+			}
+			log.info("Journal replay ended. Pending:" + journal.getPending() + " Replayed:" + journal.getReplayed() + " Expired:" + replayExpired.get());
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			log.warn("Journal replay stopped with [" + journal.getPending() + "] records pending", e);
+		}
+	}
+	
+	/**
+	 * Writes the passed batch in one pipeline and returns the results.
+	 * The batch is split into chunks of {@link #scriptBatchSize} records, each written by one <code>ts-batch</code> invocation.
+	 * @param jedis The jedis connection
+	 * @param batch The records to write
+	 * @return the pipeline results
+	 */
+	protected List<Object> pipeline(Jedis jedis, RecordBatch batch) {
+		ScriptPipeline pipeline = ScriptPipeline.pipelined(jedis);
+		int size = batch.size();
+		for(int from = 0; from < size; from += scriptBatchSize) {
+			writeChunk(pipeline, batch, from, Math.min(size, from + scriptBatchSize));
+		}
+		return pipeline.syncRaw();
+	}
+	
+	/**
+	 * Rewrites the chunks of a written batch whose <code>ts-batch</code> invocation failed because redis did not have the script, 
+	 * so the chunks that were written are not written twice
+	 * @param jedis The jedis connection
+	 * @param batch The records written
+	 * @param replies The pipeline results of the first write, one per chunk
+	 * @return the pipeline results with the results of the rewritten chunks replaced
+	 */
+	protected List<Object> replay(Jedis jedis, RecordBatch batch, List<Object> replies) {
+		ScriptPipeline pipeline = ScriptPipeline.pipelined(jedis);
+		int size = batch.size();
+		List<Integer> missed = new ArrayList<Integer>();
+		for(int chunk = 0; chunk < replies.size(); chunk++) {
+			if(!ScriptRegistry.isNoScript(replies.get(chunk))) continue;
+			int from = chunk * scriptBatchSize;
+			writeChunk(pipeline, batch, from, Math.min(size, from + scriptBatchSize));
+			missed.add(chunk);
+		}
+		List<Object> replayed = pipeline.syncRaw();
+		List<Object> results = new ArrayList<Object>(replies);
+		for(int i = 0; i < missed.size(); i++) {
+			results.set(missed.get(i), replayed.get(i));
+		}
+		return results;
+	}
+	
+	/**
+	 * Appends one <code>ts-batch</code> invocation for a range of records to the passed pipeline
+	 * @param pipeline The pipeline to write to
+	 * @param batch The batch of records
+	 * @param from The index of the first record to write (inclusive)
+	 * @param to The index of the last record to write (exclusive)
+	 */
+	protected void writeChunk(ScriptPipeline pipeline, RecordBatch batch, int from, int to) {
+		List<String> args = new ArrayList<String>((to-from)*RECORD_ARGS);
+		for(int i = from; i < to; i++) {
+			args.add(dictionary.get(batch.series[i]).code);
+			args.add(Integer.toString(batch.types[i].ordinal()));
+			args.add(Long.toString(batch.timestamps[i]));
+			args.add(Long.toString(batch.counts[i]));
+			args.add(Double.toString(batch.sums[i]));
+			args.add(Double.toString(batch.mins[i]));
+			args.add(Double.toString(batch.maxs[i]));
+			args.add(Double.toString(batch.lasts[i]));
+			args.add(batch.sketches[i]==null ? "" : batch.sketches[i]);
+		}
+		scriptRegistry.evalsha(pipeline, batchScript, SERIES_KEYS, args);
+	}
+
+	/**
+	 * Returns the number of samples pending write
+	 * @return the number of samples pending write
+	 */
+	public long getQueueDepth() {
+		return ringBuffer.getQueueDepth();
+	}
+	
+	/**
+	 * Returns the total number of samples submitted
+	 * @return the total number of samples submitted
+	 */
+	public long getSamplesReceived() {
+		return ringBuffer.getPublished();
+	}
+
+	/**
+	 * Returns the total number of records written to redis
+	 * @return the total number of records written to redis
+	 */
+	public long getRecordsWritten() {
+		return recordsWritten.get();
+	}
+	
+	/**
+	 * Returns the live aggregator
+	 * @return the live aggregator or null if aggregation is disabled
+	 */
+	public LiveAggregator getAggregator() {
+		return aggregator;
+	}
+
+	/**
+	 * Returns the total number of pipelined flushes
+	 * @return the total number of pipelined flushes
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * Returns the total number of failed flushes
+	 * @return the total number of failed flushes
+	 */
+	public long getFlushErrors() {
+		return flushErrors.get();
+	}
+
+	/**
+	 * Returns the total number of samples shed by backpressure and the overload policy
+	 * @return the total number of samples shed
+	 */
+	public long getSamplesShed() {
+		return samplesShed.get();
+	}
+	
+	/**
+	 * Returns the total number of times the writer became overloaded
+	 * @return the total number of times the writer became overloaded
+	 */
+	public long getOverloadCount() {
+		return overloadCount.get();
+	}
+	
+	/**
+	 * Indicates if the writer is overloaded
+	 * @return true if the writer is overloaded
+	 */
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+	
+	/**
+	 * Returns the policy applied to producers while overloaded
+	 * @return the overload policy
+	 */
+	public OverloadPolicy getOverloadPolicy() {
+		return overloadPolicy;
+	}
+
+	/**
+	 * Returns the configured live aggregation grace time
+	 * @param configProps The redis-ts.config specified properties
+	 * @param liveTier The live tier of the time-series model
+	 * @return the aggregation grace time in seconds, or 0 if live aggregation is disabled
+	 */
+	public static long aggregateGrace(Properties configProps, Tier liveTier) {
+		if(!Boolean.parseBoolean(configProps.getProperty("redis.ts.writer.aggregate", "true"))) return 0;
+		return Long.parseLong(configProps.getProperty("redis.ts.writer.aggregate.grace", "" + liveTier.getPeriodDuration().seconds));
+	}
+	
+	/**
+	 * Counts a late sample, warning at most once a minute that the aggregation grace time may be too short
+	 */
+	protected void late() {
+		long count = lateSamples.incrementAndGet();
+		long now = System.currentTimeMillis();
+		if(now - lateWarningTime >= 60000) {
+			lateWarningTime = now;
+			log.warn("Late samples written outside their live period aggregate. Total:" + count + ". Consider a longer redis.ts.writer.aggregate.grace");
+		}
+	}
+	
+	/**
+	 * Returns the total number of late samples written as single sample records, which are merged into the period aggregate already 
+	 * written for their bucket. A steadily rising count means the aggregation grace time is shorter than the ingest delay.
+	 * @return the total number of late samples
+	 */
+	public long getLateSamples() {
+		return lateSamples.get();
+	}
+
+	/**
+	 * Sets the query cache to clear when replayed records are written
+	 * @param queryCache The query cache, or null
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+	
+	/**
+	 * Returns the journal
+	 * @return the journal or null if journaling is disabled
+	 */
+	public SampleJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * Returns the total number of journaled records discarded on replay because they were older than the live tier
+	 * @return the number of expired journaled records
+	 */
+	public long getReplayExpired() {
+		return replayExpired.get();
+	}
+
+	/**
+	 * Returns the maximum batch size
+	 * @return the maximum batch size
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Returns the linger time in ms
+	 * @return the linger time in ms
+	 */
+	public long getLingerTime() {
+		return lingerTime;
+	}
+}
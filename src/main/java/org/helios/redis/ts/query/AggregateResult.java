@@ -0,0 +1,126 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.util.List;
+
+/**
+ * <p>Title: AggregateResult</p>
+ * <p>Description: The records of many series aggregated across the series for each period of a query range, in primitive columns in time order. 
+ * Periods in which none of the series has data have no record.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.AggregateResult</code></p>
+ */
+public class AggregateResult {
+	/** The start of the query range as unix time in seconds (inclusive) */
+	public final long from;
+	/** The end of the query range as unix time in seconds (inclusive) */
+	public final long to;
+	/** The tier segments the range was read from, in time order */
+	public final List<QuerySegment> segments;
+	/** The number of requested series that have been written */
+	public final int seriesCount;
+	/** The period timestamps */
+	public final long[] timestamps;
+	/** The number of series with data in each period */
+	public final int[] series;
+	/** The total sample count of each period */
+	public final long[] counts;
+	/** The sample sum of each period */
+	public final double[] sums;
+	/** The sample minimum of each period */
+	public final double[] mins;
+	/** The sample maximum of each period */
+	public final double[] maxs;
+	/** The number of periods with data */
+	protected int size = 0;
+	
+	/**
+	 * Creates a new AggregateResult with empty columns
+	 * @param from The start of the query range as unix time in seconds (inclusive)
+	 * @param to The end of the query range as unix time in seconds (inclusive)
+	 * @param segments The tier segments the range was read from, in time order
+	 * @param seriesCount The number of requested series that have been written
+	 * @param capacity The maximum number of periods
+	 */
+	public AggregateResult(long from, long to, List<QuerySegment> segments, int seriesCount, int capacity) {
+		this.from = from;
+		this.to = to;
+		this.segments = segments;
+		this.seriesCount = seriesCount;
+		timestamps = new long[capacity];
+		series = new int[capacity];
+		counts = new long[capacity];
+		sums = new double[capacity];
+		mins = new double[capacity];
+		maxs = new double[capacity];
+	}
+	
+	/**
+	 * Appends the aggregate of one period
+	 * @param timestamp The period timestamp
+	 * @param seriesWithData The number of series with data in the period
+	 * @param count The total sample count
+	 * @param sum The sample sum
+	 * @param min The sample minimum
+	 * @param max The sample maximum
+	 */
+	public void add(long timestamp, int seriesWithData, long count, double sum, double min, double max) {
+		timestamps[size] = timestamp;
+		series[size] = seriesWithData;
+		counts[size] = count;
+		sums[size] = sum;
+		mins[size] = min;
+		maxs[size] = max;
+		size++;
+	}
+	
+	/**
+	 * Returns the sample average of a period
+	 * @param index The index of the period
+	 * @return the sample average
+	 */
+	public double avg(int index) {
+		return sums[index] / counts[index];
+	}
+	
+	/**
+	 * Returns the number of periods with data
+	 * @return the number of periods with data
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("AggregateResult [series:").append(seriesCount).append(" periods:").append(size).append(" segments:").append(segments).append("]").toString();
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.util.List;
+
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: MultiQueryResult</p>
+ * <p>Description: The records of many series over one query range, merged into primitive columns. 
+ * The records of series <code>i</code> are at the column indexes from <code>offsets[i]</code> (inclusive) to <code>offsets[i+1]</code> (exclusive), in time order.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.MultiQueryResult</code></p>
+ */
+public class MultiQueryResult {
+	/** The series names in request order */
+	public final String[] series;
+	/** The series value types, null for a series that has never been written */
+	public final TSType[] types;
+	/** The start of the query range as unix time in seconds (inclusive) */
+	public final long from;
+	/** The end of the query range as unix time in seconds (inclusive) */
+	public final long to;
+	/** The tier segments the range was read from, in time order */
+	public final List<QuerySegment> segments;
+	/** The column index of the first record of each series, followed by the total number of records */
+	public final int[] offsets;
+	/** The record timestamps */
+	public final long[] timestamps;
+	/** The record sample counts */
+	public final long[] counts;
+	/** The record sample sums */
+	public final double[] sums;
+	/** The record sample minimums */
+	public final double[] mins;
+	/** The record sample maximums */
+	public final double[] maxs;
+	/** The record last sample values */
+	public final double[] lasts;
+	
+	/**
+	 * Creates a new MultiQueryResult with empty columns sized for the passed number of records
+	 * @param series The series names in request order
+	 * @param from The start of the query range as unix time in seconds (inclusive)
+	 * @param to The end of the query range as unix time in seconds (inclusive)
+	 * @param segments The tier segments the range was read from, in time order
+	 * @param size The total number of records
+	 */
+	public MultiQueryResult(String[] series, long from, long to, List<QuerySegment> segments, int size) {
+		this.series = series;
+		this.from = from;
+		this.to = to;
+		this.segments = segments;
+		types = new TSType[series.length];
+		offsets = new int[series.length + 1];
+		timestamps = new long[size];
+		counts = new long[size];
+		sums = new double[size];
+		mins = new double[size];
+		maxs = new double[size];
+		lasts = new double[size];
+	}
+	
+	/**
+	 * Returns the total number of records
+	 * @return the total number of records
+	 */
+	public int size() {
+		return timestamps.length;
+	}
+	
+	/**
+	 * Returns the number of records of one series
+	 * @param index The index of the series in request order
+	 * @return the number of records of the series
+	 */
+	public int size(int index) {
+		return offsets[index+1] - offsets[index];
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("MultiQueryResult [series:").append(series.length).append(" records:").append(timestamps.length).append(" segments:").append(segments).append("]").toString();
+	}
+}
@@ -0,0 +1,333 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.rollup.RollupEngine;
+import org.helios.redis.ts.tsmodel.Tier;
+
+/**
+ * <p>Title: QueryCache</p>
+ * <p>Description: A cache of the decoded records of closed tier chunks. A chunk is a fixed number of tier periods aligned to a multiple 
+ * of its span, so the same chunk is hit by every query overlapping it, whatever the query's own boundaries are. 
+ * Only chunks that ended at least the settle time ago are cached, since the slots of closed periods never change once the 
+ * live aggregation grace and the rollup of the period have passed.</p>
+ * <p>The settle time can therefore not be shorter than the rollup grace time, <b><code>redis.ts.rollup.grace</code></b> or its 
+ * {@link RollupEngine#minGrace(Properties, Tier) minimum} covering <b><code>redis.ts.writer.aggregate.grace</code></b>, 
+ * plus one live period for the rollup pass to complete. 
+ * It defaults to the larger of {@link #DEFAULT_SETTLE} and that minimum, and a smaller configured settle time is rejected.</p>
+ * <p>Closed periods can still be written after the settle time by a journal replay after an outage or by a rollup catching up missed buckets, 
+ * so the writer, the rollup engine and the reconnect handler {@link #clear() clear} the cache when they do. Every clear starts a new generation, 
+ * and the records of a read started in an earlier generation are not cached, so a read racing a clear does not cache the data it replaced.</p>
+ * <p>The cache is an LRU bounded by the total number of cached records.</p>
+ * <p>Thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.QueryCache</code></p>
+ */
+public class QueryCache {
+	/** The number of tier periods in a chunk */
+	protected final int chunkPeriods;
+	/** The time in seconds after the end of a chunk before it is considered closed */
+	protected final long settle;
+	/** The maximum total number of cached records */
+	protected final long maxRecords;
+	/** The cached chunks in access order */
+	protected final LinkedHashMap<Key, RecordBatch> chunks = new LinkedHashMap<Key, RecordBatch>(1024, 0.75f, true);
+	/** The total number of cached records */
+	protected long records = 0;
+	/** The total number of chunk hits */
+	protected long hits = 0;
+	/** The total number of chunk misses */
+	protected long misses = 0;
+	/** The total number of evicted chunks */
+	protected long evictions = 0;
+	/** The cache generation, incremented on every clear */
+	protected long generation = 0;
+	
+	/** The default number of tier periods in a chunk */
+	public static final int DEFAULT_CHUNK_PERIODS = 32;
+	/** The default settle time in seconds */
+	public static final long DEFAULT_SETTLE = 120;
+	/** The default maximum total number of cached records */
+	public static final long DEFAULT_MAX_RECORDS = 1000000;
+	
+	/**
+	 * Creates a new QueryCache
+	 * @param chunkPeriods The number of tier periods in a chunk
+	 * @param settle The time in seconds after the end of a chunk before it is considered closed
+	 * @param maxRecords The maximum total number of cached records
+	 */
+	public QueryCache(int chunkPeriods, long settle, long maxRecords) {
+		if(chunkPeriods<1) throw new IllegalArgumentException("Invalid chunk periods [" + chunkPeriods + "]", new Throwable());
+		if(settle<0) throw new IllegalArgumentException("Invalid settle time [" + settle + "]", new Throwable());
+		if(maxRecords<1) throw new IllegalArgumentException("Invalid max records [" + maxRecords + "]", new Throwable());
+		this.chunkPeriods = chunkPeriods;
+		this.settle = settle;
+		this.maxRecords = maxRecords;
+	}
+	
+	/**
+	 * Creates a new QueryCache from the redis-ts configuration
+	 * @param configProps The redis-ts.config specified properties
+	 * @param liveTier The live tier of the time-series model
+	 */
+	public QueryCache(Properties configProps, Tier liveTier) {
+		this(Integer.parseInt(configProps.getProperty("redis.ts.query.cache.chunk", "" + DEFAULT_CHUNK_PERIODS)), 
+				settle(configProps, liveTier), 
+				Long.parseLong(configProps.getProperty("redis.ts.query.cache.records", "" + DEFAULT_MAX_RECORDS)));
+	}
+	
+	/**
+	 * Returns the minimum settle time for the configured rollup and live aggregation grace times.
+	 * The rollup grace time is not validated here, since the rollup engine may be disabled.
+	 * @param configProps The redis-ts.config specified properties
+	 * @param liveTier The live tier of the time-series model
+	 * @return the minimum settle time in seconds
+	 */
+	public static long minSettle(Properties configProps, Tier liveTier) {
+		long grace = RollupEngine.minGrace(configProps, liveTier);
+		String rollupGrace = configProps.getProperty("redis.ts.rollup.grace");
+		if(rollupGrace!=null) grace = Math.max(grace, Long.parseLong(rollupGrace.trim()));
+		return grace + liveTier.getPeriodDuration().seconds;
+	}
+	
+	/**
+	 * Returns the configured settle time, validated against the minimum settle time
+	 * @param configProps The redis-ts.config specified properties
+	 * @param liveTier The live tier of the time-series model
+	 * @return the settle time in seconds
+	 */
+	protected static long settle(Properties configProps, Tier liveTier) {
+		long minSettle = minSettle(configProps, liveTier);
+		String value = configProps.getProperty("redis.ts.query.cache.settle");
+		if(value==null) return Math.max(DEFAULT_SETTLE, minSettle);
+		long settle = Long.parseLong(value.trim());
+		if(settle<minSettle) throw new IllegalArgumentException("The query cache settle time [" + settle + "] is less than the minimum [" + minSettle + "] required by the rollup and aggregation grace times", new Throwable());
+		return settle;
+	}
+	
+	/**
+	 * Returns the span in seconds of a chunk of the passed tier
+	 * @param tier The tier
+	 * @return the chunk span in seconds
+	 */
+	public long span(Tier tier) {
+		return tier.getPeriodDuration().seconds * chunkPeriods;
+	}
+	
+	/**
+	 * Returns the start of the chunk containing the passed timestamp
+	 * @param tier The tier
+	 * @param timestamp The timestamp as unix time in seconds
+	 * @return the chunk start as unix time in seconds
+	 */
+	public long chunkStart(Tier tier, long timestamp) {
+		long span = span(tier);
+		long rem = timestamp % span;
+		return rem<0 ? timestamp - rem - span : timestamp - rem;
+	}
+	
+	/**
+	 * Indicates if the chunk starting at the passed timestamp is closed
+	 * @param tier The tier
+	 * @param chunkStart The chunk start as unix time in seconds
+	 * @param now The current time as unix time in seconds
+	 * @return true if the chunk is closed and may be cached
+	 */
+	public boolean isClosed(Tier tier, long chunkStart, long now) {
+		return chunkStart + span(tier) + settle <= now;
+	}
+	
+	/**
+	 * Returns the cached records of a chunk
+	 * @param code The encoded series ID
+	 * @param tier The tier
+	 * @param chunkStart The chunk start as unix time in seconds
+	 * @return the cached records, or null if the chunk is not cached
+	 */
+	public synchronized RecordBatch get(String code, Tier tier, long chunkStart) {
+		RecordBatch batch = chunks.get(new Key(code, tier.getLevel(), chunkStart));
+		if(batch==null) misses++;
+		else hits++;
+		return batch;
+	}
+	
+	/**
+	 * Caches the records of a closed chunk, compacted to their size, then evicts the least recently used chunks 
+	 * until the total number of cached records fits
+	 * @param code The encoded series ID
+	 * @param tier The tier
+	 * @param chunkStart The chunk start as unix time in seconds
+	 * @param batch The decoded records of the chunk
+	 */
+	public synchronized void put(String code, Tier tier, long chunkStart, RecordBatch batch) {
+		put(code, tier, chunkStart, batch, generation);
+	}
+	
+	/**
+	 * Caches the records of a closed chunk read in the passed generation, unless the cache has been cleared since the read started
+	 * @param code The encoded series ID
+	 * @param tier The tier
+	 * @param chunkStart The chunk start as unix time in seconds
+	 * @param batch The decoded records of the chunk
+	 * @param readGeneration The {@link #getGeneration() generation} when the chunk read was started
+	 */
+	public synchronized void put(String code, Tier tier, long chunkStart, RecordBatch batch, long readGeneration) {
+		if(readGeneration!=generation) return;
+		RecordBatch compact = new RecordBatch(Math.max(1, batch.size()));
+		for(int i = 0; i < batch.size(); i++) {
+			compact.add(batch, i);
+		}
+		RecordBatch prior = chunks.put(new Key(code, tier.getLevel(), chunkStart), compact);
+		if(prior!=null) records -= prior.capacity();
+		records += compact.capacity();
+		Iterator<RecordBatch> iter = chunks.values().iterator();
+		while(records>maxRecords && iter.hasNext()) {
+			records -= iter.next().capacity();
+			iter.remove();
+			evictions++;
+		}
+	}
+	
+	/**
+	 * Discards all cached chunks and starts a new generation
+	 */
+	public synchronized void clear() {
+		chunks.clear();
+		records = 0;
+		generation++;
+	}
+	
+	/**
+	 * Returns the cache generation, which is incremented on every clear
+	 * @return the cache generation
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Returns the number of tier periods in a chunk
+	 * @return the number of tier periods in a chunk
+	 */
+	public int getChunkPeriods() {
+		return chunkPeriods;
+	}
+	
+	/**
+	 * Returns the number of cached chunks
+	 * @return the number of cached chunks
+	 */
+	public synchronized int getChunkCount() {
+		return chunks.size();
+	}
+	
+	/**
+	 * Returns the total number of cached records
+	 * @return the total number of cached records
+	 */
+	public synchronized long getRecordCount() {
+		return records;
+	}
+	
+	/**
+	 * Returns the total number of chunk hits
+	 * @return the total number of chunk hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * Returns the total number of chunk misses
+	 * @return the total number of chunk misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Returns the total number of evicted chunks
+	 * @return the total number of evicted chunks
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+	
+	/**
+	 * <p>Title: Key</p>
+	 * <p>Description: The cache key of a chunk of a series in a tier</p> 
+	 */
+	protected static class Key {
+		/** The encoded series ID */
+		protected final String code;
+		/** The tier level */
+		protected final int level;
+		/** The chunk start */
+		protected final long chunkStart;
+		
+		/**
+		 * Creates a new Key
+		 * @param code The encoded series ID
+		 * @param level The tier level
+		 * @param chunkStart The chunk start
+		 */
+		protected Key(String code, int level, long chunkStart) {
+			this.code = code;
+			this.level = level;
+			this.chunkStart = chunkStart;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int result = code.hashCode();
+			result = 31 * result + level;
+			result = 31 * result + (int)(chunkStart ^ (chunkStart >>> 32));
+			return result;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if(this==obj) return true;
+			if(!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return level==other.level && chunkStart==other.chunkStart && code.equals(other.code);
+		}
+	}
+}
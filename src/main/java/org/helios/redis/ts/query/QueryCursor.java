@@ -0,0 +1,197 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.series.SeriesId;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+
+/**
+ * <p>Title: QueryCursor</p>
+ * <p>Description: A streaming range query over one series. The planned segments are read in chunks of a fixed number of tier periods, 
+ * in time order, into one of two record batches allocated when the cursor is opened. While the caller processes the current chunk, 
+ * the next one is prefetched into the other batch by the query executor, so memory use does not depend on the length of the range.</p>
+ * <p>Usage: <code>while(cursor.next()) { RecordBatch records = cursor.current(); ... }</code>, then {@link #close()}. 
+ * A chunk with no data is returned as an empty batch. The batch returned by {@link #current()} is reused once {@link #next()} is called again.</p>
+ * <p>Not thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.QueryCursor</code></p>
+ */
+public class QueryCursor implements Closeable {
+	/** The reader that reads the chunks */
+	protected final TSReader reader;
+	/** The series mapping, null if the series has never been written */
+	protected final SeriesId sid;
+	/** The series value type, null if the series has never been written */
+	protected final TSType type;
+	/** The planned segments in time order */
+	protected final List<QuerySegment> segments;
+	/** The maximum number of tier periods in a chunk */
+	protected final int chunkPeriods;
+	/** The index of the segment the next chunk is read from */
+	protected int segmentIndex = 0;
+	/** The start of the next chunk */
+	protected long position;
+	/** The batch holding the current chunk */
+	protected RecordBatch current;
+	/** The batch the next chunk is read into */
+	protected RecordBatch spare;
+	/** The pending prefetch of the next chunk, null if there is none */
+	protected Future<RecordBatch> pending = null;
+	/** Indicates if the current batch holds a chunk */
+	protected boolean started = false;
+	/** Indicates if the cursor has been closed */
+	protected boolean closed = false;
+	
+	/**
+	 * Creates a new QueryCursor
+	 * @param reader The reader that reads the chunks
+	 * @param sid The series mapping, or null if the series has never been written
+	 * @param type The series value type, or null if the series has never been written
+	 * @param segments The planned segments in time order
+	 * @param chunkPeriods The maximum number of tier periods in a chunk
+	 */
+	public QueryCursor(TSReader reader, SeriesId sid, TSType type, List<QuerySegment> segments, int chunkPeriods) {
+		if(chunkPeriods<1) throw new IllegalArgumentException("Invalid chunk periods [" + chunkPeriods + "]", new Throwable());
+		this.reader = reader;
+		this.sid = sid;
+		this.type = type;
+		this.segments = segments;
+		this.chunkPeriods = chunkPeriods;
+		if(sid==null || type==null) segmentIndex = segments.size();
+		if(segmentIndex<segments.size()) position = segments.get(0).from;
+		current = new RecordBatch(chunkPeriods);
+		spare = new RecordBatch(chunkPeriods);
+	}
+	
+	/**
+	 * Advances to the next chunk, waiting for its prefetch to complete, and starts the prefetch of the chunk after it
+	 * @return true if the cursor advanced, false if there are no more chunks
+	 */
+	public boolean next() {
+		if(closed) return false;
+		RecordBatch filled;
+		if(pending!=null) {
+			filled = await(pending);
+			pending = null;
+		} else {
+			QuerySegment chunk = nextChunk();
+			if(chunk==null) {
+				started = false;
+				return false;
+			}
+			filled = reader.fetch(sid, type, chunk, spare);
+		}
+		spare = current;
+		current = filled;
+		started = true;
+		final QuerySegment chunk = nextChunk();
+		if(chunk!=null) {
+			final RecordBatch into = spare;
+			pending = reader.executor.submit(new Callable<RecordBatch>() {
+				public RecordBatch call() {
+					return reader.fetch(sid, type, chunk, into);
+				}
+			});
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the records of the current chunk in time order
+	 * @return the current chunk's records, which are overwritten after the next call to {@link #next()}
+	 */
+	public RecordBatch current() {
+		if(!started) throw new IllegalStateException("The cursor is not positioned on a chunk", new Throwable());
+		return current;
+	}
+	
+	/**
+	 * Returns the series value type
+	 * @return the series value type, or null if the series has never been written
+	 */
+	public TSType getType() {
+		return type;
+	}
+	
+	/**
+	 * Closes the cursor, cancelling any pending prefetch
+	 * {@inheritDoc}
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		started = false;
+		if(pending!=null) {
+			pending.cancel(false);
+			pending = null;
+		}
+	}
+	
+	/**
+	 * Returns the next chunk to read and advances the position past it
+	 * @return the next chunk, or null if the planned segments have all been read
+	 */
+	protected QuerySegment nextChunk() {
+		if(segmentIndex>=segments.size()) return null;
+		QuerySegment segment = segments.get(segmentIndex);
+		Tier tier = segment.tier;
+		long end = Math.min(segment.to, tier.getBucket(position) + chunkPeriods * tier.getPeriodDuration().seconds - 1);
+		QuerySegment chunk = new QuerySegment(tier, position, end);
+		if(end>=segment.to) {
+			segmentIndex++;
+			if(segmentIndex<segments.size()) position = segments.get(segmentIndex).from;
+		} else {
+			position = end + 1;
+		}
+		return chunk;
+	}
+	
+	/**
+	 * Waits for a prefetch to complete
+	 * @param future The prefetch
+	 * @return the prefetched batch
+	 */
+	protected static RecordBatch await(Future<RecordBatch> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for query chunk", ie);
+		} catch (ExecutionException ee) {
+			if(ee.getCause() instanceof RuntimeException) throw (RuntimeException)ee.getCause();
+			throw new RuntimeException("Query chunk read failed", ee.getCause());
+		}
+	}
+}
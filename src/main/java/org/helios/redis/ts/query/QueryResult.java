@@ -0,0 +1,88 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.util.List;
+
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: QueryResult</p>
+ * <p>Description: The records of one series over a query range, in time order, stitched from the tier segments the range was read from.
+ * Periods with no data have no record.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.QueryResult</code></p>
+ */
+public class QueryResult {
+	/** The series name */
+	public final String series;
+	/** The series value type, or null if the series has never been written */
+	public final TSType type;
+	/** The start of the query range as unix time in seconds (inclusive) */
+	public final long from;
+	/** The end of the query range as unix time in seconds (inclusive) */
+	public final long to;
+	/** The tier segments the range was read from, in time order */
+	public final List<QuerySegment> segments;
+	/** The records, in time order */
+	public final RecordBatch records;
+	
+	/**
+	 * Creates a new QueryResult
+	 * @param series The series name
+	 * @param type The series value type, or null if the series has never been written
+	 * @param from The start of the query range as unix time in seconds (inclusive)
+	 * @param to The end of the query range as unix time in seconds (inclusive)
+	 * @param segments The tier segments the range was read from, in time order
+	 * @param records The records, in time order
+	 */
+	public QueryResult(String series, TSType type, long from, long to, List<QuerySegment> segments, RecordBatch records) {
+		this.series = series;
+		this.type = type;
+		this.from = from;
+		this.to = to;
+		this.segments = segments;
+		this.records = records;
+	}
+	
+	/**
+	 * Returns the number of records
+	 * @return the number of records
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("QueryResult [").append(series).append(" records:").append(records.size()).append(" segments:").append(segments).append("]").toString();
+	}
+}
@@ -0,0 +1,74 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import org.helios.redis.ts.tsmodel.Tier;
+
+/**
+ * <p>Title: QuerySegment</p>
+ * <p>Description: An immutable contiguous time range of a query that is read from one tier</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.QuerySegment</code></p>
+ */
+public class QuerySegment {
+	/** The tier the segment is read from */
+	public final Tier tier;
+	/** The start of the segment as unix time in seconds (inclusive) */
+	public final long from;
+	/** The end of the segment as unix time in seconds (inclusive) */
+	public final long to;
+	
+	/**
+	 * Creates a new QuerySegment
+	 * @param tier The tier the segment is read from
+	 * @param from The start of the segment as unix time in seconds (inclusive)
+	 * @param to The end of the segment as unix time in seconds (inclusive)
+	 */
+	public QuerySegment(Tier tier, long from, long to) {
+		if(tier==null) throw new IllegalArgumentException("The passed tier was null", new Throwable());
+		if(from>to) throw new IllegalArgumentException("Invalid segment range [" + from + "-" + to + "]", new Throwable());
+		this.tier = tier;
+		this.from = from;
+		this.to = to;
+	}
+	
+	/**
+	 * Returns the number of tier periods in the segment
+	 * @return the number of periods
+	 */
+	public int getPeriods() {
+		return TSReader.periods(tier, from, to);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("QuerySegment [").append(tier.getName()).append(":").append(from).append("-").append(to).append("]").toString();
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.controller.script.TSScript;
+import org.helios.redis.ts.series.SeriesDictionary;
+import org.helios.redis.ts.series.SeriesId;
+import org.helios.redis.ts.store.BlockStore;
+import org.helios.redis.ts.store.HashCodec;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * <p>Title: TSAggregator</p>
+ * <p>Description: The redis-ts cross-series aggregation service. The count, sum, min and max of many series are aggregated 
+ * across the series for each period of a range by the <code>ts-aggregate</code> script inside redis, so only the aggregated periods 
+ * cross the network instead of the records of every series. The range is planned into tier segments as by the {@link TSReader}.</p>
+ * <p>Each script invocation reads at most <code>redis.ts.aggregate.cells</code> series periods and stops reading series once 
+ * it has run for <code>redis.ts.aggregate.budget</code> ms. The series it did not get to are passed to the next invocation, 
+ * so an aggregation over any number of series never blocks redis for much longer than the budget.</p>
+ * <p>The script cannot decode the compressed blocks of the {@link BlockStore}, so the segments of sealed tiers are read with a 
+ * multi-series query and aggregated locally.</p>
+ * <p>Thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.TSAggregator</code></p>
+ */
+public class TSAggregator {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The connection manager */
+	protected final RedisConnectionManager connectionManager;
+	/** The lua script registry */
+	protected final ScriptRegistry scriptRegistry;
+	/** The range query service, which plans the segments and reads sealed segments */
+	protected final TSReader reader;
+	/** The series name to ID dictionary */
+	protected final SeriesDictionary dictionary;
+	/** The sealed block store, null if block sealing is disabled */
+	protected final BlockStore blockStore;
+	/** The maximum number of series periods read by one script invocation */
+	protected final long maxCells;
+	/** The time budget in ms of one script invocation */
+	protected final long budget;
+	/** The total number of aggregations */
+	protected final AtomicLong aggregateCount = new AtomicLong(0);
+	/** The total number of script invocations */
+	protected final AtomicLong invocationCount = new AtomicLong(0);
+	
+	/** The aggregation script alias */
+	public static final String AGGREGATE_SCRIPT = TSScript.TS_AGGREGATE.alias(null);
+	/** The default maximum number of series periods read by one script invocation */
+	public static final long DEFAULT_MAX_CELLS = 100000;
+	/** The default time budget in ms of one script invocation */
+	public static final long DEFAULT_BUDGET = 20;
+	/** The number of reply values of each aggregated period */
+	public static final int ROW_SIZE = 6;
+	
+	/**
+	 * Creates a new TSAggregator
+	 * @param connectionManager The redis connection manager
+	 * @param scriptRegistry The lua script registry
+	 * @param reader The range query service
+	 * @param dictionary The series name to ID dictionary
+	 * @param blockStore The sealed block store, or null if block sealing is disabled
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public TSAggregator(RedisConnectionManager connectionManager, ScriptRegistry scriptRegistry, TSReader reader, SeriesDictionary dictionary, BlockStore blockStore, Properties configProps) {
+		if(connectionManager==null) throw new IllegalArgumentException("The passed connection manager was null", new Throwable());
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null", new Throwable());
+		if(reader==null) throw new IllegalArgumentException("The passed reader was null", new Throwable());
+		if(dictionary==null) throw new IllegalArgumentException("The passed dictionary was null", new Throwable());
+		this.connectionManager = connectionManager;
+		this.scriptRegistry = scriptRegistry;
+		this.reader = reader;
+		this.dictionary = dictionary;
+		this.blockStore = blockStore;
+		maxCells = Long.parseLong(configProps.getProperty("redis.ts.aggregate.cells", "" + DEFAULT_MAX_CELLS));
+		budget = Long.parseLong(configProps.getProperty("redis.ts.aggregate.budget", "" + DEFAULT_BUDGET));
+	}
+	
+	/**
+	 * Aggregates many series across the series for each period between the passed timestamps
+	 * @param series The series names. Series that have never been written are ignored.
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive), clipped to the current time
+	 * @param maxPoints The maximum number of points wanted, which selects the tier
+	 * @return the aggregated periods
+	 */
+	public AggregateResult aggregate(String[] series, long from, long to, int maxPoints) {
+		if(series==null) throw new IllegalArgumentException("The passed series array was null", new Throwable());
+		long now = System.currentTimeMillis() / 1000;
+		if(to>now) to = now;
+		List<QuerySegment> segments = reader.plan(from, to, maxPoints, now);
+		aggregateCount.incrementAndGet();
+		List<String> names = new ArrayList<String>(series.length);
+		List<String> codes = new ArrayList<String>(series.length);
+		SegmentAggregate[] aggregates = new SegmentAggregate[segments.size()];
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			dictionary.lookup(jedis, series, 0, series.length);
+			for(String name: series) {
+				SeriesId sid = dictionary.get(name);
+				if(sid==null) continue;
+				names.add(name);
+				codes.add(sid.code);
+			}
+			for(int i = 0; i < aggregates.length && !codes.isEmpty(); i++) {
+				QuerySegment segment = segments.get(i);
+				aggregates[i] = new SegmentAggregate(segment);
+				if(blockStore==null || !blockStore.isSealed(segment.tier)) invoke(jedis, segment, codes, aggregates[i]);
+			}
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+		int capacity = 0;
+		for(QuerySegment segment: segments) {
+			capacity += segment.getPeriods();
+		}
+		AggregateResult result = new AggregateResult(from, to, segments, codes.size(), capacity);
+		for(int i = 0; i < aggregates.length && !codes.isEmpty(); i++) {
+			if(blockStore!=null && blockStore.isSealed(segments.get(i).tier)) {
+				QuerySegment segment = segments.get(i);
+				aggregates[i].add(reader.query(names.toArray(new String[names.size()]), Collections.singletonList(segment), segment.from, segment.to, now));
+			}
+			aggregates[i].appendTo(result);
+		}
+		return result;
+	}
+	
+	/**
+	 * Aggregates one segment in redis, invoking the aggregation script until every series has been read
+	 * @param jedis The jedis connection
+	 * @param segment The segment
+	 * @param codes The encoded series IDs
+	 * @param aggregate The segment aggregate to fold the replies into
+	 */
+	protected void invoke(Jedis jedis, QuerySegment segment, List<String> codes, SegmentAggregate aggregate) {
+		int perCall = (int)Math.min(Integer.MAX_VALUE, Math.max(1, maxCells / aggregate.slots));
+		int offset = 0;
+		while(offset < codes.size()) {
+			int end = Math.min(codes.size(), offset + perCall);
+			List<String> args = new ArrayList<String>(end - offset + 4);
+			args.add("" + (segment.tier.getLevel() + 1));
+			args.add("" + aggregate.first);
+			args.add("" + aggregate.last);
+			args.add("" + budget);
+			args.addAll(codes.subList(offset, end));
+			offset += aggregate.fold((List<?>)scriptRegistry.evalsha(jedis, AGGREGATE_SCRIPT, Collections.<String>emptyList(), args));
+			invocationCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns the total number of aggregations
+	 * @return the total number of aggregations
+	 */
+	public long getAggregateCount() {
+		return aggregateCount.get();
+	}
+	
+	/**
+	 * Returns the total number of script invocations
+	 * @return the total number of script invocations
+	 */
+	public long getInvocationCount() {
+		return invocationCount.get();
+	}
+	
+	/**
+	 * <p>Title: SegmentAggregate</p>
+	 * <p>Description: The aggregate of each period of one segment, indexed by slot from the first bucket read</p> 
+	 */
+	protected static class SegmentAggregate {
+		/** The first bucket read, clipped to one tier rotation ending at the segment end */
+		protected final long first;
+		/** The last bucket read */
+		protected final long last;
+		/** The tier period */
+		protected final long period;
+		/** The number of periods */
+		protected final int slots;
+		/** The number of series with data in each period */
+		protected final int[] series;
+		/** The sample count of each period */
+		protected final long[] counts;
+		/** The sample sum of each period */
+		protected final double[] sums;
+		/** The sample minimum of each period */
+		protected final double[] mins;
+		/** The sample maximum of each period */
+		protected final double[] maxs;
+		
+		/**
+		 * Creates a new SegmentAggregate
+		 * @param segment The segment
+		 */
+		protected SegmentAggregate(QuerySegment segment) {
+			period = segment.tier.getPeriodDuration().seconds;
+			first = HashCodec.firstBucket(segment.tier, segment.from, segment.to);
+			last = segment.tier.getBucket(segment.to);
+			slots = (int)((last - first) / period + 1);
+			series = new int[slots];
+			counts = new long[slots];
+			sums = new double[slots];
+			mins = new double[slots];
+			maxs = new double[slots];
+		}
+		
+		/**
+		 * Folds the aggregate of some series in one period into the period's aggregate
+		 * @param bucket The period bucket
+		 * @param seriesWithData The number of series with data
+		 * @param count The sample count
+		 * @param sum The sample sum
+		 * @param min The sample minimum
+		 * @param max The sample maximum
+		 */
+		protected void add(long bucket, int seriesWithData, long count, double sum, double min, double max) {
+			if(count<1 || bucket<first || bucket>last) return;
+			int i = (int)((bucket - first) / period);
+			if(counts[i]==0) {
+				mins[i] = min;
+				maxs[i] = max;
+			} else {
+				if(min<mins[i]) mins[i] = min;
+				if(max>maxs[i]) maxs[i] = max;
+			}
+			series[i] += seriesWithData;
+			counts[i] += count;
+			sums[i] += sum;
+		}
+		
+		/**
+		 * Folds the reply of one aggregation script invocation
+		 * @param reply The script reply
+		 * @return the number of series the invocation read
+		 */
+		protected int fold(List<?> reply) {
+			for(int i = 1; i + ROW_SIZE <= reply.size(); i += ROW_SIZE) {
+				add(Long.parseLong(reply.get(i).toString()), Integer.parseInt(reply.get(i+1).toString()), Long.parseLong(reply.get(i+2).toString()), 
+						Double.parseDouble(reply.get(i+3).toString()), Double.parseDouble(reply.get(i+4).toString()), Double.parseDouble(reply.get(i+5).toString()));
+			}
+			return Integer.parseInt(reply.get(0).toString());
+		}
+		
+		/**
+		 * Folds the records of a multi-series query
+		 * @param records The query result
+		 */
+		protected void add(MultiQueryResult records) {
+			for(int i = 0; i < records.size(); i++) {
+				add(records.timestamps[i], 1, records.counts[i], records.sums[i], records.mins[i], records.maxs[i]);
+			}
+		}
+		
+		/**
+		 * Appends the periods with data to the passed result in time order
+		 * @param result The result to append to
+		 */
+		protected void appendTo(AggregateResult result) {
+			for(int i = 0; i < slots; i++) {
+				if(counts[i]>0) result.add(first + i * period, series[i], counts[i], sums[i], mins[i], maxs[i]);
+			}
+		}
+	}
+}
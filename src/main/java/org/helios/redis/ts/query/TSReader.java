@@ -0,0 +1,748 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.series.SeriesDictionary;
+import org.helios.redis.ts.series.SeriesId;
+import org.helios.redis.ts.store.BlockStore;
+import org.helios.redis.ts.store.BucketCodec;
+import org.helios.redis.ts.store.HashCodec;
+import org.helios.redis.ts.store.ReadPipeline;
+import org.helios.redis.ts.store.RingCodec;
+import org.helios.redis.ts.store.StorageLayout;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: TSReader</p>
+ * <p>Description: The redis-ts range query service. A query for a series between two timestamps is read from the finest tier 
+ * whose periods in the range fit within the requested maximum number of points, so a long range is never read from fine grained tiers.
+ * If the range starts before the retention of that tier, the older part of the range is read from the next coarser tier, 
+ * and so on, and the segments are stitched in time order. The boundary between two segments is aligned to the coarser tier's period 
+ * so no period is counted twice.</p>
+ * <p>Every segment of a query, in any {@link StorageLayout} and including the sealed blocks of the {@link BlockStore}, 
+ * is read in one pipelined round trip. A series name that is not in the local dictionary cache costs one more round trip to look up its ID.</p>
+ * <p>Closed periods never change, so the records of closed, period aligned chunks of each segment are kept in a {@link QueryCache} 
+ * and a repeated query only reads the chunks it has not seen before plus the open tail of the range.</p>
+ * <p>A multi-series query is partitioned across pooled connections and the partitions are read in parallel, 
+ * so a wide query costs a few round trips rather than one per series. A range too long to hold on the heap is streamed 
+ * through a {@link QueryCursor}.</p>
+ * <p>Thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.TSReader</code></p>
+ */
+public class TSReader {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The connection manager */
+	protected final RedisConnectionManager connectionManager;
+	/** The time-series model */
+	protected final TimeSeriesModel tsModel;
+	/** The tiers in level order */
+	protected final Tier[] tiers;
+	/** The series name to ID dictionary */
+	protected final SeriesDictionary dictionary;
+	/** The storage layout */
+	protected final StorageLayout layout;
+	/** The number of series grouped into one hash in the {@link StorageLayout#BUCKETED} layout */
+	protected final int bucketSize;
+	/** The sealed block store, null if block sealing is disabled */
+	protected final BlockStore blockStore;
+	/** The closed chunk cache, null if query caching is disabled */
+	protected final QueryCache cache;
+	/** The number of series read on one connection by a multi-series query */
+	protected final int partitionSize;
+	/** The executor reading the partitions of multi-series queries and prefetching cursor chunks */
+	protected final ThreadPoolExecutor executor;
+	/** The maximum number of tier periods in a cursor chunk */
+	protected final int cursorChunk;
+	/** The total number of queries */
+	protected final AtomicLong queryCount = new AtomicLong(0);
+	/** The total number of records read */
+	protected final AtomicLong recordsRead = new AtomicLong(0);
+	
+	/** The default number of series read on one connection by a multi-series query */
+	public static final int DEFAULT_PARTITION_SIZE = 100;
+	/** The default maximum number of tier periods in a cursor chunk */
+	public static final int DEFAULT_CURSOR_CHUNK = 4096;
+	/** The default number of query executor threads */
+	public static final int DEFAULT_THREADS = 8;
+	
+	/** Query executor Thread Factory Thread Serial Number */
+	protected static final AtomicInteger serial = new AtomicInteger(0);
+	/** Query executor Thread Factory */
+	protected static final ThreadFactory threadFactory = new ThreadFactory(){
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, TSReader.class.getSimpleName() + "Thread#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	
+	/**
+	 * Creates a new TSReader
+	 * @param connectionManager The redis connection manager
+	 * @param tsModel The time-series model
+	 * @param scriptRegistry The lua script registry, which defines the storage layout
+	 * @param dictionary The series name to ID dictionary
+	 * @param blockStore The sealed block store, or null if block sealing is disabled
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public TSReader(RedisConnectionManager connectionManager, TimeSeriesModel tsModel, ScriptRegistry scriptRegistry, SeriesDictionary dictionary, BlockStore blockStore, Properties configProps) {
+		if(connectionManager==null) throw new IllegalArgumentException("The passed connection manager was null", new Throwable());
+		if(tsModel==null) throw new IllegalArgumentException("The passed model was null", new Throwable());
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null", new Throwable());
+		if(dictionary==null) throw new IllegalArgumentException("The passed dictionary was null", new Throwable());
+		this.connectionManager = connectionManager;
+		this.tsModel = tsModel;
+		this.dictionary = dictionary;
+		this.blockStore = blockStore;
+		tiers = tsModel.getTiers();
+		layout = scriptRegistry.getLayout();
+		bucketSize = scriptRegistry.getBucketSize();
+		cache = Boolean.parseBoolean(configProps.getProperty("redis.ts.query.cache.enabled", "true")) ? new QueryCache(configProps, tsModel.getLiveTier()) : null;
+		partitionSize = Integer.parseInt(configProps.getProperty("redis.ts.query.partition", "" + DEFAULT_PARTITION_SIZE));
+		if(partitionSize<1) throw new IllegalArgumentException("Invalid query partition size [" + partitionSize + "]", new Throwable());
+		int threads = Integer.parseInt(configProps.getProperty("redis.ts.query.threads", "" + DEFAULT_THREADS));
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		cursorChunk = Integer.parseInt(configProps.getProperty("redis.ts.query.cursor.chunk", "" + DEFAULT_CURSOR_CHUNK));
+	}
+	
+	/**
+	 * Queries the records of a series between the passed timestamps
+	 * @param series The series name
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive), clipped to the current time
+	 * @param maxPoints The maximum number of points wanted, which selects the tier
+	 * @return the query result, which is empty if the series has never been written
+	 */
+	public QueryResult query(String series, long from, long to, int maxPoints) {
+		if(series==null) throw new IllegalArgumentException("The passed series was null", new Throwable());
+		long now = System.currentTimeMillis() / 1000;
+		if(to>now) to = now;
+		List<QuerySegment> segments = plan(tiers, from, to, maxPoints, now);
+		queryCount.incrementAndGet();
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			SeriesId sid = dictionary.lookup(jedis, series);
+			if(sid==null || segments.isEmpty()) return new QueryResult(series, null, from, to, segments, new RecordBatch(1));
+			ReadPipeline pipeline = ReadPipeline.open(jedis);
+			SeriesRead read = queue(pipeline, sid, segments, now);
+			pipeline.sync();
+			RecordBatch records = new RecordBatch(read.capacity);
+			TSType type = decode(read, records);
+			if(type==null) return new QueryResult(series, null, from, to, segments, new RecordBatch(1));
+			recordsRead.addAndGet(records.size());
+			return new QueryResult(series, type, from, to, segments, records);
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+	}
+	
+	/**
+	 * Queries the records of many series between the passed timestamps. The series are split into partitions of 
+	 * <code>redis.ts.query.partition</code> series, each read on its own pooled connection with one pipelined round trip 
+	 * (plus one to look up the IDs of series not in the local dictionary cache). The first partition is read by the calling thread 
+	 * and the rest in parallel by the query executor, then the partition results are merged into primitive columns in request order.
+	 * @param series The series names
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive), clipped to the current time
+	 * @param maxPoints The maximum number of points wanted per series, which selects the tier
+	 * @return the merged query result, in which series that have never been written have no records and a null type
+	 */
+	public MultiQueryResult query(String[] series, long from, long to, int maxPoints) {
+		if(series==null) throw new IllegalArgumentException("The passed series array was null", new Throwable());
+		long now = System.currentTimeMillis() / 1000;
+		if(to>now) to = now;
+		return query(series, plan(tiers, from, to, maxPoints, now), from, to, now);
+	}
+	
+	/**
+	 * Queries the records of many series in the passed planned segments
+	 * @param series The series names
+	 * @param segments The tier segments to read, in time order
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param now The current time as unix time in seconds
+	 * @return the merged query result
+	 */
+	protected MultiQueryResult query(final String[] series, final List<QuerySegment> segments, long from, long to, final long now) {
+		queryCount.addAndGet(series.length);
+		int partitionCount = (series.length + partitionSize - 1) / partitionSize;
+		Partition[] partitions = new Partition[partitionCount];
+		List<Future<Partition>> futures = new ArrayList<Future<Partition>>(partitionCount);
+		try {
+			for(int p = 1; p < partitionCount; p++) {
+				final int start = p * partitionSize;
+				final int end = Math.min(series.length, start + partitionSize);
+				futures.add(executor.submit(new Callable<Partition>() {
+					public Partition call() {
+						return fetch(series, start, end, segments, now);
+					}
+				}));
+			}
+			if(partitionCount>0) partitions[0] = fetch(series, 0, Math.min(series.length, partitionSize), segments, now);
+			for(int p = 1; p < partitionCount; p++) {
+				partitions[p] = futures.get(p-1).get();
+			}
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted waiting for query partitions", ie);
+		} catch (ExecutionException ee) {
+			if(ee.getCause() instanceof RuntimeException) throw (RuntimeException)ee.getCause();
+			throw new RuntimeException("Query partition failed", ee.getCause());
+		} finally {
+			for(Future<Partition> future: futures) {
+				future.cancel(true);
+			}
+		}
+		return merge(series, from, to, segments, partitions);
+	}
+	
+	/**
+	 * Opens a streaming query of the records of a series between the passed timestamps. Only the series ID and type are read when the cursor 
+	 * is opened. The records are then read in chunks of <code>redis.ts.query.cursor.chunk</code> tier periods as the cursor advances. 
+	 * Cursor reads bypass the {@link QueryCache} so a long scan does not evict the chunks of repeated queries.
+	 * @param series The series name
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive), clipped to the current time
+	 * @param maxPoints The maximum number of points wanted, which selects the tier
+	 * @return the cursor, which has no chunks if the series has never been written
+	 */
+	public QueryCursor cursor(String series, long from, long to, int maxPoints) {
+		if(series==null) throw new IllegalArgumentException("The passed series was null", new Throwable());
+		long now = System.currentTimeMillis() / 1000;
+		if(to>now) to = now;
+		List<QuerySegment> segments = plan(tiers, from, to, maxPoints, now);
+		queryCount.incrementAndGet();
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			SeriesId sid = dictionary.lookup(jedis, series);
+			if(sid==null || segments.isEmpty()) return new QueryCursor(this, null, null, segments, cursorChunk);
+			String typeOrdinal = jedis.hget(TSConfiguration.TS_SERIES_TYPES, sid.code);
+			TSType type = typeOrdinal==null ? null : TSType.forOrdinal(Integer.parseInt(typeOrdinal));
+			return new QueryCursor(this, sid, type, segments, cursorChunk);
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+	}
+	
+	/**
+	 * Reads one cursor chunk of a series into the passed batch, which is cleared first
+	 * @param sid The series mapping
+	 * @param type The series value type
+	 * @param chunk The chunk, within one tier
+	 * @param out The batch to read into
+	 * @return the passed batch
+	 */
+	protected RecordBatch fetch(SeriesId sid, TSType type, QuerySegment chunk, RecordBatch out) {
+		out.clear();
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			ReadPipeline pipeline = ReadPipeline.open(jedis);
+			SegmentRead read = queue(pipeline, sid, chunk);
+			pipeline.sync();
+			read.decode(sid.name, type, out);
+			recordsRead.addAndGet(out.size());
+			return out;
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the records of one partition of a multi-series query on its own pooled connection
+	 * @param series The series names
+	 * @param start The index of the first series of the partition (inclusive)
+	 * @param end The index of the last series of the partition (exclusive)
+	 * @param segments The tier segments to read
+	 * @param now The current time as unix time in seconds
+	 * @return the partition's records
+	 */
+	protected Partition fetch(String[] series, int start, int end, List<QuerySegment> segments, long now) {
+		Partition partition = new Partition(start, end);
+		if(segments.isEmpty()) return partition;
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			dictionary.lookup(jedis, series, start, end);
+			ReadPipeline pipeline = ReadPipeline.open(jedis);
+			SeriesRead[] reads = new SeriesRead[end - start];
+			int capacity = 0;
+			for(int i = start; i < end; i++) {
+				SeriesId sid = dictionary.get(series[i]);
+				if(sid==null) continue;
+				reads[i - start] = queue(pipeline, sid, segments, now);
+				capacity += reads[i - start].capacity;
+			}
+			pipeline.sync();
+			partition.records = new RecordBatch(Math.max(1, capacity));
+			for(int i = 0; i < reads.length; i++) {
+				int before = partition.records.size();
+				if(reads[i]!=null) partition.types[i] = decode(reads[i], partition.records);
+				partition.sizes[i] = partition.records.size() - before;
+			}
+			recordsRead.addAndGet(partition.records.size());
+			return partition;
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+	}
+	
+	/**
+	 * Merges the records of the partitions of a multi-series query into primitive columns
+	 * @param series The series names
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param segments The tier segments the range was read from
+	 * @param partitions The partitions in series order
+	 * @return the merged result
+	 */
+	protected static MultiQueryResult merge(String[] series, long from, long to, List<QuerySegment> segments, Partition[] partitions) {
+		int total = 0;
+		for(Partition partition: partitions) {
+			if(partition.records!=null) total += partition.records.size();
+		}
+		MultiQueryResult result = new MultiQueryResult(series, from, to, segments, total);
+		int offset = 0;
+		for(Partition partition: partitions) {
+			for(int i = 0; i < partition.sizes.length; i++) {
+				result.types[partition.start + i] = partition.types[i];
+				result.offsets[partition.start + i] = offset;
+				offset += partition.sizes[i];
+			}
+			if(partition.records==null) continue;
+			RecordBatch records = partition.records;
+			int base = result.offsets[partition.start];
+			int size = records.size();
+			System.arraycopy(records.timestamps, 0, result.timestamps, base, size);
+			System.arraycopy(records.counts, 0, result.counts, base, size);
+			System.arraycopy(records.sums, 0, result.sums, base, size);
+			System.arraycopy(records.mins, 0, result.mins, base, size);
+			System.arraycopy(records.maxs, 0, result.maxs, base, size);
+			System.arraycopy(records.lasts, 0, result.lasts, base, size);
+		}
+		result.offsets[series.length] = offset;
+		return result;
+	}
+	
+	/**
+	 * Queues the type lookup and the segment reads of one series into the passed pipeline
+	 * @param pipeline The pipeline
+	 * @param sid The series mapping
+	 * @param segments The tier segments to read
+	 * @param now The current time as unix time in seconds
+	 * @return the pending series read
+	 */
+	protected SeriesRead queue(ReadPipeline pipeline, SeriesId sid, List<QuerySegment> segments, long now) {
+		SeriesRead read = new SeriesRead(sid, pipeline.hget(TSConfiguration.TS_SERIES_TYPES, sid.code));
+		if(cache!=null) read.generation = cache.getGeneration();
+		for(QuerySegment segment: segments) {
+			if(cache==null || segment.tier.getPeriodCount()<=cache.getChunkPeriods()) read.reads.add(queue(pipeline, sid, segment));
+			else queueChunks(pipeline, sid, segment, now, read.reads);
+			read.capacity += segment.getPeriods();
+		}
+		return read;
+	}
+	
+	/**
+	 * Decodes the records of a synced series read into the passed batch in time order, caching the records of closed chunks that were read
+	 * @param read The series read
+	 * @param out The batch to decode into
+	 * @return the series type, or null if the series has never been written, in which case nothing is decoded
+	 */
+	protected TSType decode(SeriesRead read, RecordBatch out) {
+		String typeOrdinal = read.type.get();
+		if(typeOrdinal==null) return null;
+		TSType type = TSType.forOrdinal(Integer.parseInt(typeOrdinal));
+		String series = read.sid.name;
+		for(SegmentRead segmentRead: read.reads) {
+			if(segmentRead.chunkStart==Long.MIN_VALUE) {
+				segmentRead.decode(series, type, out);
+				continue;
+			}
+			if(segmentRead.cached==null) {
+				segmentRead.cached = new RecordBatch(segmentRead.segment.getPeriods());
+				segmentRead.decode(series, type, segmentRead.cached);
+				cache.put(read.sid.code, segmentRead.segment.tier, segmentRead.chunkStart, segmentRead.cached, read.generation);
+			}
+			RecordBatch cached = segmentRead.cached;
+			for(int i = 0; i < cached.size(); i++) {
+				if(cached.timestamps[i]>=segmentRead.from && cached.timestamps[i]<=segmentRead.to) out.add(cached, i);
+			}
+		}
+		return type;
+	}
+	
+	/**
+	 * Plans the tier segments of a query
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param maxPoints The maximum number of points wanted
+	 * @param now The current time as unix time in seconds
+	 * @return the segments in time order
+	 */
+	public List<QuerySegment> plan(long from, long to, int maxPoints, long now) {
+		return plan(tiers, from, to, maxPoints, now);
+	}
+	
+	/**
+	 * Plans the tier segments of a query. The first tier is the finest whose periods in the range fit within <code>maxPoints</code>, 
+	 * or the coarsest if none do. Where the range starts before a tier's retention, the older part is planned from the next coarser tier, 
+	 * starting the finer segment on a boundary of the coarser period. The part of the range older than the coarsest tier's retention is dropped.
+	 * @param tiers The tiers in level order
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param maxPoints The maximum number of points wanted
+	 * @param now The current time as unix time in seconds
+	 * @return the segments in time order, empty if no tier retains any of the range
+	 */
+	public static List<QuerySegment> plan(Tier[] tiers, long from, long to, int maxPoints, long now) {
+		if(maxPoints<1) throw new IllegalArgumentException("Invalid max points [" + maxPoints + "]", new Throwable());
+		if(from>to) throw new IllegalArgumentException("Invalid query range [" + from + "-" + to + "]", new Throwable());
+		int first = tiers.length - 1;
+		for(int i = 0; i < tiers.length; i++) {
+			if(periods(tiers[i], from, to)<=maxPoints) {
+				first = i;
+				break;
+			}
+		}
+		LinkedList<QuerySegment> segments = new LinkedList<QuerySegment>();
+		long end = to;
+		for(int i = first; i < tiers.length && from<=end; i++) {
+			Tier tier = tiers[i];
+			long oldest = tier.getBucket(now) - (tier.getPeriodCount() - 1) * tier.getPeriodDuration().seconds;
+			long start;
+			if(oldest<=from) {
+				start = from;
+			} else if(i==tiers.length-1) {
+				start = oldest;
+			} else {
+				long coarser = tiers[i+1].getPeriodDuration().seconds;
+				start = oldest % coarser == 0 ? oldest : oldest - (oldest % coarser) + coarser;
+			}
+			if(start<=end) segments.addFirst(new QuerySegment(tier, start, end));
+			end = start - 1;
+		}
+		return segments;
+	}
+	
+	/**
+	 * Returns the number of tier periods between the passed timestamps
+	 * @param tier The tier
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return the number of periods
+	 */
+	public static int periods(Tier tier, long from, long to) {
+		long periods = (tier.getBucket(to) - tier.getBucket(from)) / tier.getPeriodDuration().seconds + 1;
+		return periods>Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)periods;
+	}
+	
+	/**
+	 * Queues the reads of one segment of a series into the passed pipeline
+	 * @param pipeline The pipeline
+	 * @param sid The series mapping
+	 * @param segment The segment
+	 * @return the pending read
+	 */
+	protected SegmentRead queue(ReadPipeline pipeline, SeriesId sid, QuerySegment segment) {
+		Tier tier = segment.tier;
+		SegmentRead read = new SegmentRead(segment);
+		if(blockStore!=null && blockStore.isSealed(tier)) {
+			byte[][] fields = blockStore.blockFields(tier, segment.from, segment.to);
+			if(fields.length>0) read.blocks = pipeline.hmget(SafeEncoder.encode(BlockStore.blockKey(tier, sid.code)), fields);
+		}
+		read.firstBucket = HashCodec.firstBucket(tier, segment.from, segment.to);
+		switch(layout) {
+			case RING:
+				read.ranges = RingCodec.ranges(tier, segment.from, segment.to);
+				if(read.ranges!=null) {
+					byte[] key = SafeEncoder.encode(BlockStore.dataKey(tier, sid.code));
+					read.ring = new ArrayList<Response<byte[]>>(2);
+					read.ring.add(pipeline.getrangeBytes(key, read.ranges[2], read.ranges[3]));
+					if(read.ranges[4]>=0) read.ring.add(pipeline.getrangeBytes(key, read.ranges[4], read.ranges[5]));
+				}
+				break;
+			case BUCKETED:
+				long period = tier.getPeriodDuration().seconds;
+				long lastBucket = tier.getBucket(segment.to);
+				byte[] field = SafeEncoder.encode(BucketCodec.field(sid.id, bucketSize));
+				read.bucketed = new ArrayList<Response<byte[]>>();
+				for(long bucket = read.firstBucket; bucket <= lastBucket; bucket += period) {
+					read.bucketed.add(pipeline.hget(SafeEncoder.encode(BucketCodec.groupKey(tier, bucket, sid.id, bucketSize)), field));
+				}
+				break;
+			default:
+				String[] fields = HashCodec.fields(tier, segment.from, segment.to);
+				if(fields.length>0) read.hash = pipeline.hmget(BlockStore.dataKey(tier, sid.code), fields);
+		}
+		return read;
+	}
+	
+	/**
+	 * Splits a segment into the closed cache chunks it overlaps and the open tail. Cached chunks are served from the cache,
+	 * the reads of missed chunks and of the tail are queued into the passed pipeline.
+	 * @param pipeline The pipeline
+	 * @param sid The series mapping
+	 * @param segment The segment
+	 * @param now The current time as unix time in seconds
+	 * @param reads The list the chunk and tail reads are added to in time order
+	 */
+	protected void queueChunks(ReadPipeline pipeline, SeriesId sid, QuerySegment segment, long now, List<SegmentRead> reads) {
+		Tier tier = segment.tier;
+		long span = cache.span(tier);
+		long chunkStart = cache.chunkStart(tier, segment.from);
+		for(; chunkStart <= segment.to && cache.isClosed(tier, chunkStart, now); chunkStart += span) {
+			RecordBatch cached = cache.get(sid.code, tier, chunkStart);
+			SegmentRead read = cached==null ? queue(pipeline, sid, new QuerySegment(tier, chunkStart, chunkStart + span - 1)) : new SegmentRead(segment);
+			read.chunkStart = chunkStart;
+			read.cached = cached;
+			read.from = segment.from;
+			read.to = segment.to;
+			reads.add(read);
+		}
+		if(chunkStart<=segment.to) {
+			reads.add(queue(pipeline, sid, new QuerySegment(tier, Math.max(chunkStart, segment.from), segment.to)));
+		}
+	}
+	
+	/**
+	 * Returns the closed chunk cache
+	 * @return the closed chunk cache, or null if query caching is disabled
+	 */
+	public QueryCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Returns the total number of queries
+	 * @return the total number of queries
+	 */
+	public long getQueryCount() {
+		return queryCount.get();
+	}
+	
+	/**
+	 * Returns the total number of records read
+	 * @return the total number of records read
+	 */
+	public long getRecordsRead() {
+		return recordsRead.get();
+	}
+	
+	/**
+	 * Returns the tiers in level order
+	 * @return the tiers
+	 */
+	public Tier[] getTiers() {
+		return tiers.clone();
+	}
+	
+	/**
+	 * <p>Title: SeriesRead</p>
+	 * <p>Description: The pipelined type lookup and segment reads of one series</p> 
+	 */
+	protected static class SeriesRead {
+		/** The series mapping */
+		protected final SeriesId sid;
+		/** The series type ordinal response */
+		protected final Response<String> type;
+		/** The segment reads in time order */
+		protected final List<SegmentRead> reads = new ArrayList<SegmentRead>();
+		/** The maximum number of records the reads decode to */
+		protected int capacity = 0;
+		/** The query cache generation when the read was queued */
+		protected long generation = 0;
+		
+		/**
+		 * Creates a new SeriesRead
+		 * @param sid The series mapping
+		 * @param type The series type ordinal response
+		 */
+		protected SeriesRead(SeriesId sid, Response<String> type) {
+			this.sid = sid;
+			this.type = type;
+		}
+	}
+	
+	/**
+	 * <p>Title: Partition</p>
+	 * <p>Description: The records of one partition of a multi-series query</p> 
+	 */
+	protected static class Partition {
+		/** The index of the first series of the partition */
+		protected final int start;
+		/** The series types, indexed from the partition start */
+		protected final TSType[] types;
+		/** The number of records of each series, indexed from the partition start */
+		protected final int[] sizes;
+		/** The records of the partition's series in series order, null if nothing was read */
+		protected RecordBatch records = null;
+		
+		/**
+		 * Creates a new Partition
+		 * @param start The index of the first series of the partition (inclusive)
+		 * @param end The index of the last series of the partition (exclusive)
+		 */
+		protected Partition(int start, int end) {
+			this.start = start;
+			types = new TSType[end - start];
+			sizes = new int[end - start];
+		}
+	}
+	
+	/**
+	 * <p>Title: SegmentRead</p>
+	 * <p>Description: The pipelined responses of one segment, decoded once the pipeline is synced</p> 
+	 */
+	protected static class SegmentRead {
+		/** The segment */
+		protected final QuerySegment segment;
+		/** The bucket of the first slot read */
+		protected long firstBucket;
+		/** The sealed blocks, null if the tier is not sealed */
+		protected Response<List<byte[]>> blocks = null;
+		/** The hash layout slot values */
+		protected Response<List<String>> hash = null;
+		/** The ring layout byte ranges from {@link RingCodec#ranges(Tier, long, long)} */
+		protected long[] ranges = null;
+		/** The ring layout range responses */
+		protected List<Response<byte[]>> ring = null;
+		/** The bucketed layout record responses in bucket order */
+		protected List<Response<byte[]>> bucketed = null;
+		/** The start of the cache chunk read, or {@link Long#MIN_VALUE} if this is not a cache chunk read */
+		protected long chunkStart = Long.MIN_VALUE;
+		/** The cached records of the chunk, null until the chunk is decoded if it was not cached */
+		protected RecordBatch cached = null;
+		/** The start of the part of the chunk the query wants */
+		protected long from;
+		/** The end of the part of the chunk the query wants */
+		protected long to;
+		
+		/**
+		 * Creates a new SegmentRead
+		 * @param segment The segment
+		 */
+		protected SegmentRead(QuerySegment segment) {
+			this.segment = segment;
+		}
+		
+		/**
+		 * Decodes the segment's records into the passed batch in time order. 
+		 * Slots at or before the last sealed record are skipped, since a sealed slot is deleted right after its block is written.
+		 * @param series The series name
+		 * @param type The series type
+		 * @param out The batch to decode into
+		 */
+		protected void decode(String series, TSType type, RecordBatch out) {
+			long period = segment.tier.getPeriodDuration().seconds;
+			long lastSealed = Long.MIN_VALUE;
+			if(blocks!=null && BlockStore.decode(blocks.get(), series, type, segment.from, segment.to, out)>0) {
+				lastSealed = out.timestamps[out.size()-1];
+			}
+			int skip = lastSealed<firstBucket ? 0 : (int)((lastSealed - firstBucket) / period + 1);
+			if(hash!=null) {
+				List<String> values = hash.get();
+				if(skip<values.size()) HashCodec.decode(values.subList(skip, values.size()), series, type, firstBucket + skip * period, period, out);
+			} else if(ring!=null) {
+				byte[] head = ring.get(0).get();
+				RingCodec.decode(head==null ? new byte[0] : head, series, type, ranges[0], period, out);
+				if(ring.size()>1) {
+					byte[] tail = ring.get(1).get();
+					RingCodec.decode(tail==null ? new byte[0] : tail, series, type, ranges[0] + ((ranges[3] - ranges[2] + 1) / RingCodec.RECORD_SIZE) * period, period, out);
+				}
+			} else if(bucketed!=null) {
+				long bucket = firstBucket;
+				for(Response<byte[]> response: bucketed) {
+					BucketCodec.decode(response.get(), series, type, bucket, out);
+					bucket += period;
+				}
+			}
+		}
+	}
+}
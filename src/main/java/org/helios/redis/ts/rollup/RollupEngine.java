@@ -0,0 +1,355 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.rollup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.controller.script.ScriptPipeline;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.controller.script.TSScript;
+import org.helios.redis.ts.ingest.TSWriter;
+import org.helios.redis.ts.query.QueryCache;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * <p>Title: RollupEngine</p>
+ * <p>Description: Cascades the data of each tier into the tier above it when the periods of the upper tier close.</p>
+ * <p>The batch script marks every series written in a bucket of each upper tier in the dirty set 
+ * <code>&lt;TS_DIRTY_ROOT&gt;.&lt;tier name&gt;.&lt;bucket&gt;</code>, so a rollup only visits the series that have data in the closed bucket.
+ * The <code>ts-rollup</code> script pops a chunk of series from the dirty set and aggregates their child slots into the tier slot inside redis, 
+ * and several chunk invocations are sent per pipelined round trip until the dirty set is empty.</p>
+ * <p>A rollup pass runs <code>grace</code> seconds after each period boundary of the finest upper tier and rolls up every closed bucket 
+ * of every upper tier that has not been rolled up yet, in level order, so each tier is complete before the tier above it reads it. 
+ * A bucket missed by a skipped or failed pass is caught up by the next pass, as long as its dirty set, which lives until the child slots 
+ * of the bucket rotate, still exists.</p>
+ * <p>The grace time, <b><code>redis.ts.rollup.grace</code></b>, defaults to and can not be shorter than {@link #minGrace(Properties, Tier)}, 
+ * so the live aggregation has written the last live period of a bucket before the bucket is rolled up.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.rollup.RollupEngine</code></p>
+ */
+public class RollupEngine implements Runnable {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The connection manager */
+	protected final RedisConnectionManager connectionManager;
+	/** The lua script registry */
+	protected final ScriptRegistry scriptRegistry;
+	/** The model tiers in level order */
+	protected final Tier[] tiers;
+	/** The last rolled up bucket by tier level */
+	protected final AtomicLongArray rolledUp;
+	/** The number of series rolled up per script invocation */
+	protected final int chunkSize;
+	/** The number of script invocations per pipelined round trip */
+	protected final int pipelineDepth;
+	/** The time in seconds after a period boundary before the closed bucket is rolled up */
+	protected final long grace;
+	/** The alias of the rollup script */
+	protected final String rollupScript = TSScript.TS_ROLLUP.alias(null);
+	/** Indicates if the engine is running */
+	protected final AtomicBoolean running = new AtomicBoolean(false);
+	/** The handle of the next scheduled pass */
+	protected volatile ScheduledFuture<?> nextPass = null;
+	/** The query cache cleared when a pass catches up missed buckets, or null */
+	protected volatile QueryCache queryCache = null;
+	
+	/** The total number of series buckets rolled up */
+	protected final AtomicLong seriesRolledUp = new AtomicLong(0);
+	/** The total number of rollup passes */
+	protected final AtomicLong passCount = new AtomicLong(0);
+	/** The elapsed time in ms of the last rollup pass */
+	protected final AtomicLong lastPassTime = new AtomicLong(0);
+	
+	/** The default number of series rolled up per script invocation */
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+	/** The default number of script invocations per pipelined round trip */
+	public static final int DEFAULT_PIPELINE_DEPTH = 8;
+	
+	/**
+	 * Creates a new RollupEngine
+	 * @param connectionManager The redis connection manager
+	 * @param tsModel The time-series model
+	 * @param scriptRegistry The lua script registry
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public RollupEngine(RedisConnectionManager connectionManager, TimeSeriesModel tsModel, ScriptRegistry scriptRegistry, Properties configProps) {
+		if(connectionManager==null) throw new IllegalArgumentException("The passed connection manager was null", new Throwable());
+		if(tsModel==null) throw new IllegalArgumentException("The passed model was null", new Throwable());
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null", new Throwable());
+		this.connectionManager = connectionManager;
+		this.scriptRegistry = scriptRegistry;
+		tiers = tsModel.getTiers();
+		rolledUp = new AtomicLongArray(tiers.length);
+		chunkSize = Integer.parseInt(configProps.getProperty("redis.ts.rollup.chunk", "" + DEFAULT_CHUNK_SIZE));
+		pipelineDepth = Integer.parseInt(configProps.getProperty("redis.ts.rollup.pipeline", "" + DEFAULT_PIPELINE_DEPTH));
+		grace = grace(configProps, tiers[0]);
+		for(int i = 1; i < tiers.length; i++) {
+			if(tiers[i-1].getTierDuration().seconds < tiers[i].getPeriodDuration().seconds) {
+				log.warn("Tier [" + tiers[i-1].getName() + "] duration [" + tiers[i-1].getTierDuration() + "] is shorter than the period of tier [" + 
+						tiers[i].getName() + "]. Its buckets will be rolled up from a partial child rotation.");
+			}
+		}
+	}
+	
+	/**
+	 * Returns the minimum rollup grace time, which is the live aggregation grace time, plus the writer linger time rounded up to seconds, 
+	 * plus one live period for the flush of the last live period of a bucket to complete. A shorter grace would roll up a bucket 
+	 * before its last live period is written, and the late record would land in a dirty set no later pass reads.
+	 * @param configProps The redis-ts.config specified properties
+	 * @param liveTier The live tier of the time-series model
+	 * @return the minimum rollup grace time in seconds
+	 */
+	public static long minGrace(Properties configProps, Tier liveTier) {
+		long linger = Long.parseLong(configProps.getProperty("redis.ts.writer.linger", "" + TSWriter.DEFAULT_LINGER_TIME));
+		return TSWriter.aggregateGrace(configProps, liveTier) + (linger + 999) / 1000 + liveTier.getPeriodDuration().seconds;
+	}
+	
+	/**
+	 * Returns the configured rollup grace time, validated against the minimum rollup grace time
+	 * @param configProps The redis-ts.config specified properties
+	 * @param liveTier The live tier of the time-series model
+	 * @return the rollup grace time in seconds, which defaults to the minimum
+	 */
+	public static long grace(Properties configProps, Tier liveTier) {
+		long minGrace = minGrace(configProps, liveTier);
+		String value = configProps.getProperty("redis.ts.rollup.grace");
+		if(value==null) return minGrace;
+		long grace = Long.parseLong(value.trim());
+		if(grace<minGrace) throw new IllegalArgumentException("The rollup grace time [" + grace + "] is less than the minimum [" + minGrace + "] required by the aggregation grace and linger times", new Throwable());
+		return grace;
+	}
+	
+	/**
+	 * Starts the period boundary scheduling of rollup passes
+	 */
+	public void start() {
+		if(tiers.length<2) {
+			log.info("Model has a single tier. Nothing to roll up.");
+			return;
+		}
+		if(running.compareAndSet(false, true)) {
+			schedule();
+			log.info("RollupEngine Started. Chunk Size:" + chunkSize + " Pipeline Depth:" + pipelineDepth + " Grace:" + grace + " s");
+		}
+	}
+	
+	/**
+	 * Stops the scheduling of rollup passes
+	 */
+	public void stop() {
+		if(running.compareAndSet(true, false)) {
+			ScheduledFuture<?> f = nextPass;
+			if(f!=null) f.cancel(false);
+			log.info("RollupEngine Stopped");
+		}
+	}
+	
+	/**
+	 * Schedules the next pass at the next period boundary of the finest upper tier plus the grace time
+	 */
+	protected void schedule() {
+		if(!running.get()) return;
+		long nowMs = System.currentTimeMillis();
+		long period = tiers[1].getPeriodDuration().seconds * 1000;
+		long next = nowMs - (nowMs % period) + grace * 1000;
+		while(next<=nowMs) next += period;
+		nextPass = connectionManager.getScheduler().schedule(this, next - nowMs, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Runs a rollup pass and schedules the next one
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		try {
+			if(connectionManager.isConnected()) rollup(System.currentTimeMillis() / 1000);
+		} catch (Exception e) {
+			log.error("Rollup pass failed", e);
+		} finally {
+			schedule();
+		}
+	}
+	
+	/**
+	 * Rolls up every closed bucket of every upper tier that has not been rolled up yet and may still have a dirty set, in level and bucket order
+	 * @param now The current time in seconds
+	 */
+	public void rollup(long now) {
+		long start = System.currentTimeMillis();
+		long total = 0;
+		boolean caughtUp = false;
+		for(int level = 1; level < tiers.length; level++) {
+			Tier tier = tiers[level];
+			long period = tier.getPeriodDuration().seconds;
+			long latest = tier.getBucket(now - grace) - period;
+			long first = firstBucket(level, now);
+			if(latest>first) caughtUp = true;
+			for(long bucket = first; bucket <= latest; bucket += period) {
+				long rolled = rollup(level, bucket, now);
+				rolledUp.set(level, bucket);
+				total += rolled;
+				if(log.isDebugEnabled()) log.debug("Rolled up [" + rolled + "] series into tier [" + tier.getName() + "] bucket [" + bucket + "]");
+			}
+		}
+		// buckets rolled up after their regular pass may be in chunks the query cache already holds
+		QueryCache cache = queryCache;
+		if(caughtUp && cache!=null) cache.clear();
+		long elapsed = System.currentTimeMillis() - start;
+		passCount.incrementAndGet();
+		lastPassTime.set(elapsed);
+		if(total>0) log.info("Rolled up [" + total + "] series buckets in [" + elapsed + "] ms");
+	}
+	
+	/**
+	 * Returns the first bucket of a tier to roll up: the bucket after the last one rolled up, 
+	 * or the earliest bucket whose dirty set has not expired if that is later
+	 * @param level The tier level, 1 or more
+	 * @param now The current time in seconds
+	 * @return the first bucket to roll up
+	 */
+	protected long firstBucket(int level, long now) {
+		Tier tier = tiers[level];
+		long period = tier.getPeriodDuration().seconds;
+		// the dirty set of a bucket expires at bucket + period + max(period, child tier duration)
+		long expired = now - period - Math.max(period, tiers[level-1].getTierDuration().seconds);
+		return Math.max(rolledUp.get(level) + period, tier.getBucket(expired) + period);
+	}
+	
+	/**
+	 * Rolls up one bucket of one tier, sending {@link #pipelineDepth} chunk invocations per round trip until the dirty set is empty
+	 * @param level The tier level, 1 or more
+	 * @param bucket The closed bucket
+	 * @param now The current time in seconds
+	 * @return the number of series rolled up
+	 */
+	protected long rollup(int level, long bucket, long now) {
+		Tier tier = tiers[level];
+		List<String> keys = Arrays.asList(TSConfiguration.TS_DIRTY_ROOT + TSConfiguration.TS_DELIM + tier.getName() + TSConfiguration.TS_DELIM + bucket, TSConfiguration.TS_SERIES_TYPES);
+		List<String> args = Arrays.asList(Integer.toString(level + 1), Long.toString(bucket), Integer.toString(chunkSize), Long.toString(now));
+		long rolled = 0;
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			if(!scriptRegistry.isLoaded()) scriptRegistry.load(jedis);
+			while(true) {
+				ScriptPipeline pipeline = ScriptPipeline.pipelined(jedis);
+				for(int i = 0; i < pipelineDepth; i++) {
+					scriptRegistry.evalsha(pipeline, rollupScript, keys, args);
+				}
+				List<Object> results = pipeline.syncRaw();
+				if(ScriptRegistry.containsNoScript(results)) {
+					log.warn("Scripts missing from redis. Reloading.");
+					scriptRegistry.load(jedis);
+					continue;
+				}
+				long remaining = 0;
+				for(Object result: results) {
+					if(result instanceof Exception) throw (Exception)result;
+					List<?> counts = (List<?>)result;
+					rolled += (Long)counts.get(0);
+					remaining = (Long)counts.get(1);
+				}
+				if(remaining==0) break;
+			}
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			throw jce;
+		} catch (RuntimeException re) {
+			throw re;
+		} catch (Exception e) {
+			throw new RuntimeException("Failed to roll up tier [" + tier.getName() + "] bucket [" + bucket + "]", e);
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+			seriesRolledUp.addAndGet(rolled);
+		}
+		return rolled;
+	}
+	
+	/**
+	 * Sets the query cache to clear when a pass catches up missed buckets
+	 * @param queryCache The query cache, or null
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+	
+	/**
+	 * Returns the time up to which a tier has been rolled up: the end of its last rolled up bucket
+	 * @param level The tier level
+	 * @return the end of the last rolled up bucket as unix time in seconds (exclusive), 0 if the tier has not been rolled up, 
+	 * or {@link Long#MAX_VALUE} for the live tier, which is written directly
+	 */
+	public long getRolledUpTo(int level) {
+		if(level==0) return Long.MAX_VALUE;
+		long bucket = rolledUp.get(level);
+		return bucket==0 ? 0 : bucket + tiers[level].getPeriodDuration().seconds;
+	}
+	
+	/**
+	 * Returns the total number of series buckets rolled up
+	 * @return the total number of series buckets rolled up
+	 */
+	public long getSeriesRolledUp() {
+		return seriesRolledUp.get();
+	}
+	
+	/**
+	 * Returns the total number of rollup passes
+	 * @return the total number of rollup passes
+	 */
+	public long getPassCount() {
+		return passCount.get();
+	}
+	
+	/**
+	 * Returns the elapsed time in ms of the last rollup pass
+	 * @return the elapsed time in ms of the last rollup pass
+	 */
+	public long getLastPassTime() {
+		return lastPassTime.get();
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.rollup;
+
+/**
+ * <p>Title: RollupMode</p>
+ * <p>Description: Enumerates how the tiers above the live tier are populated</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.rollup.RollupMode</code></p>
+ */
+public enum RollupMode {
+	/** Series are marked dirty on write and each closed bucket is rolled up from the tier below by the {@link RollupEngine} */
+	CASCADE("cascade"),
+	/** Every record is merged into the current slot of every tier by the batch script, so every tier is current up to now and there is no rollup pass */
+	FANOUT("fanout");
+	
+	/**
+	 * Creates a new RollupMode
+	 * @param code The mode code rendered into the scripts
+	 */
+	private RollupMode(String code) {
+		this.code = code;
+	}
+	
+	/** The mode code rendered into the scripts */
+	public final String code;
+	
+	/**
+	 * Decodes the passed code or name to a RollupMode, ignoring case
+	 * @param code The mode code or name
+	 * @return the RollupMode
+	 */
+	public static RollupMode forCode(String code) {
+		if(code==null) throw new IllegalArgumentException("The passed code was null", new Throwable());
+		String c = code.trim();
+		for(RollupMode mode: values()) {
+			if(mode.code.equalsIgnoreCase(c)) return mode;
+		}
+		throw new IllegalArgumentException("Invalid RollupMode [" + code + "]", new Throwable());
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+/**
+ * <p>Title: IdCodec</p>
+ * <p>Description: Encodes series IDs as variable length keys so that small IDs produce short keys and payloads.
+ * An ID is written as little-endian base 62 digits from <code>[0-9A-Za-z]</code>, one character per digit, 
+ * so IDs up to 61 take one character, up to 3843 two and up to 14,776,335 four.
+ * The encoding is plain ASCII so it passes unchanged through the String based pipeline API.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.IdCodec</code></p>
+ */
+public class IdCodec {
+	/** The digit characters */
+	private static final char[] DIGITS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+	/** The radix */
+	public static final int RADIX = DIGITS.length;
+	
+	private IdCodec() {}
+	
+	/**
+	 * Encodes an ID
+	 * @param id The ID to encode, not negative
+	 * @return the encoded ID
+	 */
+	public static String encode(int id) {
+		if(id<0) throw new IllegalArgumentException("Invalid series ID [" + id + "]", new Throwable());
+		char[] buf = new char[6];
+		int len = 0;
+		do {
+			buf[len++] = DIGITS[id % RADIX];
+			id /= RADIX;
+		} while(id > 0);
+		return new String(buf, 0, len);
+	}
+	
+	/**
+	 * Decodes an encoded ID
+	 * @param code The encoded ID
+	 * @return the ID
+	 */
+	public static int decode(CharSequence code) {
+		if(code==null || code.length()==0) throw new IllegalArgumentException("The passed code was null or empty", new Throwable());
+		long id = 0;
+		for(int i = code.length()-1; i >= 0; i--) {
+			id = id * RADIX + digit(code.charAt(i));
+			if(id>Integer.MAX_VALUE) throw new IllegalArgumentException("Series ID overflow in [" + code + "]", new Throwable());
+		}
+		return (int)id;
+	}
+	
+	/**
+	 * Returns the value of one digit character
+	 * @param c The digit character
+	 * @return the digit value
+	 */
+	private static int digit(char c) {
+		if(c>='0' && c<='9') return c - '0';
+		if(c>='A' && c<='Z') return c - 'A' + 10;
+		if(c>='a' && c<='z') return c - 'a' + 36;
+		throw new IllegalArgumentException("Invalid series ID character [" + c + "]", new Throwable());
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: IntObjectMap</p>
+ * <p>Description: Minimal open addressing map keyed by primitive ints, so lookups by series ID neither box the key nor allocate an entry.
+ * Negative keys are not supported.</p>
+ * <p>Not thread safe.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.IntObjectMap</code></p>
+ * @param <V> The value type
+ */
+public class IntObjectMap<V> {
+	/** The keys, -1 marks an empty slot */
+	protected int[] keys;
+	/** The values by slot */
+	protected Object[] values;
+	/** The number of entries */
+	protected int size = 0;
+	
+	/** The empty slot marker */
+	private static final int EMPTY = -1;
+	
+	/**
+	 * Creates a new IntObjectMap
+	 * @param initialCapacity The expected number of entries
+	 */
+	public IntObjectMap(int initialCapacity) {
+		int capacity = Integer.highestOneBit(Math.max(8, initialCapacity*2) - 1) << 1;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new Object[capacity];
+	}
+	
+	/**
+	 * Returns the value for the passed key
+	 * @param key The key
+	 * @return the value or null if there is no entry for the key
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int mask = keys.length - 1;
+		for(int index = hash(key) & mask; keys[index]!=EMPTY; index = (index+1) & mask) {
+			if(keys[index]==key) return (V)values[index];
+		}
+		return null;
+	}
+	
+	/**
+	 * Puts a value into the map
+	 * @param key The key, not negative
+	 * @param value The value
+	 * @return the prior value for the key or null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		if(key<0) throw new IllegalArgumentException("Invalid key [" + key + "]", new Throwable());
+		if((size+1)*2 > keys.length) rehash(keys.length*2);
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		for(; keys[index]!=EMPTY; index = (index+1) & mask) {
+			if(keys[index]==key) {
+				V prior = (V)values[index];
+				values[index] = value;
+				return prior;
+			}
+		}
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		return null;
+	}
+	
+	/**
+	 * Returns the number of entries
+	 * @return the number of entries
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes all entries
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		Arrays.fill(values, null);
+		size = 0;
+	}
+	
+	/**
+	 * Resizes the slot arrays
+	 * @param capacity The new capacity, a power of 2
+	 */
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new Object[capacity];
+		int mask = capacity - 1;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i]==EMPTY) continue;
+			int index = hash(oldKeys[i]) & mask;
+			while(keys[index]!=EMPTY) index = (index+1) & mask;
+			keys[index] = oldKeys[i];
+			values[index] = oldValues[i];
+		}
+	}
+	
+	/**
+	 * Spreads the bits of a key
+	 * @param key The key
+	 * @return the hash
+	 */
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: LongHashSet</p>
+ * <p>Description: Minimal open addressing set of primitive longs that is cleared and reused between periods, 
+ * used to collect the distinct member hashes of a series in a period without boxing.</p>
+ * <p>Not thread safe.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.LongHashSet</code></p>
+ */
+public class LongHashSet {
+	/** The slots. Zero marks an empty slot so a member of zero is tracked by {@link #hasZero} */
+	protected long[] slots = new long[16];
+	/** Indicates if zero is a member */
+	protected boolean hasZero = false;
+	/** The number of members */
+	protected int size = 0;
+	
+	/**
+	 * Adds a member
+	 * @param value The member to add
+	 * @return true if the member was not already in the set
+	 */
+	public boolean add(long value) {
+		if(value==0) {
+			if(hasZero) return false;
+			hasZero = true;
+			size++;
+			return true;
+		}
+		if((size+1)*2 > slots.length) rehash(slots.length*2);
+		int mask = slots.length-1;
+		int index = (int)(value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+		while(slots[index]!=0) {
+			if(slots[index]==value) return false;
+			index = (index+1) & mask;
+		}
+		slots[index] = value;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Resizes the slot array
+	 * @param capacity The new capacity, a power of 2
+	 */
+	private void rehash(int capacity) {
+		long[] old = slots;
+		slots = new long[capacity];
+		int mask = capacity-1;
+		for(long value: old) {
+			if(value==0) continue;
+			int index = (int)(value ^ (value >>> 32)) * 0x9E3779B9 & mask;
+			while(slots[index]!=0) index = (index+1) & mask;
+			slots[index] = value;
+		}
+	}
+	
+	/**
+	 * Returns the number of members
+	 * @return the number of members
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Renders the members in the passed radix, separated by the passed delimiter, in no particular order
+	 * @param radix The radix of the rendered members
+	 * @param delim The member delimiter
+	 * @return the rendered members
+	 */
+	public String join(int radix, char delim) {
+		StringBuilder b = new StringBuilder(size * 12);
+		if(hasZero) b.append('0');
+		for(long value: slots) {
+			if(value==0) continue;
+			if(b.length()>0) b.append(delim);
+			b.append(Long.toString(value, radix));
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Removes all members, keeping the allocated slots
+	 */
+	public void clear() {
+		Arrays.fill(slots, 0L);
+		hasZero = false;
+		size = 0;
+	}
+}
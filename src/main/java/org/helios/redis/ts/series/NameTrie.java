@@ -0,0 +1,229 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Title: NameTrie</p>
+ * <p>Description: A trie of series names split into segments on a delimiter, used to expand globs locally. 
+ * A glob is matched segment by segment, so only the branches whose segments match are visited. 
+ * Within a segment <code>*</code> matches any characters and <code>?</code> matches one character. 
+ * A segment of <code>**</code> matches any number of segments, including none.</p>
+ * <p>Not thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.NameTrie</code></p>
+ */
+public class NameTrie {
+	/** The segment delimiter */
+	protected final char delim;
+	/** The root node */
+	protected final Node root = new Node();
+	/** The number of names */
+	protected int size = 0;
+	
+	/** The segment that matches any number of segments */
+	public static final String ANY_SEGMENTS = "**";
+	
+	/**
+	 * Creates a new NameTrie
+	 * @param delim The segment delimiter
+	 */
+	public NameTrie(char delim) {
+		this.delim = delim;
+	}
+	
+	/**
+	 * Adds a name
+	 * @param name The name to add
+	 * @return true if the name was not already in the trie
+	 */
+	public boolean add(String name) {
+		Node node = root;
+		int start = 0;
+		while(true) {
+			int end = name.indexOf(delim, start);
+			String segment = name.substring(start, end<0 ? name.length() : end);
+			if(node.children==null) node.children = new HashMap<String, Node>(4);
+			Node child = node.children.get(segment);
+			if(child==null) {
+				child = new Node();
+				node.children.put(segment, child);
+			}
+			node = child;
+			if(end<0) break;
+			start = end + 1;
+		}
+		if(node.name!=null) return false;
+		node.name = name;
+		size++;
+		return true;
+	}
+	
+	/**
+	 * Adds the names that match a glob to the passed list, in no particular order
+	 * @param glob The glob
+	 * @param out The list to add the matching names to
+	 * @return the number of names added
+	 */
+	public int match(String glob, List<String> out) {
+		int before = out.size();
+		String[] segments = split(glob);
+		match(root, segments, 0, out);
+		return out.size() - before;
+	}
+	
+	/**
+	 * Matches the glob segments from the passed index against the descendants of a node
+	 * @param node The node
+	 * @param segments The glob segments
+	 * @param index The index of the next glob segment
+	 * @param out The list to add the matching names to
+	 */
+	protected void match(Node node, String[] segments, int index, List<String> out) {
+		if(index==segments.length) {
+			if(node.name!=null) out.add(node.name);
+			return;
+		}
+		if(node.children==null) return;
+		String segment = segments[index];
+		if(ANY_SEGMENTS.equals(segment)) {
+			match(node, segments, index + 1, out);
+			for(Node child: node.children.values()) {
+				match(child, segments, index, out);
+			}
+		} else if(!isWildcard(segment)) {
+			Node child = node.children.get(segment);
+			if(child!=null) match(child, segments, index + 1, out);
+		} else {
+			for(Map.Entry<String, Node> entry: node.children.entrySet()) {
+				if(matches(segment, entry.getKey())) match(entry.getValue(), segments, index + 1, out);
+			}
+		}
+	}
+	
+	/**
+	 * Splits a name or glob into its segments
+	 * @param name The name or glob
+	 * @return the segments
+	 */
+	protected String[] split(String name) {
+		int count = 1;
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i)==delim) count++;
+		}
+		String[] segments = new String[count];
+		int start = 0;
+		for(int i = 0; i < count; i++) {
+			int end = name.indexOf(delim, start);
+			if(end<0) end = name.length();
+			segments[i] = name.substring(start, end);
+			start = end + 1;
+		}
+		return segments;
+	}
+	
+	/**
+	 * Returns the number of names
+	 * @return the number of names
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Removes all names
+	 */
+	public void clear() {
+		root.children = null;
+		size = 0;
+	}
+	
+	/**
+	 * Indicates if a glob segment contains a wildcard
+	 * @param segment The glob segment
+	 * @return true if the segment contains a wildcard
+	 */
+	public static boolean isWildcard(CharSequence segment) {
+		for(int i = 0; i < segment.length(); i++) {
+			char c = segment.charAt(i);
+			if(c=='*' || c=='?') return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the literal prefix of a glob, up to its first wildcard
+	 * @param glob The glob
+	 * @return the literal prefix
+	 */
+	public static String literalPrefix(String glob) {
+		for(int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if(c=='*' || c=='?') return glob.substring(0, i);
+		}
+		return glob;
+	}
+	
+	/**
+	 * Matches one glob segment against one name segment, backtracking to the last <code>*</code> on a mismatch
+	 * @param pattern The glob segment
+	 * @param text The name segment
+	 * @return true if the segment matches
+	 */
+	public static boolean matches(String pattern, String text) {
+		int p = 0, t = 0, star = -1, mark = 0;
+		while(t < text.length()) {
+			if(p < pattern.length() && (pattern.charAt(p)=='?' || pattern.charAt(p)==text.charAt(t))) {
+				p++;
+				t++;
+			} else if(p < pattern.length() && pattern.charAt(p)=='*') {
+				star = p++;
+				mark = t;
+			} else if(star>=0) {
+				p = star + 1;
+				t = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while(p < pattern.length() && pattern.charAt(p)=='*') p++;
+		return p==pattern.length();
+	}
+	
+	/**
+	 * <p>Title: Node</p>
+	 * <p>Description: A trie node for one name segment</p> 
+	 */
+	protected static class Node {
+		/** The full name ending at this node, null if no name ends here */
+		protected String name = null;
+		/** The child nodes keyed by segment, null if there are none */
+		protected Map<String, Node> children = null;
+	}
+}
@@ -0,0 +1,553 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.Arrays;
+
+/**
+ * <p>Title: RoaringBitmap</p>
+ * <p>Description: A compressed bitmap of non negative int series IDs in the Roaring layout. IDs are split on their high 16 bits into containers 
+ * holding the low 16 bits, either as a sorted array while a container holds at most {@link #ARRAY_MAX} values, or as a 64K bit bitmap beyond that. 
+ * Intersections and unions are computed container by container, so sparse and dense tag sets both stay compact and fast to combine.</p>
+ * <p>A container is serialized as stored in redis by the <code>ts-ids</code> script: an <code>'a'</code> followed by the big endian values of an array container, 
+ * or a <code>'b'</code> followed by the 8KB bitmap in redis SETBIT bit order (the most significant bit of each byte first).</p>
+ * <p>Not thread safe. The results of {@link #and(RoaringBitmap)} and {@link #or(RoaringBitmap)} are new bitmaps that may share containers with their operands, 
+ * so a bitmap should not be modified once it has been combined.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.RoaringBitmap</code></p>
+ */
+public class RoaringBitmap {
+	/** The high 16 bits of each container, sorted */
+	protected char[] keys = new char[4];
+	/** The containers in key order */
+	protected Container[] containers = new Container[4];
+	/** The number of containers */
+	protected int size = 0;
+	
+	/** The maximum number of values in an array container */
+	public static final int ARRAY_MAX = 4096;
+	/** The serialized type of an array container */
+	public static final byte ARRAY_TYPE = 'a';
+	/** The serialized type of a bitmap container */
+	public static final byte BITMAP_TYPE = 'b';
+	
+	/**
+	 * Adds a value
+	 * @param value The value to add, which must not be negative
+	 */
+	public void add(int value) {
+		if(value<0) throw new IllegalArgumentException("Invalid bitmap value [" + value + "]", new Throwable());
+		char high = (char)(value >>> 16);
+		int index = Arrays.binarySearch(keys, 0, size, high);
+		if(index<0) {
+			index = -index - 1;
+			insert(index, high, new ArrayContainer(new char[4], 0));
+		}
+		containers[index] = containers[index].add((char)value);
+	}
+	
+	/**
+	 * Indicates if the passed value is in the bitmap
+	 * @param value The value
+	 * @return true if the value is in the bitmap
+	 */
+	public boolean contains(int value) {
+		if(value<0) return false;
+		int index = Arrays.binarySearch(keys, 0, size, (char)(value >>> 16));
+		return index>=0 && containers[index].contains((char)value);
+	}
+	
+	/**
+	 * Returns the number of values in the bitmap
+	 * @return the cardinality
+	 */
+	public int cardinality() {
+		int cardinality = 0;
+		for(int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality;
+		}
+		return cardinality;
+	}
+	
+	/**
+	 * Returns the intersection of this bitmap and another
+	 * @param other The other bitmap
+	 * @return a new bitmap of the values in both bitmaps
+	 */
+	public RoaringBitmap and(RoaringBitmap other) {
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0, j = 0;
+		while(i < size && j < other.size) {
+			if(keys[i] < other.keys[j]) i++;
+			else if(keys[i] > other.keys[j]) j++;
+			else {
+				Container container = and(containers[i], other.containers[j]);
+				if(container.cardinality>0) result.insert(result.size, keys[i], container);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the union of this bitmap and another
+	 * @param other The other bitmap
+	 * @return a new bitmap of the values in either bitmap
+	 */
+	public RoaringBitmap or(RoaringBitmap other) {
+		RoaringBitmap result = new RoaringBitmap();
+		int i = 0, j = 0;
+		while(i < size || j < other.size) {
+			if(j>=other.size || (i < size && keys[i] < other.keys[j])) {
+				result.insert(result.size, keys[i], containers[i]);
+				i++;
+			} else if(i>=size || keys[i] > other.keys[j]) {
+				result.insert(result.size, other.keys[j], other.containers[j]);
+				j++;
+			} else {
+				result.insert(result.size, keys[i], or(containers[i], other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the values of the bitmap in ascending order
+	 * @return the values
+	 */
+	public int[] toArray() {
+		int[] values = new int[cardinality()];
+		int pos = 0;
+		for(int i = 0; i < size; i++) {
+			pos = containers[i].toArray(keys[i] << 16, values, pos);
+		}
+		return values;
+	}
+	
+	/**
+	 * Sets the container of the passed high 16 bits from its serialized form, replacing any existing container
+	 * @param high The high 16 bits of the container's values
+	 * @param data The serialized container, ignored if null or empty
+	 */
+	public void setContainer(int high, byte[] data) {
+		if(data==null || data.length<2) return;
+		Container container = data[0]==BITMAP_TYPE ? BitmapContainer.decode(data) : ArrayContainer.decode(data);
+		if(container.cardinality==0) return;
+		int index = Arrays.binarySearch(keys, 0, size, (char)high);
+		if(index>=0) containers[index] = container;
+		else insert(-index - 1, (char)high, container);
+	}
+	
+	/**
+	 * Returns the number of containers
+	 * @return the number of containers
+	 */
+	public int getContainerCount() {
+		return size;
+	}
+	
+	/**
+	 * Returns the high 16 bits of a container
+	 * @param index The container index
+	 * @return the high 16 bits of the container's values
+	 */
+	public int getContainerKey(int index) {
+		return keys[index];
+	}
+	
+	/**
+	 * Serializes a container in its redis form
+	 * @param index The container index
+	 * @return the serialized container
+	 */
+	public byte[] serializeContainer(int index) {
+		return containers[index].serialize();
+	}
+	
+	/**
+	 * Inserts a container
+	 * @param index The index to insert at
+	 * @param high The container key
+	 * @param container The container
+	 */
+	protected void insert(int index, char high, Container container) {
+		if(size==keys.length) {
+			keys = Arrays.copyOf(keys, size*2);
+			containers = Arrays.copyOf(containers, size*2);
+		}
+		System.arraycopy(keys, index, keys, index + 1, size - index);
+		System.arraycopy(containers, index, containers, index + 1, size - index);
+		keys[index] = high;
+		containers[index] = container;
+		size++;
+	}
+	
+	/**
+	 * Intersects two containers
+	 * @param a The first container
+	 * @param b The second container
+	 * @return the intersection
+	 */
+	protected static Container and(Container a, Container b) {
+		if(a instanceof BitmapContainer && b instanceof BitmapContainer) {
+			long[] words = new long[BitmapContainer.WORDS];
+			long[] aw = ((BitmapContainer)a).words, bw = ((BitmapContainer)b).words;
+			int cardinality = 0;
+			for(int i = 0; i < words.length; i++) {
+				words[i] = aw[i] & bw[i];
+				cardinality += Long.bitCount(words[i]);
+			}
+			BitmapContainer result = new BitmapContainer(words, cardinality);
+			return cardinality>ARRAY_MAX ? result : result.toArrayContainer();
+		}
+		if(a instanceof BitmapContainer) {
+			Container swap = a;
+			a = b;
+			b = swap;
+		}
+		ArrayContainer array = (ArrayContainer)a;
+		char[] values = new char[Math.min(array.cardinality, b.cardinality)];
+		int n = 0;
+		if(b instanceof BitmapContainer) {
+			for(int i = 0; i < array.cardinality; i++) {
+				if(b.contains(array.values[i])) values[n++] = array.values[i];
+			}
+		} else {
+			ArrayContainer other = (ArrayContainer)b;
+			int i = 0, j = 0;
+			while(i < array.cardinality && j < other.cardinality) {
+				if(array.values[i] < other.values[j]) i++;
+				else if(array.values[i] > other.values[j]) j++;
+				else {
+					values[n++] = array.values[i];
+					i++;
+					j++;
+				}
+			}
+		}
+		return new ArrayContainer(values, n);
+	}
+	
+	/**
+	 * Unites two containers
+	 * @param a The first container
+	 * @param b The second container
+	 * @return the union
+	 */
+	protected static Container or(Container a, Container b) {
+		if(a instanceof ArrayContainer && b instanceof ArrayContainer && a.cardinality + b.cardinality <= ARRAY_MAX) {
+			ArrayContainer x = (ArrayContainer)a, y = (ArrayContainer)b;
+			char[] values = new char[x.cardinality + y.cardinality];
+			int i = 0, j = 0, n = 0;
+			while(i < x.cardinality || j < y.cardinality) {
+				if(j>=y.cardinality || (i < x.cardinality && x.values[i] < y.values[j])) values[n++] = x.values[i++];
+				else if(i>=x.cardinality || x.values[i] > y.values[j]) values[n++] = y.values[j++];
+				else {
+					values[n++] = x.values[i++];
+					j++;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+		long[] words = new long[BitmapContainer.WORDS];
+		a.setBits(words);
+		b.setBits(words);
+		int cardinality = 0;
+		for(long word: words) {
+			cardinality += Long.bitCount(word);
+		}
+		return new BitmapContainer(words, cardinality);
+	}
+	
+	/**
+	 * <p>Title: Container</p>
+	 * <p>Description: The low 16 bits of the values sharing the same high 16 bits</p> 
+	 */
+	protected abstract static class Container {
+		/** The number of values */
+		protected int cardinality;
+		
+		/**
+		 * Adds a value
+		 * @param value The low 16 bits of the value
+		 * @return this container, or a bitmap container that replaces it
+		 */
+		protected abstract Container add(char value);
+		
+		/**
+		 * Indicates if a value is in the container
+		 * @param value The low 16 bits of the value
+		 * @return true if the value is in the container
+		 */
+		protected abstract boolean contains(char value);
+		
+		/**
+		 * Writes the values into an array in ascending order
+		 * @param high The high 16 bits of the values, shifted
+		 * @param out The array to write to
+		 * @param pos The index to start writing at
+		 * @return the index after the last value written
+		 */
+		protected abstract int toArray(int high, int[] out, int pos);
+		
+		/**
+		 * Sets the bits of the values in the passed bitmap words
+		 * @param words The bitmap words
+		 */
+		protected abstract void setBits(long[] words);
+		
+		/**
+		 * Serializes the container in its redis form
+		 * @return the serialized container
+		 */
+		protected abstract byte[] serialize();
+	}
+	
+	/**
+	 * <p>Title: ArrayContainer</p>
+	 * <p>Description: A container of at most {@link RoaringBitmap#ARRAY_MAX} values as a sorted array</p> 
+	 */
+	protected static class ArrayContainer extends Container {
+		/** The sorted values */
+		protected char[] values;
+		
+		/**
+		 * Creates a new ArrayContainer
+		 * @param values The sorted values
+		 * @param cardinality The number of values
+		 */
+		protected ArrayContainer(char[] values, int cardinality) {
+			this.values = values;
+			this.cardinality = cardinality;
+		}
+		
+		/**
+		 * Decodes a serialized array container
+		 * @param data The serialized container
+		 * @return the container
+		 */
+		protected static ArrayContainer decode(byte[] data) {
+			int n = (data.length - 1) / 2;
+			char[] values = new char[n];
+			for(int i = 0; i < n; i++) {
+				values[i] = (char)(((data[1 + 2*i] & 0xFF) << 8) | (data[2 + 2*i] & 0xFF));
+			}
+			return new ArrayContainer(values, n);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#add(char)
+		 */
+		@Override
+		protected Container add(char value) {
+			int index = Arrays.binarySearch(values, 0, cardinality, value);
+			if(index>=0) return this;
+			if(cardinality==ARRAY_MAX) {
+				long[] words = new long[BitmapContainer.WORDS];
+				setBits(words);
+				return new BitmapContainer(words, cardinality).add(value);
+			}
+			index = -index - 1;
+			if(cardinality==values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, cardinality*2)));
+			System.arraycopy(values, index, values, index + 1, cardinality - index);
+			values[index] = value;
+			cardinality++;
+			return this;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#contains(char)
+		 */
+		@Override
+		protected boolean contains(char value) {
+			return Arrays.binarySearch(values, 0, cardinality, value)>=0;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#toArray(int, int[], int)
+		 */
+		@Override
+		protected int toArray(int high, int[] out, int pos) {
+			for(int i = 0; i < cardinality; i++) {
+				out[pos++] = high | values[i];
+			}
+			return pos;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#setBits(long[])
+		 */
+		@Override
+		protected void setBits(long[] words) {
+			for(int i = 0; i < cardinality; i++) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#serialize()
+		 */
+		@Override
+		protected byte[] serialize() {
+			byte[] data = new byte[1 + 2*cardinality];
+			data[0] = ARRAY_TYPE;
+			for(int i = 0; i < cardinality; i++) {
+				data[1 + 2*i] = (byte)(values[i] >>> 8);
+				data[2 + 2*i] = (byte)values[i];
+			}
+			return data;
+		}
+	}
+	
+	/**
+	 * <p>Title: BitmapContainer</p>
+	 * <p>Description: A container of more than {@link RoaringBitmap#ARRAY_MAX} values as a 64K bit bitmap</p> 
+	 */
+	protected static class BitmapContainer extends Container {
+		/** The number of bitmap words */
+		public static final int WORDS = 1024;
+		/** The bitmap words, bit <code>v &amp; 63</code> of word <code>v &gt;&gt;&gt; 6</code> set for each value <code>v</code> */
+		protected final long[] words;
+		
+		/**
+		 * Creates a new BitmapContainer
+		 * @param words The bitmap words
+		 * @param cardinality The number of set bits
+		 */
+		protected BitmapContainer(long[] words, int cardinality) {
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+		
+		/**
+		 * Decodes a serialized bitmap container, whose bytes hold the most significant bit first
+		 * @param data The serialized container
+		 * @return the container
+		 */
+		protected static BitmapContainer decode(byte[] data) {
+			long[] words = new long[WORDS];
+			int cardinality = 0;
+			int bytes = Math.min(data.length - 1, WORDS*8);
+			for(int k = 0; k < bytes; k++) {
+				int b = data[1 + k] & 0xFF;
+				if(b==0) continue;
+				words[k >>> 3] |= (long)(Integer.reverse(b) >>> 24) << ((k & 7) * 8);
+				cardinality += Integer.bitCount(b);
+			}
+			return new BitmapContainer(words, cardinality);
+		}
+		
+		/**
+		 * Converts this container to an array container
+		 * @return the array container
+		 */
+		protected ArrayContainer toArrayContainer() {
+			char[] values = new char[cardinality];
+			int n = 0;
+			for(int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while(word!=0) {
+					values[n++] = (char)((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return new ArrayContainer(values, n);
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#add(char)
+		 */
+		@Override
+		protected Container add(char value) {
+			long bit = 1L << value;
+			if((words[value >>> 6] & bit)==0) {
+				words[value >>> 6] |= bit;
+				cardinality++;
+			}
+			return this;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#contains(char)
+		 */
+		@Override
+		protected boolean contains(char value) {
+			return (words[value >>> 6] & (1L << value))!=0;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#toArray(int, int[], int)
+		 */
+		@Override
+		protected int toArray(int high, int[] out, int pos) {
+			for(int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while(word!=0) {
+					out[pos++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			return pos;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#setBits(long[])
+		 */
+		@Override
+		protected void setBits(long[] target) {
+			for(int i = 0; i < WORDS; i++) {
+				target[i] |= words[i];
+			}
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 * @see org.helios.redis.ts.series.RoaringBitmap.Container#serialize()
+		 */
+		@Override
+		protected byte[] serialize() {
+			byte[] data = new byte[1 + WORDS*8];
+			data[0] = BITMAP_TYPE;
+			for(int k = 0; k < WORDS*8; k++) {
+				int b = (int)(words[k >>> 3] >>> ((k & 7) * 8)) & 0xFF;
+				data[1 + k] = (byte)(Integer.reverse(b) >>> 24);
+			}
+			return data;
+		}
+	}
+}
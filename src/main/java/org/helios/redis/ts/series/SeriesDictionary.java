@@ -0,0 +1,256 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.controller.script.TSScript;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * <p>Title: SeriesDictionary</p>
+ * <p>Description: Maps series names to compact integer IDs so that data keys and script payloads carry the short 
+ * {@link IdCodec encoded ID} instead of the full series name. The mapping is held in redis in the 
+ * {@link TSConfiguration#TS_IDS} (name to ID) and {@link TSConfiguration#TS_ID_NAMES} (ID to name) hashes. 
+ * IDs are assigned atomically by the <code>ts-ids</code> script from the {@link TSConfiguration#TS_ID_SEQ} counter, 
+ * so any number of writers agree on the IDs.</p>
+ * <p>Resolved mappings are cached locally by name and in a primitive keyed map by ID, so a known series costs no round trip.
+ * The cache must be {@link #clear() cleared} when connecting to a new redis instance.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.SeriesDictionary</code></p>
+ */
+public class SeriesDictionary {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The lua script registry */
+	protected final ScriptRegistry scriptRegistry;
+	/** The cached mappings by name */
+	protected final ConcurrentHashMap<String, SeriesId> byName = new ConcurrentHashMap<String, SeriesId>(1024);
+	/** The cached mappings by ID, guarded by itself */
+	protected final IntObjectMap<SeriesId> byId = new IntObjectMap<SeriesId>(1024);
+	/** The alias of the ID assignment script */
+	protected final String idScript = TSScript.TS_IDS.alias(null);
+	
+	/** The keys passed to the ID assignment script */
+	protected static final List<String> ID_KEYS = Collections.unmodifiableList(Arrays.asList(TSConfiguration.TS_IDS, TSConfiguration.TS_ID_NAMES, TSConfiguration.TS_ID_SEQ, TSConfiguration.TS_NAME_INDEX));
+	
+	/**
+	 * Creates a new SeriesDictionary
+	 * @param scriptRegistry The lua script registry
+	 */
+	public SeriesDictionary(ScriptRegistry scriptRegistry) {
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null", new Throwable());
+		this.scriptRegistry = scriptRegistry;
+	}
+	
+	/**
+	 * Returns the cached mapping for the passed series name
+	 * @param name The series name
+	 * @return the mapping or null if it has not been resolved
+	 */
+	public SeriesId get(String name) {
+		return byName.get(name);
+	}
+	
+	/**
+	 * Returns the mapping for the passed series name, assigning an ID if the series is new
+	 * @param jedis The jedis connection
+	 * @param name The series name
+	 * @return the mapping
+	 */
+	public SeriesId resolve(Jedis jedis, String name) {
+		SeriesId sid = byName.get(name);
+		if(sid==null) {
+			resolve(jedis, new String[]{name}, 0, 1);
+			sid = byName.get(name);
+		}
+		return sid;
+	}
+	
+	/**
+	 * Returns the mapping for the passed series name without assigning an ID, as used by readers
+	 * @param jedis The jedis connection
+	 * @param name The series name
+	 * @return the mapping or null if the series has never been written
+	 */
+	public SeriesId lookup(Jedis jedis, String name) {
+		SeriesId sid = byName.get(name);
+		if(sid==null) {
+			String id = jedis.hget(TSConfiguration.TS_IDS, name);
+			if(id==null) return null;
+			sid = cache(new SeriesId(name, Integer.parseInt(id)));
+		}
+		return sid;
+	}
+	
+	/**
+	 * Resolves every uncached series name in the range of the passed array in one script invocation, assigning IDs to new series
+	 * @param jedis The jedis connection
+	 * @param names The series names
+	 * @param from The index of the first name (inclusive)
+	 * @param to The index of the last name (exclusive)
+	 * @return the number of names that were not cached
+	 */
+	@SuppressWarnings("unchecked")
+	public int resolve(Jedis jedis, String[] names, int from, int to) {
+		Set<String> missing = null;
+		for(int i = from; i < to; i++) {
+			if(!byName.containsKey(names[i])) {
+				if(missing==null) missing = new LinkedHashSet<String>();
+				missing.add(names[i]);
+			}
+		}
+		if(missing==null) return 0;
+		List<String> args = new ArrayList<String>(missing);
+		List<Long> ids = (List<Long>)scriptRegistry.evalsha(jedis, idScript, ID_KEYS, args);
+		for(int i = 0; i < args.size(); i++) {
+			cache(new SeriesId(args.get(i), ids.get(i).intValue()));
+		}
+		if(log.isDebugEnabled()) log.debug("Resolved [" + args.size() + "] series IDs");
+		return args.size();
+	}
+	
+	/**
+	 * Looks up every uncached series name in the range of the passed array with one HMGET, without assigning IDs to unknown series
+	 * @param jedis The jedis connection
+	 * @param names The series names
+	 * @param from The index of the first name (inclusive)
+	 * @param to The index of the last name (exclusive)
+	 * @return the number of names that were not cached
+	 */
+	public int lookup(Jedis jedis, String[] names, int from, int to) {
+		Set<String> missing = null;
+		for(int i = from; i < to; i++) {
+			if(!byName.containsKey(names[i])) {
+				if(missing==null) missing = new LinkedHashSet<String>();
+				missing.add(names[i]);
+			}
+		}
+		if(missing==null) return 0;
+		String[] args = missing.toArray(new String[missing.size()]);
+		List<String> ids = jedis.hmget(TSConfiguration.TS_IDS, args);
+		for(int i = 0; i < args.length; i++) {
+			String id = ids.get(i);
+			if(id!=null) cache(new SeriesId(args[i], Integer.parseInt(id)));
+		}
+		return args.length;
+	}
+
+	/**
+	 * Returns the mapping for the passed series ID
+	 * @param jedis The jedis connection
+	 * @param id The series ID
+	 * @return the mapping or null if the ID has not been assigned
+	 */
+	public SeriesId getById(Jedis jedis, int id) {
+		SeriesId sid;
+		synchronized(byId) {
+			sid = byId.get(id);
+		}
+		if(sid==null) {
+			String name = jedis.hget(TSConfiguration.TS_ID_NAMES, Integer.toString(id));
+			if(name==null) return null;
+			sid = cache(new SeriesId(name, id));
+		}
+		return sid;
+	}
+	
+	/**
+	 * Returns the names of the passed series IDs, looking up every uncached ID with one HMGET
+	 * @param jedis The jedis connection
+	 * @param ids The series IDs
+	 * @return the names in the order of the IDs, null for an ID that has not been assigned
+	 */
+	public String[] names(Jedis jedis, int[] ids) {
+		String[] names = new String[ids.length];
+		List<Integer> missing = null;
+		synchronized(byId) {
+			for(int i = 0; i < ids.length; i++) {
+				SeriesId sid = byId.get(ids[i]);
+				if(sid!=null) names[i] = sid.name;
+				else {
+					if(missing==null) missing = new ArrayList<Integer>();
+					missing.add(i);
+				}
+			}
+		}
+		if(missing==null) return names;
+		String[] fields = new String[missing.size()];
+		for(int i = 0; i < fields.length; i++) {
+			fields[i] = Integer.toString(ids[missing.get(i)]);
+		}
+		List<String> found = jedis.hmget(TSConfiguration.TS_ID_NAMES, fields);
+		for(int i = 0; i < fields.length; i++) {
+			String name = found.get(i);
+			if(name==null) continue;
+			int index = missing.get(i);
+			names[index] = cache(new SeriesId(name, ids[index])).name;
+		}
+		return names;
+	}
+	
+	/**
+	 * Adds a mapping to the local cache
+	 * @param sid The mapping to cache
+	 * @return the cached mapping
+	 */
+	protected SeriesId cache(SeriesId sid) {
+		SeriesId prior = byName.putIfAbsent(sid.name, sid);
+		if(prior!=null) sid = prior;
+		synchronized(byId) {
+			byId.put(sid.id, sid);
+		}
+		return sid;
+	}
+	
+	/**
+	 * Clears the local cache. Called when connecting to a redis instance that may not hold the cached mappings.
+	 */
+	public void clear() {
+		byName.clear();
+		synchronized(byId) {
+			byId.clear();
+		}
+	}
+	
+	/**
+	 * Returns the number of cached mappings
+	 * @return the number of cached mappings
+	 */
+	public int size() {
+		return byName.size();
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+/**
+ * <p>Title: SeriesId</p>
+ * <p>Description: An immutable series name to ID mapping with the encoded ID used in keys and script payloads</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.SeriesId</code></p>
+ */
+public class SeriesId {
+	/** The series name */
+	public final String name;
+	/** The series ID */
+	public final int id;
+	/** The encoded series ID */
+	public final String code;
+	
+	/**
+	 * Creates a new SeriesId
+	 * @param name The series name
+	 * @param id The series ID
+	 */
+	public SeriesId(String name, int id) {
+		if(name==null) throw new IllegalArgumentException("The passed name was null", new Throwable());
+		this.name = name;
+		this.id = id;
+		this.code = IdCodec.encode(id);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return new StringBuilder("SeriesId [").append(name).append("=").append(id).append("]").toString();
+	}
+}
@@ -0,0 +1,233 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.controller.script.TSScript;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * <p>Title: SeriesIndex</p>
+ * <p>Description: Looks up series names by prefix and expands series name globs such as <code>app.web.*.latency</code>. 
+ * Every series name is added to the {@link TSConfiguration#TS_NAME_INDEX} sorted set with a score of 0 by the <code>ts-ids</code> script 
+ * when its ID is assigned, so the names are ordered lexicographically and the names with a prefix are read with ZRANGEBYLEX 
+ * by the <code>ts-names</code> script, a page at a time, without reading the rest of the name space.</p>
+ * <p>A glob is expanded by loading the names starting with its literal prefix (the part before the first wildcard) into a local {@link NameTrie} 
+ * and matching the glob against the trie segment by segment. A loaded prefix is reused by every glob under it for <code>redis.ts.index.ttl</code> seconds, 
+ * after which it is reloaded to pick up new series. A glob that starts with a wildcard loads the whole index.</p>
+ * <p>Tagged series names (<code>metric;tagk1=tagv1;tagk2=tagv2</code>, see {@link TagIndex}) are indexed by their full name, 
+ * so their tags are matched by the last segment of a glob, and are selected by tag with a {@link TagIndex} filter.</p>
+ * <p>Series are never removed, so the local trie only grows. It must be {@link #clear() cleared} when connecting to a new redis instance.</p>
+ * <p>Thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.SeriesIndex</code></p>
+ */
+public class SeriesIndex {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The lua script registry */
+	protected final ScriptRegistry scriptRegistry;
+	/** The number of names read per page */
+	protected final int pageSize;
+	/** The time in ms a loaded prefix is reused */
+	protected final long ttl;
+	/** The loaded names, guarded by this index */
+	protected final NameTrie trie = new NameTrie(TSConfiguration.TS_DELIM.charAt(0));
+	/** The load time in ms of each loaded prefix, guarded by this index */
+	protected final Map<String, Long> loaded = new HashMap<String, Long>();
+	/** The total number of prefix loads */
+	protected long loadCount = 0;
+	
+	/** The name paging script alias */
+	public static final String NAMES_SCRIPT = TSScript.TS_NAMES.alias(null);
+	/** The keys passed to the name paging script */
+	protected static final List<String> NAME_KEYS = Collections.singletonList(TSConfiguration.TS_NAME_INDEX);
+	/** The default number of names read per page */
+	public static final int DEFAULT_PAGE_SIZE = 10000;
+	/** The default time in seconds a loaded prefix is reused */
+	public static final long DEFAULT_TTL = 60;
+	
+	/**
+	 * Creates a new SeriesIndex
+	 * @param scriptRegistry The lua script registry
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public SeriesIndex(ScriptRegistry scriptRegistry, Properties configProps) {
+		if(scriptRegistry==null) throw new IllegalArgumentException("The passed script registry was null", new Throwable());
+		this.scriptRegistry = scriptRegistry;
+		pageSize = Integer.parseInt(configProps.getProperty("redis.ts.index.page", "" + DEFAULT_PAGE_SIZE));
+		if(pageSize<1) throw new IllegalArgumentException("Invalid index page size [" + pageSize + "]", new Throwable());
+		ttl = Long.parseLong(configProps.getProperty("redis.ts.index.ttl", "" + DEFAULT_TTL)) * 1000;
+	}
+	
+	/**
+	 * Returns the series names that start with the passed prefix, in lexicographic order
+	 * @param jedis The jedis connection
+	 * @param prefix The name prefix
+	 * @param limit The maximum number of names to return
+	 * @return the names
+	 */
+	public List<String> prefix(Jedis jedis, String prefix, int limit) {
+		List<String> names = new ArrayList<String>();
+		String last = "";
+		while(names.size() < limit) {
+			int want = Math.min(pageSize, limit - names.size());
+			List<String> page = page(jedis, prefix, last, want);
+			names.addAll(page);
+			if(page.size() < want) break;
+			last = page.get(page.size()-1);
+		}
+		return names;
+	}
+	
+	/**
+	 * Expands a series name glob into the matching series names. A glob without wildcards is checked with one ZSCORE.
+	 * @param jedis The jedis connection
+	 * @param glob The glob, in which <code>*</code> and <code>?</code> match within a segment and a <code>**</code> segment matches any number of segments
+	 * @return the matching names in lexicographic order
+	 */
+	public List<String> expand(Jedis jedis, String glob) {
+		if(glob==null) throw new IllegalArgumentException("The passed glob was null", new Throwable());
+		if(!NameTrie.isWildcard(glob)) {
+			return jedis.zscore(TSConfiguration.TS_NAME_INDEX, glob)==null ? Collections.<String>emptyList() : Collections.singletonList(glob);
+		}
+		String prefix = NameTrie.literalPrefix(glob);
+		List<String> names = new ArrayList<String>();
+		synchronized(this) {
+			if(!isLoaded(prefix, System.currentTimeMillis())) load(jedis, prefix);
+			trie.match(glob, names);
+		}
+		Collections.sort(names);
+		return names;
+	}
+	
+	/**
+	 * Rebuilds the name index from the name to ID hash, for series written before the index existed
+	 * @param jedis The jedis connection
+	 * @return the number of names indexed
+	 */
+	public int rebuild(Jedis jedis) {
+		Set<String> names = jedis.hkeys(TSConfiguration.TS_IDS);
+		Pipeline pipeline = jedis.pipelined();
+		int count = 0;
+		for(String name: names) {
+			pipeline.zadd(TSConfiguration.TS_NAME_INDEX, 0, name);
+			if(++count % pageSize == 0) pipeline.sync();
+		}
+		pipeline.sync();
+		log.info("Rebuilt series name index with [" + count + "] names");
+		return count;
+	}
+	
+	/**
+	 * Indicates if the names with the passed prefix are loaded and have not expired, discarding expired prefixes
+	 * @param prefix The name prefix
+	 * @param now The current time in ms
+	 * @return true if a loaded prefix covers the passed prefix
+	 */
+	protected boolean isLoaded(String prefix, long now) {
+		boolean covered = false;
+		for(Iterator<Map.Entry<String, Long>> iter = loaded.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, Long> entry = iter.next();
+			if(now - entry.getValue() >= ttl) iter.remove();
+			else if(prefix.startsWith(entry.getKey())) covered = true;
+		}
+		return covered;
+	}
+	
+	/**
+	 * Loads the names with the passed prefix into the trie
+	 * @param jedis The jedis connection
+	 * @param prefix The name prefix
+	 */
+	protected void load(Jedis jedis, String prefix) {
+		String last = "";
+		int count = 0;
+		while(true) {
+			List<String> page = page(jedis, prefix, last, pageSize);
+			for(String name: page) {
+				trie.add(name);
+			}
+			count += page.size();
+			if(page.size() < pageSize) break;
+			last = page.get(page.size()-1);
+		}
+		loaded.put(prefix, System.currentTimeMillis());
+		loadCount++;
+		if(log.isDebugEnabled()) log.debug("Loaded [" + count + "] series names with prefix [" + prefix + "]");
+	}
+	
+	/**
+	 * Reads one page of the names with the passed prefix
+	 * @param jedis The jedis connection
+	 * @param prefix The name prefix
+	 * @param last The last name of the previous page, or an empty string for the first page
+	 * @param count The maximum number of names
+	 * @return the names of the page
+	 */
+	@SuppressWarnings("unchecked")
+	protected List<String> page(Jedis jedis, String prefix, String last, int count) {
+		return (List<String>)scriptRegistry.evalsha(jedis, NAMES_SCRIPT, NAME_KEYS, Arrays.asList(prefix, last, "" + count));
+	}
+	
+	/**
+	 * Discards the loaded names. Called when connecting to a redis instance that may not hold them.
+	 */
+	public synchronized void clear() {
+		trie.clear();
+		loaded.clear();
+	}
+	
+	/**
+	 * Returns the number of locally loaded names
+	 * @return the number of locally loaded names
+	 */
+	public synchronized int getLoadedNames() {
+		return trie.size();
+	}
+	
+	/**
+	 * Returns the total number of prefix loads
+	 * @return the total number of prefix loads
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+}
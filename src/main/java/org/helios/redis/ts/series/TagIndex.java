@@ -0,0 +1,324 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.server.LineProtocolParser;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: TagIndex</p>
+ * <p>Description: An inverted index from the tags of tagged series to their series IDs, 
+ * held in redis as compressed {@link RoaringBitmap} containers under {@link TSConfiguration#TS_TAG_ROOT}, one string per tag per 64K IDs. 
+ * The containers are maintained by the <code>ts-ids</code> script when a series ID is assigned, so the index is always consistent with the dictionary.</p>
+ * <p>A tagged series name is a metric followed by <code>;</code> separated tags, <code>metric;tagk1=tagv1;tagk2=tagv2</code>, 
+ * the Graphite tagged series syntax, which is also how OpenTSDB tags are folded into the series name by the {@link LineProtocolParser}. 
+ * Every tag must be a <code>tagk=tagv</code> pair with a non empty key and value, otherwise the name is a plain name with no tags, 
+ * so a plain name that happens to contain <code>=</code> or <code>:</code> is never indexed.</p>
+ * <p>A filter such as <code>service=checkout AND dc=east OR env=test</code> (AND binding tighter than OR) is resolved by reading the bitmap of each tag, 
+ * all in one pipelined round trip, then intersecting and unioning the bitmaps locally into a sorted, dense array of series IDs. 
+ * The bitmaps of recently used tags are cached for <code>redis.ts.tags.ttl</code> seconds, up to <code>redis.ts.tags.cache</code> tags, 
+ * so a repeated filter is resolved without a round trip.</p>
+ * <p>Thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.TagIndex</code></p>
+ */
+public class TagIndex {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The time in ms a cached tag bitmap is reused */
+	protected final long ttl;
+	/** The cached tag bitmaps in access order, guarded by this index */
+	protected final LinkedHashMap<String, CachedBitmap> cache;
+	/** The total number of tag bitmaps read from redis */
+	protected long loadCount = 0;
+	
+	/** The number of low ID bits held in one container */
+	public static final int CONTAINER_BITS = 16;
+	/** The default time in seconds a cached tag bitmap is reused */
+	public static final long DEFAULT_TTL = 10;
+	/** The default maximum number of cached tag bitmaps */
+	public static final int DEFAULT_CACHE_SIZE = 1024;
+	/** The filter keyword for intersections */
+	public static final String AND = "AND";
+	/** The filter keyword for unions */
+	public static final String OR = "OR";
+	
+	/**
+	 * Creates a new TagIndex
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public TagIndex(Properties configProps) {
+		ttl = Long.parseLong(configProps.getProperty("redis.ts.tags.ttl", "" + DEFAULT_TTL)) * 1000;
+		final int maxSize = Integer.parseInt(configProps.getProperty("redis.ts.tags.cache", "" + DEFAULT_CACHE_SIZE));
+		cache = new LinkedHashMap<String, CachedBitmap>(64, 0.75f, true) {
+			private static final long serialVersionUID = -3954717240353452370L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedBitmap> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	
+	/**
+	 * Returns the redis key of a tag container
+	 * @param tag The tag as <code>tagk=tagv</code>
+	 * @param high The high 16 bits of the container's series IDs
+	 * @return the container key
+	 */
+	public static String containerKey(String tag, int high) {
+		return new StringBuilder(TSConfiguration.TS_TAG_ROOT).append(TSConfiguration.TS_DELIM).append(tag).append(TSConfiguration.TS_DELIM).append(high).toString();
+	}
+	
+	/**
+	 * Returns the tags of a tagged series name, parsed the same way as by the <code>ts-ids</code> script
+	 * @param name The series name
+	 * @return the tags as <code>tagk=tagv</code>, empty if the series is not tagged
+	 */
+	public static List<String> tags(String name) {
+		int start = name.indexOf(LineProtocolParser.TAG_START);
+		if(start<1 || start==name.length()-1) return Collections.emptyList();
+		String[] tags = name.substring(start + 1).split("" + LineProtocolParser.TAG_DELIM, -1);
+		for(String tag: tags) {
+			int eq = tag.indexOf('=');
+			if(eq<1 || eq==tag.length()-1) return Collections.emptyList();
+		}
+		return Arrays.asList(tags);
+	}
+	
+	/**
+	 * Parses a filter into a union of intersections
+	 * @param filter The filter, tags joined by <code>AND</code> and <code>OR</code>, AND binding tighter
+	 * @return the tags of each intersection
+	 */
+	public static List<List<String>> parse(String filter) {
+		if(filter==null) throw new IllegalArgumentException("The passed filter was null", new Throwable());
+		List<List<String>> union = new ArrayList<List<String>>();
+		List<String> intersection = new ArrayList<String>();
+		boolean expectTag = true;
+		for(String token: filter.trim().split("\\s+")) {
+			if(expectTag) {
+				if(token.indexOf('=')<1) throw new IllegalArgumentException("Expected a tagk=tagv tag but got [" + token + "] in filter [" + filter + "]", new Throwable());
+				intersection.add(token);
+			} else if(OR.equalsIgnoreCase(token)) {
+				union.add(intersection);
+				intersection = new ArrayList<String>();
+			} else if(!AND.equalsIgnoreCase(token)) {
+				throw new IllegalArgumentException("Expected AND or OR but got [" + token + "] in filter [" + filter + "]", new Throwable());
+			}
+			expectTag = !expectTag;
+		}
+		if(expectTag) throw new IllegalArgumentException("Incomplete filter [" + filter + "]", new Throwable());
+		union.add(intersection);
+		return union;
+	}
+	
+	/**
+	 * Resolves a filter into the IDs of the matching series
+	 * @param jedis The jedis connection
+	 * @param filter The filter, tags joined by <code>AND</code> and <code>OR</code>, AND binding tighter
+	 * @return the matching series IDs in ascending order
+	 */
+	public int[] select(Jedis jedis, String filter) {
+		List<List<String>> union = parse(filter);
+		List<String> tags = new ArrayList<String>();
+		for(List<String> intersection: union) {
+			tags.addAll(intersection);
+		}
+		return evaluate(union, bitmaps(jedis, tags)).toArray();
+	}
+	
+	/**
+	 * Resolves a filter into the names of the matching series, ready for a multi-series range query
+	 * @param jedis The jedis connection
+	 * @param dictionary The series name to ID dictionary
+	 * @param filter The filter, tags joined by <code>AND</code> and <code>OR</code>, AND binding tighter
+	 * @return the names of the matching series in ascending ID order
+	 */
+	public String[] series(Jedis jedis, SeriesDictionary dictionary, String filter) {
+		String[] names = dictionary.names(jedis, select(jedis, filter));
+		int n = 0;
+		for(String name: names) {
+			if(name!=null) names[n++] = name;
+		}
+		return n==names.length ? names : Arrays.copyOf(names, n);
+	}
+	
+	/**
+	 * Evaluates a parsed filter against the bitmaps of its tags. Each intersection starts from its smallest bitmap.
+	 * @param union The tags of each intersection
+	 * @param bitmaps The bitmap of each tag
+	 * @return the bitmap of the matching series IDs
+	 */
+	public static RoaringBitmap evaluate(List<List<String>> union, final Map<String, RoaringBitmap> bitmaps) {
+		RoaringBitmap result = new RoaringBitmap();
+		for(List<String> intersection: union) {
+			List<String> ordered = new ArrayList<String>(intersection);
+			Collections.sort(ordered, new Comparator<String>() {
+				public int compare(String a, String b) {
+					int ca = bitmaps.get(a).cardinality(), cb = bitmaps.get(b).cardinality();
+					return ca < cb ? -1 : (ca==cb ? 0 : 1);
+				}
+			});
+			RoaringBitmap matched = bitmaps.get(ordered.get(0));
+			for(int i = 1; i < ordered.size() && matched.getContainerCount()>0; i++) {
+				matched = matched.and(bitmaps.get(ordered.get(i)));
+			}
+			result = result.or(matched);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns the bitmaps of the passed tags, reading every uncached or expired tag in one pipelined round trip
+	 * @param jedis The jedis connection
+	 * @param tags The tags
+	 * @return the bitmap of each tag
+	 */
+	protected Map<String, RoaringBitmap> bitmaps(Jedis jedis, List<String> tags) {
+		Map<String, RoaringBitmap> bitmaps = new HashMap<String, RoaringBitmap>(tags.size()*2);
+		long now = System.currentTimeMillis();
+		synchronized(this) {
+			for(String tag: tags) {
+				CachedBitmap cached = cache.get(tag);
+				if(cached!=null && now - cached.loaded < ttl) bitmaps.put(tag, cached.bitmap);
+			}
+		}
+		if(bitmaps.size()==tags.size()) return bitmaps;
+		String seq = jedis.get(TSConfiguration.TS_ID_SEQ);
+		int containers = seq==null ? 0 : (int)(Long.parseLong(seq) >>> CONTAINER_BITS) + 1;
+		Pipeline pipeline = jedis.pipelined();
+		Map<String, List<Response<byte[]>>> responses = new HashMap<String, List<Response<byte[]>>>();
+		for(String tag: tags) {
+			if(bitmaps.containsKey(tag) || responses.containsKey(tag)) continue;
+			List<Response<byte[]>> tagResponses = new ArrayList<Response<byte[]>>(containers);
+			for(int high = 0; high < containers; high++) {
+				tagResponses.add(pipeline.get(SafeEncoder.encode(containerKey(tag, high))));
+			}
+			responses.put(tag, tagResponses);
+		}
+		pipeline.sync();
+		synchronized(this) {
+			for(Map.Entry<String, List<Response<byte[]>>> entry: responses.entrySet()) {
+				RoaringBitmap bitmap = new RoaringBitmap();
+				List<Response<byte[]>> tagResponses = entry.getValue();
+				for(int high = 0; high < tagResponses.size(); high++) {
+					bitmap.setContainer(high, tagResponses.get(high).get());
+				}
+				bitmaps.put(entry.getKey(), bitmap);
+				cache.put(entry.getKey(), new CachedBitmap(bitmap, now));
+				loadCount++;
+			}
+		}
+		return bitmaps;
+	}
+	
+	/**
+	 * Rebuilds the tag index from the ID to name hash, for series written before the index existed
+	 * @param jedis The jedis connection
+	 * @return the number of tagged series indexed
+	 */
+	public int rebuild(Jedis jedis) {
+		Map<String, RoaringBitmap> bitmaps = new HashMap<String, RoaringBitmap>();
+		int count = 0;
+		for(Map.Entry<String, String> entry: jedis.hgetAll(TSConfiguration.TS_ID_NAMES).entrySet()) {
+			List<String> tags = tags(entry.getValue());
+			if(tags.isEmpty()) continue;
+			int id = Integer.parseInt(entry.getKey());
+			for(String tag: tags) {
+				RoaringBitmap bitmap = bitmaps.get(tag);
+				if(bitmap==null) {
+					bitmap = new RoaringBitmap();
+					bitmaps.put(tag, bitmap);
+				}
+				bitmap.add(id);
+			}
+			count++;
+		}
+		Pipeline pipeline = jedis.pipelined();
+		for(Map.Entry<String, RoaringBitmap> entry: bitmaps.entrySet()) {
+			RoaringBitmap bitmap = entry.getValue();
+			for(int i = 0; i < bitmap.getContainerCount(); i++) {
+				pipeline.set(SafeEncoder.encode(containerKey(entry.getKey(), bitmap.getContainerKey(i))), bitmap.serializeContainer(i));
+			}
+		}
+		pipeline.sync();
+		clear();
+		log.info("Rebuilt tag index with [" + bitmaps.size() + "] tags of [" + count + "] series");
+		return count;
+	}
+	
+	/**
+	 * Discards the cached tag bitmaps
+	 */
+	public synchronized void clear() {
+		cache.clear();
+	}
+	
+	/**
+	 * Returns the total number of tag bitmaps read from redis
+	 * @return the total number of tag bitmaps read from redis
+	 */
+	public synchronized long getLoadCount() {
+		return loadCount;
+	}
+	
+	/**
+	 * <p>Title: CachedBitmap</p>
+	 * <p>Description: A cached tag bitmap and the time it was read</p> 
+	 */
+	protected static class CachedBitmap {
+		/** The bitmap */
+		protected final RoaringBitmap bitmap;
+		/** The time in ms the bitmap was read */
+		protected final long loaded;
+		
+		/**
+		 * Creates a new CachedBitmap
+		 * @param bitmap The bitmap
+		 * @param loaded The time in ms the bitmap was read
+		 */
+		protected CachedBitmap(RoaringBitmap bitmap, long loaded) {
+			this.bitmap = bitmap;
+			this.loaded = loaded;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.util.CharsetUtil;
+
+/**
+ * <p>Title: BufferParser</p>
+ * <p>Description: Static helpers to tokenize and parse numbers directly out of a {@link ChannelBuffer} 
+ * without creating an intermediate String per field.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.BufferParser</code></p>
+ */
+public class BufferParser {
+	/** Powers of ten that are exactly representable as doubles */
+	private static final double[] POW10 = new double[23];
+	/** The maximum number of significant digits accumulated in the mantissa so that it stays exactly representable as a double */
+	private static final int MAX_MANTISSA_DIGITS = 15;
+	
+	static {
+		double d = 1D;
+		for(int i = 0; i < POW10.length; i++) {
+			POW10[i] = d;
+			d *= 10D;
+		}
+	}
+	
+	private BufferParser() {}
+	
+	/**
+	 * Indicates if the passed byte is a field separator (space or tab)
+	 * @param b The byte to test
+	 * @return true if the byte is a field separator
+	 */
+	public static boolean isSpace(byte b) {
+		return b==' ' || b=='\t';
+	}
+	
+	/**
+	 * Splits the range of the buffer into whitespace separated tokens. 
+	 * The start offset of token <code>n</code> is written to <code>tokens[n*2]</code> and the end offset (exclusive) to <code>tokens[n*2+1]</code>.
+	 * @param buffer The buffer to tokenize
+	 * @param from The start offset (inclusive)
+	 * @param to The end offset (exclusive)
+	 * @param tokens The token offset array
+	 * @return the number of tokens found, or -1 if there were more tokens than fit in the token offset array
+	 */
+	public static int tokenize(ChannelBuffer buffer, int from, int to, int[] tokens) {
+		int count = 0;
+		int i = from;
+		while(i < to) {
+			while(i < to && isSpace(buffer.getByte(i))) i++;
+			if(i==to) break;
+			if(count*2 >= tokens.length) return -1;
+			tokens[count*2] = i;
+			while(i < to && !isSpace(buffer.getByte(i))) i++;
+			tokens[count*2+1] = i;
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Determines if the bytes in the range of the buffer equal the passed ASCII string
+	 * @param buffer The buffer to compare
+	 * @param from The start offset (inclusive)
+	 * @param to The end offset (exclusive)
+	 * @param ascii The ASCII string to compare to
+	 * @return true if the range matches
+	 */
+	public static boolean equalsAscii(ChannelBuffer buffer, int from, int to, String ascii) {
+		if(to-from!=ascii.length()) return false;
+		for(int i = 0; i < ascii.length(); i++) {
+			if(buffer.getByte(from+i)!=ascii.charAt(i)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Compares two ranges of the buffer byte by byte
+	 * @param buffer The buffer
+	 * @param from1 The start offset of the first range (inclusive)
+	 * @param to1 The end offset of the first range (exclusive)
+	 * @param from2 The start offset of the second range (inclusive)
+	 * @param to2 The end offset of the second range (exclusive)
+	 * @return a negative number, zero or a positive number as the first range is less than, equal to or greater than the second
+	 */
+	public static int compare(ChannelBuffer buffer, int from1, int to1, int from2, int to2) {
+		int len = Math.min(to1-from1, to2-from2);
+		for(int i = 0; i < len; i++) {
+			int diff = (buffer.getByte(from1+i) & 0xFF) - (buffer.getByte(from2+i) & 0xFF);
+			if(diff!=0) return diff;
+		}
+		return (to1-from1) - (to2-from2);
+	}
+	
+	/**
+	 * Parses a signed decimal long from the range of the buffer
+	 * @param buffer The buffer to parse from
+	 * @param from The start offset (inclusive)
+	 * @param to The end offset (exclusive)
+	 * @return the parsed long
+	 */
+	public static long parseLong(ChannelBuffer buffer, int from, int to) {
+		if(from>=to) throw new NumberFormatException("Empty number");
+		boolean negative = false;
+		int i = from;
+		byte b = buffer.getByte(i);
+		if(b=='-' || b=='+') {
+			negative = b=='-';
+			i++;
+			if(i==to) throw new NumberFormatException("Sign without digits");
+		}
+		long value = 0;
+		for(; i < to; i++) {
+			int digit = buffer.getByte(i) - '0';
+			if(digit<0 || digit>9) throw new NumberFormatException("Invalid digit in [" + buffer.toString(from, to-from, CharsetUtil.US_ASCII) + "]");
+			value = value*10 + digit;
+			if(value<0) throw new NumberFormatException("Long overflow in [" + buffer.toString(from, to-from, CharsetUtil.US_ASCII) + "]");
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parses a decimal double from the range of the buffer. Plain and exponent notation with up to 
+	 * {@link #MAX_MANTISSA_DIGITS} significant digits are parsed in place, anything else falls back to {@link Double#parseDouble(String)}.
+	 * Non-finite values (<code>NaN</code>, <code>Infinity</code> or an exponent that overflows) are rejected.
+	 * @param buffer The buffer to parse from
+	 * @param from The start offset (inclusive)
+	 * @param to The end offset (exclusive)
+	 * @return the parsed double
+	 */
+	public static double parseDouble(ChannelBuffer buffer, int from, int to) {
+		if(from>=to) throw new NumberFormatException("Empty number");
+		int i = from;
+		boolean negative = false;
+		byte b = buffer.getByte(i);
+		if(b=='-' || b=='+') {
+			negative = b=='-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		for(; i < to; i++) {
+			b = buffer.getByte(i);
+			if(b>='0' && b<='9') {
+				seenDigit = true;
+				if(mantissa==0 && b=='0') {
+					if(seenPoint) scale++;
+					continue;
+				}
+				if(digits>=MAX_MANTISSA_DIGITS) return slowParse(buffer, from, to);
+				mantissa = mantissa*10 + (b-'0');
+				digits++;
+				if(seenPoint) scale++;
+			} else if(b=='.' && !seenPoint) {
+				seenPoint = true;
+			} else if((b=='e' || b=='E') && seenDigit) {
+				scale -= (int)parseLong(buffer, i+1, to);
+				break;
+			} else {
+				return slowParse(buffer, from, to);
+			}
+		}
+		if(!seenDigit) return slowParse(buffer, from, to);
+		double value = mantissa;
+		if(scale>0) {
+			if(scale>=POW10.length) return slowParse(buffer, from, to);
+			value = value / POW10[scale];
+		} else if(scale<0) {
+			if(-scale>=POW10.length) return slowParse(buffer, from, to);
+			value = value * POW10[-scale];
+		}
+		return negative ? -value : value;
+	}
+	
+	/**
+	 * Parses a double by decoding the range of the buffer into a String
+	 * @param buffer The buffer to parse from
+	 * @param from The start offset (inclusive)
+	 * @param to The end offset (exclusive)
+	 * @return the parsed double
+	 * @throws NumberFormatException if the text is not a number or the number is not finite
+	 */
+	private static double slowParse(ChannelBuffer buffer, int from, int to) {
+		String text = buffer.toString(from, to-from, CharsetUtil.US_ASCII);
+		double value = Double.parseDouble(text);
+		if(Double.isNaN(value) || Double.isInfinite(value)) throw new NumberFormatException("Non-finite number [" + text + "]");
+		return value;
+	}
+}
@@ -0,0 +1,100 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.handler.codec.frame.TooLongFrameException;
+
+/**
+ * <p>Title: LineProtocolHandler</p>
+ * <p>Description: Per channel handler that parses framed protocol lines and hands the samples to the server's sink</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.LineProtocolHandler</code></p>
+ */
+public class LineProtocolHandler extends SimpleChannelUpstreamHandler {
+	/** Static class logger */
+	protected static final Logger LOG = Logger.getLogger(LineProtocolHandler.class);
+	/** The owning server */
+	protected final LineProtocolServer server;
+	/** The channel's line parser */
+	protected final LineProtocolParser parser = new LineProtocolParser();
+	
+	/**
+	 * Creates a new LineProtocolHandler
+	 * @param server The owning server
+	 */
+	public LineProtocolHandler(LineProtocolServer server) {
+		this.server = server;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#channelOpen(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ChannelStateEvent)
+	 */
+	@Override
+	public void channelOpen(ChannelHandlerContext ctx, ChannelStateEvent e) throws Exception {
+		server.channels.add(e.getChannel());
+		super.channelOpen(ctx, e);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#messageReceived(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.MessageEvent)
+	 */
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+		ChannelBuffer line = (ChannelBuffer)e.getMessage();
+		server.linesReceived.incrementAndGet();
+		try {
+			if(parser.parse(line, server.sink)) {
+				server.samplesAccepted.incrementAndGet();
+			}
+		} catch (RuntimeException re) {
+			server.parseErrors.incrementAndGet();
+			if(LOG.isDebugEnabled()) LOG.debug("Invalid line from [" + e.getRemoteAddress() + "]:" + re.getMessage());
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#exceptionCaught(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ExceptionEvent)
+	 */
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+		if(e.getCause() instanceof TooLongFrameException) {
+			server.parseErrors.incrementAndGet();
+			return;
+		}
+		LOG.warn("Closing channel [" + e.getChannel() + "] on exception:" + e.getCause());
+		e.getChannel().close();
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import java.nio.charset.Charset;
+
+import org.helios.redis.ts.ingest.SampleSink;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>Title: LineProtocolParser</p>
+ * <p>Description: Parses one plaintext protocol line directly out of a {@link ChannelBuffer}. Two formats are supported:<ul>
+ * <li><b>Graphite</b>:&nbsp;<code>&lt;series&gt; &lt;value&gt; &lt;timestamp&gt;</code></li>
+ * <li><b>OpenTSDB</b>:&nbsp;<code>put &lt;metric&gt; &lt;timestamp&gt; &lt;value&gt; [&lt;tagk=tagv&gt; ...]</code></li>
+ * </ul>
+ * Numeric fields are parsed in place and only the series name is decoded into a String. 
+ * OpenTSDB tags are sorted and folded into the series name as <code>metric;tagk1=tagv1;tagk2=tagv2</code> (the Graphite tagged series syntax) 
+ * so the same tag set always maps to the same series. Graphite names in the tagged syntax are kept as sent. Timestamps larger than {@link #MAX_SECONDS_TIMESTAMP} are taken to be in ms.</p>
+ * <p>Not thread safe. One parser is created per channel.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.LineProtocolParser</code></p>
+ */
+public class LineProtocolParser {
+	/** The token offsets of the current line */
+	protected final int[] tokens = new int[MAX_TOKENS*2];
+	/** The tag token indexes of the current line, sorted */
+	protected final int[] tagOrder = new int[MAX_TOKENS];
+	/** The scratch buffer the tagged series name is assembled in */
+	protected byte[] nameBuffer = new byte[256];
+	
+	/** The maximum number of fields in one line */
+	public static final int MAX_TOKENS = 32;
+	/** The largest timestamp interpreted as seconds */
+	public static final long MAX_SECONDS_TIMESTAMP = 9999999999L;
+	/** The OpenTSDB put command */
+	public static final String PUT = "put";
+	/** The separator between a metric and its tags in a tagged series name */
+	public static final char TAG_START = ';';
+	/** The separator between tags in a tagged series name */
+	public static final char TAG_DELIM = ';';
+	/** The series name character set */
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Parses one line and writes the sample to the passed sink
+	 * @param line The buffer containing the line, without the line delimiter
+	 * @param sink The sink to write the parsed sample to
+	 * @return true if a sample was written, false if the line was blank
+	 */
+	public boolean parse(ChannelBuffer line, SampleSink sink) {
+		int from = line.readerIndex();
+		int to = line.writerIndex();
+		while(to>from && line.getByte(to-1)=='\r') to--;
+		int count = BufferParser.tokenize(line, from, to, tokens);
+		if(count==0) return false;
+		if(count<0) throw new IllegalArgumentException("Line has more than [" + MAX_TOKENS + "] fields");
+		if(BufferParser.equalsAscii(line, tokens[0], tokens[1], PUT)) {
+			if(count<4) throw new IllegalArgumentException("Expected [put <metric> <timestamp> <value> [tags]] but got [" + count + "] fields");
+			long timestamp = toSeconds(BufferParser.parseLong(line, tokens[4], tokens[5]));
+			double value = BufferParser.parseDouble(line, tokens[6], tokens[7]);
+			String series = count==4 ? token(line, 1) : taggedName(line, count);
+			sink.write(series, timestamp, value);
+		} else {
+			if(count!=3) throw new IllegalArgumentException("Expected [<series> <value> <timestamp>] but got [" + count + "] fields");
+			double value = BufferParser.parseDouble(line, tokens[2], tokens[3]);
+			long timestamp = toSeconds(BufferParser.parseLong(line, tokens[4], tokens[5]));
+			sink.write(token(line, 0), timestamp, value);
+		}
+		return true;
+	}
+	
+	/**
+	 * Decodes one token into a String
+	 * @param line The line buffer
+	 * @param index The token index
+	 * @return the decoded token
+	 */
+	protected String token(ChannelBuffer line, int index) {
+		int start = tokens[index*2];
+		return line.toString(start, tokens[index*2+1]-start, UTF8);
+	}
+	
+	/**
+	 * Assembles the tagged series name of an OpenTSDB put, sorting the tags
+	 * @param line The line buffer
+	 * @param count The number of tokens in the line
+	 * @return the tagged series name
+	 */
+	protected String taggedName(ChannelBuffer line, int count) {
+		int tagCount = count-4;
+		int length = tokens[3]-tokens[2];
+		for(int t = 0; t < tagCount; t++) {
+			int index = t + 4;
+			int j = t;
+			while(j>0 && compareTokens(line, tagOrder[j-1], index)>0) {
+				tagOrder[j] = tagOrder[j-1];
+				j--;
+			}
+			tagOrder[j] = index;
+			length += 1 + tokens[index*2+1]-tokens[index*2];
+		}
+		if(nameBuffer.length<length) nameBuffer = new byte[length*2];
+		int pos = copyToken(line, 1, 0);
+		for(int t = 0; t < tagCount; t++) {
+			nameBuffer[pos++] = (byte)(t==0 ? TAG_START : TAG_DELIM);
+			pos = copyToken(line, tagOrder[t], pos);
+		}
+		return new String(nameBuffer, 0, pos, UTF8);
+	}
+	
+	/**
+	 * Compares two tokens byte by byte
+	 * @param line The line buffer
+	 * @param index1 The first token index
+	 * @param index2 The second token index
+	 * @return the comparison result
+	 */
+	protected int compareTokens(ChannelBuffer line, int index1, int index2) {
+		return BufferParser.compare(line, tokens[index1*2], tokens[index1*2+1], tokens[index2*2], tokens[index2*2+1]);
+	}
+	
+	/**
+	 * Copies a token into the name buffer
+	 * @param line The line buffer
+	 * @param index The token index
+	 * @param pos The position in the name buffer to copy to
+	 * @return the position in the name buffer after the copied token
+	 */
+	protected int copyToken(ChannelBuffer line, int index, int pos) {
+		int start = tokens[index*2];
+		int len = tokens[index*2+1]-start;
+		line.getBytes(start, nameBuffer, pos, len);
+		return pos + len;
+	}
+	
+	/**
+	 * Normalizes a timestamp to seconds
+	 * @param timestamp A timestamp in seconds or ms
+	 * @return the timestamp in seconds
+	 */
+	public static long toSeconds(long timestamp) {
+		return timestamp > MAX_SECONDS_TIMESTAMP ? timestamp/1000 : timestamp;
+	}
+}
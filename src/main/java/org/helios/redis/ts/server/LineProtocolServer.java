@@ -0,0 +1,178 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.ingest.SampleSink;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.DelimiterBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.Delimiters;
+
+/**
+ * <p>Title: LineProtocolServer</p>
+ * <p>Description: Netty TCP server accepting the Graphite and OpenTSDB plaintext line protocols (see {@link LineProtocolParser})
+ * and handing the parsed samples to a {@link SampleSink}, so agents push to redis-ts directly and connections and batching are concentrated here.</p>
+ * <p>Configured with:<ul>
+ * <li><b>redis.ts.server.tcp.enabled</b>:&nbsp;Starts the server from {@link org.helios.redis.ts.controller.Boot} if true. Default false</li>
+ * <li><b>redis.ts.server.tcp.bind</b>:&nbsp;The bind address. Default 0.0.0.0</li>
+ * <li><b>redis.ts.server.tcp.port</b>:&nbsp;The listening port. Default 2003</li>
+ * <li><b>redis.ts.server.tcp.maxline</b>:&nbsp;The maximum line length in bytes. Default 1024</li>
+ * <li><b>redis.ts.server.tcp.workers</b>:&nbsp;The number of I/O worker threads. Default 2 x cores</li>
+ * </ul></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.LineProtocolServer</code></p>
+ */
+public class LineProtocolServer {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The sink parsed samples are written to */
+	protected final SampleSink sink;
+	/** The bind address */
+	protected final String bindAddress;
+	/** The listening port */
+	protected final int port;
+	/** The maximum line length */
+	protected final int maxLine;
+	/** The number of I/O worker threads */
+	protected final int workers;
+	/** All open channels */
+	protected final ChannelGroup channels = new DefaultChannelGroup(getClass().getSimpleName());
+	/** The netty server bootstrap */
+	protected ServerBootstrap bootstrap = null;
+	
+	/** The total number of lines received */
+	protected final AtomicLong linesReceived = new AtomicLong(0);
+	/** The total number of samples accepted */
+	protected final AtomicLong samplesAccepted = new AtomicLong(0);
+	/** The total number of invalid lines */
+	protected final AtomicLong parseErrors = new AtomicLong(0);
+	
+	/** Thread Factory Thread Serial Number */
+	protected static final AtomicInteger serial = new AtomicInteger(0);
+	/** Thread Factory Thread Group */
+	protected static final ThreadGroup threadGroup = new ThreadGroup(LineProtocolServer.class.getSimpleName() + "-ThreadGroup");
+	/** Thread Factory */
+	protected static final ThreadFactory threadFactory = new ThreadFactory(){
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(threadGroup, r, LineProtocolServer.class.getSimpleName() + "Thread#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	
+	/**
+	 * Creates a new LineProtocolServer
+	 * @param sink The sink parsed samples are written to
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public LineProtocolServer(SampleSink sink, Properties configProps) {
+		if(sink==null) throw new IllegalArgumentException("The passed sink was null", new Throwable());
+		this.sink = sink;
+		bindAddress = configProps.getProperty("redis.ts.server.tcp.bind", "0.0.0.0");
+		port = Integer.parseInt(configProps.getProperty("redis.ts.server.tcp.port", "2003"));
+		maxLine = Integer.parseInt(configProps.getProperty("redis.ts.server.tcp.maxline", "1024"));
+		workers = Integer.parseInt(configProps.getProperty("redis.ts.server.tcp.workers", "" + Runtime.getRuntime().availableProcessors()*2));
+	}
+	
+	/**
+	 * Starts the server
+	 */
+	public void start() {
+		bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+				Executors.newCachedThreadPool(threadFactory), Executors.newCachedThreadPool(threadFactory), workers));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(
+						new DelimiterBasedFrameDecoder(maxLine, true, false, Delimiters.lineDelimiter()),
+						new LineProtocolHandler(LineProtocolServer.this));
+			}
+		});
+		bootstrap.setOption("child.tcpNoDelay", true);
+		bootstrap.setOption("child.keepAlive", true);
+		bootstrap.setOption("reuseAddress", true);
+		Channel serverChannel = bootstrap.bind(new InetSocketAddress(bindAddress, port));
+		channels.add(serverChannel);
+		log.info("LineProtocolServer listening on [" + bindAddress + ":" + port + "]");
+	}
+	
+	/**
+	 * Closes all channels and stops the server
+	 */
+	public void stop() {
+		channels.close().awaitUninterruptibly();
+		if(bootstrap!=null) {
+			bootstrap.releaseExternalResources();
+			bootstrap = null;
+		}
+		log.info("LineProtocolServer stopped");
+	}
+	
+	/**
+	 * Returns the total number of lines received
+	 * @return the total number of lines received
+	 */
+	public long getLinesReceived() {
+		return linesReceived.get();
+	}
+	
+	/**
+	 * Returns the total number of samples accepted
+	 * @return the total number of samples accepted
+	 */
+	public long getSamplesAccepted() {
+		return samplesAccepted.get();
+	}
+	
+	/**
+	 * Returns the total number of invalid lines
+	 * @return the total number of invalid lines
+	 */
+	public long getParseErrors() {
+		return parseErrors.get();
+	}
+	
+	/**
+	 * Returns the listening port
+	 * @return the listening port
+	 */
+	public int getPort() {
+		return port;
+	}
+}
@@ -0,0 +1,248 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.helios.redis.ts.ingest.SampleSink;
+import org.helios.redis.ts.series.LongHashSet;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>Title: StatsdAggregator</p>
+ * <p>Description: Applies the statsd semantics of each metric type before the samples reach the {@link SampleSink}:<ul>
+ * <li><b>Counters</b>:&nbsp;Scaled up by the sample rate and written as {@link TSType#COUNTER} samples, summed per live period downstream</li>
+ * <li><b>Timers</b>:&nbsp;Written as {@link TSType#TIMER} samples, reduced to count/sum/min/max per live period downstream</li>
+ * <li><b>Gauges</b>:&nbsp;Signed values are deltas applied to the last value of the gauge, written as {@link TSType#GAUGE} samples. 
+ * The last value of a gauge not updated for the configured number of live periods is evicted, so a later delta starts again from zero</li>
+ * <li><b>Sets</b>:&nbsp;Member hashes are collected per series for the open live period, and the distinct count of each 
+ * is written as one {@link TSType#SET} sample when the period closes</li>
+ * </ul></p>
+ * <p>Thread safe. Called by the datagram worker and by the server's period flush task.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.StatsdAggregator</code></p>
+ */
+public class StatsdAggregator {
+	/** The sink samples are written to */
+	protected final SampleSink sink;
+	/** The live tier the set periods are aligned to */
+	protected final Tier liveTier;
+	/** The last value and the live period bucket of the last update of each gauge */
+	protected final Map<String, double[]> gauges = new HashMap<String, double[]>();
+	/** The number of live periods without an update after which a gauge is evicted, or 0 to never evict */
+	protected final int gaugeExpiry;
+	/** The live period bucket of the last gauge eviction */
+	protected long evictBucket = -1;
+	/** The total number of evicted gauges */
+	protected long evictedGauges = 0;
+	/** The distinct member hashes of each set in the open period */
+	protected final Map<String, LongHashSet> sets = new HashMap<String, LongHashSet>();
+	/** The live period bucket the collected set members belong to */
+	protected long setBucket = -1;
+	
+	/** The default number of live periods without an update after which a gauge is evicted */
+	public static final int DEFAULT_GAUGE_EXPIRY = 60;
+	
+	/**
+	 * Creates a new StatsdAggregator with the default gauge expiry
+	 * @param sink The sink samples are written to
+	 * @param liveTier The live tier the set periods are aligned to
+	 */
+	public StatsdAggregator(SampleSink sink, Tier liveTier) {
+		this(sink, liveTier, DEFAULT_GAUGE_EXPIRY);
+	}
+	
+	/**
+	 * Creates a new StatsdAggregator
+	 * @param sink The sink samples are written to
+	 * @param liveTier The live tier the set periods are aligned to
+	 * @param gaugeExpiry The number of live periods without an update after which a gauge is evicted, or 0 to never evict
+	 */
+	public StatsdAggregator(SampleSink sink, Tier liveTier, int gaugeExpiry) {
+		if(sink==null) throw new IllegalArgumentException("The passed sink was null", new Throwable());
+		if(liveTier==null) throw new IllegalArgumentException("The passed live tier was null", new Throwable());
+		if(gaugeExpiry<0) throw new IllegalArgumentException("Invalid gauge expiry [" + gaugeExpiry + "]", new Throwable());
+		this.sink = sink;
+		this.liveTier = liveTier;
+		this.gaugeExpiry = gaugeExpiry;
+	}
+	
+	/**
+	 * Records a counter increment
+	 * @param series The series name
+	 * @param value The increment
+	 * @param sampleRate The client sample rate in the range (0, 1]
+	 * @param nowSecs The receive time as unix time in seconds
+	 */
+	public void counter(String series, double value, double sampleRate, long nowSecs) {
+		sink.write(series, TSType.COUNTER, nowSecs, sampleRate>0 && sampleRate<1 ? value/sampleRate : value);
+	}
+	
+	/**
+	 * Records a timing
+	 * @param series The series name
+	 * @param value The elapsed time
+	 * @param nowSecs The receive time as unix time in seconds
+	 */
+	public void timer(String series, double value, long nowSecs) {
+		sink.write(series, TSType.TIMER, nowSecs, value);
+	}
+	
+	/**
+	 * Records a gauge value or delta
+	 * @param series The series name
+	 * @param value The gauge value, or the change to the last value if <code>delta</code> is true
+	 * @param delta true if the value is a change to the last value
+	 * @param nowSecs The receive time as unix time in seconds
+	 */
+	public void gauge(String series, double value, boolean delta, long nowSecs) {
+		double current;
+		synchronized(gauges) {
+			double[] last = gauges.get(series);
+			if(last==null) {
+				last = new double[2];
+				gauges.put(series, last);
+			}
+			current = delta ? last[0] + value : value;
+			last[0] = current;
+			last[1] = liveTier.getBucket(nowSecs);
+		}
+		sink.write(series, TSType.GAUGE, nowSecs, current);
+	}
+	
+	/**
+	 * Records a set member
+	 * @param series The series name
+	 * @param memberHash The 64 bit hash of the member value
+	 * @param nowSecs The receive time as unix time in seconds
+	 */
+	public synchronized void set(String series, long memberHash, long nowSecs) {
+		long bucket = liveTier.getBucket(nowSecs);
+		if(bucket>setBucket) {
+			emitSets();
+			setBucket = bucket;
+		}
+		LongHashSet members = sets.get(series);
+		if(members==null) {
+			members = new LongHashSet();
+			sets.put(series, members);
+		}
+		members.add(memberHash);
+	}
+	
+	/**
+	 * Writes the distinct counts of the collected sets if their live period has closed, and evicts expired gauges
+	 * @param nowSecs The current time as unix time in seconds
+	 * @return the number of set samples written
+	 */
+	public synchronized int flushClosed(long nowSecs) {
+		evictGauges(nowSecs);
+		if(setBucket<0 || liveTier.getBucket(nowSecs)<=setBucket) return 0;
+		return emitSets();
+	}
+	
+	/**
+	 * Evicts the gauges not updated for the gauge expiry number of live periods. Runs at most once per live period.
+	 * @param nowSecs The current time as unix time in seconds
+	 * @return the number of evicted gauges
+	 */
+	protected int evictGauges(long nowSecs) {
+		if(gaugeExpiry==0) return 0;
+		long bucket = liveTier.getBucket(nowSecs);
+		if(bucket<=evictBucket) return 0;
+		evictBucket = bucket;
+		long cutoff = bucket - gaugeExpiry * liveTier.getPeriodDuration().seconds;
+		int evicted = 0;
+		synchronized(gauges) {
+			for(Iterator<double[]> iter = gauges.values().iterator(); iter.hasNext();) {
+				if(iter.next()[1]<=cutoff) {
+					iter.remove();
+					evicted++;
+				}
+			}
+		}
+		evictedGauges += evicted;
+		return evicted;
+	}
+	
+	/**
+	 * Returns the number of gauges with a retained last value
+	 * @return the number of gauges
+	 */
+	public int getGaugeCount() {
+		synchronized(gauges) {
+			return gauges.size();
+		}
+	}
+	
+	/**
+	 * Returns the total number of evicted gauges
+	 * @return the total number of evicted gauges
+	 */
+	public synchronized long getEvictedGauges() {
+		return evictedGauges;
+	}
+	
+	/**
+	 * Writes the distinct count of each non empty set at the open bucket and clears them for reuse. Sets with no members are dropped.
+	 * @return the number of set samples written
+	 */
+	protected int emitSets() {
+		int written = 0;
+		for(Iterator<Map.Entry<String, LongHashSet>> iter = sets.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, LongHashSet> entry = iter.next();
+			LongHashSet members = entry.getValue();
+			if(members.size()==0) {
+				iter.remove();
+				continue;
+			}
+			sink.write(entry.getKey(), TSType.SET, setBucket, members.size());
+			members.clear();
+			written++;
+		}
+		return written;
+	}
+	
+	/**
+	 * Computes the 64 bit FNV-1a hash of a byte range, used to collect set members without decoding them
+	 * @param bytes The bytes to hash
+	 * @param from The start offset (inclusive)
+	 * @param to The end offset (exclusive)
+	 * @return the hash
+	 */
+	public static long hash(ChannelBuffer bytes, int from, int to) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = from; i < to; i++) {
+			h ^= (bytes.getByte(i) & 0xFF);
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+}
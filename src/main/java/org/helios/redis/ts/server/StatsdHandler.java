@@ -0,0 +1,92 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+
+/**
+ * <p>Title: StatsdHandler</p>
+ * <p>Description: Datagram channel handler that splits each received datagram into metric lines and parses them in place</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.StatsdHandler</code></p>
+ */
+public class StatsdHandler extends SimpleChannelUpstreamHandler {
+	/** Static class logger */
+	protected static final Logger LOG = Logger.getLogger(StatsdHandler.class);
+	/** The owning server */
+	protected final StatsdServer server;
+	/** The channel's metric parser */
+	protected final StatsdParser parser;
+	
+	/**
+	 * Creates a new StatsdHandler
+	 * @param server The owning server
+	 */
+	public StatsdHandler(StatsdServer server) {
+		this.server = server;
+		parser = new StatsdParser(server.aggregator);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#messageReceived(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.MessageEvent)
+	 */
+	@Override
+	public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) throws Exception {
+		ChannelBuffer datagram = (ChannelBuffer)e.getMessage();
+		server.packetsReceived.incrementAndGet();
+		long nowSecs = System.currentTimeMillis()/1000;
+		int from = datagram.readerIndex();
+		int end = datagram.writerIndex();
+		while(from<end) {
+			int eol = datagram.indexOf(from, end, (byte)'\n');
+			if(eol<0) eol = end;
+			try {
+				if(parser.parse(datagram, from, eol, nowSecs)) {
+					server.metricsAccepted.incrementAndGet();
+				}
+			} catch (RuntimeException re) {
+				server.parseErrors.incrementAndGet();
+				if(LOG.isDebugEnabled()) LOG.debug("Invalid metric from [" + e.getRemoteAddress() + "]:" + re.getMessage());
+			}
+			from = eol+1;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * @see org.jboss.netty.channel.SimpleChannelUpstreamHandler#exceptionCaught(org.jboss.netty.channel.ChannelHandlerContext, org.jboss.netty.channel.ExceptionEvent)
+	 */
+	@Override
+	public void exceptionCaught(ChannelHandlerContext ctx, ExceptionEvent e) throws Exception {
+		LOG.warn("Exception on datagram channel [" + e.getChannel() + "]:" + e.getCause());
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+
+/**
+ * <p>Title: StatsdParser</p>
+ * <p>Description: Parses statsd metric lines directly out of a received datagram: <code>&lt;series&gt;:&lt;value&gt;|&lt;type&gt;[|@&lt;sample rate&gt;]</code>.
+ * The supported types are <code>c</code> (counter), <code>g</code> (gauge), <code>ms</code> and <code>h</code> (timer) and <code>s</code> (set).
+ * Values are parsed in place, set members are hashed in place and only the series name is decoded into a String. 
+ * The parsed metrics are passed to a {@link StatsdAggregator}.</p>
+ * <p>Not thread safe. One parser is created per datagram channel.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.StatsdParser</code></p>
+ */
+public class StatsdParser {
+	/** The aggregator parsed metrics are passed to */
+	protected final StatsdAggregator aggregator;
+	
+	/** The separator between the series name and the value */
+	public static final byte VALUE_START = ':';
+	/** The separator between the value, the type and the sample rate */
+	public static final byte FIELD_DELIM = '|';
+	/** The sample rate prefix */
+	public static final byte RATE_START = '@';
+	
+	/**
+	 * Creates a new StatsdParser
+	 * @param aggregator The aggregator parsed metrics are passed to
+	 */
+	public StatsdParser(StatsdAggregator aggregator) {
+		if(aggregator==null) throw new IllegalArgumentException("The passed aggregator was null", new Throwable());
+		this.aggregator = aggregator;
+	}
+	
+	/**
+	 * Parses one metric line
+	 * @param buffer The datagram buffer
+	 * @param from The start offset of the line (inclusive)
+	 * @param to The end offset of the line (exclusive), not including the line delimiter
+	 * @param nowSecs The receive time as unix time in seconds
+	 * @return true if a metric was parsed, false if the line was blank
+	 */
+	public boolean parse(ChannelBuffer buffer, int from, int to, long nowSecs) {
+		while(to>from && (buffer.getByte(to-1)=='\r' || BufferParser.isSpace(buffer.getByte(to-1)))) to--;
+		while(from<to && BufferParser.isSpace(buffer.getByte(from))) from++;
+		if(from==to) return false;
+		int valueStart = buffer.indexOf(from, to, VALUE_START);
+		if(valueStart<=from) throw new IllegalArgumentException("Missing series name");
+		int typeStart = buffer.indexOf(valueStart+1, to, FIELD_DELIM);
+		if(typeStart<0) throw new IllegalArgumentException("Missing type");
+		int typeEnd = buffer.indexOf(typeStart+1, to, FIELD_DELIM);
+		if(typeEnd<0) typeEnd = to;
+		if(typeEnd==typeStart+1) throw new IllegalArgumentException("Missing type");
+		String series = buffer.toString(from, valueStart-from, LineProtocolParser.UTF8);
+		int vFrom = valueStart+1;
+		byte t = buffer.getByte(typeStart+1);
+		int typeLength = typeEnd-typeStart-1;
+		if(typeLength==1 && t=='c') {
+			aggregator.counter(series, BufferParser.parseDouble(buffer, vFrom, typeStart), parseRate(buffer, typeEnd, to), nowSecs);
+		} else if(typeLength==1 && t=='g') {
+			byte sign = buffer.getByte(vFrom);
+			aggregator.gauge(series, BufferParser.parseDouble(buffer, vFrom, typeStart), sign=='+' || sign=='-', nowSecs);
+		} else if((typeLength==2 && t=='m' && buffer.getByte(typeStart+2)=='s') || (typeLength==1 && t=='h')) {
+			aggregator.timer(series, BufferParser.parseDouble(buffer, vFrom, typeStart), nowSecs);
+		} else if(typeLength==1 && t=='s') {
+			if(vFrom==typeStart) throw new IllegalArgumentException("Empty set member");
+			aggregator.set(series, StatsdAggregator.hash(buffer, vFrom, typeStart), nowSecs);
+		} else {
+			throw new IllegalArgumentException("Unsupported type [" + buffer.toString(typeStart+1, typeLength, LineProtocolParser.UTF8) + "]");
+		}
+		return true;
+	}
+	
+	/**
+	 * Parses the optional sample rate field
+	 * @param buffer The datagram buffer
+	 * @param from The offset of the field delimiter preceding the sample rate, or the line end if there is none
+	 * @param to The end offset of the line (exclusive)
+	 * @return the sample rate, 1 if there is none
+	 */
+	protected static double parseRate(ChannelBuffer buffer, int from, int to) {
+		if(from>=to) return 1D;
+		if(from+1>=to || buffer.getByte(from+1)!=RATE_START) throw new IllegalArgumentException("Invalid sample rate");
+		double rate = BufferParser.parseDouble(buffer, from+2, to);
+		if(rate<=0 || rate>1) throw new IllegalArgumentException("Sample rate out of range [" + rate + "]");
+		return rate;
+	}
+}
@@ -0,0 +1,201 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import java.net.InetSocketAddress;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.ingest.SampleSink;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictorFactory;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+
+/**
+ * <p>Title: StatsdServer</p>
+ * <p>Description: Netty UDP server accepting the statsd wire format (see {@link StatsdParser}). Metrics are given their statsd
+ * type semantics by a {@link StatsdAggregator} and written as typed samples to a {@link SampleSink}, where they are pre-aggregated 
+ * into the live tier period before being written to redis.</p>
+ * <p>Configured with:<ul>
+ * <li><b>redis.ts.server.udp.enabled</b>:&nbsp;Starts the server from {@link org.helios.redis.ts.controller.Boot} if true. Default false</li>
+ * <li><b>redis.ts.server.udp.bind</b>:&nbsp;The bind address. Default 0.0.0.0</li>
+ * <li><b>redis.ts.server.udp.port</b>:&nbsp;The listening port. Default 8125</li>
+ * <li><b>redis.ts.server.udp.maxpacket</b>:&nbsp;The maximum datagram size in bytes. Default 8192</li>
+ * <li><b>redis.ts.server.udp.rcvbuf</b>:&nbsp;The socket receive buffer size in bytes. Default 1048576</li>
+ * <li><b>redis.ts.server.udp.gauge.expiry</b>:&nbsp;The number of live periods without an update after which the last value of a gauge 
+ * is evicted, or 0 to never evict. Default 60</li>
+ * </ul></p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.StatsdServer</code></p>
+ */
+public class StatsdServer {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The aggregator applying the statsd type semantics */
+	protected final StatsdAggregator aggregator;
+	/** The bind address */
+	protected final String bindAddress;
+	/** The listening port */
+	protected final int port;
+	/** The maximum datagram size */
+	protected final int maxPacket;
+	/** The socket receive buffer size */
+	protected final int receiveBufferSize;
+	/** The netty connectionless bootstrap */
+	protected ConnectionlessBootstrap bootstrap = null;
+	/** The bound datagram channel */
+	protected Channel channel = null;
+	/** The scheduler that closes set periods */
+	protected ScheduledExecutorService scheduler = null;
+	
+	/** The total number of datagrams received */
+	protected final AtomicLong packetsReceived = new AtomicLong(0);
+	/** The total number of metrics accepted */
+	protected final AtomicLong metricsAccepted = new AtomicLong(0);
+	/** The total number of invalid metric lines */
+	protected final AtomicLong parseErrors = new AtomicLong(0);
+	
+	/** The period of the set flush check in ms */
+	public static final long FLUSH_CHECK_PERIOD = 1000;
+	
+	/** Thread Factory Thread Serial Number */
+	protected static final AtomicInteger serial = new AtomicInteger(0);
+	/** Thread Factory Thread Group */
+	protected static final ThreadGroup threadGroup = new ThreadGroup(StatsdServer.class.getSimpleName() + "-ThreadGroup");
+	/** Thread Factory */
+	protected static final ThreadFactory threadFactory = new ThreadFactory(){
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(threadGroup, r, StatsdServer.class.getSimpleName() + "Thread#" + serial.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	};
+	
+	/**
+	 * Creates a new StatsdServer
+	 * @param sink The sink parsed samples are written to
+	 * @param liveTier The live tier the set periods are aligned to
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public StatsdServer(SampleSink sink, Tier liveTier, Properties configProps) {
+		aggregator = new StatsdAggregator(sink, liveTier, 
+				Integer.parseInt(configProps.getProperty("redis.ts.server.udp.gauge.expiry", "" + StatsdAggregator.DEFAULT_GAUGE_EXPIRY)));
+		bindAddress = configProps.getProperty("redis.ts.server.udp.bind", "0.0.0.0");
+		port = Integer.parseInt(configProps.getProperty("redis.ts.server.udp.port", "8125"));
+		maxPacket = Integer.parseInt(configProps.getProperty("redis.ts.server.udp.maxpacket", "8192"));
+		receiveBufferSize = Integer.parseInt(configProps.getProperty("redis.ts.server.udp.rcvbuf", "1048576"));
+	}
+	
+	/**
+	 * Starts the server
+	 */
+	public void start() {
+		bootstrap = new ConnectionlessBootstrap(new NioDatagramChannelFactory(Executors.newCachedThreadPool(threadFactory)));
+		bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+			public ChannelPipeline getPipeline() throws Exception {
+				return Channels.pipeline(new StatsdHandler(StatsdServer.this));
+			}
+		});
+		bootstrap.setOption("receiveBufferSize", receiveBufferSize);
+		bootstrap.setOption("receiveBufferSizePredictorFactory", new FixedReceiveBufferSizePredictorFactory(maxPacket));
+		bootstrap.setOption("reuseAddress", true);
+		channel = bootstrap.bind(new InetSocketAddress(bindAddress, port));
+		scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		scheduler.scheduleWithFixedDelay(new Runnable(){
+			public void run() {
+				try {
+					aggregator.flushClosed(System.currentTimeMillis()/1000);
+				} catch (Exception e) {
+					log.warn("Set flush failed", e);
+				}
+			}
+		}, FLUSH_CHECK_PERIOD, FLUSH_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+		log.info("StatsdServer listening on [" + bindAddress + ":" + port + "]");
+	}
+	
+	/**
+	 * Closes the channel and stops the server
+	 */
+	public void stop() {
+		if(scheduler!=null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		if(channel!=null) {
+			channel.close().awaitUninterruptibly();
+			channel = null;
+		}
+		if(bootstrap!=null) {
+			bootstrap.releaseExternalResources();
+			bootstrap = null;
+		}
+		aggregator.flushClosed(Long.MAX_VALUE/2);
+		log.info("StatsdServer stopped");
+	}
+	
+	/**
+	 * Returns the total number of datagrams received
+	 * @return the total number of datagrams received
+	 */
+	public long getPacketsReceived() {
+		return packetsReceived.get();
+	}
+	
+	/**
+	 * Returns the total number of metrics accepted
+	 * @return the total number of metrics accepted
+	 */
+	public long getMetricsAccepted() {
+		return metricsAccepted.get();
+	}
+	
+	/**
+	 * Returns the total number of invalid metric lines
+	 * @return the total number of invalid metric lines
+	 */
+	public long getParseErrors() {
+		return parseErrors.get();
+	}
+	
+	/**
+	 * Returns the listening port
+	 * @return the listening port
+	 */
+	public int getPort() {
+		return port;
+	}
+}
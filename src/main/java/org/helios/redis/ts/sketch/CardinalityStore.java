@@ -0,0 +1,160 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.sketch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.script.ScriptRegistry;
+import org.helios.redis.ts.controller.script.TSScript;
+import org.helios.redis.ts.store.HashCodec;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+
+import redis.clients.jedis.Jedis;
+
+/**
+ * <p>Title: CardinalityStore</p>
+ * <p>Description: Reads the distinct member counts of {@link TSType#DISTINCT} series. The members of each period are tracked in one redis HyperLogLog 
+ * per series per tier under {@link TSConfiguration#TS_HLL_ROOT}, keyed by bucket and expiring when the bucket's tier slot rotates. 
+ * They are added with PFADD by the <code>ts-batch</code> script and merged into the higher tiers with PFMERGE by the rollup engine 
+ * (or added to every tier in the fan-out mode), so each slot costs at most 12KB and usually far less.</p>
+ * <p>Samples of a distinct series are member hashes, computed with {@link #memberValue(CharSequence)}.</p>
+ * <p>Counts are read with PFCOUNT by the <code>ts-cardinality</code> script in one round trip. A union is limited to {@link #MAX_UNION_KEYS} periods.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.sketch.CardinalityStore</code></p>
+ */
+public class CardinalityStore {
+	/** The maximum number of HyperLogLogs counted in one union */
+	public static final int MAX_UNION_KEYS = 4096;
+	/** The number of low bits dropped from a member hash so it is exactly representable as a sample value */
+	public static final int MEMBER_SHIFT = 12;
+	
+	private CardinalityStore() {}
+	
+	/**
+	 * Returns the sample value of a distinct series member, the 64 bit FNV-1a hash of the member reduced to 52 bits
+	 * @param member The member
+	 * @return the member sample value
+	 */
+	public static double memberValue(CharSequence member) {
+		long h = 0xcbf29ce484222325L;
+		for(int i = 0; i < member.length(); i++) {
+			char c = member.charAt(i);
+			h ^= (c & 0xFF);
+			h *= 0x100000001b3L;
+			h ^= (c >>> 8);
+			h *= 0x100000001b3L;
+		}
+		return h >>> MEMBER_SHIFT;
+	}
+	
+	/**
+	 * Returns the HyperLogLog key of a series bucket in a tier
+	 * @param tier The tier
+	 * @param code The encoded series ID
+	 * @param bucket The bucket
+	 * @return the HyperLogLog key
+	 */
+	public static String hllKey(Tier tier, String code, long bucket) {
+		return new StringBuilder(TSConfiguration.TS_HLL_ROOT).append(TSConfiguration.TS_DELIM).append(tier.getName())
+				.append(TSConfiguration.TS_DELIM).append(code).append(TSConfiguration.TS_DELIM).append(bucket).toString();
+	}
+	
+	/**
+	 * Counts the distinct members of one series between the passed timestamps, clipped to one tier rotation ending at <code>to</code>
+	 * @param jedis The jedis connection
+	 * @param scriptRegistry The script registry
+	 * @param tier The tier to read
+	 * @param code The encoded series ID
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param periodCounts An optional array to receive the distinct count of each period in order, which must hold every period of the range
+	 * @return the distinct count over the whole range
+	 */
+	public static long count(Jedis jedis, ScriptRegistry scriptRegistry, Tier tier, String code, long from, long to, long[] periodCounts) {
+		List<String> keys = new ArrayList<String>();
+		addKeys(keys, tier, code, from, to);
+		if(periodCounts!=null && periodCounts.length<keys.size()) throw new IllegalArgumentException("Period count array too small for [" + keys.size() + "] periods", new Throwable());
+		List<?> counts = count(jedis, scriptRegistry, keys, periodCounts!=null);
+		if(periodCounts!=null) {
+			for(int i = 0; i < keys.size(); i++) {
+				periodCounts[i] = (Long)counts.get(i);
+			}
+		}
+		return (Long)counts.get(counts.size()-1);
+	}
+	
+	/**
+	 * Counts the distinct members across many series between the passed timestamps, clipped to one tier rotation ending at <code>to</code>
+	 * @param jedis The jedis connection
+	 * @param scriptRegistry The script registry
+	 * @param tier The tier to read
+	 * @param codes The encoded series IDs
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return the distinct count of the union of the series over the whole range
+	 */
+	public static long count(Jedis jedis, ScriptRegistry scriptRegistry, Tier tier, String[] codes, long from, long to) {
+		List<String> keys = new ArrayList<String>();
+		for(String code: codes) {
+			addKeys(keys, tier, code, from, to);
+		}
+		List<?> counts = count(jedis, scriptRegistry, keys, false);
+		return (Long)counts.get(0);
+	}
+	
+	/**
+	 * Invokes the <code>ts-cardinality</code> script
+	 * @param jedis The jedis connection
+	 * @param scriptRegistry The script registry
+	 * @param keys The HyperLogLog keys
+	 * @param perKey true to also return the count of each key
+	 * @return the script result
+	 */
+	protected static List<?> count(Jedis jedis, ScriptRegistry scriptRegistry, List<String> keys, boolean perKey) {
+		if(keys.size()>MAX_UNION_KEYS) throw new IllegalArgumentException("Too many periods [" + keys.size() + "] in one count. Maximum is [" + MAX_UNION_KEYS + "]", new Throwable());
+		return (List<?>)scriptRegistry.evalsha(jedis, TSScript.TS_CARDINALITY.alias(null), keys, Collections.singletonList(perKey ? "1" : "0"));
+	}
+	
+	/**
+	 * Adds the HyperLogLog keys of the periods of a series between the passed timestamps
+	 * @param keys The list to add to
+	 * @param tier The tier
+	 * @param code The encoded series ID
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 */
+	protected static void addKeys(List<String> keys, Tier tier, String code, long from, long to) {
+		long period = tier.getPeriodDuration().seconds;
+		long last = tier.getBucket(to);
+		for(long bucket = HashCodec.firstBucket(tier, from, to); bucket <= last; bucket += period) {
+			keys.add(hllKey(tier, code, bucket));
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.sketch;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * <p>Title: QuantileSketch</p>
+ * <p>Description: A mergeable quantile sketch after DDSketch. A positive value <code>v</code> is counted in the bin 
+ * <code>ceil(log(v) / log(gamma))</code> where <code>gamma = (1 + accuracy) / (1 - accuracy)</code>, so any quantile is returned 
+ * within the relative accuracy of the true value, and two sketches of the same accuracy are merged by adding their bin counts.
+ * Values at or below {@link #MIN_INDEXABLE}, including negative values, are counted in the zero bin.</p>
+ * <p>The bins are held in a dense array of counts offset by the lowest bin index, which grows as needed.</p>
+ * <p>Sketches are written to redis as <code>zeroCount|index:count,index:count...</code> text (see {@link #toText()}), since the 
+ * pipeline API only carries strings, and are stored by the tier scripts as stamped binary values: 
+ * <code>struct.pack('&lt;I4I4I2', bucket, zeroCount, binCount)</code> followed by <code>struct.pack('&lt;i2I4', index, count)</code> for each bin in index order.</p>
+ * <p>Not thread safe.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.sketch.QuantileSketch</code></p>
+ */
+public class QuantileSketch {
+	/** The relative accuracy */
+	protected final double accuracy;
+	/** The bin growth factor */
+	protected final double gamma;
+	/** The natural log of the bin growth factor */
+	protected final double logGamma;
+	/** The bin counts, where <code>counts[i]</code> is the count of bin <code>offset + i</code> */
+	protected long[] counts = new long[64];
+	/** The bin index of the first count */
+	protected int offset = 0;
+	/** The lowest occupied bin index */
+	protected int minIndex = Integer.MAX_VALUE;
+	/** The highest occupied bin index */
+	protected int maxIndex = Integer.MIN_VALUE;
+	/** The count of values in the zero bin */
+	protected long zeroCount = 0;
+	/** The total count of values */
+	protected long count = 0;
+	
+	/** The default relative accuracy */
+	public static final double DEFAULT_ACCURACY = 0.01D;
+	/** The smallest value counted in an indexed bin */
+	public static final double MIN_INDEXABLE = 1e-9D;
+	/** The lowest bin index, bounded by the 16 bit binary encoding */
+	public static final int MIN_BIN = Short.MIN_VALUE;
+	/** The highest bin index, bounded by the 16 bit binary encoding */
+	public static final int MAX_BIN = Short.MAX_VALUE;
+	/** The size of the binary header */
+	public static final int HEADER_SIZE = 10;
+	/** The size of one binary bin */
+	public static final int BIN_SIZE = 6;
+	
+	/**
+	 * Creates a new QuantileSketch with the default accuracy
+	 */
+	public QuantileSketch() {
+		this(DEFAULT_ACCURACY);
+	}
+	
+	/**
+	 * Creates a new QuantileSketch
+	 * @param accuracy The relative accuracy, between 0 and 1 exclusive
+	 */
+	public QuantileSketch(double accuracy) {
+		if(!(accuracy>0 && accuracy<1)) throw new IllegalArgumentException("Invalid relative accuracy [" + accuracy + "]", new Throwable());
+		this.accuracy = accuracy;
+		gamma = (1 + accuracy) / (1 - accuracy);
+		logGamma = Math.log(gamma);
+	}
+	
+	/**
+	 * Adds a value to the sketch
+	 * @param value The value to add
+	 */
+	public void add(double value) {
+		if(value>MIN_INDEXABLE) {
+			addBin(index(value), 1);
+		} else {
+			zeroCount++;
+			count++;
+		}
+	}
+	
+	/**
+	 * Merges the passed sketch into this sketch
+	 * @param other The sketch to merge, which must have the same accuracy
+	 */
+	public void merge(QuantileSketch other) {
+		if(other.gamma!=gamma) throw new IllegalArgumentException("Cannot merge sketch of accuracy [" + other.accuracy + "] into sketch of accuracy [" + accuracy + "]", new Throwable());
+		if(other.count==0) return;
+		zeroCount += other.zeroCount;
+		count += other.zeroCount;
+		for(int i = other.minIndex; i <= other.maxIndex; i++) {
+			long c = other.counts[i - other.offset];
+			if(c>0) addBin(i, c);
+		}
+	}
+	
+	/**
+	 * Merges a stamped binary sketch read from redis into this sketch
+	 * @param data The binary sketch, or null
+	 * @param bucket The bucket the sketch is expected to be stamped with
+	 * @return true if the sketch was merged, false if it was null or stamped with another bucket
+	 */
+	public boolean merge(byte[] data, long bucket) {
+		if(data==null || data.length<HEADER_SIZE) return false;
+		ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		if((buffer.getInt(0) & 0xFFFFFFFFL)!=bucket) return false;
+		long zero = buffer.getInt(4) & 0xFFFFFFFFL;
+		zeroCount += zero;
+		count += zero;
+		int bins = buffer.getShort(8) & 0xFFFF;
+		for(int i = 0, pos = HEADER_SIZE; i < bins && pos + BIN_SIZE <= data.length; i++, pos += BIN_SIZE) {
+			addBin(buffer.getShort(pos), buffer.getInt(pos + 2) & 0xFFFFFFFFL);
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the approximate value at the passed quantile
+	 * @param quantile The quantile, from 0 to 1
+	 * @return the value at the quantile, or NaN if the sketch is empty
+	 */
+	public double quantile(double quantile) {
+		if(quantile<0 || quantile>1) throw new IllegalArgumentException("Invalid quantile [" + quantile + "]", new Throwable());
+		if(count==0) return Double.NaN;
+		double rank = quantile * (count - 1);
+		long seen = zeroCount;
+		if(rank<seen) return 0D;
+		for(int i = minIndex; i <= maxIndex; i++) {
+			seen += counts[i - offset];
+			if(seen>rank) return value(i);
+		}
+		return value(maxIndex);
+	}
+	
+	/**
+	 * Returns the total count of values in the sketch
+	 * @return the total count of values
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Returns the relative accuracy
+	 * @return the relative accuracy
+	 */
+	public double getAccuracy() {
+		return accuracy;
+	}
+	
+	/**
+	 * Indicates if the sketch is empty
+	 * @return true if the sketch is empty
+	 */
+	public boolean isEmpty() {
+		return count==0;
+	}
+	
+	/**
+	 * Empties the sketch, keeping the allocated bins
+	 */
+	public void clear() {
+		if(count>zeroCount) {
+			for(int i = minIndex; i <= maxIndex; i++) {
+				counts[i - offset] = 0;
+			}
+		}
+		minIndex = Integer.MAX_VALUE;
+		maxIndex = Integer.MIN_VALUE;
+		zeroCount = 0;
+		count = 0;
+	}
+	
+	/**
+	 * Renders the sketch as <code>zeroCount|index:count,index:count...</code> text in index order
+	 * @return the sketch text
+	 */
+	public String toText() {
+		StringBuilder b = new StringBuilder(16 + (count>zeroCount ? (maxIndex - minIndex + 1) * 6 : 0));
+		b.append(zeroCount).append('|');
+		boolean first = true;
+		for(int i = minIndex; i <= maxIndex; i++) {
+			long c = counts[i - offset];
+			if(c==0) continue;
+			if(!first) b.append(',');
+			b.append(i).append(':').append(c);
+			first = false;
+		}
+		return b.toString();
+	}
+	
+	/**
+	 * Renders the sketch as a stored binary value stamped with the passed bucket, as written by the tier scripts
+	 * @param bucket The bucket to stamp the sketch with
+	 * @return the binary sketch
+	 */
+	public byte[] toBinary(long bucket) {
+		int bins = 0;
+		for(int i = minIndex; i <= maxIndex; i++) {
+			if(counts[i - offset]>0) bins++;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bins * BIN_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt((int)bucket).putInt((int)zeroCount).putShort((short)bins);
+		for(int i = minIndex; i <= maxIndex; i++) {
+			long c = counts[i - offset];
+			if(c>0) buffer.putShort((short)i).putInt((int)c);
+		}
+		return buffer.array();
+	}
+	
+	/**
+	 * Returns the bin index of a positive value
+	 * @param value The value
+	 * @return the bin index
+	 */
+	protected int index(double value) {
+		double index = Math.ceil(Math.log(value) / logGamma);
+		return index<MIN_BIN ? MIN_BIN : index>MAX_BIN ? MAX_BIN : (int)index;
+	}
+	
+	/**
+	 * Returns the representative value of a bin, which is within the relative accuracy of every value in the bin
+	 * @param index The bin index
+	 * @return the bin value
+	 */
+	protected double value(int index) {
+		return 2 * Math.pow(gamma, index) / (gamma + 1);
+	}
+	
+	/**
+	 * Adds a count to a bin, growing the bin array if needed
+	 * @param index The bin index
+	 * @param n The count to add
+	 */
+	protected void addBin(int index, long n) {
+		if(minIndex>maxIndex) {
+			if(index<offset || index>=offset + counts.length) offset = index - counts.length / 2;
+		} else if(index<offset || index>=offset + counts.length) {
+			int low = Math.min(index, minIndex);
+			int high = Math.max(index, maxIndex);
+			int capacity = counts.length;
+			while(capacity < high - low + 1) capacity *= 2;
+			long[] grown = new long[capacity];
+			int newOffset = low - (capacity - (high - low + 1)) / 2;
+			System.arraycopy(counts, minIndex - offset, grown, minIndex - newOffset, maxIndex - minIndex + 1);
+			counts = grown;
+			offset = newOffset;
+		}
+		counts[index - offset] += n;
+		count += n;
+		if(index<minIndex) minIndex = index;
+		if(index>maxIndex) maxIndex = index;
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.sketch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.store.HashCodec;
+import org.helios.redis.ts.tsmodel.Tier;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: SketchStore</p>
+ * <p>Description: Reads the stored {@link QuantileSketch}es of a tier. Each series with sketches has one hash per tier under 
+ * {@link TSConfiguration#TS_SKETCH_ROOT}, keyed by tier slot like the hash layout, holding binary sketches stamped with their bucket. 
+ * Sketches are written by the <code>ts-batch</code> script, and merged into the higher tiers by fan-out or by the rollup engine, 
+ * so a quantile over a long range is answered from a few coarse slots.</p>
+ * <p>A range is read with one HMGET of its slot fields per series, clipped to one tier rotation, and every slot stamped with its bucket 
+ * is merged into the passed sketch, so a range across many series is merged into one distribution.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.sketch.SketchStore</code></p>
+ */
+public class SketchStore {
+	
+	private SketchStore() {}
+	
+	/**
+	 * Returns the sketch hash key of a series in a tier
+	 * @param tier The tier
+	 * @param code The encoded series ID
+	 * @return the sketch key
+	 */
+	public static String sketchKey(Tier tier, String code) {
+		return new StringBuilder(TSConfiguration.TS_SKETCH_ROOT).append(TSConfiguration.TS_DELIM).append(tier.getName())
+				.append(TSConfiguration.TS_DELIM).append(code).toString();
+	}
+	
+	/**
+	 * Merges the stored sketches of one series between the passed timestamps into the passed sketch
+	 * @param jedis The jedis connection
+	 * @param tier The tier to read
+	 * @param code The encoded series ID
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param into The sketch to merge into
+	 * @return the number of slot sketches merged
+	 */
+	public static int read(Jedis jedis, Tier tier, String code, long from, long to, QuantileSketch into) {
+		byte[][] fields = binaryFields(tier, from, to);
+		if(fields.length==0) return 0;
+		return merge(jedis.hmget(SafeEncoder.encode(sketchKey(tier, code)), fields), HashCodec.firstBucket(tier, from, to), tier.getPeriodDuration().seconds, into);
+	}
+	
+	/**
+	 * Merges the stored sketches of many series between the passed timestamps into the passed sketch in one pipelined round trip
+	 * @param jedis The jedis connection
+	 * @param tier The tier to read
+	 * @param codes The encoded series IDs
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param into The sketch to merge into
+	 * @return the number of slot sketches merged
+	 */
+	public static int read(Jedis jedis, Tier tier, String[] codes, long from, long to, QuantileSketch into) {
+		byte[][] fields = binaryFields(tier, from, to);
+		if(fields.length==0 || codes.length==0) return 0;
+		Pipeline pipeline = jedis.pipelined();
+		List<Response<List<byte[]>>> responses = new ArrayList<Response<List<byte[]>>>(codes.length);
+		for(String code: codes) {
+			responses.add(pipeline.hmget(SafeEncoder.encode(sketchKey(tier, code)), fields));
+		}
+		pipeline.sync();
+		long firstBucket = HashCodec.firstBucket(tier, from, to);
+		long period = tier.getPeriodDuration().seconds;
+		int merged = 0;
+		for(Response<List<byte[]>> response: responses) {
+			merged += merge(response.get(), firstBucket, period, into);
+		}
+		return merged;
+	}
+	
+	/**
+	 * Merges the sketches read for consecutive slots, skipping slots stamped with another bucket
+	 * @param values The HMGET values in period order
+	 * @param firstBucket The bucket of the first value
+	 * @param period The tier period in seconds
+	 * @param into The sketch to merge into
+	 * @return the number of slot sketches merged
+	 */
+	protected static int merge(List<byte[]> values, long firstBucket, long period, QuantileSketch into) {
+		int merged = 0;
+		long bucket = firstBucket;
+		for(byte[] value: values) {
+			if(into.merge(value, bucket)) merged++;
+			bucket += period;
+		}
+		return merged;
+	}
+	
+	/**
+	 * Returns the binary slot fields of the periods between the passed timestamps
+	 * @param tier The tier
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return the binary slot fields in period order
+	 */
+	protected static byte[][] binaryFields(Tier tier, long from, long to) {
+		String[] fields = HashCodec.fields(tier, from, to);
+		byte[][] binary = new byte[fields.length][];
+		for(int i = 0; i < fields.length; i++) {
+			binary[i] = SafeEncoder.encode(fields[i]);
+		}
+		return binary;
+	}
+}
@@ -0,0 +1,435 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.rollup.RollupEngine;
+import org.helios.redis.ts.series.IdCodec;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: BlockStore</p>
+ * <p>Description: Seals the closed periods of the non-live tiers into {@link GorillaCodec} compressed blocks and reads them back.
+ * A block holds <code>blockPeriods</code> consecutive periods of one series, starts on a multiple of its span and is stored as one binary 
+ * field of the series block hash <code>&lt;TS_BLOCK_ROOT&gt;.&lt;tier name&gt;.&lt;encoded series ID&gt;</code>, keyed by the block start.
+ * Once a block is written, the slots it holds are deleted from the tier hash.</p>
+ * <p>The start of the last sealed block of each tier is kept in the {@link TSConfiguration#TS_SEALED} hash, so a seal pass seals every closed 
+ * block after it, catching up the blocks missed by an outage, a restart or a late pass. A block is only sealed while none of its slots has been 
+ * reused by a later rotation. The starts of the sealed blocks are indexed in the {@link TSConfiguration#TS_BLOCK_INDEX} sorted set of the tier, 
+ * and every pass deletes the blocks that have fallen out of the tier retention from the block hash of every series.</p>
+ * <p>A block is sealed by walking the series IDs (which are dense, from 1 to the ID sequence) in chunks, 
+ * reading each chunk in one pipeline and writing its blocks in another. In the cascade rollup mode the slots of a tier are both written by 
+ * the rollup of the tier and read by the rollup of the tier above it, so a block is only sealed once the {@link RollupEngine} has rolled up 
+ * every bucket of both tiers that overlaps it. Until then the block stays in the tier hash, where it is still read.</p>
+ * <p>Only the {@link StorageLayout#HASH} layout is sealed. A {@link StorageLayout#RING} key is pre-sized to its full rotation, 
+ * so deleting sealed slots would not release any memory, and {@link StorageLayout#BUCKETED} group hashes are already compact and shared by a fixed set of keys.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.BlockStore</code></p>
+ */
+public class BlockStore implements Runnable {
+	/** Instance logger */
+	protected final Logger log = Logger.getLogger(getClass());
+	/** The connection manager */
+	protected final RedisConnectionManager connectionManager;
+	/** The sealed tiers */
+	protected final Tier[] tiers;
+	/** The model level of each sealed tier */
+	protected final int[] levels;
+	/** The number of tiers in the model */
+	protected final int tierCount;
+	/** The cascade rollup engine whose progress gates sealing, or null if tiers are not rolled up by cascade */
+	protected final RollupEngine rollupEngine;
+	/** The storage layout */
+	protected final StorageLayout layout;
+	/** The number of periods in one block */
+	protected final int blockPeriods;
+	/** The number of series sealed per pipelined chunk */
+	protected final int chunkSize;
+	
+	/** The total number of blocks written */
+	protected final AtomicLong blocksWritten = new AtomicLong(0);
+	/** The total number of records sealed */
+	protected final AtomicLong recordsSealed = new AtomicLong(0);
+	/** The total number of block bytes written */
+	protected final AtomicLong bytesWritten = new AtomicLong(0);
+	
+	/** The default number of periods in one block */
+	public static final int DEFAULT_BLOCK_PERIODS = 96;
+	/** The default number of series sealed per pipelined chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+	
+	/**
+	 * Creates a new BlockStore
+	 * @param connectionManager The redis connection manager
+	 * @param tsModel The time-series model
+	 * @param layout The storage layout
+	 * @param rollupEngine The cascade rollup engine, or null if tiers are not rolled up by cascade
+	 * @param configProps The redis-ts.config specified properties
+	 */
+	public BlockStore(RedisConnectionManager connectionManager, TimeSeriesModel tsModel, StorageLayout layout, RollupEngine rollupEngine, Properties configProps) {
+		if(connectionManager==null) throw new IllegalArgumentException("The passed connection manager was null", new Throwable());
+		if(tsModel==null) throw new IllegalArgumentException("The passed model was null", new Throwable());
+		if(layout==null) throw new IllegalArgumentException("The passed layout was null", new Throwable());
+		this.connectionManager = connectionManager;
+		this.layout = layout;
+		this.rollupEngine = rollupEngine;
+		blockPeriods = Integer.parseInt(configProps.getProperty("redis.ts.block.periods", "" + DEFAULT_BLOCK_PERIODS));
+		if(blockPeriods<2 || blockPeriods>GorillaCodec.MAX_RECORDS) throw new IllegalArgumentException("Invalid block period count [" + blockPeriods + "]", new Throwable());
+		chunkSize = Integer.parseInt(configProps.getProperty("redis.ts.block.chunk", "" + DEFAULT_CHUNK_SIZE));
+		Tier[] all = tsModel.getTiers();
+		List<Tier> sealable = new ArrayList<Tier>();
+		if(layout==StorageLayout.HASH) {
+			for(int i = 1; i < all.length; i++) {
+				sealable.add(all[i]);
+			}
+		}
+		tiers = sealable.toArray(new Tier[sealable.size()]);
+		tierCount = all.length;
+		levels = new int[tiers.length];
+		for(int i = 0; i < tiers.length; i++) {
+			levels[i] = i + 1;
+		}
+	}
+	
+	/**
+	 * Returns the block hash key of a series in a tier
+	 * @param tier The tier
+	 * @param code The encoded series ID
+	 * @return the block hash key
+	 */
+	public static String blockKey(Tier tier, String code) {
+		return TSConfiguration.TS_BLOCK_ROOT + TSConfiguration.TS_DELIM + tier.getName() + TSConfiguration.TS_DELIM + code;
+	}
+	
+	/**
+	 * Returns the sealed block start index key of a tier
+	 * @param tier The tier
+	 * @return the block index key
+	 */
+	public static String indexKey(Tier tier) {
+		return TSConfiguration.TS_BLOCK_INDEX + TSConfiguration.TS_DELIM + tier.getName();
+	}
+	
+	/**
+	 * Returns the data key of a series in a tier
+	 * @param tier The tier
+	 * @param code The encoded series ID
+	 * @return the data key
+	 */
+	public static String dataKey(Tier tier, String code) {
+		return TSConfiguration.TS_DATA_ROOT + TSConfiguration.TS_DELIM + tier.getName() + TSConfiguration.TS_DELIM + code;
+	}
+	
+	/**
+	 * Returns the span of one block of the passed tier in seconds
+	 * @param tier The tier
+	 * @return the block span
+	 */
+	public long getBlockSpan(Tier tier) {
+		return tier.getPeriodDuration().seconds * Math.min(blockPeriods, tier.getPeriodCount());
+	}
+	
+	/**
+	 * Indicates if the passed tier is sealed into blocks
+	 * @param tier The tier
+	 * @return true if the tier is sealed
+	 */
+	public boolean isSealed(Tier tier) {
+		for(Tier t: tiers) {
+			if(t.equals(tier)) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Reads the sealed records of a series between the passed timestamps
+	 * @param jedis The jedis connection
+	 * @param tier The tier
+	 * @param code The encoded series ID
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public int read(Jedis jedis, Tier tier, String code, String series, TSType type, long from, long to, RecordBatch out) {
+		byte[][] fields = blockFields(tier, from, to);
+		if(fields.length==0) return 0;
+		return decode(jedis.hmget(SafeEncoder.encode(blockKey(tier, code)), fields), series, type, from, to, out);
+	}
+	
+	/**
+	 * Returns the block hash fields of the blocks that may hold periods between the passed timestamps
+	 * @param tier The tier
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return the binary block start fields in block order
+	 */
+	public byte[][] blockFields(Tier tier, long from, long to) {
+		long span = getBlockSpan(tier);
+		long first = from - (from % span);
+		if(first>to) return new byte[0][];
+		byte[][] fields = new byte[(int)((to - first) / span + 1)][];
+		for(int i = 0; i < fields.length; i++) {
+			fields[i] = SafeEncoder.encode(Long.toString(first + i * span));
+		}
+		return fields;
+	}
+	
+	/**
+	 * Decodes the records between the passed timestamps from blocks read in block order
+	 * @param blocks The blocks, with nulls for blocks that have not been sealed
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public static int decode(List<byte[]> blocks, String series, TSType type, long from, long to, RecordBatch out) {
+		int before = out.size();
+		for(byte[] block: blocks) {
+			GorillaCodec.decode(block, series, type, from, to, out);
+		}
+		return out.size() - before;
+	}
+	
+	/**
+	 * Runs a seal pass, sealing every closed and rolled up block of each sealed tier after its last sealed block, and deleting expired blocks
+	 * {@inheritDoc}
+	 * @see java.lang.Runnable#run()
+	 */
+	@Override
+	public void run() {
+		if(!connectionManager.isConnected()) return;
+		long now = System.currentTimeMillis() / 1000;
+		Jedis jedis = null;
+		boolean broken = false;
+		try {
+			jedis = connectionManager.getJedis();
+			for(int i = 0; i < tiers.length; i++) {
+				try {
+					sealPending(jedis, tiers[i], getRolledUpTo(levels[i]), now);
+					expire(jedis, tiers[i], now);
+				} catch (JedisConnectionException jce) {
+					throw jce;
+				} catch (Exception e) {
+					log.error("Failed to seal tier [" + tiers[i].getName() + "]", e);
+				}
+			}
+		} catch (JedisConnectionException jce) {
+			broken = true;
+			connectionManager.connectionFailed(jce);
+			log.error("Connection failure sealing tiers", jce);
+		} finally {
+			if(jedis!=null) {
+				if(broken) connectionManager.returnBrokenJedis(jedis);
+				else connectionManager.returnJedis(jedis);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the time up to which the slots of a tier may be sealed: the time up to which both the tier and the tier above it have been rolled up
+	 * @param level The model level of the tier
+	 * @return the sealable end as unix time in seconds (exclusive)
+	 */
+	protected long getRolledUpTo(int level) {
+		if(rollupEngine==null) return Long.MAX_VALUE;
+		long rolled = rollupEngine.getRolledUpTo(level);
+		if(level + 1 < tierCount) rolled = Math.min(rolled, rollupEngine.getRolledUpTo(level + 1));
+		return rolled;
+	}
+	
+	/**
+	 * Seals every block of a tier after the last sealed block that has closed, has been rolled up and has none of its slots reused by a later rotation
+	 * @param jedis The jedis connection
+	 * @param tier The tier
+	 * @param rolledUpTo The time up to which the slots of the tier may be sealed as unix time in seconds (exclusive)
+	 * @param now The current time as unix time in seconds
+	 * @return the number of blocks sealed
+	 */
+	public int sealPending(Jedis jedis, Tier tier, long rolledUpTo, long now) {
+		long span = getBlockSpan(tier);
+		long closed = now - tier.getPeriodDuration().seconds;
+		long latest = closed - (closed % span) - span;
+		if(latest + span > rolledUpTo) latest = rolledUpTo - (rolledUpTo % span) - span;
+		long oldest = now - tier.getTierDuration().seconds;
+		long first = oldest - (oldest % span) + span;
+		String last = jedis.hget(TSConfiguration.TS_SEALED, tier.getName());
+		if(last!=null) first = Math.max(first, Long.parseLong(last) + span);
+		int blocks = 0;
+		for(long blockStart = first; blockStart <= latest; blockStart += span) {
+			long start = System.currentTimeMillis();
+			long records = recordsSealed.get(), bytes = bytesWritten.get();
+			int written = seal(jedis, tier, blockStart);
+			jedis.hset(TSConfiguration.TS_SEALED, tier.getName(), Long.toString(blockStart));
+			blocks += written;
+			records = recordsSealed.get() - records;
+			bytes = bytesWritten.get() - bytes;
+			log.info("Sealed [" + written + "] blocks of [" + records + "] records into [" + bytes + "] bytes for tier [" + tier.getName() + "] block [" + blockStart + "] in [" + (System.currentTimeMillis()-start) + "] ms");
+		}
+		return blocks;
+	}
+	
+	/**
+	 * Deletes every sealed block of a tier that has fallen out of the tier retention from the block hash of every series
+	 * @param jedis The jedis connection
+	 * @param tier The tier
+	 * @param now The current time as unix time in seconds
+	 * @return the number of expired block starts
+	 */
+	public int expire(Jedis jedis, Tier tier, long now) {
+		String indexKey = indexKey(tier);
+		String cutoff = Long.toString(now - tier.getTierDuration().seconds - getBlockSpan(tier));
+		Set<String> expired = jedis.zrangeByScore(indexKey, "-inf", cutoff);
+		if(expired.isEmpty()) return 0;
+		String[] fields = expired.toArray(new String[expired.size()]);
+		String seq = jedis.get(TSConfiguration.TS_ID_SEQ);
+		int maxId = seq==null ? 0 : Integer.parseInt(seq);
+		for(int id = 1; id <= maxId; id += chunkSize) {
+			int count = Math.min(chunkSize, maxId - id + 1);
+			Pipeline pipeline = jedis.pipelined();
+			for(int i = 0; i < count; i++) {
+				pipeline.hdel(blockKey(tier, IdCodec.encode(id + i)), fields);
+			}
+			pipeline.sync();
+		}
+		jedis.zremrangeByScore(indexKey, "-inf", cutoff);
+		if(log.isDebugEnabled()) log.debug("Expired [" + fields.length + "] blocks of tier [" + tier.getName() + "]");
+		return fields.length;
+	}
+	
+	/**
+	 * Seals one block of every series in the passed tier and indexes the block start
+	 * @param jedis The jedis connection
+	 * @param tier The tier
+	 * @param blockStart The start of the block
+	 * @return the number of blocks written
+	 */
+	public int seal(Jedis jedis, Tier tier, long blockStart) {
+		long span = getBlockSpan(tier);
+		long period = tier.getPeriodDuration().seconds;
+		long to = blockStart + span - 1;
+		String[] fields = HashCodec.fields(tier, blockStart, to);
+		long firstBucket = HashCodec.firstBucket(tier, blockStart, to);
+		byte[] blockField = SafeEncoder.encode(Long.toString(blockStart));
+		String seq = jedis.get(TSConfiguration.TS_ID_SEQ);
+		int maxId = seq==null ? 0 : Integer.parseInt(seq);
+		RecordBatch batch = new RecordBatch(fields.length);
+		List<Response<List<String>>> responses = new ArrayList<Response<List<String>>>(chunkSize);
+		int blocks = 0;
+		for(int id = 1; id <= maxId; id += chunkSize) {
+			int count = Math.min(chunkSize, maxId - id + 1);
+			String[] codes = new String[count];
+			for(int i = 0; i < count; i++) {
+				codes[i] = IdCodec.encode(id + i);
+			}
+			List<String> types = jedis.hmget(TSConfiguration.TS_SERIES_TYPES, codes);
+			responses.clear();
+			Pipeline pipeline = jedis.pipelined();
+			for(int i = 0; i < count; i++) {
+				responses.add(types.get(i)==null ? null : pipeline.hmget(dataKey(tier, codes[i]), fields));
+			}
+			pipeline.sync();
+			pipeline = jedis.pipelined();
+			for(int i = 0; i < count; i++) {
+				if(responses.get(i)==null) continue;
+				batch.clear();
+				HashCodec.decode(responses.get(i).get(), codes[i], TSType.forOrdinal(Integer.parseInt(types.get(i))), firstBucket, period, batch);
+				if(batch.isEmpty()) continue;
+				byte[] block = GorillaCodec.encode(batch, 0, batch.size());
+				pipeline.hset(SafeEncoder.encode(blockKey(tier, codes[i])), blockField, block);
+				pipeline.hdel(dataKey(tier, codes[i]), fields);
+				blocks++;
+				recordsSealed.addAndGet(batch.size());
+				bytesWritten.addAndGet(block.length);
+			}
+			pipeline.sync();
+		}
+		jedis.zadd(indexKey(tier), blockStart, Long.toString(blockStart));
+		blocksWritten.addAndGet(blocks);
+		return blocks;
+	}
+	
+	/**
+	 * Returns the sealed tiers
+	 * @return the sealed tiers
+	 */
+	public Tier[] getTiers() {
+		return tiers.clone();
+	}
+	
+	/**
+	 * Returns the number of periods in one block
+	 * @return the number of periods in one block
+	 */
+	public int getBlockPeriods() {
+		return blockPeriods;
+	}
+	
+	/**
+	 * Returns the total number of blocks written
+	 * @return the total number of blocks written
+	 */
+	public long getBlocksWritten() {
+		return blocksWritten.get();
+	}
+	
+	/**
+	 * Returns the total number of records sealed
+	 * @return the total number of records sealed
+	 */
+	public long getRecordsSealed() {
+		return recordsSealed.get();
+	}
+	
+	/**
+	 * Returns the total number of block bytes written
+	 * @return the total number of block bytes written
+	 */
+	public long getBytesWritten() {
+		return bytesWritten.get();
+	}
+}
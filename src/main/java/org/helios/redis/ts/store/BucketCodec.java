@@ -0,0 +1,131 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: BucketCodec</p>
+ * <p>Description: Encodes and decodes the {@link StorageLayout#BUCKETED} layout, where the records of one tier slot are grouped 
+ * into small hashes of <code>bucketSize</code> series each, so that every hash stays within the redis compact (ziplist / listpack) hash encoding 
+ * and the per key overhead is shared by the whole group.</p>
+ * <p>The record of series ID <code>id</code> in a tier slot is the field <code>id % bucketSize</code> of the hash
+ * <code>&lt;TS_DATA_ROOT&gt;.&lt;tier name&gt;.&lt;slot index&gt;.&lt;id / bucketSize&gt;</code>, so the set of group keys is fixed by the model and the series count.
+ * The record is the stamped {@link RingCodec} record of {@link RingCodec#RECORD_SIZE} bytes, well under the default <code>hash-max-ziplist-value</code> of 64 bytes. 
+ * A record stamped with another bucket is stale data from an earlier rotation, so nothing ever has to expire.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.BucketCodec</code></p>
+ */
+public class BucketCodec {
+	/** The size of one bucketed record in bytes */
+	public static final int RECORD_SIZE = RingCodec.RECORD_SIZE;
+	/** The default number of series grouped into one hash, below the default <code>hash-max-ziplist-entries</code> of 128 */
+	public static final int DEFAULT_BUCKET_SIZE = 64;
+	
+	private BucketCodec() {}
+	
+	/**
+	 * Returns the group hash key of a series in the slot of a tier bucket
+	 * @param tier The tier
+	 * @param bucket The bucket
+	 * @param id The series ID
+	 * @param bucketSize The number of series grouped into one hash
+	 * @return the group hash key
+	 */
+	public static String groupKey(Tier tier, long bucket, int id, int bucketSize) {
+		return new StringBuilder(TSConfiguration.TS_DATA_ROOT).append(TSConfiguration.TS_DELIM).append(tier.getName())
+				.append(TSConfiguration.TS_DELIM).append(tier.getSlotIndex(bucket)).append(TSConfiguration.TS_DELIM).append(id / bucketSize).toString();
+	}
+	
+	/**
+	 * Returns the field of a series in its group hash
+	 * @param id The series ID
+	 * @param bucketSize The number of series grouped into one hash
+	 * @return the field
+	 */
+	public static String field(int id, int bucketSize) {
+		return Integer.toString(id % bucketSize);
+	}
+	
+	/**
+	 * Decodes one stamped record into the passed batch
+	 * @param data The stamped record, or null if the series has no record in the slot
+	 * @param series The series name to set on the decoded record
+	 * @param type The series type
+	 * @param bucket The bucket of the record
+	 * @param out The batch to decode into
+	 * @return true if a record was decoded, false if the slot is empty or stamped with another bucket
+	 */
+	public static boolean decode(byte[] data, String series, TSType type, long bucket, RecordBatch out) {
+		if(data==null || data.length<RECORD_SIZE) return false;
+		return RingCodec.decode(data, series, type, bucket, 1, out)==1;
+	}
+	
+	/**
+	 * Reads the records of one series between the passed timestamps, clipped to one tier rotation ending at <code>to</code>, with one pipelined HGET per bucket
+	 * @param jedis The jedis connection
+	 * @param tier The tier
+	 * @param id The series ID
+	 * @param bucketSize The number of series grouped into one hash
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public static int read(Jedis jedis, Tier tier, int id, int bucketSize, String series, TSType type, long from, long to, RecordBatch out) {
+		long period = tier.getPeriodDuration().seconds;
+		long firstBucket = HashCodec.firstBucket(tier, from, to);
+		long lastBucket = tier.getBucket(to);
+		if(firstBucket>lastBucket) return 0;
+		byte[] field = SafeEncoder.encode(field(id, bucketSize));
+		List<Response<byte[]>> responses = new ArrayList<Response<byte[]>>((int)((lastBucket - firstBucket) / period + 1));
+		Pipeline pipeline = jedis.pipelined();
+		for(long bucket = firstBucket; bucket <= lastBucket; bucket += period) {
+			responses.add(pipeline.hget(SafeEncoder.encode(groupKey(tier, bucket, id, bucketSize)), field));
+		}
+		pipeline.sync();
+		int before = out.size();
+		long bucket = firstBucket;
+		for(Response<byte[]> response: responses) {
+			decode(response.get(), series, type, bucket, out);
+			bucket += period;
+		}
+		return out.size() - before;
+	}
+}
@@ -0,0 +1,311 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+
+/**
+ * <p>Title: GorillaCodec</p>
+ * <p>Description: Compresses a run of period records of one series into a single block, after the Facebook Gorilla encoding. 
+ * Timestamps are written as the delta of their deltas, which for the regular periods of a tier is a single zero bit per record, 
+ * and each of the <code>count, sum, min, max, last</code> columns is written as the XOR of the value with the previous value in the column,
+ * which is a single zero bit when the value has not changed and otherwise only the meaningful bits of the XOR.</p>
+ * <p>Block layout: a version byte, then a bit stream of the record count (16 bits), the first timestamp (32 bits) and 
+ * the five raw columns (64 bits each) of the first record, then for each following record the timestamp delta of delta 
+ * and the five XOR encoded columns:<ul>
+ * <li>Delta of delta: <code>0</code> if zero, <code>10</code> + 7 bits, <code>110</code> + 9 bits, <code>1110</code> + 12 bits, or <code>1111</code> + 32 bits</li>
+ * <li>XOR: <code>0</code> if zero, <code>10</code> + the meaningful bits if they fit the previous leading/trailing zero window, 
+ * or <code>11</code> + 5 bits of leading zeros + 6 bits of meaningful bit length + the meaningful bits</li>
+ * </ul></p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.GorillaCodec</code></p>
+ */
+public class GorillaCodec {
+	/** The block format version */
+	public static final byte VERSION = 1;
+	/** The maximum number of records in one block */
+	public static final int MAX_RECORDS = 0xFFFF;
+	/** The number of XOR encoded value columns */
+	private static final int COLUMNS = 5;
+	
+	private GorillaCodec() {}
+	
+	/**
+	 * Encodes a run of records of one series into a block
+	 * @param batch The batch holding the records, which must be in ascending timestamp order
+	 * @param offset The index of the first record to encode
+	 * @param length The number of records to encode
+	 * @return the encoded block
+	 */
+	public static byte[] encode(RecordBatch batch, int offset, int length) {
+		if(length<1 || length>MAX_RECORDS) throw new IllegalArgumentException("Invalid block record count [" + length + "]", new Throwable());
+		if(offset<0 || offset+length>batch.size()) throw new IllegalArgumentException("Invalid block range [" + offset + "," + (offset+length) + ") for batch of [" + batch.size() + "]", new Throwable());
+		BitOutput out = new BitOutput(16 + length * 8);
+		out.write(VERSION, 8);
+		out.write(length, 16);
+		long[] prev = new long[COLUMNS];
+		int[] leading = new int[COLUMNS];
+		int[] trailing = new int[COLUMNS];
+		long prevTs = batch.timestamps[offset];
+		long prevDelta = 0;
+		out.write(prevTs, 32);
+		for(int c = 0; c < COLUMNS; c++) {
+			prev[c] = column(batch, offset, c);
+			leading[c] = -1;
+			out.write(prev[c], 64);
+		}
+		for(int i = offset + 1; i < offset + length; i++) {
+			long ts = batch.timestamps[i];
+			long delta = ts - prevTs;
+			if(delta<=0) throw new IllegalArgumentException("Records not in ascending timestamp order at [" + ts + "]", new Throwable());
+			long dod = delta - prevDelta;
+			if(dod==0) {
+				out.write(0, 1);
+			} else if(dod>=-64 && dod<=63) {
+				out.write(0x2, 2); out.write(dod, 7);
+			} else if(dod>=-256 && dod<=255) {
+				out.write(0x6, 3); out.write(dod, 9);
+			} else if(dod>=-2048 && dod<=2047) {
+				out.write(0xE, 4); out.write(dod, 12);
+			} else if(dod>=Integer.MIN_VALUE && dod<=Integer.MAX_VALUE) {
+				out.write(0xF, 4); out.write(dod, 32);
+			} else {
+				throw new IllegalArgumentException("Timestamp gap too large at [" + ts + "]", new Throwable());
+			}
+			prevDelta = delta;
+			prevTs = ts;
+			for(int c = 0; c < COLUMNS; c++) {
+				long value = column(batch, i, c);
+				long xor = value ^ prev[c];
+				prev[c] = value;
+				if(xor==0) {
+					out.write(0, 1);
+					continue;
+				}
+				int lz = Math.min(31, Long.numberOfLeadingZeros(xor));
+				int tz = Long.numberOfTrailingZeros(xor);
+				if(leading[c]>=0 && lz>=leading[c] && tz>=trailing[c]) {
+					out.write(0x2, 2);
+					out.write(xor >>> trailing[c], 64 - leading[c] - trailing[c]);
+				} else {
+					int significant = 64 - lz - tz;
+					out.write(0x3, 2);
+					out.write(lz, 5);
+					out.write(significant - 1, 6);
+					out.write(xor >>> tz, significant);
+					leading[c] = lz;
+					trailing[c] = tz;
+				}
+			}
+		}
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Decodes the records of a block that fall between the passed timestamps into the passed batch
+	 * @param block The encoded block
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param from The earliest timestamp to decode as unix time in seconds (inclusive)
+	 * @param to The latest timestamp to decode as unix time in seconds (inclusive)
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public static int decode(byte[] block, String series, TSType type, long from, long to, RecordBatch out) {
+		if(block==null || block.length<1) return 0;
+		if(block[0]!=VERSION) throw new IllegalArgumentException("Unsupported block version [" + block[0] + "]", new Throwable());
+		BitInput in = new BitInput(block, 8);
+		int length = (int)in.read(16);
+		long ts = in.read(32);
+		long delta = 0;
+		long count = in.read(64);
+		long sum = in.read(64), min = in.read(64), max = in.read(64), last = in.read(64);
+		int lzCount = 0, tzCount = 0, lzSum = 0, tzSum = 0, lzMin = 0, tzMin = 0, lzMax = 0, tzMax = 0, lzLast = 0, tzLast = 0;
+		int before = out.size();
+		for(int i = 0; i < length; i++) {
+			if(i>0) {
+				long dod;
+				if(in.read(1)==0) {
+					dod = 0;
+				} else if(in.read(1)==0) {
+					dod = in.readSigned(7);
+				} else if(in.read(1)==0) {
+					dod = in.readSigned(9);
+				} else if(in.read(1)==0) {
+					dod = in.readSigned(12);
+				} else {
+					dod = in.readSigned(32);
+				}
+				delta += dod;
+				ts += delta;
+				// the columns are unrolled so the decode state stays in primitive locals
+				if(in.read(1)==1) {
+					if(in.read(1)==1) { lzCount = (int)in.read(5); tzCount = 64 - lzCount - ((int)in.read(6) + 1); }
+					count ^= in.read(64 - lzCount - tzCount) << tzCount;
+				}
+				if(in.read(1)==1) {
+					if(in.read(1)==1) { lzSum = (int)in.read(5); tzSum = 64 - lzSum - ((int)in.read(6) + 1); }
+					sum ^= in.read(64 - lzSum - tzSum) << tzSum;
+				}
+				if(in.read(1)==1) {
+					if(in.read(1)==1) { lzMin = (int)in.read(5); tzMin = 64 - lzMin - ((int)in.read(6) + 1); }
+					min ^= in.read(64 - lzMin - tzMin) << tzMin;
+				}
+				if(in.read(1)==1) {
+					if(in.read(1)==1) { lzMax = (int)in.read(5); tzMax = 64 - lzMax - ((int)in.read(6) + 1); }
+					max ^= in.read(64 - lzMax - tzMax) << tzMax;
+				}
+				if(in.read(1)==1) {
+					if(in.read(1)==1) { lzLast = (int)in.read(5); tzLast = 64 - lzLast - ((int)in.read(6) + 1); }
+					last ^= in.read(64 - lzLast - tzLast) << tzLast;
+				}
+			}
+			if(ts>to) break;
+			if(ts<from) continue;
+			if(!out.add(series, type, ts, count, Double.longBitsToDouble(sum), Double.longBitsToDouble(min), Double.longBitsToDouble(max), Double.longBitsToDouble(last))) break;
+		}
+		return out.size() - before;
+	}
+	
+	/**
+	 * Returns the raw bits of one column of a record
+	 * @param batch The batch
+	 * @param index The record index
+	 * @param column The column index
+	 * @return the raw bits
+	 */
+	private static long column(RecordBatch batch, int index, int column) {
+		switch(column) {
+			case 0: return batch.counts[index];
+			case 1: return Double.doubleToRawLongBits(batch.sums[index]);
+			case 2: return Double.doubleToRawLongBits(batch.mins[index]);
+			case 3: return Double.doubleToRawLongBits(batch.maxs[index]);
+			default: return Double.doubleToRawLongBits(batch.lasts[index]);
+		}
+	}
+	
+	/**
+	 * <p>Title: BitOutput</p>
+	 * <p>Description: A growable most significant bit first bit stream writer</p> 
+	 */
+	private static final class BitOutput {
+		/** The buffer */
+		private byte[] buffer;
+		/** The number of bits written */
+		private long bits = 0;
+		
+		/**
+		 * Creates a new BitOutput
+		 * @param capacity The initial capacity in bytes
+		 */
+		BitOutput(int capacity) {
+			buffer = new byte[capacity];
+		}
+		
+		/**
+		 * Writes the low bits of a value
+		 * @param value The value
+		 * @param n The number of low bits to write, 0 to 64
+		 */
+		void write(long value, int n) {
+			int needed = (int)((bits + n + 7) >>> 3);
+			if(needed>buffer.length) {
+				byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+				System.arraycopy(buffer, 0, grown, 0, buffer.length);
+				buffer = grown;
+			}
+			while(n>0) {
+				int index = (int)(bits >>> 3);
+				int free = 8 - (int)(bits & 7);
+				int take = Math.min(free, n);
+				int chunk = (int)(value >>> (n - take)) & ((1 << take) - 1);
+				buffer[index] |= chunk << (free - take);
+				bits += take;
+				n -= take;
+			}
+		}
+		
+		/**
+		 * Returns the written bytes
+		 * @return the written bytes
+		 */
+		byte[] toByteArray() {
+			byte[] bytes = new byte[(int)((bits + 7) >>> 3)];
+			System.arraycopy(buffer, 0, bytes, 0, bytes.length);
+			return bytes;
+		}
+	}
+	
+	/**
+	 * <p>Title: BitInput</p>
+	 * <p>Description: A most significant bit first bit stream reader</p> 
+	 */
+	private static final class BitInput {
+		/** The buffer */
+		private final byte[] buffer;
+		/** The bit position */
+		private long position;
+		
+		/**
+		 * Creates a new BitInput
+		 * @param buffer The buffer to read
+		 * @param position The bit position to start reading at
+		 */
+		BitInput(byte[] buffer, long position) {
+			this.buffer = buffer;
+			this.position = position;
+		}
+		
+		/**
+		 * Reads an unsigned value
+		 * @param n The number of bits to read, 0 to 64
+		 * @return the value
+		 */
+		long read(int n) {
+			if(position + n > ((long)buffer.length << 3)) throw new IllegalArgumentException("Truncated block", new Throwable());
+			long value = 0;
+			while(n>0) {
+				int available = 8 - (int)(position & 7);
+				int take = Math.min(available, n);
+				int chunk = ((buffer[(int)(position >>> 3)] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+				value = (value << take) | chunk;
+				position += take;
+				n -= take;
+			}
+			return value;
+		}
+		
+		/**
+		 * Reads a two's complement signed value
+		 * @param n The number of bits to read
+		 * @return the sign extended value
+		 */
+		long readSigned(int n) {
+			return (read(n) << (64 - n)) >> (64 - n);
+		}
+	}
+}
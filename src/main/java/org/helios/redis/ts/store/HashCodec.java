@@ -0,0 +1,109 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import java.util.List;
+
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+
+/**
+ * <p>Title: HashCodec</p>
+ * <p>Description: Decodes the {@link StorageLayout#HASH} layout, where the data of one series in one tier is a hash 
+ * with one <code>bucket:count:sum:min:max:last</code> field per occupied slot, keyed by the slot (the bucket modulo the tier duration).
+ * A field stamped with another bucket than the one being read holds stale data from an earlier rotation and is skipped.
+ * A range of periods is read with one HMGET of the slot fields of the range, clipped to one tier rotation.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.HashCodec</code></p>
+ */
+public class HashCodec {
+	/** The field delimiter of a hash record */
+	public static final char DELIM = ':';
+	
+	private HashCodec() {}
+	
+	/**
+	 * Returns the first bucket of the periods between the passed timestamps, clipped to one tier rotation ending at <code>to</code>
+	 * @param tier The tier
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return the first bucket, which is after the last bucket of <code>to</code> if the range is empty 
+	 */
+	public static long firstBucket(Tier tier, long from, long to) {
+		long period = tier.getPeriodDuration().seconds;
+		long lastBucket = tier.getBucket(to);
+		return Math.max(tier.getBucket(from), lastBucket - (tier.getPeriodCount()-1) * period);
+	}
+	
+	/**
+	 * Returns the slot fields of the periods between the passed timestamps, clipped to one tier rotation ending at <code>to</code>
+	 * @param tier The tier
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return the slot fields in period order, which is empty if the range is empty
+	 */
+	public static String[] fields(Tier tier, long from, long to) {
+		long period = tier.getPeriodDuration().seconds;
+		long firstBucket = firstBucket(tier, from, to);
+		long lastBucket = tier.getBucket(to);
+		if(firstBucket>lastBucket) return new String[0];
+		String[] fields = new String[(int)((lastBucket - firstBucket) / period + 1)];
+		for(int i = 0; i < fields.length; i++) {
+			fields[i] = Long.toString(tier.getSlot(firstBucket + i * period));
+		}
+		return fields;
+	}
+	
+	/**
+	 * Decodes the values returned for the fields of {@link #fields(Tier, long, long)} into the passed batch, skipping empty and stale slots
+	 * @param values The HMGET values in period order
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param firstBucket The bucket of the first value
+	 * @param period The tier period in seconds
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public static int decode(List<String> values, String series, TSType type, long firstBucket, long period, RecordBatch out) {
+		int before = out.size();
+		long bucket = firstBucket;
+		for(int i = 0; i < values.size(); i++, bucket += period) {
+			String value = values.get(i);
+			if(value==null) continue;
+			int z = value.indexOf(DELIM);
+			int a = value.indexOf(DELIM, z + 1);
+			int b = value.indexOf(DELIM, a + 1);
+			int c = value.indexOf(DELIM, b + 1);
+			int d = value.indexOf(DELIM, c + 1);
+			if(z<0 || a<0 || b<0 || c<0 || d<0) throw new IllegalArgumentException("Invalid hash record [" + value + "]", new Throwable());
+			if((long)Double.parseDouble(value.substring(0, z))!=bucket) continue;
+			if(!out.add(series, type, bucket, (long)Double.parseDouble(value.substring(z + 1, a)), Double.parseDouble(value.substring(a + 1, b)), 
+					Double.parseDouble(value.substring(b + 1, c)), Double.parseDouble(value.substring(c + 1, d)), Double.parseDouble(value.substring(d + 1)))) break;
+		}
+		return out.size() - before;
+	}
+}
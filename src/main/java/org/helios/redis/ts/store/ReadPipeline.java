@@ -0,0 +1,64 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import redis.clients.jedis.BuilderFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * <p>Title: ReadPipeline</p>
+ * <p>Description: A {@link Pipeline} that can also queue a binary <b><code>GETRANGE</code></b>, which the stock pipeline 
+ * builds as a Long, so ring records can be read in the same round trip as the other layouts and the sealed blocks.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.ReadPipeline</code></p>
+ */
+public class ReadPipeline extends Pipeline {
+	
+	/**
+	 * Opens a new ReadPipeline on the passed connection
+	 * @param jedis The jedis connection
+	 * @return the pipeline
+	 */
+	public static ReadPipeline open(Jedis jedis) {
+		ReadPipeline pipeline = new ReadPipeline();
+		pipeline.setClient(jedis.getClient());
+		return pipeline;
+	}
+	
+	/**
+	 * Queues a binary GETRANGE
+	 * @param key The key
+	 * @param start The first byte offset (inclusive)
+	 * @param end The last byte offset (inclusive)
+	 * @return the response of the bytes in the range
+	 */
+	public Response<byte[]> getrangeBytes(byte[] key, long start, long end) {
+		getClient(key).getrange(key, start, end);
+		return getResponse(BuilderFactory.BYTE_ARRAY);
+	}
+}
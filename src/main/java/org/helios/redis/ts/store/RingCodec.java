@@ -0,0 +1,150 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: RingCodec</p>
+ * <p>Description: Encodes and decodes the {@link StorageLayout#RING} layout, where the data of one series in one tier is a single 
+ * redis string holding <code>periodCount</code> fixed width records. Slot N lives at byte offset <code>N * RECORD_SIZE</code>, 
+ * so the key occupies exactly <code>periodCount * RECORD_SIZE</code> bytes and a range of periods is read with one GETRANGE, 
+ * or two when the range wraps around the end of the ring.</p>
+ * <p>Record layout, little endian, matching <code>struct.pack('&lt;I4I4dddd', ...)</code> in the tier scripts:<ul>
+ * <li>0:&nbsp;The bucket (period start as unix time in seconds) the slot holds (uint32)</li>
+ * <li>4:&nbsp;count (uint32)</li>
+ * <li>8:&nbsp;sum, min, max, last (doubles)</li>
+ * </ul>
+ * A slot whose bucket is not the bucket being read holds data from an earlier rotation (or nothing) and is skipped.</p>
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.RingCodec</code></p>
+ */
+public class RingCodec {
+	/** The size of one ring record in bytes */
+	public static final int RECORD_SIZE = 40;
+	/** The lua struct format of one ring record */
+	public static final String LUA_FORMAT = "<I4I4dddd";
+	
+	private RingCodec() {}
+	
+	/**
+	 * Writes one record at the current position of the passed buffer
+	 * @param buffer The buffer to write to, which must be little endian
+	 * @param bucket The bucket the record belongs to
+	 * @param count The sample count
+	 * @param sum The sum of the values
+	 * @param min The minimum value
+	 * @param max The maximum value
+	 * @param last The last value
+	 */
+	public static void encode(ByteBuffer buffer, long bucket, long count, double sum, double min, double max, double last) {
+		buffer.putInt((int)bucket);
+		buffer.putInt((int)count);
+		buffer.putDouble(sum);
+		buffer.putDouble(min);
+		buffer.putDouble(max);
+		buffer.putDouble(last);
+	}
+	
+	/**
+	 * Computes the byte ranges of the ring that hold the periods between the passed timestamps, clipped to one tier rotation ending at <code>to</code>.
+	 * @param tier The tier
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @return <code>{firstBucket, periods, start1, end1, start2, end2}</code> with inclusive byte offsets for GETRANGE, 
+	 * where the second range is <code>-1</code> if the range does not wrap, or null if the range is empty
+	 */
+	public static long[] ranges(Tier tier, long from, long to) {
+		long period = tier.getPeriodDuration().seconds;
+		long lastBucket = tier.getBucket(to);
+		long firstBucket = Math.max(tier.getBucket(from), lastBucket - (tier.getPeriodCount()-1) * period);
+		if(firstBucket>lastBucket) return null;
+		long periods = (lastBucket - firstBucket) / period + 1;
+		long startIndex = tier.getSlotIndex(firstBucket);
+		long endIndex = startIndex + periods;
+		if(endIndex<=tier.getPeriodCount()) {
+			return new long[]{firstBucket, periods, startIndex * RECORD_SIZE, endIndex * RECORD_SIZE - 1, -1, -1};
+		}
+		return new long[]{firstBucket, periods, startIndex * RECORD_SIZE, tier.getPeriodCount() * RECORD_SIZE - 1, 0, (endIndex - tier.getPeriodCount()) * RECORD_SIZE - 1};
+	}
+	
+	/**
+	 * Decodes consecutive records into the passed batch, skipping slots that do not hold the expected bucket
+	 * @param data The ring bytes, which may be shorter than requested if the ring has not been fully written
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param firstBucket The bucket expected in the first record
+	 * @param period The tier period in seconds
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public static int decode(byte[] data, String series, TSType type, long firstBucket, long period, RecordBatch out) {
+		ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		int before = out.size();
+		long bucket = firstBucket;
+		for(int pos = 0; pos + RECORD_SIZE <= data.length; pos += RECORD_SIZE, bucket += period) {
+			long stamp = buffer.getInt(pos) & 0xFFFFFFFFL;
+			if(stamp!=bucket) continue;
+			long count = buffer.getInt(pos + 4) & 0xFFFFFFFFL;
+			if(count==0 || out.isFull()) continue;
+			out.add(series, type, bucket, count, buffer.getDouble(pos + 8), buffer.getDouble(pos + 16), buffer.getDouble(pos + 24), buffer.getDouble(pos + 32));
+		}
+		return out.size() - before;
+	}
+	
+	/**
+	 * Reads the periods of one series ring between the passed timestamps with one GETRANGE, or two if the range wraps
+	 * @param jedis The jedis connection
+	 * @param key The ring data key
+	 * @param tier The tier of the ring
+	 * @param series The series name to set on the decoded records
+	 * @param type The series type
+	 * @param from The start of the range as unix time in seconds (inclusive)
+	 * @param to The end of the range as unix time in seconds (inclusive)
+	 * @param out The batch to decode into
+	 * @return the number of records decoded
+	 */
+	public static int read(Jedis jedis, String key, Tier tier, String series, TSType type, long from, long to, RecordBatch out) {
+		long[] r = ranges(tier, from, to);
+		if(r==null) return 0;
+		int before = out.size();
+		long period = tier.getPeriodDuration().seconds;
+		byte[] k = SafeEncoder.encode(key);
+		decode(jedis.getrange(k, r[2], r[3]), series, type, r[0], period, out);
+		if(r[4]>=0) {
+			decode(jedis.getrange(k, r[4], r[5]), series, type, r[0] + ((r[3] - r[2] + 1) / RECORD_SIZE) * period, period, out);
+		}
+		return out.size() - before;
+	}
+}
@@ -0,0 +1,80 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+/**
+ * <p>Title: StorageLayout</p>
+ * <p>Description: Enumerates the layouts of the per series, per tier data in redis. The data key of a series in a tier is
+ * <code>&lt;TS_DATA_ROOT&gt;.&lt;tier name&gt;.&lt;encoded series ID&gt;</code> in the hash and ring layouts, while the bucketed layout 
+ * shares one key between the series of a group in each tier slot.</p>
+ * <p>Every layout stamps each slot with the bucket it holds, so writers overwrite stale slots in place and readers skip slots stamped with another bucket,
+ * and no data ever has to be expired or swept.</p>
+ * <p>The layout is chosen when a redis instance is first initialized and is recorded with the model under {@link org.helios.redis.ts.controller.TSConfiguration#TS_LAYOUT}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.StorageLayout</code></p>
+ */
+public enum StorageLayout {
+	/** A hash with one <code>bucket:count:sum:min:max:last</code> field per occupied slot, keyed by the slot. See {@link HashCodec} */
+	HASH("hash"),
+	/** A string holding a fixed width binary ring of {@link RingCodec#RECORD_SIZE} byte records, written with SETRANGE and read with GETRANGE */
+	RING("ring"),
+	/** Small hashes grouping the binary records of <code>bucketSize</code> series in one tier slot, keyed by series ID modulo the bucket size. See {@link BucketCodec} */
+	BUCKETED("bucketed");
+	
+	/**
+	 * Creates a new StorageLayout
+	 * @param code The layout code rendered into the scripts
+	 */
+	private StorageLayout(String code) {
+		this.code = code;
+	}
+	
+	/** The layout code rendered into the scripts */
+	public final String code;
+	
+	/**
+	 * Returns the descriptor of this layout recorded with the model, which includes the bucket size for {@link #BUCKETED}
+	 * @param bucketSize The number of series grouped into one hash
+	 * @return the layout descriptor
+	 */
+	public String describe(int bucketSize) {
+		return this==BUCKETED ? code + ":" + bucketSize : code;
+	}
+	
+	/**
+	 * Decodes the passed code or name to a StorageLayout, ignoring case
+	 * @param code The layout code or name
+	 * @return the StorageLayout
+	 */
+	public static StorageLayout forCode(String code) {
+		if(code==null) throw new IllegalArgumentException("The passed code was null", new Throwable());
+		String c = code.trim();
+		for(StorageLayout layout: values()) {
+			if(layout.code.equalsIgnoreCase(c)) return layout;
+		}
+		throw new IllegalArgumentException("Invalid StorageLayout [" + code + "]", new Throwable());
+	}
+}
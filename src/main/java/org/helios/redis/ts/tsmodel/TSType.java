@@ -0,0 +1,121 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.tsmodel;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Title: TSType</p>
+ * <p>Description: Enumerates the time-series value types. The type map is rendered into the tier lua scripts as the <b><code>${tsTypes}</code></b> token.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.tsmodel.TSType</code></p>
+ */
+public enum TSType {
+	/** A sampled value where the last value in a period is significant */
+	GAUGE("g"),
+	/** An incrementing count where the sum in a period is significant */
+	COUNTER("c"),
+	/** A measured elapsed time where the distribution in a period is significant */
+	TIMER("ms"),
+	/** A count of distinct values where the cardinality in a period is significant */
+	SET("s"),
+	/** A count of distinct members where the members of each period are tracked in a redis HyperLogLog */
+	DISTINCT("d");
+	
+	private static final Map<String, TSType> CODE2TSTYPE = new HashMap<String, TSType>(TSType.values().length);
+	private static final TSType[] ORD2TSTYPE = TSType.values();
+	
+	static {
+		for(TSType t: TSType.values()) {
+			CODE2TSTYPE.put(t.shortCode, t);
+		}
+	}
+	
+	/**
+	 * Creates a new TSType
+	 * @param shortCode The short code for this type
+	 */
+	private TSType(String shortCode) {
+		this.shortCode = shortCode;
+	}
+	
+	/** The short code of this type */
+	public final String shortCode;
+	
+	/**
+	 * Returns the TSType for the passed short code
+	 * @param code The short code
+	 * @return the matching TSType or null if the code is not recognized
+	 */
+	public static TSType forCode(String code) {
+		if(code==null) return null;
+		return CODE2TSTYPE.get(code);
+	}
+	
+	/**
+	 * Returns the TSTypes for a comma separated list of short codes
+	 * @param codes The comma separated short codes
+	 * @return the set of matching TSTypes, empty if the list is null or blank
+	 */
+	public static Set<TSType> forCodes(String codes) {
+		Set<TSType> types = EnumSet.noneOf(TSType.class);
+		if(codes==null) return types;
+		for(String code: codes.split(",")) {
+			code = code.trim();
+			if(code.isEmpty()) continue;
+			TSType t = forCode(code);
+			if(t==null) throw new IllegalArgumentException("Unrecognized TSType code [" + code + "]", new Throwable());
+			types.add(t);
+		}
+		return types;
+	}
+	
+	/**
+	 * Returns the TSType for the passed ordinal
+	 * @param ordinal The type ordinal
+	 * @return the matching TSType
+	 */
+	public static TSType forOrdinal(int ordinal) {
+		if(ordinal<0 || ordinal>=ORD2TSTYPE.length) throw new IllegalArgumentException("Invalid TSType ordinal [" + ordinal + "]", new Throwable());
+		return ORD2TSTYPE[ordinal];
+	}
+	
+	/**
+	 * Renders the type map as a lua table literal of type names to type ordinals. e.g. <code>{gauge=0,counter=1}</code>
+	 * @return the lua type map
+	 */
+	public static String renderLuaTypeMap() {
+		StringBuilder b = new StringBuilder("{");
+		for(TSType t: TSType.values()) {
+			if(b.length()>1) b.append(",");
+			b.append(t.name().toLowerCase()).append("=").append(t.ordinal());
+		}
+		return b.append("}").toString();
+	}
+}
@@ -348,6 +348,34 @@ public class Tier {
 		return level;
 	}
 
+	/**
+	 * Returns the period bucket (the start of the period in seconds) that the passed timestamp falls into
+	 * @param timestamp The unix time in seconds
+	 * @return the period bucket start in seconds
+	 */
+	public long getBucket(long timestamp) {
+		return timestamp - (timestamp % periodDuration.seconds);
+	}
+
+	/**
+	 * Returns the ring slot that the passed timestamp occupies in this tier.
+	 * This is the same calculation as <code>bucket % (period*periodCount)</code> in the tier lua scripts.
+	 * @param timestamp The unix time in seconds
+	 * @return the ring slot
+	 */
+	public long getSlot(long timestamp) {
+		return getBucket(timestamp) % tierDuration.seconds;
+	}
+
+	/**
+	 * Returns the zero based index of the ring slot that the passed timestamp occupies in this tier
+	 * @param timestamp The timestamp as unix time in seconds
+	 * @return the slot index in the range <code>[0, periodCount)</code>
+	 */
+	public int getSlotIndex(long timestamp) {
+		return (int)(getSlot(timestamp) / periodDuration.seconds);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 * @see java.lang.Object#hashCode()
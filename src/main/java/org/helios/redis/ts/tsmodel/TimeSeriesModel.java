@@ -80,6 +80,22 @@ public class TimeSeriesModel {
 		return matrix;
 	}
 	
+	/**
+	 * Returns the tiers of the model ordered by level, the live tier first
+	 * @return the tiers of the model
+	 */
+	public Tier[] getTiers() {
+		return tiers.toArray(new Tier[tiers.size()]);
+	}
+
+	/**
+	 * Returns the live (level 0) tier
+	 * @return the live tier
+	 */
+	public Tier getLiveTier() {
+		return tiers.iterator().next();
+	}
+
 	/**
 	 * Creates a new TimeSeriesModel from the passed stringified model
 	 * @param model The string representation of the model
@@ -0,0 +1,55 @@
+-- Quantile sketch helpers, rendered into the tier scripts as the sketchLib token.
+-- A sketch is a zero count and a table of counts keyed by bin index, transported as 'zeroCount|index:count,index:count...' text
+-- and stored as a stamped binary value: struct '<I4I4I2' (bucket, zero count, bin count) followed by '<i2I4' (index, count) per bin in index order.
+-- Sketches of the same bucket are merged by adding their zero counts and bin counts.
+local sketchHeader, sketchBin = '<I4I4I2', '<i2I4';
+-- parses a sketch text into its zero count and bin counts
+local function parseSketch(text)
+	local zero, bins = string.match(text, '^(%d+)|(.*)$');
+	local counts = {};
+	for idx, cnt in string.gmatch(bins, '(-?%d+):(%d+)') do
+		counts[tonumber(idx)] = tonumber(cnt);
+	end
+	return tonumber(zero), counts;
+end
+-- unpacks a stored sketch into its stamp, zero count and bin counts
+local function unpackSketch(data)
+	local stamp, zero, n, pos = struct.unpack(sketchHeader, data);
+	local counts = {};
+	for b = 1, n do
+		local idx, cnt;
+		idx, cnt, pos = struct.unpack(sketchBin, data, pos);
+		counts[idx] = cnt;
+	end
+	return stamp, zero, counts;
+end
+-- adds the bin counts of one sketch into another
+local function mergeCounts(into, counts)
+	for idx, cnt in pairs(counts) do
+		into[idx] = (into[idx] or 0) + cnt;
+	end
+end
+-- packs a sketch stamped with its bucket for storage
+local function packSketch(stamp, zero, counts)
+	local idxs = {};
+	for idx in pairs(counts) do idxs[#idxs+1] = idx; end
+	table.sort(idxs);
+	local parts = {struct.pack(sketchHeader, stamp, zero, #idxs)};
+	for b = 1, #idxs do
+		parts[b+1] = struct.pack(sketchBin, idxs[b], counts[idxs[b]]);
+	end
+	return table.concat(parts);
+end
+-- merges a sketch into the sketch stored in a field, keeping the stored sketch when it is stamped with a later bucket
+local function mergeSketch(key, field, bucket, zero, counts)
+	local rec = redis.call('hget', key, field);
+	if rec then
+		local stamp, pzero, pcounts = unpackSketch(rec);
+		if stamp > bucket then return; end
+		if stamp == bucket then
+			zero = zero + pzero;
+			mergeCounts(counts, pcounts);
+		end
+	end
+	redis.call('hset', key, field, packSketch(bucket, zero, counts));
+end
@@ -1,8 +1,39 @@
+-- Adds one sample to the ${tierName} tier as a 'bucket:count:sum:min:max:last' record with a count of 1, stamped with its bucket,
+-- written as a hash field or, in the ring layout, as a binary record at offset slotIndex*recordSize, 
+-- or in the bucketed layout as a binary record field of the slot group hash of the series ID encoded in the data key
+-- KEYS[1]: The series data key, KEYS[2]: The lexicographic series name index
+-- ARGV[1]: The series name, ARGV[2]: The timestamp in seconds, ARGV[3]: The value
 local typeMap = ${tsTypes};
 local period = ${periodDuration};   
 local periodCount = ${periodCount};
-local ts = tonumber(ARGV[1]);
+local layout = '${layout}';
+local ringFormat = '${ringFormat}';
+local recordSize = ${recordSize};
+local bucketSize = ${bucketSize};
+local ts = tonumber(ARGV[2]);
 local bucket = ts-(ts%period);
 local member = bucket%(period*periodCount);
-redis.call('sadd','timeseries.live.members', member)
+local v = ARGV[3];
+if layout == 'ring' then
+	if redis.call('strlen', KEYS[1]) == 0 then
+		redis.call('setrange', KEYS[1], periodCount*recordSize - 1, '\0');
+	end
+	local n = tonumber(v);
+	redis.call('setrange', KEYS[1], (member/period)*recordSize, struct.pack(ringFormat, bucket, 1, n, n, n, n));
+elseif layout == 'bucketed' then
+	local code = string.match(KEYS[1], '[^${delim}]+$');
+	local id, scale = 0, 1;
+	for c = 1, #code do
+		local b = string.byte(code, c);
+		if b >= 97 then b = b - 61 elseif b >= 65 then b = b - 55 else b = b - 48 end
+		id = id + b*scale;
+		scale = scale*62;
+	end
+	local n = tonumber(v);
+	redis.call('hset', string.sub(KEYS[1], 1, #KEYS[1] - #code) .. (member/period) .. '${delim}' .. math.floor(id/bucketSize), 
+		id%bucketSize, struct.pack(ringFormat, bucket, 1, n, n, n, n));
+else
+	redis.call('hset', KEYS[1], member, table.concat({bucket, 1, v, v, v, v}, ':'));
+end
+redis.call('zadd', KEYS[2], 0, ARGV[1]);
 return member;
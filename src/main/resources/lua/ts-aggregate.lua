@@ -0,0 +1,121 @@
+-- Aggregates the records of many series in one tier across the series, for each bucket of a range, so only the aggregated buckets are returned.
+-- Slots stamped with another bucket hold data from another rotation and are skipped.
+-- The series are read in order until the elapsed time passes the budget, so a wide aggregation is split over several invocations 
+-- and one invocation never blocks redis for much longer than the budget. At least one series is always read.
+-- ARGV[1]: The tier index in the model matrix, ARGV[2]: The first bucket, ARGV[3]: The last bucket, ARGV[4]: The time budget in ms (0 for none), 
+-- ARGV[5..n]: The encoded series IDs
+-- Returns {the number of series read, then for each bucket with data: bucket, series count, record count, sum, min, max as strings}
+local matrix = ${modelMatrix};
+local tierNames = ${tierNames};
+local dataRoot = '${dataRoot}';
+local delim = '${delim}';
+local layout = '${layout}';
+local ringFormat = '${ringFormat}';
+local recordSize = ${recordSize};
+local bucketSize = ${bucketSize};
+local t = tonumber(ARGV[1]);
+local first = tonumber(ARGV[2]);
+local last = tonumber(ARGV[3]);
+local budget = tonumber(ARGV[4]) * 1000;
+local period, duration = matrix[t][1], matrix[t][2];
+local prefix = dataRoot .. delim .. tierNames[t] .. delim;
+local slots = (last - first)/period + 1;
+local nseries, counts, sums, mins, maxs = {}, {}, {}, {}, {};
+-- decodes a little endian base 62 series ID
+local function decodeId(code)
+	local id, scale = 0, 1;
+	for c = 1, #code do
+		local b = string.byte(code, c);
+		if b >= 97 then b = b - 61 elseif b >= 65 then b = b - 55 else b = b - 48 end
+		id = id + b*scale;
+		scale = scale*62;
+	end
+	return id;
+end
+-- folds one record into the aggregate of slot i if it is stamped with the slot's bucket
+local function fold(i, stamp, c, s, mn, mx)
+	if stamp ~= first + i*period or not c or c <= 0 then return; end
+	if counts[i] then
+		nseries[i] = nseries[i] + 1;
+		counts[i] = counts[i] + c;
+		sums[i] = sums[i] + s;
+		if mn < mins[i] then mins[i] = mn; end
+		if mx > maxs[i] then maxs[i] = mx; end
+	else
+		nseries[i], counts[i], sums[i], mins[i], maxs[i] = 1, c, s, mn, mx;
+	end
+end
+-- reads the range of a ring with one GETRANGE, or two if the range wraps
+local function readRing(series)
+	local key = prefix .. series;
+	local firstOffset = ((first%duration)/period)*recordSize;
+	local lastOffset = ((last%duration)/period)*recordSize;
+	local data;
+	if lastOffset >= firstOffset then
+		data = redis.call('getrange', key, firstOffset, lastOffset + recordSize - 1);
+	else
+		data = redis.call('getrange', key, firstOffset, -1) .. redis.call('getrange', key, 0, lastOffset + recordSize - 1);
+	end
+	for i = 0, slots - 1 do
+		local pos = i*recordSize + 1;
+		if pos + recordSize - 1 > #data then break; end
+		local stamp, c, s, mn, mx = struct.unpack(ringFormat, data, pos);
+		fold(i, stamp, c, s, mn, mx);
+	end
+end
+-- reads the range of a series hash with HMGETs of at most 1000 slots
+local function readHash(series)
+	local key = prefix .. series;
+	for i0 = 0, slots - 1, 1000 do
+		local n = math.min(1000, slots - i0);
+		local fields = {};
+		for j = 1, n do
+			fields[j] = (first + (i0 + j - 1)*period)%duration;
+		end
+		local recs = redis.call('hmget', key, unpack(fields));
+		for j = 1, n do
+			local rec = recs[j];
+			if rec then
+				local stamp, c, s, mn, mx = string.match(rec, '^([^:]+):([^:]+):([^:]+):([^:]+):([^:]+):');
+				fold(i0 + j - 1, tonumber(stamp), tonumber(c), tonumber(s), tonumber(mn), tonumber(mx));
+			end
+		end
+	end
+end
+-- reads the range of a series from the bucket group hash of each slot
+local function readBucketed(series)
+	local id = decodeId(series);
+	local group, field = math.floor(id/bucketSize), id%bucketSize;
+	for i = 0, slots - 1 do
+		local rec = redis.call('hget', prefix .. (((first + i*period)%duration)/period) .. delim .. group, field);
+		if rec then
+			local stamp, c, s, mn, mx = struct.unpack(ringFormat, rec);
+			fold(i, stamp, c, s, mn, mx);
+		end
+	end
+end
+local function clock()
+	local time = redis.call('time');
+	return tonumber(time[1])*1000000 + tonumber(time[2]);
+end
+local read = readHash;
+if layout == 'ring' then read = readRing; elseif layout == 'bucketed' then read = readBucketed; end
+local start = clock();
+local done = 0;
+for a = 5, #ARGV do
+	read(ARGV[a]);
+	done = done + 1;
+	if budget > 0 and clock() - start >= budget then break; end
+end
+local out = {done};
+for i = 0, slots - 1 do
+	if counts[i] then
+		out[#out+1] = string.format('%d', first + i*period);
+		out[#out+1] = string.format('%d', nseries[i]);
+		out[#out+1] = string.format('%d', counts[i]);
+		out[#out+1] = string.format('%.17g', sums[i]);
+		out[#out+1] = string.format('%.17g', mins[i]);
+		out[#out+1] = string.format('%.17g', maxs[i]);
+	end
+end
+return out;
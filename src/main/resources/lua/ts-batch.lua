@@ -0,0 +1,144 @@
+-- Adds a batch of live period records to every tier of the model
+-- The record is written into the live tier slot, stamped with its bucket, as a 'bucket:count:sum:min:max:last' hash field in the hash layout, 
+-- as a fixed width binary record at offset slotIndex*recordSize in the ring layout, or as a binary record field of the shared 
+-- slot group hash in the bucketed layout. A record for a slot already stamped with the same bucket (a late sample, an unaggregated sample 
+-- or a replayed record) is merged into it, a slot stamped with an earlier bucket holds stale data from an earlier rotation and is overwritten in place, 
+-- and a record for a slot stamped with a later bucket is dropped.
+-- In the cascade rollup mode the series is marked dirty in the current bucket of each higher tier so the bucket can be rolled up when it closes, 
+-- and in the fanout rollup mode the record is merged into the current slot of each higher tier.
+-- A record's quantile sketch, when present, is stored stamped in the same slot of the series sketch hash in each tier and merged like the record.
+-- The member hashes of a distinct record are added to the series HyperLogLog of the bucket in the live tier (and in each higher tier in the fanout mode), 
+-- which expires when its slot rotates.
+-- The value type of each series (an ordinal from the typeMap) is recorded the first time the series is seen.
+-- Series are identified by their encoded dictionary ID.
+-- KEYS[1]: The series ID set, KEYS[2]: The series type hash
+-- ARGV: Repeating (series ID, type, timestamp in seconds, count, sum, min, max, last, sketch) tuples, 
+-- where sketch is the quantile sketch text, the comma separated member hashes of a distinct record, or ''
+local typeMap = ${tsTypes};
+local matrix = ${modelMatrix};
+local tierNames = ${tierNames};
+local tierCount = ${tierCount};
+local dataRoot = '${dataRoot}';
+local dirtyRoot = '${dirtyRoot}';
+local sketchRoot = '${sketchRoot}';
+local hllRoot = '${hllRoot}';
+local delim = '${delim}';
+local layout = '${layout}';
+local ringFormat = '${ringFormat}';
+local recordSize = ${recordSize};
+local bucketSize = ${bucketSize};
+local fanout = '${rollupMode}' == 'fanout';
+local liveKeyPrefix = dataRoot .. delim .. tierNames[1] .. delim;
+local seen = {};
+${sketchLib}
+-- adds comma separated member hashes to the HyperLogLog of the bucket in a tier, expiring it when the slot rotates
+local function addMembers(t, series, bucket, members)
+	local key = hllRoot .. delim .. tierNames[t] .. delim .. series .. delim .. bucket;
+	local batch = {};
+	for member in string.gmatch(members, '[^,]+') do
+		batch[#batch+1] = member;
+		if #batch == 1000 then
+			redis.call('pfadd', key, unpack(batch));
+			batch = {};
+		end
+	end
+	if #batch > 0 then redis.call('pfadd', key, unpack(batch)); end
+	redis.call('expireat', key, bucket + matrix[t][2]);
+end
+-- decodes a little endian base 62 series ID
+local function decodeId(code)
+	local id, scale = 0, 1;
+	for c = 1, #code do
+		local b = string.byte(code, c);
+		if b >= 97 then b = b - 61 elseif b >= 65 then b = b - 55 else b = b - 48 end
+		id = id + b*scale;
+		scale = scale*62;
+	end
+	return id;
+end
+-- merges a count, sum, min, max, last record into the slot of the bucket in a tier
+local function mergeTier(t, series, id, bucket, c, s, mn, mx, l)
+	local period, duration, periodCount = matrix[t][1], matrix[t][2], matrix[t][3];
+	local prefix = dataRoot .. delim .. tierNames[t] .. delim;
+	local slot = bucket%duration;
+	local key, field, offset, stamp, pc, ps, pmn, pmx;
+	if layout == 'ring' then
+		key = prefix .. series;
+		if redis.call('strlen', key) == 0 then
+			redis.call('setrange', key, periodCount*recordSize - 1, '\0');
+		end
+		offset = (slot/period)*recordSize;
+		stamp, pc, ps, pmn, pmx = struct.unpack(ringFormat, redis.call('getrange', key, offset, offset + recordSize - 1));
+	elseif layout == 'bucketed' then
+		key, field = prefix .. (slot/period) .. delim .. math.floor(id/bucketSize), id%bucketSize;
+		local rec = redis.call('hget', key, field);
+		if rec then stamp, pc, ps, pmn, pmx = struct.unpack(ringFormat, rec); end
+	else
+		key = prefix .. series;
+		local rec = redis.call('hget', key, slot);
+		if rec then
+			stamp, pc, ps, pmn, pmx = string.match(rec, '^([^:]+):([^:]+):([^:]+):([^:]+):([^:]+):');
+			stamp, pc, ps, pmn, pmx = tonumber(stamp), tonumber(pc), tonumber(ps), tonumber(pmn), tonumber(pmx);
+		end
+	end
+	-- a slot stamped with a later bucket belongs to a newer rotation, and one stamped with an earlier bucket is stale
+	if stamp and stamp > bucket then return; end
+	if stamp == bucket and pc and ps and pmn and pmx and pc > 0 then
+		c, s, mn, mx = c + pc, s + ps, math.min(mn, pmn), math.max(mx, pmx);
+	end
+	if layout == 'ring' then
+		redis.call('setrange', key, offset, struct.pack(ringFormat, bucket, c, s, mn, mx, l));
+	elseif layout == 'bucketed' then
+		redis.call('hset', key, field, struct.pack(ringFormat, bucket, c, s, mn, mx, l));
+	else
+		redis.call('hset', key, slot, string.format('%d:%d:%.17g:%.17g:%.17g:%.17g', bucket, c, s, mn, mx, l));
+	end
+end
+local written = 0;
+for i = 1, #ARGV, 9 do
+	local series = ARGV[i];
+	local ts = tonumber(ARGV[i+2]);
+	if not seen[series] then
+		if redis.call('sadd', KEYS[1], series) == 1 then
+			redis.call('hsetnx', KEYS[2], series, ARGV[i+1]);
+		end
+		-- size a new ring to its full length up front so its memory is fixed by the period count
+		if layout == 'ring' and redis.call('strlen', liveKeyPrefix .. series) == 0 then
+			redis.call('setrange', liveKeyPrefix .. series, matrix[1][3]*recordSize - 1, '\0');
+		end
+		seen[series] = decodeId(series);
+	end
+	local sketch = ARGV[i+8];
+	local distinct = tonumber(ARGV[i+1]) == typeMap.distinct;
+	for t = 1, tierCount do
+		local period = matrix[t][1];
+		local bucket = ts-(ts%period);
+		if t == 1 then
+			if sketch ~= '' and distinct then
+				addMembers(1, series, bucket, sketch);
+			elseif sketch ~= '' then
+				local zero, counts = parseSketch(sketch);
+				mergeSketch(sketchRoot .. delim .. tierNames[1] .. delim .. series, bucket%matrix[1][2], bucket, zero, counts);
+			end
+			mergeTier(1, series, seen[series], bucket, tonumber(ARGV[i+3]), tonumber(ARGV[i+4]), 
+				tonumber(ARGV[i+5]), tonumber(ARGV[i+6]), tonumber(ARGV[i+7]));
+		elseif fanout then
+			mergeTier(t, series, seen[series], bucket, tonumber(ARGV[i+3]), tonumber(ARGV[i+4]), 
+				tonumber(ARGV[i+5]), tonumber(ARGV[i+6]), tonumber(ARGV[i+7]));
+			if sketch ~= '' and distinct then
+				addMembers(t, series, bucket, sketch);
+			elseif sketch ~= '' then
+				local zero, counts = parseSketch(sketch);
+				mergeSketch(sketchRoot .. delim .. tierNames[t] .. delim .. series, bucket%matrix[t][2], bucket, zero, counts);
+			end
+		else
+			local dirtyKey = dirtyRoot .. delim .. tierNames[t] .. delim .. bucket;
+			if redis.call('sadd', dirtyKey, series) == 1 then
+				-- kept until the child slots of the bucket rotate, so a bucket missed by a rollup pass can be caught up by a later pass
+				redis.call('expireat', dirtyKey, bucket + period + math.max(period, matrix[t-1][2]));
+			end
+		end
+	end
+	written = written + 1;
+end
+return written;
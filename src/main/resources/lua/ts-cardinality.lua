@@ -0,0 +1,12 @@
+-- Counts the distinct members of a set of per period HyperLogLogs with PFCOUNT. Missing keys count as empty.
+-- KEYS: The HyperLogLog keys
+-- ARGV[1]: '1' to also return the distinct count of each key
+-- Returns {the count of each key in key order if requested..., the distinct count of the union of all the keys}
+local counts = {};
+if ARGV[1] == '1' then
+	for k = 1, #KEYS do
+		counts[k] = redis.call('pfcount', KEYS[k]);
+	end
+end
+counts[#counts+1] = #KEYS > 0 and redis.call('pfcount', unpack(KEYS)) or 0;
+return counts;
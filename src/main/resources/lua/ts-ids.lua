@@ -0,0 +1,68 @@
+-- Resolves series names to integer IDs, atomically assigning the next ID to names that have none and adding them to the name index
+-- The ID of a new tagged series is also added to the bitmap container of each of its tags, keyed by the high 16 bits of the ID.
+-- A tagged series name is a metric followed by ';' separated tags (metric;tagk1=tagv1;tagk2=tagv2) and every tag must be a non empty tagk=tagv pair, 
+-- otherwise the name is a plain name and is not indexed, whatever '=' or ':' characters it contains.
+-- A container is an 'a' followed by the sorted big endian low 16 bits of up to 4096 IDs, converted to a 'b' followed by an 8KB bitmap (set with SETBIT) when it grows past that.
+-- KEYS[1]: The name to ID hash, KEYS[2]: The ID to name hash, KEYS[3]: The ID sequence, KEYS[4]: The lexicographic name index
+-- ARGV: The series names
+-- Returns the IDs in the order of the names
+local tagRoot = '${tagRoot}';
+local delim = '${delim}';
+-- returns the tags of a tagged series name, or nil if the name is not tagged
+local function parseTags(name)
+	local tags = string.match(name, '^[^;]+;(.+)$');
+	if not tags then return nil; end
+	local parsed = {};
+	for tag in string.gmatch(tags .. ';', '([^;]*);') do
+		if not string.find(tag, '^[^=]+=.+$') then return nil; end
+		parsed[#parsed+1] = tag;
+	end
+	return parsed;
+end
+-- adds an ID to the container of a tag
+local function indexTag(tag, id)
+	local key = tagRoot .. delim .. tag .. delim .. math.floor(id/65536);
+	local low = id%65536;
+	local c = redis.call('get', key);
+	if not c then
+		redis.call('set', key, 'a' .. struct.pack('>I2', low));
+		return;
+	end
+	if string.sub(c, 1, 1) == 'b' then
+		redis.call('setbit', key, 8 + low, 1);
+		return;
+	end
+	local n = (#c - 1)/2;
+	local lo, hi = 0, n;
+	while lo < hi do
+		local mid = math.floor((lo + hi)/2);
+		if struct.unpack('>I2', c, 2 + 2*mid) < low then lo = mid + 1; else hi = mid; end
+	end
+	if lo < n and struct.unpack('>I2', c, 2 + 2*lo) == low then return; end
+	if n < 4096 then
+		redis.call('set', key, string.sub(c, 1, 1 + 2*lo) .. struct.pack('>I2', low) .. string.sub(c, 2 + 2*lo));
+	else
+		redis.call('set', key, 'b');
+		redis.call('setrange', key, 8192, '\0');
+		for i = 0, n - 1 do
+			redis.call('setbit', key, 8 + struct.unpack('>I2', c, 2 + 2*i), 1);
+		end
+		redis.call('setbit', key, 8 + low, 1);
+	end
+end
+local ids = {};
+for i = 1, #ARGV do
+	local id = redis.call('hget', KEYS[1], ARGV[i]);
+	if not id then
+		id = redis.call('incr', KEYS[3]);
+		redis.call('hset', KEYS[1], ARGV[i], id);
+		redis.call('hset', KEYS[2], id, ARGV[i]);
+		redis.call('zadd', KEYS[4], 0, ARGV[i]);
+		local tags = parseTags(ARGV[i]);
+		if tags then
+			for _, tag in ipairs(tags) do indexTag(tag, tonumber(id)); end
+		end
+	end
+	ids[i] = tonumber(id);
+end
+return ids;
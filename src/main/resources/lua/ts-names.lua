@@ -0,0 +1,6 @@
+-- Pages through the lexicographic series name index with ZRANGEBYLEX, returning the names that start with a prefix in order
+-- KEYS[1]: The series name index
+-- ARGV[1]: The name prefix ('' for all names), ARGV[2]: The last name of the previous page, or '' for the first page, ARGV[3]: The maximum number of names
+-- Returns the names of the page
+local min = ARGV[2] == '' and ('[' .. ARGV[1]) or ('(' .. ARGV[2]);
+return redis.call('zrangebylex', KEYS[1], min, '[' .. ARGV[1] .. '\255', 'LIMIT', 0, tonumber(ARGV[3]));
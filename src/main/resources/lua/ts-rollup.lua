@@ -0,0 +1,139 @@
+-- Rolls up one closed bucket of a tier from the slots of the tier below it, for a chunk of the series in the bucket dirty set.
+-- Each series is popped from the dirty set, its child records in the bucket (clipped to the child rotation ending at 'now') 
+-- are aggregated into one count, sum, min, max, last record, and the record is written into the tier slot in the configured layout, 
+-- stamped with the bucket. Child slots stamped with another bucket hold data from another rotation and are skipped.
+-- The stamped child quantile sketches of a series with a sketch hash are merged into one sketch written into the same slot of the tier sketch hash, 
+-- and the child HyperLogLogs of a distinct series are merged with PFMERGE into the HyperLogLog of the bucket, which expires when its slot rotates.
+-- KEYS[1]: The dirty set of the tier bucket, KEYS[2]: The series type hash
+-- ARGV[1]: The tier index in the model matrix (2 to tierCount), ARGV[2]: The bucket, ARGV[3]: The maximum number of series to roll up, 
+-- ARGV[4]: The current time in seconds
+-- Returns {the number of series rolled up, the number of series remaining in the dirty set}
+if redis.replicate_commands then redis.replicate_commands(); end
+local typeMap = ${tsTypes};
+local matrix = ${modelMatrix};
+local tierNames = ${tierNames};
+local dataRoot = '${dataRoot}';
+local sketchRoot = '${sketchRoot}';
+local hllRoot = '${hllRoot}';
+local delim = '${delim}';
+local layout = '${layout}';
+local ringFormat = '${ringFormat}';
+local recordSize = ${recordSize};
+local bucketSize = ${bucketSize};
+local t = tonumber(ARGV[1]);
+local bucket = tonumber(ARGV[2]);
+local maxSeries = tonumber(ARGV[3]);
+local now = tonumber(ARGV[4]);
+local period, duration, periodCount = matrix[t][1], matrix[t][2], matrix[t][3];
+local childPeriod, childDuration = matrix[t-1][1], matrix[t-1][2];
+local childPrefix = dataRoot .. delim .. tierNames[t-1] .. delim;
+local prefix = dataRoot .. delim .. tierNames[t] .. delim;
+local childSketchPrefix = sketchRoot .. delim .. tierNames[t-1] .. delim;
+local sketchPrefix = sketchRoot .. delim .. tierNames[t] .. delim;
+local childHllPrefix = hllRoot .. delim .. tierNames[t-1] .. delim;
+local hllPrefix = hllRoot .. delim .. tierNames[t] .. delim;
+local distinctType = tostring(typeMap.distinct);
+local first = math.max(bucket, (now - (now % childPeriod)) - childDuration + childPeriod);
+local last = bucket + period - childPeriod;
+-- decodes a little endian base 62 series ID
+local function decodeId(code)
+	local id, scale = 0, 1;
+	for c = 1, #code do
+		local b = string.byte(code, c);
+		if b >= 97 then b = b - 61 elseif b >= 65 then b = b - 55 else b = b - 48 end
+		id = id + b*scale;
+		scale = scale*62;
+	end
+	return id;
+end
+${sketchLib}
+-- merges the stamped child sketches of a series in the bucket and writes them into the tier slot
+local function rollupSketch(series)
+	local childKey = childSketchPrefix .. series;
+	if redis.call('exists', childKey) == 0 then return; end
+	local zero, counts, merged = 0, {}, false;
+	for b = first, last, childPeriod do
+		local rec = redis.call('hget', childKey, b%childDuration);
+		if rec then
+			local stamp, czero, ccounts = unpackSketch(rec);
+			if stamp == b then
+				zero = zero + czero;
+				mergeCounts(counts, ccounts);
+				merged = true;
+			end
+		end
+	end
+	if merged then
+		redis.call('hset', sketchPrefix .. series, bucket%duration, packSketch(bucket, zero, counts));
+	end
+end
+-- merges the child HyperLogLogs of a distinct series in the bucket into the HyperLogLog of the bucket
+local function rollupMembers(series)
+	local sources = {};
+	for b = first, last, childPeriod do
+		sources[#sources+1] = childHllPrefix .. series .. delim .. b;
+	end
+	local key = hllPrefix .. series .. delim .. bucket;
+	redis.call('pfmerge', key, unpack(sources));
+	redis.call('expireat', key, bucket + duration);
+end
+-- reads one child record as count, sum, min, max, last or nil if the slot is not stamped with the bucket
+local function readChild(series, id, b)
+	if layout == 'ring' then
+		local offset = ((b%childDuration)/childPeriod)*recordSize;
+		local rec = redis.call('getrange', childPrefix .. series, offset, offset + recordSize - 1);
+		if #rec < recordSize then return nil; end
+		local stamp, c, s, mn, mx, l = struct.unpack(ringFormat, rec);
+		if stamp ~= b then return nil; end
+		return c, s, mn, mx, l;
+	elseif layout == 'bucketed' then
+		local rec = redis.call('hget', childPrefix .. ((b%childDuration)/childPeriod) .. delim .. math.floor(id/bucketSize), id%bucketSize);
+		if not rec then return nil; end
+		local stamp, c, s, mn, mx, l = struct.unpack(ringFormat, rec);
+		if stamp ~= b then return nil; end
+		return c, s, mn, mx, l;
+	end
+	local rec = redis.call('hget', childPrefix .. series, b%childDuration);
+	if not rec then return nil; end
+	local stamp, c, s, mn, mx, l = string.match(rec, '^([^:]+):([^:]+):([^:]+):([^:]+):([^:]+):(.+)$');
+	if tonumber(stamp) ~= b then return nil; end
+	return tonumber(c), tonumber(s), tonumber(mn), tonumber(mx), tonumber(l);
+end
+local done = 0;
+while done < maxSeries do
+	local series = redis.call('spop', KEYS[1]);
+	if not series then break; end
+	local id = layout == 'bucketed' and decodeId(series) or 0;
+	local count, sum, mn, mx, lst = 0, 0, nil, nil, nil;
+	for b = first, last, childPeriod do
+		local c, s, cmn, cmx, l = readChild(series, id, b);
+		if c and s and cmn and cmx and l and c > 0 then
+			count = count + c;
+			sum = sum + s;
+			if mn == nil or cmn < mn then mn = cmn; end
+			if mx == nil or cmx > mx then mx = cmx; end
+			lst = l;
+		end
+	end
+	if count > 0 then
+		if layout == 'ring' then
+			local key = prefix .. series;
+			if redis.call('strlen', key) == 0 then
+				redis.call('setrange', key, periodCount*recordSize - 1, '\0');
+			end
+			redis.call('setrange', key, ((bucket%duration)/period)*recordSize, struct.pack(ringFormat, bucket, count, sum, mn, mx, lst));
+		elseif layout == 'bucketed' then
+			redis.call('hset', prefix .. ((bucket%duration)/period) .. delim .. math.floor(id/bucketSize), id%bucketSize, 
+				struct.pack(ringFormat, bucket, count, sum, mn, mx, lst));
+		else
+			redis.call('hset', prefix .. series, bucket%duration, string.format('%d:%d:%.17g:%.17g:%.17g:%.17g', bucket, count, sum, mn, mx, lst));
+		end
+		if redis.call('hget', KEYS[2], series) == distinctType then
+			rollupMembers(series);
+		else
+			rollupSketch(series);
+		end
+	end
+	done = done + 1;
+end
+return {done, redis.call('scard', KEYS[1])};
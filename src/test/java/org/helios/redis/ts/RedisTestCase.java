@@ -0,0 +1,75 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+/**
+ * <p>Title: RedisTestCase</p>
+ * <p>Description: Base class for test cases run against the redis at <code>localhost:6379</code>, using database 15, which is flushed 
+ * before and after each test. The tests are skipped when there is no redis to connect to.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.RedisTestCase</code></p>
+ */
+public abstract class RedisTestCase extends BaseTestCase {
+	/** The test redis connection */
+	protected Jedis jedis = null;
+	
+	/** The test redis database */
+	public static final int TEST_DB = 15;
+	
+	/**
+	 * Connects to the test redis, skipping the test if there is none
+	 */
+	@Before
+	public void connect() {
+		jedis = new Jedis("localhost", 6379, 2000);
+		try {
+			jedis.connect();
+			jedis.select(TEST_DB);
+			jedis.flushDB();
+		} catch (JedisConnectionException jce) {
+			jedis = null;
+			Assume.assumeTrue(false);
+		}
+	}
+	
+	/**
+	 * Flushes and closes the test redis connection
+	 */
+	@After
+	public void disconnect() {
+		if(jedis!=null) {
+			jedis.flushDB();
+			jedis.disconnect();
+		}
+	}
+}
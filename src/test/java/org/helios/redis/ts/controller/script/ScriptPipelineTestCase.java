@@ -0,0 +1,156 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.junit.Test;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+
+/**
+ * <p>Title: ScriptPipelineTestCase</p>
+ * <p>Description: Test cases for the undecoded replies of pipelined script invocations, read by a jedis connection from a socket that answers with redis protocol replies</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.ScriptPipelineTestCase</code></p>
+ */
+public class ScriptPipelineTestCase extends BaseTestCase {
+	/** A dummy script SHA1 */
+	public static final String SHA = "e0e1f9fabfc9d4800c877a703b823ac0578ff8db";
+	/** An integer, a table, a bulk string, a NOSCRIPT error and a script error reply */
+	public static final String REPLIES = ":3\r\n*2\r\n:1\r\n:0\r\n$2\r\nok\r\n-NOSCRIPT No matching script. Please use EVAL.\r\n-ERR user_script:1: boom\r\n";
+	
+	/**
+	 * Tests that integer, table, bulk string and error script replies are returned undecoded
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRawReplies() throws Exception {
+		ServerSocket server = serve(REPLIES);
+		Jedis jedis = new Jedis(server.getInetAddress().getHostAddress(), server.getLocalPort());
+		try {
+			ScriptPipeline pipeline = ScriptPipeline.pipelined(jedis);
+			Response<Object> first = null;
+			for(int i = 0; i < 5; i++) {
+				Response<Object> response = pipeline.evalshaRaw(SHA, Collections.singletonList("k"), Arrays.asList("a", "b"));
+				if(first==null) first = response;
+			}
+			List<Object> replies = pipeline.syncRaw();
+			assertEquals("Unexpected reply count", 5, replies.size());
+			assertEquals("Unexpected integer reply", 3L, replies.get(0));
+			assertEquals("Unexpected response", 3L, first.get());
+			assertEquals("Unexpected table reply", Arrays.asList(1L, 0L), replies.get(1));
+			assertArrayEquals("Unexpected bulk reply", "ok".getBytes(), (byte[])replies.get(2));
+			assertTrue("NOSCRIPT not detected", ScriptRegistry.isNoScript(replies.get(3)));
+			assertTrue("NOSCRIPT not detected", ScriptRegistry.containsNoScript(replies));
+			assertFalse("Script error reported as NOSCRIPT", ScriptRegistry.isNoScript(replies.get(4)));
+			assertSame("Unexpected first error", replies.get(3), ScriptRegistry.getError(replies));
+			assertSame("Unexpected error", replies.get(4), ScriptRegistry.getError(replies.subList(4, 5)));
+			assertEquals("Unexpected error", null, ScriptRegistry.getError(replies.subList(0, 3)));
+		} finally {
+			jedis.disconnect();
+			server.close();
+		}
+	}
+	
+	/**
+	 * Tests that the string decoding jedis pipeline fails on an integer script reply, which the {@link ScriptPipeline} exists to avoid,
+	 * and that a NOSCRIPT error rethrown by a decoded response is still detected
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testDecodedReplies() throws Exception {
+		ServerSocket server = serve("-NOSCRIPT No matching script. Please use EVAL.\r\n:3\r\n");
+		Jedis jedis = new Jedis(server.getInetAddress().getHostAddress(), server.getLocalPort());
+		try {
+			Pipeline pipeline = jedis.pipelined();
+			Response<String> noScript = pipeline.evalsha(SHA, Collections.<String>emptyList(), Collections.<String>emptyList());
+			pipeline.evalsha(SHA, Collections.<String>emptyList(), Collections.<String>emptyList());
+			try {
+				pipeline.syncAndReturnAll();
+				throw new AssertionError("Integer reply decoded as a string");
+			} catch (ClassCastException expected) {}
+			try {
+				noScript.get();
+				throw new AssertionError("Error reply not thrown");
+			} catch (JedisDataException jde) {
+				assertTrue("Wrapped NOSCRIPT not detected", ScriptRegistry.isNoScript(jde));
+			}
+		} finally {
+			jedis.disconnect();
+			server.close();
+		}
+	}
+	
+	/**
+	 * Starts a socket that accepts one connection, answers it with the passed redis protocol replies and discards the commands it is sent
+	 * @param replies The redis protocol replies
+	 * @return the listening socket
+	 * @throws Exception thrown on any error
+	 */
+	protected ServerSocket serve(final String replies) throws Exception {
+		final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		Thread t = new Thread(new Runnable(){
+			public void run() {
+				try {
+					Socket socket = server.accept();
+					try {
+						OutputStream out = socket.getOutputStream();
+						out.write(replies.getBytes("UTF-8"));
+						out.flush();
+						InputStream in = socket.getInputStream();
+						byte[] buff = new byte[1024];
+						while(in.read(buff)!=-1) {}
+					} finally {
+						socket.close();
+					}
+				} catch (Exception e) {
+					// the test closed the socket
+				}
+			}
+		}, getClass().getSimpleName() + "Server");
+		t.setDaemon(true);
+		t.start();
+		return server;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.rollup.RollupMode;
+import org.helios.redis.ts.store.BucketCodec;
+import org.helios.redis.ts.store.RingCodec;
+import org.helios.redis.ts.store.StorageLayout;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: ScriptRegistryTestCase</p>
+ * <p>Description: Test cases for the lua script template rendering</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.ScriptRegistryTestCase</code></p>
+ */
+public class ScriptRegistryTestCase extends BaseTestCase {
+	/** The test model */
+	protected static final String MODEL = "p=5s,t=1m | p=1m,t=2m | p=5m,t=15m";
+
+	/**
+	 * Tests token replacement
+	 */
+	@Test
+	public void testRender() {
+		Map<String, String> tokens = new HashMap<String, String>();
+		tokens.put("a", "1");
+		tokens.put("b", "{x=2}");
+		assertEquals("Unexpected render", "local a = 1; local b = {x=2};", ScriptRegistry.render("local a = ${a}; local b = ${b};", tokens));
+	}
+	
+	/**
+	 * Tests that an unresolved token fails the render
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnresolvedToken() {
+		ScriptRegistry.render("local a = ${nope};", new HashMap<String, String>());
+	}
+	
+	/**
+	 * Tests that the per tier scripts are rendered for each tier with that tier's values
+	 */
+	@Test
+	public void testPerTierScripts() {
+		ScriptRegistry registry = new ScriptRegistry(TimeSeriesModel.create(MODEL));
+		assertTrue("Missing live script", registry.getAliases().contains(TSScript.TS_ADD.alias("live")));
+		assertTrue("Missing t2 script", registry.getAliases().contains(TSScript.TS_ADD.alias("t2")));
+		String script = registry.getScript(TSScript.TS_ADD.alias("t2"));
+		assertTrue("Period not rendered", script.contains("local period = 300;"));
+		assertTrue("Period count not rendered", script.contains("local periodCount = 3;"));
+		assertFalse("Unrendered tokens", script.contains("${"));
+		assertFalse("Scripts reported loaded", registry.isLoaded());
+	}
+
+	/**
+	 * Tests that the model scripts are rendered once with the full model matrix
+	 */
+	@Test
+	public void testModelScripts() {
+		ScriptRegistry registry = new ScriptRegistry(TimeSeriesModel.create(MODEL));
+		String script = registry.getScript(TSScript.TS_BATCH.alias(null));
+		assertTrue("Matrix not rendered", script.contains("local matrix = {{5,60,12},{60,120,2},{300,900,3}};"));
+		assertTrue("Tier names not rendered", script.contains("local tierNames = {'live','t1','t2'};"));
+		assertFalse("Unrendered tokens", script.contains("${"));
+		String rollup = registry.getScript(TSScript.TS_ROLLUP.alias(null));
+		assertTrue("Rollup matrix not rendered", rollup.contains("local matrix = {{5,60,12},{60,120,2},{300,900,3}};"));
+		assertFalse("Unrendered rollup tokens", rollup.contains("${"));
+		assertTrue("Sketch functions not rendered", script.contains("local function packSketch(") && rollup.contains("local function unpackSketch("));
+		assertTrue("Distinct type not rendered", script.contains("distinct=" + TSType.DISTINCT.ordinal()) && rollup.contains("distinct=" + TSType.DISTINCT.ordinal()));
+		assertTrue("Missing cardinality script", registry.getAliases().contains(TSScript.TS_CARDINALITY.alias(null)));
+		String aggregate = registry.getScript(TSScript.TS_AGGREGATE.alias(null));
+		assertTrue("Aggregate matrix not rendered", aggregate.contains("local matrix = {{5,60,12},{60,120,2},{300,900,3}};"));
+		assertFalse("Unrendered aggregate tokens", aggregate.contains("${"));
+		assertTrue("Missing name index script", registry.getAliases().contains(TSScript.TS_NAMES.alias(null)));
+		String ids = registry.getScript(TSScript.TS_IDS.alias(null));
+		assertTrue("Tag root not rendered", ids.contains("'" + TSConfiguration.TS_TAG_ROOT + "'"));
+		assertFalse("Unrendered id tokens", ids.contains("${"));
+	}
+	
+	/**
+	 * Tests that the ring layout is rendered into the scripts
+	 */
+	@Test
+	public void testRingLayout() {
+		ScriptRegistry registry = new ScriptRegistry(TimeSeriesModel.create(MODEL), StorageLayout.RING);
+		String script = registry.getScript(TSScript.TS_BATCH.alias(null));
+		assertTrue("Layout not rendered", script.contains("local layout = 'ring';"));
+		assertTrue("Record size not rendered", script.contains("local recordSize = " + RingCodec.RECORD_SIZE + ";"));
+		assertFalse("Unrendered tokens", registry.getScript(TSScript.TS_ADD.alias("t1")).contains("${"));
+	}
+	
+	/**
+	 * Tests that the bucketed layout and bucket size are rendered into the scripts and the layout descriptor
+	 */
+	@Test
+	public void testBucketedLayout() {
+		ScriptRegistry registry = new ScriptRegistry(TimeSeriesModel.create(MODEL), StorageLayout.BUCKETED, 100);
+		String script = registry.getScript(TSScript.TS_BATCH.alias(null));
+		assertTrue("Layout not rendered", script.contains("local layout = 'bucketed';"));
+		assertTrue("Bucket size not rendered", script.contains("local bucketSize = 100;"));
+		assertTrue("Record format not rendered", script.contains("local ringFormat = '" + RingCodec.LUA_FORMAT + "';"));
+		assertFalse("Unrendered tokens", registry.getScript(TSScript.TS_ADD.alias("t1")).contains("${"));
+		assertEquals("Unexpected layout descriptor", "bucketed:100", registry.getLayoutDescriptor());
+		assertEquals("Unexpected hash layout descriptor", "hash", new ScriptRegistry(TimeSeriesModel.create(MODEL)).getLayoutDescriptor());
+	}
+	
+	/**
+	 * Tests that the rollup mode is rendered into the batch script
+	 */
+	@Test
+	public void testFanoutMode() {
+		ScriptRegistry registry = new ScriptRegistry(TimeSeriesModel.create(MODEL), StorageLayout.HASH, BucketCodec.DEFAULT_BUCKET_SIZE, RollupMode.FANOUT);
+		assertTrue("Rollup mode not rendered", registry.getScript(TSScript.TS_BATCH.alias(null)).contains("local fanout = 'fanout' == 'fanout';"));
+		assertTrue("Default rollup mode not cascade", new ScriptRegistry(TimeSeriesModel.create(MODEL)).getScript(TSScript.TS_BATCH.alias(null)).contains("local fanout = 'cascade' == 'fanout';"));
+		assertEquals(RollupMode.FANOUT, RollupMode.forCode(" FanOut "));
+	}
+}
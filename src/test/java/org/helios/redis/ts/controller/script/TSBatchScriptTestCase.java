@@ -0,0 +1,151 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.helios.redis.ts.RedisTestCase;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.rollup.RollupMode;
+import org.helios.redis.ts.store.BucketCodec;
+import org.helios.redis.ts.store.HashCodec;
+import org.helios.redis.ts.store.RingCodec;
+import org.helios.redis.ts.store.StorageLayout;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: TSBatchScriptTestCase</p>
+ * <p>Description: Test cases for the live tier writes of the <code>ts-batch</code> script. 
+ * Run against a local redis, see {@link RedisTestCase}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.TSBatchScriptTestCase</code></p>
+ */
+public class TSBatchScriptTestCase extends RedisTestCase {
+	/** The test model */
+	protected static final TimeSeriesModel MODEL = TimeSeriesModel.create(ScriptRegistryTestCase.MODEL);
+	/** The live tier of the test model */
+	protected static final Tier LIVE = MODEL.getTiers()[0];
+	/** The encoded series ID written (decodes to ID 1) */
+	protected static final String SERIES = "1";
+	/** The series keys of the batch script */
+	protected static final List<String> KEYS = Arrays.asList(TSConfiguration.TS_SERIES, TSConfiguration.TS_SERIES_TYPES);
+	/** The live bucket written */
+	protected static final long BUCKET = 1350000000L;
+	
+	/**
+	 * Tests that records for the same live bucket are merged in the hash layout
+	 */
+	@Test
+	public void testHashMerge() {
+		assertMerged(StorageLayout.HASH);
+	}
+	
+	/**
+	 * Tests that records for the same live bucket are merged in the ring layout
+	 */
+	@Test
+	public void testRingMerge() {
+		assertMerged(StorageLayout.RING);
+	}
+	
+	/**
+	 * Tests that records for the same live bucket are merged in the bucketed layout
+	 */
+	@Test
+	public void testBucketedMerge() {
+		assertMerged(StorageLayout.BUCKETED);
+	}
+	
+	/**
+	 * Writes two records into one live bucket, then a record of the same slot one rotation earlier and one rotation later, 
+	 * and checks the slot holds the merged record and then only the later record
+	 * @param layout The storage layout to test
+	 */
+	protected void assertMerged(StorageLayout layout) {
+		ScriptRegistry registry = new ScriptRegistry(MODEL, layout, BucketCodec.DEFAULT_BUCKET_SIZE, RollupMode.CASCADE);
+		registry.load(jedis);
+		write(registry, BUCKET + 1, 2, 10, 3, 7, 7);
+		write(registry, BUCKET + 3, 1, 1, 1, 1, 1);
+		RecordBatch batch = read(layout, BUCKET);
+		assertEquals("Unexpected record count", 1, batch.size());
+		assertEquals("Unexpected merged count", 3, batch.counts[0]);
+		assertEquals("Unexpected merged sum", 11D, batch.sums[0], 0D);
+		assertEquals("Unexpected merged min", 1D, batch.mins[0], 0D);
+		assertEquals("Unexpected merged max", 7D, batch.maxs[0], 0D);
+		long rotation = LIVE.getTierDuration().seconds;
+		write(registry, BUCKET - rotation, 5, 50, 10, 10, 10);
+		assertEquals("Stale record merged", 3, read(layout, BUCKET).counts[0]);
+		write(registry, BUCKET + rotation, 4, 8, 2, 2, 2);
+		assertEquals("Newer rotation not written", 0, read(layout, BUCKET).size());
+		batch = read(layout, BUCKET + rotation);
+		assertEquals("Newer rotation not written", 4, batch.counts[0]);
+		assertEquals("Newer rotation merged", 8D, batch.sums[0], 0D);
+	}
+	
+	/**
+	 * Writes one GAUGE record with <code>ts-batch</code>
+	 * @param registry The script registry
+	 * @param timestamp The record timestamp
+	 * @param count The record count
+	 * @param sum The record sum
+	 * @param min The record min
+	 * @param max The record max
+	 * @param last The record last
+	 */
+	protected void write(ScriptRegistry registry, long timestamp, long count, double sum, double min, double max, double last) {
+		List<String> args = new ArrayList<String>(Arrays.asList(SERIES, Integer.toString(TSType.GAUGE.ordinal()), Long.toString(timestamp), 
+				Long.toString(count), Double.toString(sum), Double.toString(min), Double.toString(max), Double.toString(last), ""));
+		registry.evalsha(jedis, TSScript.TS_BATCH.alias(null), KEYS, args);
+	}
+	
+	/**
+	 * Reads the live slot of a bucket
+	 * @param layout The storage layout
+	 * @param bucket The bucket to read
+	 * @return the decoded records, empty if the slot is empty or stamped with another bucket
+	 */
+	protected RecordBatch read(StorageLayout layout, long bucket) {
+		RecordBatch batch = new RecordBatch(4);
+		String key = TSConfiguration.TS_DATA_ROOT + TSConfiguration.TS_DELIM + LIVE.getName() + TSConfiguration.TS_DELIM + SERIES;
+		if(layout==StorageLayout.RING) {
+			RingCodec.read(jedis, key, LIVE, SERIES, TSType.GAUGE, bucket, bucket, batch);
+		} else if(layout==StorageLayout.BUCKETED) {
+			BucketCodec.read(jedis, LIVE, 1, BucketCodec.DEFAULT_BUCKET_SIZE, SERIES, TSType.GAUGE, bucket, bucket, batch);
+		} else {
+			HashCodec.decode(jedis.hmget(key, HashCodec.fields(LIVE, bucket, bucket)), SERIES, TSType.GAUGE, 
+					HashCodec.firstBucket(LIVE, bucket, bucket), LIVE.getPeriodDuration().seconds, batch);
+		}
+		return batch;
+	}
+}
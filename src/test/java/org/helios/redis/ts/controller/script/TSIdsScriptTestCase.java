@@ -0,0 +1,74 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.controller.script;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.helios.redis.ts.RedisTestCase;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.series.RoaringBitmap;
+import org.helios.redis.ts.series.TagIndex;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+import redis.clients.util.SafeEncoder;
+
+/**
+ * <p>Title: TSIdsScriptTestCase</p>
+ * <p>Description: Test cases for the ID assignment and tag indexing of the <code>ts-ids</code> script. 
+ * Run against a local redis, see {@link RedisTestCase}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.controller.script.TSIdsScriptTestCase</code></p>
+ */
+public class TSIdsScriptTestCase extends RedisTestCase {
+	/** The keys of the ID script */
+	protected static final List<String> KEYS = Arrays.asList(TSConfiguration.TS_IDS, TSConfiguration.TS_ID_NAMES, TSConfiguration.TS_ID_SEQ, TSConfiguration.TS_NAME_INDEX);
+	
+	/**
+	 * Tests that only names in the tagged series syntax produce tag postings
+	 */
+	@Test
+	public void testTagPostings() {
+		ScriptRegistry registry = new ScriptRegistry(TimeSeriesModel.create(ScriptRegistryTestCase.MODEL));
+		registry.load(jedis);
+		List<String> names = Arrays.asList("servers.web01:8080.mode=active", "app.ratio=3,level=2", "cpu;host=h1;dc", "cpu;host=h1;dc=east");
+		Object ids = registry.evalsha(jedis, TSScript.TS_IDS.alias(null), KEYS, names);
+		assertEquals("Unexpected IDs", Arrays.asList(1L, 2L, 3L, 4L), ids);
+		assertEquals("Unexpected tag postings", 2, jedis.keys(TSConfiguration.TS_TAG_ROOT + TSConfiguration.TS_DELIM + "*").size());
+		for(String tag: new String[]{"host=h1", "dc=east"}) {
+			byte[] container = jedis.get(SafeEncoder.encode(TagIndex.containerKey(tag, 0)));
+			assertTrue("Missing tag container [" + tag + "]", container!=null);
+			RoaringBitmap bitmap = new RoaringBitmap();
+			bitmap.setContainer(0, container);
+			assertArrayEquals("Unexpected postings for [" + tag + "]", new int[]{4}, bitmap.toArray());
+		}
+	}
+}
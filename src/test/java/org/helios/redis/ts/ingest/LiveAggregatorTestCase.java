@@ -0,0 +1,152 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.sketch.CardinalityStore;
+import org.helios.redis.ts.sketch.QuantileSketch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.junit.Test;
+
+/**
+ * <p>Title: LiveAggregatorTestCase</p>
+ * <p>Description: Test cases for the live tier pre-aggregator</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.LiveAggregatorTestCase</code></p>
+ */
+public class LiveAggregatorTestCase extends BaseTestCase {
+	/** A 10s live tier */
+	protected final Tier liveTier = Tier.newTier("p=10s,t=1m", 0);
+
+	/**
+	 * Tests that samples in one period are emitted as one record once the period and grace time pass
+	 */
+	@Test
+	public void testAggregateAndClose() {
+		LiveAggregator agg = new LiveAggregator(liveTier, 2);
+		assertTrue(agg.accumulate("a", TSType.GAUGE, 1000, 5));
+		assertTrue(agg.accumulate("a", TSType.GAUGE, 1003, 1));
+		assertTrue(agg.accumulate("a", TSType.GAUGE, 1009, 3));
+		assertTrue(agg.accumulate("b", TSType.GAUGE, 1005, 7));
+		RecordBatch out = new RecordBatch(10);
+		assertFalse(agg.drainClosed(1011, out));
+		assertEquals("Period closed before grace", 0, out.size());
+		assertFalse(agg.drainClosed(1012, out));
+		assertEquals("Unexpected record count", 2, out.size());
+		for(int i = 0; i < out.size(); i++) {
+			assertEquals("Unexpected record timestamp", 1000L, out.timestamps[i]);
+			if("a".equals(out.series[i])) {
+				assertEquals(3L, out.counts[i]);
+				assertEquals(9D, out.sums[i], 0D);
+				assertEquals(1D, out.mins[i], 0D);
+				assertEquals(5D, out.maxs[i], 0D);
+				assertEquals(3D, out.lasts[i], 0D);
+			}
+		}
+		assertEquals("Unexpected open periods", 0, agg.getOpenPeriods());
+		assertFalse("Late sample was accumulated", agg.accumulate("a", TSType.GAUGE, 1004, 1));
+		assertEquals("Unexpected late count", 1L, agg.getLate());
+	}
+	
+	/**
+	 * Tests that a full batch is reported and the remaining records are emitted on the next call
+	 */
+	@Test
+	public void testBatchFull() {
+		LiveAggregator agg = new LiveAggregator(liveTier, 0);
+		for(int i = 0; i < 5; i++) {
+			agg.accumulate("s" + i, TSType.GAUGE, 1000, i);
+		}
+		agg.accumulate("s0", TSType.GAUGE, 1010, 1);
+		RecordBatch out = new RecordBatch(3);
+		assertTrue("Full batch not reported", agg.drainClosed(1010, out));
+		assertEquals(3, out.size());
+		out.clear();
+		assertFalse(agg.drainClosed(1010, out));
+		assertEquals(2, out.size());
+		out.clear();
+		assertFalse(agg.drainAll(out));
+		assertEquals("Open period not drained on drainAll", 1, out.size());
+		assertEquals(6L, agg.getEmitted());
+	}
+	
+	/**
+	 * Tests that only series of the sketch types emit a quantile sketch of their period samples
+	 */
+	@Test
+	public void testSketches() {
+		LiveAggregator agg = new LiveAggregator(liveTier, 0, EnumSet.of(TSType.TIMER), 0.01);
+		QuantileSketch expected = new QuantileSketch(0.01);
+		for(int i = 1; i <= 100; i++) {
+			agg.accumulate("t", TSType.TIMER, 1000, i);
+			agg.accumulate("g", TSType.GAUGE, 1000, i);
+			expected.add(i);
+		}
+		RecordBatch out = new RecordBatch(10);
+		agg.drainClosed(1010, out);
+		assertEquals("Unexpected record count", 2, out.size());
+		for(int i = 0; i < out.size(); i++) {
+			if("t".equals(out.series[i])) assertEquals("Unexpected sketch", expected.toText(), out.sketches[i]);
+			else assertNull("Gauge emitted a sketch", out.sketches[i]);
+		}
+		agg.accumulate("t", TSType.TIMER, 1010, 7);
+		out.clear();
+		agg.drainClosed(1020, out);
+		assertEquals("Recycled sketch not reset", "0|" + (int)Math.ceil(Math.log(7) / Math.log(1.01 / 0.99)) + ":1", out.sketches[0]);
+	}
+	
+	/**
+	 * Tests that the member hashes of a distinct series are collected once per period and emitted with the distinct count, 
+	 * and that a late distinct sample carries its own member hash
+	 */
+	@Test
+	public void testDistinctMembers() {
+		LiveAggregator agg = new LiveAggregator(liveTier, 0);
+		for(int i = 0; i < 50; i++) {
+			agg.accumulate("u", TSType.DISTINCT, 1000, CardinalityStore.memberValue("user" + (i % 20)));
+		}
+		RecordBatch out = new RecordBatch(10);
+		agg.drainClosed(1010, out);
+		assertEquals("Unexpected sample count", 50L, out.counts[0]);
+		assertEquals("Unexpected distinct count", 20D, out.lasts[0], 0D);
+		String[] members = out.sketches[0].split(",");
+		assertEquals("Unexpected member hash count", 20, members.length);
+		assertTrue("Member hash missing", Arrays.asList(members).contains(Long.toString((long)CardinalityStore.memberValue("user7"), 36)));
+		out.clear();
+		out.add("u", TSType.DISTINCT, 1000, CardinalityStore.memberValue("late"));
+		assertEquals("Unexpected late member", Long.toString((long)CardinalityStore.memberValue("late"), 36), out.sketches[0]);
+		assertEquals("Unexpected late distinct count", 1D, out.sums[0], 0D);
+	}
+}
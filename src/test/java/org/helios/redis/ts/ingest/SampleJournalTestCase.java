@@ -0,0 +1,154 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import static org.junit.Assert.assertEquals;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * <p>Title: SampleJournalTestCase</p>
+ * <p>Description: Test cases for the memory-mapped outage journal</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleJournalTestCase</code></p>
+ */
+public class SampleJournalTestCase extends BaseTestCase {
+	/** The journal directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	/** A segment size holding 4 records */
+	protected static final int SEGMENT_SIZE = JournalSegment.HEADER_SIZE + 4 * JournalSegment.RECORD_SIZE;
+	
+	/**
+	 * Tests that appended records are replayed in order across segments and that replayed segments are recycled
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testAppendReplayRecycle() throws Exception {
+		SampleJournal journal = new SampleJournal(folder.getRoot(), SEGMENT_SIZE, 3);
+		assertEquals("Unexpected append count", 6, journal.append(batch(0, 6)));
+		assertEquals("Unexpected pending count", 6, journal.getPending());
+		RecordBatch out = new RecordBatch(10);
+		assertEquals("Read crossed a segment", 4, journal.read(out, 10));
+		assertEquals("Unexpected first series", "s0", out.series[0]);
+		assertEquals("Unexpected type", TSType.COUNTER, out.types[0]);
+		assertEquals("Unexpected sum", 3D, out.sums[3], 0D);
+		journal.commit(4);
+		out.clear();
+		assertEquals("Unexpected read count", 2, journal.read(out, 10));
+		assertEquals("Unexpected first series after commit", "s4", out.series[0]);
+		assertEquals("Replayed segment not recycled", 1, journal.free.size());
+		assertEquals("Unexpected append count after recycle", 6, journal.append(batch(6, 6)));
+		assertEquals("Recycled segment not reused", 2, folder.getRoot().listFiles().length);
+	}
+	
+	/**
+	 * Tests that unreplayed records are recovered when the journal is reopened
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testRecovery() throws Exception {
+		SampleJournal journal = new SampleJournal(folder.getRoot(), SEGMENT_SIZE, 3);
+		journal.append(batch(0, 7));
+		RecordBatch out = new RecordBatch(10);
+		journal.read(out, 3);
+		journal.commit(3);
+		journal.force();
+		SampleJournal reopened = new SampleJournal(folder.getRoot(), SEGMENT_SIZE, 3);
+		assertEquals("Unexpected recovered count", 4, reopened.getPending());
+		out.clear();
+		reopened.read(out, 10);
+		assertEquals("Unexpected first recovered series", "s3", out.series[0]);
+	}
+	
+	/**
+	 * Tests that records are dropped once every segment is full
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testFull() throws Exception {
+		SampleJournal journal = new SampleJournal(folder.getRoot(), SEGMENT_SIZE, 2);
+		assertEquals("Unexpected append count", 8, journal.append(batch(0, 10)));
+		assertEquals("Unexpected drop count", 2, journal.getDropped());
+	}
+	
+	/**
+	 * Tests that quantile sketches and distinct members are journaled in continuation slots and recovered, 
+	 * and that a sketch too long for a segment is dropped from its record and counted
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testSketches() throws Exception {
+		SampleJournal journal = new SampleJournal(folder.getRoot(), SEGMENT_SIZE, 3);
+		StringBuilder b = new StringBuilder();
+		while(b.length() < 200) b.append(Long.toString(randLong(), 36)).append(',');
+		String members = b.toString();
+		RecordBatch in = new RecordBatch(4);
+		in.add("d0", TSType.DISTINCT, 1350000000L, 1, 1, 1, 1, 1, members);
+		in.add("t1", TSType.TIMER, 1350000001L, 2, 3, 1, 2, 2, "0:1,2");
+		in.add("d2", TSType.DISTINCT, 1350000002L, 1, 1, 1, 1, 1, members);
+		in.add("d3", TSType.DISTINCT, 1350000003L, 1, 1, 1, 1, 1, members + members + members + members);
+		assertEquals("Unexpected append count", 4, journal.append(in));
+		assertEquals("Unexpected pending count", 4, journal.getPending());
+		assertEquals("Unexpected dropped sketch count", 1, journal.getDroppedSketches());
+		RecordBatch out = new RecordBatch(10);
+		assertEquals("Read crossed a segment", 2, journal.read(out, 10));
+		assertEquals("Unexpected members", members, out.sketches[0]);
+		assertEquals("Unexpected sketch", "0:1,2", out.sketches[1]);
+		assertEquals("Unexpected series after sketch", "t1", out.series[1]);
+		journal.commit(1);
+		journal.force();
+		SampleJournal reopened = new SampleJournal(folder.getRoot(), SEGMENT_SIZE, 3);
+		assertEquals("Unexpected recovered count", 3, reopened.getPending());
+		out.clear();
+		assertEquals("Unexpected recovered read count", 1, reopened.read(out, 10));
+		assertEquals("Unexpected first recovered series", "t1", out.series[0]);
+		reopened.commit(1);
+		out.clear();
+		assertEquals("Unexpected read count", 2, reopened.read(out, 10));
+		assertEquals("Unexpected members in next segment", members, out.sketches[0]);
+		assertEquals("Unexpected series of dropped sketch", "d3", out.series[1]);
+		assertEquals("Oversized sketch journaled", null, out.sketches[1]);
+	}
+	
+	/**
+	 * Creates a batch of counter records
+	 * @param from The first record number
+	 * @param count The number of records
+	 * @return the batch
+	 */
+	protected static RecordBatch batch(int from, int count) {
+		RecordBatch batch = new RecordBatch(count);
+		for(int i = from; i < from + count; i++) {
+			batch.add("s" + i, TSType.COUNTER, 1350000000L + i, 1, i, i, i, i);
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.junit.Test;
+
+/**
+ * <p>Title: SampleRingBufferTestCase</p>
+ * <p>Description: Test cases for the lock-free sample ring buffer</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.ingest.SampleRingBufferTestCase</code></p>
+ */
+public class SampleRingBufferTestCase extends BaseTestCase {
+
+	/**
+	 * Tests that the capacity is rounded up to a power of 2 and that offer fails when full
+	 */
+	@Test
+	public void testCapacityAndOffer() {
+		SampleRingBuffer rb = new SampleRingBuffer(5);
+		assertEquals("Unexpected capacity", 8, rb.getCapacity());
+		for(int i = 0; i < 8; i++) {
+			assertTrue("Offer failed at [" + i + "]", rb.offer("s", TSType.GAUGE, i, i));
+		}
+		assertFalse("Offer succeeded on full buffer", rb.offer("s", TSType.GAUGE, 8, 8));
+		SampleBatch batch = new SampleBatch(3);
+		assertEquals("Unexpected drain count", 3, rb.drainTo(batch, 10));
+		assertEquals("Unexpected first timestamp", 0L, batch.timestamps[0]);
+		assertEquals("Unexpected queue depth", 5L, rb.getQueueDepth());
+		assertTrue("Offer failed after drain", rb.offer("s", TSType.GAUGE, 8, 8));
+	}
+	
+	/**
+	 * Tests that discarding drops the oldest samples and frees their slots
+	 */
+	@Test
+	public void testDiscardOldest() {
+		SampleRingBuffer rb = new SampleRingBuffer(4);
+		for(int i = 0; i < 4; i++) {
+			assertTrue(rb.offer("s", TSType.GAUGE, i, i));
+		}
+		assertEquals("Unexpected discard count", 2, rb.discard(2));
+		assertTrue("Offer failed after discard", rb.offer("s", TSType.GAUGE, 4, 4));
+		SampleBatch batch = new SampleBatch(4);
+		assertEquals("Unexpected drain count", 3, rb.drainTo(batch, 10));
+		assertEquals("Oldest sample not discarded", 2L, batch.timestamps[0]);
+		assertEquals("Unexpected discard count on empty buffer", 0, rb.discard(2));
+	}
+	
+	/**
+	 * Tests that the drain rate is computed by the consumer once per rate interval and is not reset by reading it
+	 */
+	@Test
+	public void testDrainRate() {
+		SampleRingBuffer rb = new SampleRingBuffer(1024);
+		for(int i = 0; i < 500; i++) {
+			assertTrue(rb.offer("s", TSType.GAUGE, i, i));
+		}
+		SampleBatch batch = new SampleBatch(1024);
+		assertEquals("Unexpected drain count", 500, rb.drainTo(batch, 1024));
+		assertEquals("Rate computed before the rate interval", 0L, rb.getDrainRate());
+		rb.rateTime -= SampleRingBuffer.RATE_INTERVAL;
+		rb.drainTo(batch, 1024);
+		long rate = rb.getDrainRate();
+		assertTrue("Unexpected drain rate [" + rate + "]", rate>400 && rate<=500);
+		assertEquals("Drain rate reset by reading it", rate, rb.getDrainRate());
+	}
+	
+	/**
+	 * Tests that samples from concurrent producers are all drained in per-producer order
+	 * @throws Exception thrown on any error
+	 */
+	@Test
+	public void testConcurrentProducers() throws Exception {
+		final int producers = 4;
+		final int perProducer = 50000;
+		final SampleRingBuffer rb = new SampleRingBuffer(1024);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+		for(int p = 0; p < producers; p++) {
+			final String name = "producer" + p;
+			Thread t = new Thread() {
+				public void run() {
+					try { startLatch.await(); } catch (InterruptedException e) { return; }
+					for(int i = 0; i < perProducer; i++) {
+						rb.put(name, TSType.GAUGE, i, i);
+					}
+				}
+			};
+			t.setDaemon(true);
+			t.start();
+		}
+		startLatch.countDown();
+		Map<String, Long> lastSeen = new HashMap<String, Long>();
+		SampleBatch batch = new SampleBatch(100);
+		int total = 0;
+		long deadline = System.currentTimeMillis() + 20000;
+		while(total < producers*perProducer && System.currentTimeMillis() < deadline) {
+			rb.drainTo(batch, 100);
+			for(int i = 0; i < batch.size(); i++) {
+				Long last = lastSeen.get(batch.series[i]);
+				long expected = last==null ? 0 : last + 1;
+				assertEquals("Out of order sample for [" + batch.series[i] + "]", expected, batch.timestamps[i]);
+				lastSeen.put(batch.series[i], batch.timestamps[i]);
+			}
+			total += batch.size();
+			batch.clear();
+		}
+		assertEquals("Unexpected drained count", producers*perProducer, total);
+		assertEquals("Unexpected drained counter", (long)producers*perProducer, rb.getDrained());
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: QueryCacheTestCase</p>
+ * <p>Description: Test cases for the closed chunk query cache</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.QueryCacheTestCase</code></p>
+ */
+public class QueryCacheTestCase extends BaseTestCase {
+	/** A 10s / 1m model */
+	protected final Tier[] tiers = TimeSeriesModel.create("p=10s,t=1h | p=1m,t=1d").getTiers();
+	
+	/**
+	 * Tests that chunks are aligned to their span and only closed once the settle time has passed
+	 */
+	@Test
+	public void testChunkAlignment() {
+		QueryCache cache = new QueryCache(32, 120, 1000);
+		assertEquals("Unexpected span", 320, cache.span(tiers[0]));
+		assertEquals("Unexpected chunk start", 3200, cache.chunkStart(tiers[0], 3519));
+		assertEquals("Unexpected chunk start", 3520, cache.chunkStart(tiers[0], 3520));
+		assertEquals("Unexpected minute chunk start", 3840, cache.chunkStart(tiers[1], 5000));
+		assertFalse("Chunk closed before settle", cache.isClosed(tiers[0], 3200, 3520 + 119));
+		assertTrue("Chunk not closed after settle", cache.isClosed(tiers[0], 3200, 3520 + 120));
+	}
+	
+	/**
+	 * Tests that chunks are keyed by series, tier and start and that the least recently used chunks are evicted by record count
+	 */
+	@Test
+	public void testEviction() {
+		QueryCache cache = new QueryCache(32, 120, 10);
+		cache.put("a", tiers[0], 0, batch(4, 0));
+		cache.put("b", tiers[0], 0, batch(4, 0));
+		assertNull("Chunk hit for another tier", cache.get("a", tiers[1], 0));
+		assertNotNull("Chunk missed", cache.get("a", tiers[0], 0));
+		assertEquals("Batch not compacted", 8, cache.getRecordCount());
+		cache.put("c", tiers[0], 320, batch(4, 320));
+		assertEquals("Unexpected eviction count", 1, cache.getEvictions());
+		assertNull("Least recently used chunk not evicted", cache.get("b", tiers[0], 0));
+		RecordBatch a = cache.get("a", tiers[0], 0);
+		assertEquals("Unexpected cached size", 4, a.size());
+		assertEquals("Unexpected cached timestamp", 30, a.timestamps[3]);
+		assertEquals("Unexpected hits", 2, cache.getHits());
+		assertEquals("Unexpected misses", 2, cache.getMisses());
+		cache.clear();
+		assertEquals("Cache not cleared", 0, cache.getChunkCount());
+	}
+	
+	/**
+	 * Tests that a clear starts a new generation and that chunks read in an earlier generation are not cached
+	 */
+	@Test
+	public void testGeneration() {
+		QueryCache cache = new QueryCache(32, 120, 1000);
+		long generation = cache.getGeneration();
+		cache.put("a", tiers[0], 0, batch(4, 0), generation);
+		assertNotNull("Chunk not cached", cache.get("a", tiers[0], 0));
+		cache.clear();
+		assertEquals("Clear did not start a new generation", generation + 1, cache.getGeneration());
+		assertNull("Chunk not cleared", cache.get("a", tiers[0], 0));
+		cache.put("a", tiers[0], 0, batch(4, 0), generation);
+		assertNull("Chunk read before the clear was cached", cache.get("a", tiers[0], 0));
+		cache.put("a", tiers[0], 0, batch(4, 0), cache.getGeneration());
+		assertNotNull("Chunk not cached", cache.get("a", tiers[0], 0));
+	}
+	
+	/**
+	 * Tests that the settle time is derived from and validated against the rollup and aggregation grace times
+	 */
+	@Test
+	public void testSettleGrace() {
+		Properties props = new Properties();
+		assertEquals("Unexpected default min settle", 31, QueryCache.minSettle(props, tiers[0]));
+		assertEquals("Unexpected default settle", QueryCache.DEFAULT_SETTLE, new QueryCache(props, tiers[0]).settle);
+		props.setProperty("redis.ts.writer.aggregate.grace", "200");
+		assertEquals("Unexpected min settle", 221, QueryCache.minSettle(props, tiers[0]));
+		assertEquals("Settle not raised to the min settle", 221, new QueryCache(props, tiers[0]).settle);
+		props.setProperty("redis.ts.query.cache.settle", "120");
+		try {
+			new QueryCache(props, tiers[0]);
+			fail("Settle time shorter than the aggregation grace was accepted");
+		} catch (IllegalArgumentException iae) {}
+		props.setProperty("redis.ts.writer.aggregate", "false");
+		props.setProperty("redis.ts.rollup.grace", "30");
+		assertEquals("Unexpected min settle", 40, QueryCache.minSettle(props, tiers[0]));
+		assertEquals("Unexpected settle", 120, new QueryCache(props, tiers[0]).settle);
+	}
+	
+	/**
+	 * Creates a batch of 10s records with spare capacity
+	 * @param size The number of records
+	 * @param start The first timestamp
+	 * @return the batch
+	 */
+	protected static RecordBatch batch(int size, long start) {
+		RecordBatch batch = new RecordBatch(32);
+		for(int i = 0; i < size; i++) {
+			batch.add("s", TSType.GAUGE, start + i * 10, i);
+		}
+		return batch;
+	}
+}
@@ -0,0 +1,90 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.series.SeriesId;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: QueryCursorTestCase</p>
+ * <p>Description: Test cases for the chunking of streaming queries</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.QueryCursorTestCase</code></p>
+ */
+public class QueryCursorTestCase extends BaseTestCase {
+	/** A 10s / 1m / 1h model */
+	protected final Tier[] tiers = TimeSeriesModel.create("p=10s,t=1h | p=1m,t=1d | p=1h,t=30d").getTiers();
+	/** The current time, on an hour boundary plus 25s */
+	protected final long now = 3600L * 400000 + 25;
+	
+	/**
+	 * Tests that the segments are split into contiguous chunks of at most the chunk periods, in time order, without crossing segments
+	 */
+	@Test
+	public void testChunking() {
+		List<QuerySegment> segments = TSReader.plan(tiers, now - 2 * 86400, now, 5000, now);
+		QueryCursor cursor = new QueryCursor(null, new SeriesId("s", 1), TSType.GAUGE, segments, 100);
+		QuerySegment previous = null;
+		int chunks = 0;
+		int segmentChunks = 0;
+		for(QuerySegment chunk = cursor.nextChunk(); chunk != null; chunk = cursor.nextChunk()) {
+			assertTrue("Chunk too large " + chunk, chunk.getPeriods() <= 100);
+			if(previous==null) assertEquals("Range start not covered", segments.get(0).from, chunk.from);
+			else assertEquals("Chunks not contiguous", previous.to + 1, chunk.from);
+			if(chunk.tier==segments.get(0).tier) segmentChunks++;
+			previous = chunk;
+			chunks++;
+		}
+		assertEquals("Range end not covered", now, previous.to);
+		assertSame("Last chunk not in the finest tier", segments.get(1).tier, previous.tier);
+		assertEquals("Unexpected chunk count in the first segment", (segments.get(0).getPeriods() + 99) / 100, segmentChunks);
+		assertTrue("Too few chunks", chunks > segmentChunks);
+	}
+	
+	/**
+	 * Tests that a cursor over a series that has never been written has no chunks
+	 */
+	@Test
+	public void testUnwrittenSeries() {
+		List<QuerySegment> segments = TSReader.plan(tiers, now - 600, now, 100, now);
+		QueryCursor cursor = new QueryCursor(null, null, null, segments, 100);
+		assertNull("Unwritten series has a chunk", cursor.nextChunk());
+		assertFalse("Unwritten series advanced", cursor.next());
+		cursor.close();
+	}
+}
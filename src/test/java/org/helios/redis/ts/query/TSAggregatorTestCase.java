@@ -0,0 +1,71 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: TSAggregatorTestCase</p>
+ * <p>Description: Test cases for the folding of cross-series aggregation script replies</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.TSAggregatorTestCase</code></p>
+ */
+public class TSAggregatorTestCase extends BaseTestCase {
+	/** A 10s / 1m model */
+	protected final Tier[] tiers = TimeSeriesModel.create("p=10s,t=1h | p=1m,t=1d").getTiers();
+	
+	/**
+	 * Tests that the replies of several invocations over different series are folded into one aggregate per period
+	 */
+	@Test
+	public void testFold() {
+		long now = 36000;
+		TSAggregator.SegmentAggregate aggregate = new TSAggregator.SegmentAggregate(new QuerySegment(tiers[0], now - 60, now));
+		assertEquals("Unexpected slots", 7, aggregate.slots);
+		int read = aggregate.fold(Arrays.asList(2L, "35940", "2", "4", "10", "1", "4", "35960", "1", "1", "3", "3", "3"));
+		assertEquals("Unexpected series read", 2, read);
+		aggregate.fold(Arrays.asList(1L, "35940", "1", "2", "-1", "-2", "1.5"));
+		AggregateResult result = new AggregateResult(now - 60, now, null, 3, 7);
+		aggregate.appendTo(result);
+		assertEquals("Unexpected periods", 2, result.size());
+		assertEquals(35940, result.timestamps[0]);
+		assertEquals("Unexpected series with data", 3, result.series[0]);
+		assertEquals("Unexpected count", 6, result.counts[0]);
+		assertEquals("Unexpected sum", 9, result.sums[0], 0);
+		assertEquals("Unexpected min", -2, result.mins[0], 0);
+		assertEquals("Unexpected max", 4, result.maxs[0], 0);
+		assertEquals("Unexpected avg", 1.5, result.avg(0), 0);
+		assertEquals(35960, result.timestamps[1]);
+		assertEquals("Unexpected single series max", 3, result.maxs[1], 0);
+	}
+}
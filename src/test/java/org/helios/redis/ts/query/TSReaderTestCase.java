@@ -0,0 +1,124 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: TSReaderTestCase</p>
+ * <p>Description: Test cases for the tier selection and stitching of range queries</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.query.TSReaderTestCase</code></p>
+ */
+public class TSReaderTestCase extends BaseTestCase {
+	/** A 10s / 1m / 1h model */
+	protected final Tier[] tiers = TimeSeriesModel.create("p=10s,t=1h | p=1m,t=1d | p=1h,t=30d").getTiers();
+	/** The current time, on an hour boundary plus 25s */
+	protected final long now = 3600L * 400000 + 25;
+
+	/**
+	 * Tests that the finest tier fitting within the maximum points is selected for a range it retains
+	 */
+	@Test
+	public void testTierSelection() {
+		List<QuerySegment> segments = TSReader.plan(tiers, now - 600, now, 100, now);
+		assertEquals("Unexpected segment count", 1, segments.size());
+		assertSame("Live tier not selected", tiers[0], segments.get(0).tier);
+		segments = TSReader.plan(tiers, now - 6 * 3600, now, 1000, now);
+		assertEquals("Unexpected segment count", 1, segments.size());
+		assertSame("Minute tier not selected", tiers[1], segments.get(0).tier);
+		assertEquals("Unexpected periods", 361, segments.get(0).getPeriods());
+		segments = TSReader.plan(tiers, now - 600, now, 1, now);
+		assertSame("Coarsest tier not selected when none fit", tiers[2], segments.get(0).tier);
+	}
+	
+	/**
+	 * Tests that a range crossing a tier's retention is stitched from coarser tiers on coarser period boundaries without gaps or overlaps
+	 */
+	@Test
+	public void testStitching() {
+		long from = now - 2 * 86400;
+		List<QuerySegment> segments = TSReader.plan(tiers, from, now, 5000, now);
+		assertEquals("Unexpected segment count", 2, segments.size());
+		assertSame(tiers[2], segments.get(0).tier);
+		assertSame(tiers[1], segments.get(1).tier);
+		assertEquals("Range start not covered", from, segments.get(0).from);
+		assertEquals("Segments not contiguous", segments.get(0).to + 1, segments.get(1).from);
+		assertEquals("Boundary not on a coarser period", 0, segments.get(1).from % 3600);
+		long oldestMinute = tiers[1].getBucket(now) - (tiers[1].getPeriodCount() - 1) * 60;
+		assertTrue("Segment starts before tier retention", segments.get(1).from >= oldestMinute);
+		assertEquals("Range end not covered", now, segments.get(1).to);
+		segments = TSReader.plan(tiers, now - 60 * 86400, now, 600000, now);
+		assertEquals("Unexpected segment count", 3, segments.size());
+		long oldestHour = tiers[2].getBucket(now) - (tiers[2].getPeriodCount() - 1) * 3600;
+		assertEquals("Range not clipped to coarsest retention", oldestHour, segments.get(0).from);
+		for(int i = 1; i < segments.size(); i++) {
+			assertEquals("Segments not contiguous", segments.get(i-1).to + 1, segments.get(i).from);
+		}
+		assertTrue("Range older than all tiers not empty", TSReader.plan(tiers, 0, 1000, 10, now).isEmpty());
+	}
+	
+	/**
+	 * Tests that multi-series partitions are merged into columns in request order, including series that have never been written
+	 */
+	@Test
+	public void testMerge() {
+		String[] series = {"a", "b", "c", "d"};
+		TSReader.Partition first = new TSReader.Partition(0, 2);
+		first.records = new RecordBatch(4);
+		first.records.add("a", TSType.GAUGE, 10, 1);
+		first.records.add("a", TSType.GAUGE, 20, 2);
+		first.types[0] = TSType.GAUGE;
+		first.sizes[0] = 2;
+		TSReader.Partition second = new TSReader.Partition(2, 4);
+		second.records = new RecordBatch(4);
+		second.records.add("d", TSType.COUNTER, 10, 7);
+		second.types[1] = TSType.COUNTER;
+		second.sizes[1] = 1;
+		MultiQueryResult result = TSReader.merge(series, 0, 30, new ArrayList<QuerySegment>(), new TSReader.Partition[]{first, second});
+		assertEquals("Unexpected record count", 3, result.size());
+		assertEquals("Unexpected series size", 2, result.size(0));
+		assertEquals("Unexpected unwritten series size", 0, result.size(1));
+		assertNull("Unwritten series has a type", result.types[2]);
+		assertSame(TSType.COUNTER, result.types[3]);
+		assertEquals("Unexpected series offset", 2, result.offsets[3]);
+		assertEquals("Unexpected merged value", 7, result.sums[result.offsets[3]], 0);
+		assertEquals("Unexpected merged timestamp", 20, result.timestamps[1]);
+	}
+}
@@ -0,0 +1,69 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.rollup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Properties;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Test;
+
+/**
+ * <p>Title: RollupEngineTestCase</p>
+ * <p>Description: Test cases for the rollup engine configuration</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.rollup.RollupEngineTestCase</code></p>
+ */
+public class RollupEngineTestCase extends BaseTestCase {
+	/** The live tier of a 10s / 1m model */
+	protected final Tier liveTier = TimeSeriesModel.create("p=10s,t=1h | p=1m,t=1d").getLiveTier();
+	
+	/**
+	 * Tests that the rollup grace time is derived from and validated against the aggregation grace and linger times
+	 */
+	@Test
+	public void testGrace() {
+		Properties props = new Properties();
+		assertEquals("Unexpected default min grace", 21, RollupEngine.minGrace(props, liveTier));
+		assertEquals("Unexpected default grace", 21, RollupEngine.grace(props, liveTier));
+		props.setProperty("redis.ts.writer.aggregate.grace", "30");
+		props.setProperty("redis.ts.writer.linger", "2500");
+		assertEquals("Unexpected min grace", 43, RollupEngine.minGrace(props, liveTier));
+		props.setProperty("redis.ts.rollup.grace", "42");
+		try {
+			RollupEngine.grace(props, liveTier);
+			fail("Rollup grace shorter than the aggregation grace was accepted");
+		} catch (IllegalArgumentException iae) {}
+		props.setProperty("redis.ts.rollup.grace", "60");
+		assertEquals("Unexpected grace", 60, RollupEngine.grace(props, liveTier));
+		props.setProperty("redis.ts.writer.aggregate", "false");
+		assertEquals("Unexpected unaggregated min grace", 13, RollupEngine.minGrace(props, liveTier));
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import static org.junit.Assert.assertEquals;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.junit.Test;
+
+/**
+ * <p>Title: IdCodecTestCase</p>
+ * <p>Description: Test cases for the series ID encoding</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.IdCodecTestCase</code></p>
+ */
+public class IdCodecTestCase extends BaseTestCase {
+
+	/**
+	 * Tests that the encoded length grows with the ID
+	 */
+	@Test
+	public void testLength() {
+		assertEquals("0", IdCodec.encode(0));
+		assertEquals(1, IdCodec.encode(61).length());
+		assertEquals(2, IdCodec.encode(62).length());
+		assertEquals(4, IdCodec.encode(2000000).length());
+		assertEquals(6, IdCodec.encode(Integer.MAX_VALUE).length());
+	}
+	
+	/**
+	 * Tests that encoded IDs decode to the original ID
+	 */
+	@Test
+	public void testRoundTrip() {
+		int[] ids = {0, 1, 61, 62, 3843, 3844, 2000000, Integer.MAX_VALUE};
+		for(int id: ids) {
+			assertEquals("Round trip failed for [" + id + "]", id, IdCodec.decode(IdCodec.encode(id)));
+		}
+		for(int i = 0; i < 1000; i++) {
+			int id = randInt();
+			assertEquals("Round trip failed for [" + id + "]", id, IdCodec.decode(IdCodec.encode(id)));
+		}
+	}
+	
+	/**
+	 * Tests that an invalid character is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidCode() {
+		IdCodec.decode("ab-");
+	}
+}
@@ -0,0 +1,63 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.junit.Test;
+
+/**
+ * <p>Title: IntObjectMapTestCase</p>
+ * <p>Description: Test cases for the primitive int keyed map</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.IntObjectMapTestCase</code></p>
+ */
+public class IntObjectMapTestCase extends BaseTestCase {
+
+	/**
+	 * Tests puts, replacement and growth past the initial capacity
+	 */
+	@Test
+	public void testPutGet() {
+		IntObjectMap<String> map = new IntObjectMap<String>(4);
+		for(int i = 0; i < 10000; i++) {
+			assertNull(map.put(i*7, "v" + i));
+		}
+		assertEquals(10000, map.size());
+		for(int i = 0; i < 10000; i++) {
+			assertEquals("v" + i, map.get(i*7));
+		}
+		assertNull("Unexpected value for missing key", map.get(3));
+		assertEquals("v0", map.put(0, "x"));
+		assertEquals("x", map.get(0));
+		assertEquals(10000, map.size());
+		map.clear();
+		assertNull(map.get(7));
+		assertEquals(0, map.size());
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.junit.Test;
+
+/**
+ * <p>Title: NameTrieTestCase</p>
+ * <p>Description: Test cases for the local glob expansion of series names</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.NameTrieTestCase</code></p>
+ */
+public class NameTrieTestCase extends BaseTestCase {
+	
+	/**
+	 * Tests single segment, character and multi segment wildcards
+	 */
+	@Test
+	public void testGlobs() {
+		NameTrie trie = new NameTrie('.');
+		for(String name: new String[]{"app.web.h1.latency", "app.web.h2.latency", "app.web.h2.errors", "app.db.h1.latency", "app.web", "app.web.h10.latency"}) {
+			assertTrue("Name not added [" + name + "]", trie.add(name));
+		}
+		assertFalse("Duplicate added", trie.add("app.web"));
+		assertEquals("Unexpected size", 6, trie.size());
+		assertEquals(Arrays.asList("app.web.h1.latency", "app.web.h10.latency", "app.web.h2.latency"), match(trie, "app.web.*.latency"));
+		assertEquals(Arrays.asList("app.web.h1.latency", "app.web.h2.latency"), match(trie, "app.web.h?.latency"));
+		assertEquals(Arrays.asList("app.db.h1.latency", "app.web.h1.latency"), match(trie, "app.*.h1.*"));
+		assertEquals(Arrays.asList("app.db.h1.latency", "app.web.h1.latency", "app.web.h10.latency", "app.web.h2.latency"), match(trie, "**.latency"));
+		assertEquals(Arrays.asList("app.web"), match(trie, "app.w*"));
+		assertTrue("Unexpected match", match(trie, "app.web.*.lat").isEmpty());
+	}
+	
+	/**
+	 * Tests segment matching and literal prefix extraction
+	 */
+	@Test
+	public void testSegmentMatching() {
+		assertTrue(NameTrie.matches("h*1", "h101"));
+		assertTrue(NameTrie.matches("*", ""));
+		assertTrue(NameTrie.matches("a*b*c", "aXbYbc"));
+		assertFalse(NameTrie.matches("h?", "h10"));
+		assertFalse(NameTrie.matches("a*c", "abcd"));
+		assertEquals("app.web.", NameTrie.literalPrefix("app.web.*.latency"));
+		assertEquals("app.w", NameTrie.literalPrefix("app.w?b"));
+		assertEquals("", NameTrie.literalPrefix("**.latency"));
+	}
+	
+	/**
+	 * Matches a glob and sorts the matches
+	 * @param trie The trie
+	 * @param glob The glob
+	 * @return the sorted matches
+	 */
+	protected static List<String> match(NameTrie trie, String glob) {
+		List<String> names = new ArrayList<String>();
+		trie.match(glob, names);
+		Collections.sort(names);
+		return names;
+	}
+}
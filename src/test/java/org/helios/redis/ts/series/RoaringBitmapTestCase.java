@@ -0,0 +1,146 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.series;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.junit.Test;
+
+/**
+ * <p>Title: RoaringBitmapTestCase</p>
+ * <p>Description: Test cases for the compressed series ID bitmaps and tag filters of the tag index</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.series.RoaringBitmapTestCase</code></p>
+ */
+public class RoaringBitmapTestCase extends BaseTestCase {
+	
+	/**
+	 * Tests intersections and unions across array and bitmap containers and the conversion of a full array container
+	 */
+	@Test
+	public void testAndOr() {
+		RoaringBitmap evens = new RoaringBitmap();
+		RoaringBitmap threes = new RoaringBitmap();
+		for(int i = 0; i < 20000; i += 2) evens.add(i);
+		for(int i = 0; i < 20000; i += 3) threes.add(i);
+		threes.add(70000);
+		assertEquals("Unexpected cardinality", 10000, evens.cardinality());
+		assertEquals("Unexpected containers", 2, threes.getContainerCount());
+		assertEquals("Unexpected container key", 1, threes.getContainerKey(1));
+		RoaringBitmap both = evens.and(threes);
+		assertEquals("Unexpected intersection", 3334, both.cardinality());
+		assertTrue("Missing multiple of six", both.contains(19998));
+		assertFalse("Unexpected odd", both.contains(9));
+		RoaringBitmap either = evens.or(threes);
+		assertEquals("Unexpected union", 10000 + 6667 + 1 - 3334, either.cardinality());
+		assertTrue("Missing high container value", either.contains(70000));
+		int[] ids = either.toArray();
+		assertEquals("Unexpected array length", either.cardinality(), ids.length);
+		for(int i = 1; i < ids.length; i++) assertTrue("Unordered IDs", ids[i-1] < ids[i]);
+		RoaringBitmap small = new RoaringBitmap();
+		small.add(5);
+		small.add(3);
+		small.add(5);
+		assertArrayEquals(new int[]{3, 5}, small.toArray());
+		assertEquals("Unexpected small intersection", 0, small.and(evens).cardinality());
+	}
+	
+	/**
+	 * Tests that containers round trip through the redis format, and that bitmap containers follow the SETBIT bit order
+	 */
+	@Test
+	public void testContainerFormat() {
+		RoaringBitmap source = new RoaringBitmap();
+		source.add(65536 + 7);
+		source.add(65536 + 300);
+		for(int i = 0; i < 5000; i++) source.add(i * 13);
+		byte[] bitmap = source.serializeContainer(0);
+		byte[] array = source.serializeContainer(1);
+		assertEquals("Unexpected bitmap type", RoaringBitmap.BITMAP_TYPE, bitmap[0]);
+		assertEquals("Unexpected bitmap size", 1 + 8192, bitmap.length);
+		assertEquals("Unexpected array type", RoaringBitmap.ARRAY_TYPE, array[0]);
+		assertArrayEquals(new byte[]{'a', 0, 7, 1, 44}, array);
+		RoaringBitmap copy = new RoaringBitmap();
+		copy.setContainer(0, bitmap);
+		copy.setContainer(1, array);
+		copy.setContainer(2, null);
+		assertArrayEquals(source.toArray(), copy.toArray());
+		// SETBIT 8+n sets bit 7-(n%8) of byte 1+n/8
+		byte[] redis = new byte[1 + 8192];
+		redis[0] = RoaringBitmap.BITMAP_TYPE;
+		redis[1] = (byte)0x80;
+		redis[2] = (byte)0x01;
+		RoaringBitmap decoded = new RoaringBitmap();
+		decoded.setContainer(3, redis);
+		assertArrayEquals(new int[]{3 * 65536, 3 * 65536 + 15}, decoded.toArray());
+	}
+	
+	/**
+	 * Tests tag extraction from series names and the parsing and evaluation of tag filters
+	 */
+	@Test
+	public void testFilters() {
+		assertEquals(Arrays.asList("host=h1", "dc=east"), TagIndex.tags("cpu;host=h1;dc=east"));
+		assertTrue("Untagged name has tags", TagIndex.tags("app.web.latency").isEmpty());
+		assertTrue("Plain name with '=' has tags", TagIndex.tags("servers.web01:8080.mode=active").isEmpty());
+		assertTrue("Plain name with '=' has tags", TagIndex.tags("app.ratio=3,level=2").isEmpty());
+		assertTrue("Name with an invalid tag has tags", TagIndex.tags("cpu;host=h1;dc").isEmpty());
+		assertTrue("Name with an empty tag value has tags", TagIndex.tags("cpu;host=").isEmpty());
+		List<List<String>> union = TagIndex.parse("host=h1 AND dc=east or env=test");
+		assertEquals(Arrays.asList(Arrays.asList("host=h1", "dc=east"), Arrays.asList("env=test")), union);
+		Map<String, RoaringBitmap> bitmaps = new HashMap<String, RoaringBitmap>();
+		bitmaps.put("host=h1", bitmap(1, 2, 3, 100000));
+		bitmaps.put("dc=east", bitmap(2, 3, 4, 100000));
+		bitmaps.put("env=test", bitmap(9));
+		assertArrayEquals(new int[]{2, 3, 9, 100000}, TagIndex.evaluate(union, bitmaps).toArray());
+		for(String invalid: new String[]{"host=h1 AND", "host=h1 dc=east", "AND host=h1", "host"}) {
+			try {
+				TagIndex.parse(invalid);
+				throw new AssertionError("Invalid filter parsed [" + invalid + "]");
+			} catch (IllegalArgumentException expected) {}
+		}
+	}
+	
+	/**
+	 * Creates a bitmap of the passed values
+	 * @param values The values
+	 * @return the bitmap
+	 */
+	protected static RoaringBitmap bitmap(int...values) {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		for(int value: values) bitmap.add(value);
+		return bitmap;
+	}
+}
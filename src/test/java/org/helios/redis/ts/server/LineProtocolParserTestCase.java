@@ -0,0 +1,183 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.Sample;
+import org.helios.redis.ts.ingest.SampleSink;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * <p>Title: LineProtocolParserTestCase</p>
+ * <p>Description: Test cases for the plaintext line protocol parser</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.LineProtocolParserTestCase</code></p>
+ */
+public class LineProtocolParserTestCase extends BaseTestCase {
+	/** The parser under test */
+	protected final LineProtocolParser parser = new LineProtocolParser();
+	/** Collects the parsed samples */
+	protected final List<Sample> samples = new ArrayList<Sample>();
+	/** The collecting sink */
+	protected final SampleSink sink = new SampleSink() {
+		public void write(String series, long timestamp, double value) {
+			samples.add(new Sample(series, timestamp, value));
+		}
+		public void write(String series, TSType type, long timestamp, double value) {
+			samples.add(new Sample(series, type, timestamp, value));
+		}
+	};
+	
+	/**
+	 * Tests a graphite line
+	 */
+	@Test
+	public void testGraphite() {
+		assertTrue(parser.parse(line("app.web.host1.latency 12.5 1350000000\r"), sink));
+		assertSample("app.web.host1.latency", 1350000000L, 12.5D);
+	}
+	
+	/**
+	 * Tests an OpenTSDB put with tags in unsorted order and a ms timestamp
+	 */
+	@Test
+	public void testOpenTSDBTags() {
+		assertTrue(parser.parse(line("put sys.cpu 1350000000123 -3.25e2 host=web01 dc=east"), sink));
+		assertSample("sys.cpu;dc=east;host=web01", 1350000000L, -325D);
+	}
+	
+	/**
+	 * Tests an OpenTSDB put without tags
+	 */
+	@Test
+	public void testOpenTSDBNoTags() {
+		assertTrue(parser.parse(line("put sys.mem 1350000000 42"), sink));
+		assertSample("sys.mem", 1350000000L, 42D);
+	}
+	
+	/**
+	 * Tests that a blank line is ignored
+	 */
+	@Test
+	public void testBlank() {
+		assertFalse(parser.parse(line("   "), sink));
+		assertEquals(0, samples.size());
+	}
+	
+	/**
+	 * Tests that a malformed value is rejected
+	 */
+	@Test(expected=NumberFormatException.class)
+	public void testBadValue() {
+		parser.parse(line("a.b 12x 1350000000"), sink);
+	}
+	
+	/**
+	 * Tests that a non-finite Graphite value is rejected
+	 */
+	@Test(expected=NumberFormatException.class)
+	public void testNaNValue() {
+		parser.parse(line("a.b NaN 1350000000"), sink);
+	}
+	
+	/**
+	 * Tests that a non-finite OpenTSDB value is rejected
+	 */
+	@Test(expected=NumberFormatException.class)
+	public void testInfiniteValue() {
+		parser.parse(line("put sys.cpu 1350000000 -Infinity host=web01"), sink);
+	}
+	
+	/**
+	 * Tests that the in place double parser rejects every non-finite value
+	 */
+	@Test
+	public void testParseDoubleNonFinite() {
+		String[] values = {"NaN", "-NaN", "Infinity", "+Infinity", "-Infinity", "1e400", "-1e400"};
+		for(String v: values) {
+			ChannelBuffer b = line(v);
+			try {
+				BufferParser.parseDouble(b, 0, b.writerIndex());
+				fail("Accepted non-finite [" + v + "]");
+			} catch (NumberFormatException expected) {
+				/* No Op */
+			}
+		}
+	}
+	
+	/**
+	 * Tests that a line with the wrong number of fields is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadFieldCount() {
+		parser.parse(line("a.b 12"), sink);
+	}
+	
+	/**
+	 * Tests the in place double parser against the JDK parser
+	 */
+	@Test
+	public void testParseDouble() {
+		String[] values = {"0", "-0.5", "1", "123456.789", "0.000123", "1e10", "2.5E-3", "3.141592653589793", "12345678901234567890", "+7"};
+		for(String v: values) {
+			ChannelBuffer b = line(v);
+			assertEquals("Mismatch for [" + v + "]", Double.parseDouble(v), BufferParser.parseDouble(b, 0, b.writerIndex()), 0D);
+		}
+	}
+	
+	/**
+	 * Asserts that exactly one sample was parsed with the passed values
+	 * @param series The expected series
+	 * @param timestamp The expected timestamp
+	 * @param value The expected value
+	 */
+	protected void assertSample(String series, long timestamp, double value) {
+		assertEquals("Unexpected sample count", 1, samples.size());
+		assertEquals("Unexpected series", series, samples.get(0).series);
+		assertEquals("Unexpected timestamp", timestamp, samples.get(0).timestamp);
+		assertEquals("Unexpected value", value, samples.get(0).value, 0D);
+	}
+	
+	/**
+	 * Wraps a line in a buffer
+	 * @param line The line
+	 * @return the buffer
+	 */
+	protected static ChannelBuffer line(String line) {
+		return ChannelBuffers.copiedBuffer(line, LineProtocolParser.UTF8);
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.Sample;
+import org.helios.redis.ts.ingest.SampleSink;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+
+/**
+ * <p>Title: StatsdParserTestCase</p>
+ * <p>Description: Test cases for the statsd metric parser and type aggregation</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.server.StatsdParserTestCase</code></p>
+ */
+public class StatsdParserTestCase extends BaseTestCase {
+	/** The receive time used for all metrics */
+	protected static final long NOW = 1350000001L;
+	/** Collects the written samples */
+	protected final List<Sample> samples = new ArrayList<Sample>();
+	/** The collecting sink */
+	protected final SampleSink sink = new SampleSink() {
+		public void write(String series, long timestamp, double value) {
+			samples.add(new Sample(series, timestamp, value));
+		}
+		public void write(String series, TSType type, long timestamp, double value) {
+			samples.add(new Sample(series, type, timestamp, value));
+		}
+	};
+	/** The aggregator under test */
+	protected final StatsdAggregator aggregator = new StatsdAggregator(sink, Tier.newTier("p=5s,t=1m", 0));
+	/** The parser under test */
+	protected final StatsdParser parser = new StatsdParser(aggregator);
+	
+	/**
+	 * Tests a sampled counter
+	 */
+	@Test
+	public void testCounter() {
+		assertTrue(parse("api.hits:3|c|@0.5"));
+		assertSample(0, "api.hits", TSType.COUNTER, NOW, 6D);
+	}
+	
+	/**
+	 * Tests timers and histograms
+	 */
+	@Test
+	public void testTimer() {
+		assertTrue(parse("api.latency:12.5|ms"));
+		assertTrue(parse("api.size:300|h"));
+		assertSample(0, "api.latency", TSType.TIMER, NOW, 12.5D);
+		assertSample(1, "api.size", TSType.TIMER, NOW, 300D);
+	}
+	
+	/**
+	 * Tests absolute and delta gauges
+	 */
+	@Test
+	public void testGauge() {
+		assertTrue(parse("q.depth:10|g"));
+		assertTrue(parse("q.depth:-4|g"));
+		assertTrue(parse("q.depth:+1.5|g"));
+		assertSample(2, "q.depth", TSType.GAUGE, NOW, 7.5D);
+	}
+	
+	/**
+	 * Tests that gauges not updated for the gauge expiry number of live periods are evicted
+	 */
+	@Test
+	public void testGaugeExpiry() {
+		StatsdAggregator expiring = new StatsdAggregator(sink, Tier.newTier("p=5s,t=1m", 0), 2);
+		expiring.gauge("q.a", 10, false, NOW);
+		expiring.gauge("q.b", 20, false, NOW + 5);
+		assertEquals("Unexpected gauge count", 2, expiring.getGaugeCount());
+		expiring.flushClosed(NOW + 5);
+		assertEquals("Gauge evicted before expiry", 2, expiring.getGaugeCount());
+		expiring.flushClosed(NOW + 10);
+		assertEquals("Expired gauge not evicted", 1, expiring.getGaugeCount());
+		assertEquals("Unexpected evicted count", 1, expiring.getEvictedGauges());
+		expiring.gauge("q.a", 3, true, NOW + 10);
+		expiring.gauge("q.b", 3, true, NOW + 10);
+		assertSample(2, "q.a", TSType.GAUGE, NOW + 10, 3D);
+		assertSample(3, "q.b", TSType.GAUGE, NOW + 10, 23D);
+	}
+	
+	/**
+	 * Tests that set members are counted distinctly and written when the period closes
+	 */
+	@Test
+	public void testSet() {
+		assertTrue(parse("users:alice|s"));
+		assertTrue(parse("users:bob|s"));
+		assertTrue(parse("users:alice|s"));
+		assertEquals("Set written before period close", 0, aggregator.flushClosed(NOW));
+		assertEquals(0, samples.size());
+		assertEquals("Unexpected set count", 1, aggregator.flushClosed(NOW + 5));
+		assertSample(0, "users", TSType.SET, 1350000000L, 2D);
+		assertEquals("Empty set written", 0, aggregator.flushClosed(NOW + 10));
+	}
+	
+	/**
+	 * Tests a datagram with several metric lines as split by the handler
+	 */
+	@Test
+	public void testMultiLine() {
+		ChannelBuffer datagram = buffer("a:1|c\nb:2|ms\n\nc:3|g\n");
+		int from = 0, parsed = 0;
+		while(from<datagram.writerIndex()) {
+			int eol = datagram.indexOf(from, datagram.writerIndex(), (byte)'\n');
+			if(eol<0) eol = datagram.writerIndex();
+			if(parser.parse(datagram, from, eol, NOW)) parsed++;
+			from = eol+1;
+		}
+		assertEquals("Unexpected metric count", 3, parsed);
+		assertFalse("Blank line parsed", parse("  "));
+	}
+	
+	/**
+	 * Tests that an unknown type is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadType() {
+		parse("a:1|x");
+	}
+	
+	/**
+	 * Tests that a non-finite gauge is rejected
+	 */
+	@Test(expected=NumberFormatException.class)
+	public void testNaNGauge() {
+		parse("q.depth:NaN|g");
+	}
+	
+	/**
+	 * Tests that a non-finite counter is rejected
+	 */
+	@Test(expected=NumberFormatException.class)
+	public void testInfiniteCounter() {
+		parse("api.hits:-Infinity|c");
+	}
+	
+	/**
+	 * Tests that a non-finite sample rate is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testNaNRate() {
+		parse("a:1|c|@NaN");
+	}
+	
+	/**
+	 * Tests that an out of range sample rate is rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadRate() {
+		parse("a:1|c|@2");
+	}
+	
+	/**
+	 * Parses one metric line
+	 * @param line The line
+	 * @return true if a metric was parsed
+	 */
+	protected boolean parse(String line) {
+		ChannelBuffer b = buffer(line);
+		return parser.parse(b, 0, b.writerIndex(), NOW);
+	}
+	
+	/**
+	 * Asserts the values of the sample at the passed index
+	 * @param index The sample index
+	 * @param series The expected series
+	 * @param type The expected type
+	 * @param timestamp The expected timestamp
+	 * @param value The expected value
+	 */
+	protected void assertSample(int index, String series, TSType type, long timestamp, double value) {
+		Sample sample = samples.get(index);
+		assertEquals("Unexpected series", series, sample.series);
+		assertEquals("Unexpected type", type, sample.type);
+		assertEquals("Unexpected timestamp", timestamp, sample.timestamp);
+		assertEquals("Unexpected value", value, sample.value, 0D);
+	}
+	
+	/**
+	 * Wraps a string in a buffer
+	 * @param s The string
+	 * @return the buffer
+	 */
+	protected static ChannelBuffer buffer(String s) {
+		return ChannelBuffers.copiedBuffer(s, LineProtocolParser.UTF8);
+	}
+}
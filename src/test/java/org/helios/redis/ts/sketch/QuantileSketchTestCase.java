@@ -0,0 +1,115 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.sketch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.junit.Test;
+
+/**
+ * <p>Title: QuantileSketchTestCase</p>
+ * <p>Description: Test cases for the mergeable quantile sketch</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.sketch.QuantileSketchTestCase</code></p>
+ */
+public class QuantileSketchTestCase extends BaseTestCase {
+	/** The quantiles checked */
+	protected static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	/**
+	 * Tests that quantiles of a long tailed distribution are within the relative accuracy of the exact values
+	 */
+	@Test
+	public void testRelativeAccuracy() {
+		Random random = new Random(17);
+		double[] values = new double[100000];
+		QuantileSketch sketch = new QuantileSketch(0.01);
+		for(int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(random.nextGaussian() * 2 + 3);
+			sketch.add(values[i]);
+		}
+		Arrays.sort(values);
+		assertEquals("Unexpected count", values.length, sketch.getCount());
+		for(double q: QUANTILES) {
+			double exact = values[(int)Math.ceil(q * (values.length - 1))];
+			assertEquals("Quantile [" + q + "] out of accuracy", exact, sketch.quantile(q), exact * 0.0101);
+		}
+	}
+	
+	/**
+	 * Tests that merging sketches gives the same quantiles as one sketch of all the values, and that zero and negative values are counted as zero
+	 */
+	@Test
+	public void testMerge() {
+		QuantileSketch all = new QuantileSketch();
+		QuantileSketch merged = new QuantileSketch();
+		Random random = new Random(3);
+		for(int s = 0; s < 30; s++) {
+			QuantileSketch part = new QuantileSketch();
+			for(int i = 0; i < 1000; i++) {
+				double v = s==0 ? -i : random.nextDouble() * Math.pow(10, s % 6);
+				part.add(v);
+				all.add(v);
+			}
+			merged.merge(part);
+		}
+		assertEquals("Unexpected merged count", all.getCount(), merged.getCount());
+		for(double q: QUANTILES) {
+			assertEquals("Merged quantile [" + q + "] differs", all.quantile(q), merged.quantile(q), 0D);
+		}
+		assertEquals("Negative values not counted as zero", 0D, merged.quantile(0.01), 0D);
+		merged.clear();
+		assertTrue("Cleared sketch not empty", merged.isEmpty());
+		assertTrue("Empty quantile not NaN", Double.isNaN(merged.quantile(0.5)));
+	}
+	
+	/**
+	 * Tests the text rendering and that binary sketches are only merged when stamped with the expected bucket
+	 */
+	@Test
+	public void testEncoding() {
+		QuantileSketch sketch = new QuantileSketch();
+		sketch.add(0);
+		sketch.add(1);
+		sketch.add(1);
+		sketch.add(100);
+		assertEquals("Unexpected sketch text", "1|0:2," + sketch.index(100) + ":1", sketch.toText());
+		byte[] binary = sketch.toBinary(1200);
+		assertEquals("Unexpected binary size", QuantileSketch.HEADER_SIZE + 2 * QuantileSketch.BIN_SIZE, binary.length);
+		QuantileSketch read = new QuantileSketch();
+		assertFalse("Stale sketch merged", read.merge(binary, 600));
+		assertFalse("Null sketch merged", read.merge(null, 1200));
+		assertTrue("Sketch not merged", read.merge(binary, 1200));
+		assertEquals("Unexpected text after round trip", sketch.toText(), read.toText());
+		assertEquals("Unexpected median", sketch.quantile(0.5), read.quantile(0.5), 0D);
+	}
+}
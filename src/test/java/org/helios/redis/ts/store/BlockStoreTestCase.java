@@ -0,0 +1,114 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.helios.redis.ts.RedisTestCase;
+import org.helios.redis.ts.controller.TSConfiguration;
+import org.helios.redis.ts.controller.conn.RedisConnectionManager;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.series.IdCodec;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.helios.redis.ts.tsmodel.TimeSeriesModel;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * <p>Title: BlockStoreTestCase</p>
+ * <p>Description: Test cases for the sealing and expiry of tier blocks. 
+ * Run against a local redis, see {@link RedisTestCase}.</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.BlockStoreTestCase</code></p>
+ */
+public class BlockStoreTestCase extends RedisTestCase {
+	/** A 10s / 1m model */
+	protected static final TimeSeriesModel MODEL = TimeSeriesModel.create("p=10s,t=1h | p=1m,t=1d");
+	/** The sealed minute tier */
+	protected static final Tier TIER = MODEL.getTiers()[1];
+	/** The encoded ID of the test series */
+	protected static final String CODE = IdCodec.encode(1);
+	/** The current time of the seal passes, 30s into a block, so the last sealable block is the one before the block that just closed */
+	protected static final long NOW = 1350000030L;
+	/** The store under test, sealing blocks of 10 minutes */
+	protected BlockStore store = null;
+	
+	/**
+	 * Creates the store under test
+	 */
+	@Before
+	public void createStore() {
+		Properties props = new Properties();
+		props.setProperty("redis.connect.host", "localhost");
+		props.setProperty("redis.ts.block.periods", "10");
+		store = new BlockStore(new RedisConnectionManager(props), MODEL, StorageLayout.HASH, null, props);
+	}
+	
+	/**
+	 * Tests that a seal pass after several skipped spans seals every missed block, and that every expired block is deleted
+	 */
+	@Test
+	public void testCatchUpAndExpiry() {
+		long span = store.getBlockSpan(TIER);
+		assertEquals("Unexpected span", 600, span);
+		long latest = NOW - (NOW % span) - 2 * span;
+		long first = latest - 4 * span;
+		jedis.set(TSConfiguration.TS_ID_SEQ, "1");
+		jedis.hset(TSConfiguration.TS_SERIES_TYPES, CODE, Integer.toString(TSType.GAUGE.ordinal()));
+		jedis.hset(TSConfiguration.TS_SEALED, TIER.getName(), Long.toString(first - span));
+		String dataKey = BlockStore.dataKey(TIER, CODE);
+		for(long bucket = first; bucket < NOW - (NOW % 60); bucket += 60) {
+			jedis.hset(dataKey, Long.toString(TIER.getSlot(bucket)), bucket + ":1:1:1:1:1");
+		}
+		String blockKey = BlockStore.blockKey(TIER, CODE);
+		String expired = Long.toString(NOW - TIER.getTierDuration().seconds - 2 * span - (NOW % span));
+		String retained = Long.toString(NOW - TIER.getTierDuration().seconds - (NOW % span));
+		for(String blockStart: new String[]{expired, retained}) {
+			jedis.hset(blockKey, blockStart, "x");
+			jedis.zadd(BlockStore.indexKey(TIER), Double.parseDouble(blockStart), blockStart);
+		}
+		
+		assertEquals("Missed blocks not all sealed", 5, store.sealPending(jedis, TIER, Long.MAX_VALUE, NOW));
+		assertEquals("Unexpected last sealed block", Long.toString(latest), jedis.hget(TSConfiguration.TS_SEALED, TIER.getName()));
+		assertEquals("Sealed slots not deleted", 10, jedis.hlen(dataKey).longValue());
+		RecordBatch batch = new RecordBatch(64);
+		assertEquals("Unexpected sealed records", 50, store.read(jedis, TIER, CODE, "s", TSType.GAUGE, first, latest + span - 1, batch));
+		assertEquals("Blocks sealed twice", 0, store.sealPending(jedis, TIER, Long.MAX_VALUE, NOW));
+		
+		assertEquals("Unexpected expired block count", 1, store.expire(jedis, TIER, NOW));
+		assertFalse("Expired block not deleted", jedis.hexists(blockKey, expired));
+		assertTrue("Retained block deleted", jedis.hexists(blockKey, retained));
+		for(long blockStart = first; blockStart <= latest; blockStart += span) {
+			assertTrue("Sealed block missing", jedis.hexists(blockKey, Long.toString(blockStart)));
+		}
+		assertEquals("Unexpected indexed block count", 6, jedis.zcard(BlockStore.indexKey(TIER)).longValue());
+	}
+}
@@ -0,0 +1,116 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.junit.Test;
+
+/**
+ * <p>Title: GorillaCodecTestCase</p>
+ * <p>Description: Test cases for the delta of delta / XOR compressed block codec</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.GorillaCodecTestCase</code></p>
+ */
+public class GorillaCodecTestCase extends BaseTestCase {
+	/** A 15 minute bucket */
+	protected static final long BASE = 1350000000L - (1350000000L % 900);
+	
+	/**
+	 * Tests that irregular timestamps and random values round trip exactly
+	 */
+	@Test
+	public void testRoundTrip() {
+		Random r = new Random(42);
+		RecordBatch in = new RecordBatch(500);
+		long ts = BASE;
+		for(int i = 0; i < in.capacity(); i++) {
+			ts += 900 * (1 + r.nextInt(3)) + (i%50==0 ? 86400 : 0);
+			double v = r.nextGaussian() * 1000;
+			in.add("s", TSType.GAUGE, ts, r.nextInt(100000), v * 10, v - 1, v + 1, i%7==0 ? Double.NaN : v);
+		}
+		RecordBatch out = new RecordBatch(in.capacity());
+		assertEquals("Unexpected decoded count", in.size(), GorillaCodec.decode(GorillaCodec.encode(in, 0, in.size()), "s", TSType.GAUGE, 0, Long.MAX_VALUE, out));
+		for(int i = 0; i < in.size(); i++) {
+			assertEquals("Timestamp mismatch at [" + i + "]", in.timestamps[i], out.timestamps[i]);
+			assertEquals("Count mismatch at [" + i + "]", in.counts[i], out.counts[i]);
+			assertEquals("Sum mismatch at [" + i + "]", in.sums[i], out.sums[i], 0D);
+			assertEquals("Min mismatch at [" + i + "]", in.mins[i], out.mins[i], 0D);
+			assertEquals("Max mismatch at [" + i + "]", in.maxs[i], out.maxs[i], 0D);
+			assertEquals("Last mismatch at [" + i + "]", Double.doubleToRawLongBits(in.lasts[i]), Double.doubleToRawLongBits(out.lasts[i]));
+		}
+	}
+	
+	/**
+	 * Tests that a block of regular, mostly stable periods compresses well below the ring record size
+	 */
+	@Test
+	public void testStableCompression() {
+		RecordBatch in = new RecordBatch(96);
+		for(int i = 0; i < in.capacity(); i++) {
+			double v = i%24==0 ? 51.5 + i : 51.5;
+			in.add("s", TSType.GAUGE, BASE + i * 900, 180, v * 180, v, v, v);
+		}
+		byte[] block = GorillaCodec.encode(in, 0, in.size());
+		assertTrue("Block of [" + block.length + "] bytes not compressed", block.length * 10 < in.size() * RingCodec.RECORD_SIZE);
+		RecordBatch out = new RecordBatch(in.capacity());
+		assertEquals(in.size(), GorillaCodec.decode(block, "s", TSType.GAUGE, 0, Long.MAX_VALUE, out));
+		assertEquals(BASE + 95 * 900, out.timestamps[95]);
+		assertEquals(51.5 + 72, out.lasts[72], 0D);
+	}
+	
+	/**
+	 * Tests that decoding only keeps the records within the requested range
+	 */
+	@Test
+	public void testRangeDecode() {
+		RecordBatch in = new RecordBatch(10);
+		for(int i = 0; i < in.capacity(); i++) {
+			in.add("s", TSType.COUNTER, BASE + i * 60, i);
+		}
+		RecordBatch out = new RecordBatch(10);
+		assertEquals("Unexpected range count", 3, GorillaCodec.decode(GorillaCodec.encode(in, 2, 8), "s", TSType.COUNTER, BASE + 240, BASE + 360, out));
+		assertEquals(BASE + 240, out.timestamps[0]);
+		assertEquals(6D, out.lasts[2], 0D);
+	}
+	
+	/**
+	 * Tests that records out of timestamp order are rejected
+	 */
+	@Test(expected=IllegalArgumentException.class)
+	public void testOutOfOrder() {
+		RecordBatch in = new RecordBatch(2);
+		in.add("s", TSType.GAUGE, BASE + 60, 1);
+		in.add("s", TSType.GAUGE, BASE, 2);
+		GorillaCodec.encode(in, 0, 2);
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.junit.Test;
+
+/**
+ * <p>Title: HashCodecTestCase</p>
+ * <p>Description: Test cases for the epoch stamped hash layout range planning and decoding</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.HashCodecTestCase</code></p>
+ */
+public class HashCodecTestCase extends BaseTestCase {
+	/** A tier of 12 periods of 5 seconds */
+	protected final Tier tier = Tier.newTier("p=5s,t=1m", 0);
+	/** A bucket that occupies slot 0 of the tier */
+	protected static final long BASE = 1350000000L - (1350000000L % 60);
+	
+	/**
+	 * Tests that the slot fields of a range wrap around the tier and are clipped to one rotation
+	 */
+	@Test
+	public void testFields() {
+		assertArrayEquals(new String[]{"50", "55", "0", "5"}, HashCodec.fields(tier, BASE - 10, BASE + 9));
+		assertEquals("Range not clipped to one rotation", 12, HashCodec.fields(tier, BASE - 3600, BASE).length);
+		assertEquals("Inverted range not empty", 0, HashCodec.fields(tier, BASE + 20, BASE).length);
+	}
+	
+	/**
+	 * Tests that empty slots and slots stamped with another bucket are skipped
+	 */
+	@Test
+	public void testDecodeSkipsStale() {
+		RecordBatch out = new RecordBatch(4);
+		int decoded = HashCodec.decode(Arrays.asList(
+				BASE + ":3:6.0:1.0:3.0:2.0", 
+				null, 
+				(BASE + 10 - 60) + ":1:9:9:9:9", 
+				(BASE + 15) + ":2:1.5:0.5:1.0:1.0"), "s", TSType.GAUGE, BASE, 5, out);
+		assertEquals("Unexpected decoded count", 2, decoded);
+		assertEquals(BASE, out.timestamps[0]);
+		assertEquals(3L, out.counts[0]);
+		assertEquals(6D, out.sums[0], 0D);
+		assertEquals(BASE + 15, out.timestamps[1]);
+		assertEquals(0.5D, out.mins[1], 0D);
+	}
+}
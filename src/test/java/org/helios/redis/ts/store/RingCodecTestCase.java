@@ -0,0 +1,93 @@
+/**
+ * Helios, OpenSource Monitoring
+ * Brought to you by the Helios Development Group
+ *
+ * Copyright 2007, Helios Development Group and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org. 
+ *
+ */
+package org.helios.redis.ts.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.helios.redis.ts.BaseTestCase;
+import org.helios.redis.ts.ingest.RecordBatch;
+import org.helios.redis.ts.tsmodel.TSType;
+import org.helios.redis.ts.tsmodel.Tier;
+import org.junit.Test;
+
+/**
+ * <p>Title: RingCodecTestCase</p>
+ * <p>Description: Test cases for the binary ring layout range planning and decoding</p> 
+ * <p>Company: Helios Development Group LLC</p>
+ * @author Whitehead (nwhitehead AT heliosdev DOT org)
+ * <p><code>org.helios.redis.ts.store.RingCodecTestCase</code></p>
+ */
+public class RingCodecTestCase extends BaseTestCase {
+	/** A tier of 12 periods of 5 seconds */
+	protected final Tier tier = Tier.newTier("p=5s,t=1m", 0);
+	/** A bucket that occupies slot 0 of the tier */
+	protected static final long BASE = 1350000000L - (1350000000L % 60);
+	
+	/**
+	 * Tests a range that does not wrap around the end of the ring
+	 */
+	@Test
+	public void testRangeNoWrap() {
+		long[] r = RingCodec.ranges(tier, BASE + 10, BASE + 24);
+		assertArrayEquals(new long[]{BASE + 10, 3, 2*RingCodec.RECORD_SIZE, 5*RingCodec.RECORD_SIZE - 1, -1, -1}, r);
+	}
+	
+	/**
+	 * Tests a range that wraps around the end of the ring and is clipped to one rotation
+	 */
+	@Test
+	public void testRangeWrapAndClip() {
+		long[] r = RingCodec.ranges(tier, BASE - 3600, BASE + 19);
+		assertEquals("Range not clipped to one rotation", BASE + 15 - 55, r[0]);
+		assertEquals(12, r[1]);
+		assertEquals(4*RingCodec.RECORD_SIZE, r[2]);
+		assertEquals(12*RingCodec.RECORD_SIZE - 1, r[3]);
+		assertEquals(0, r[4]);
+		assertEquals(4*RingCodec.RECORD_SIZE - 1, r[5]);
+		assertNull("Inverted range not empty", RingCodec.ranges(tier, BASE + 20, BASE));
+	}
+	
+	/**
+	 * Tests that decoding skips slots stamped with another bucket
+	 */
+	@Test
+	public void testDecodeSkipsStale() {
+		ByteBuffer buffer = ByteBuffer.allocate(3*RingCodec.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		RingCodec.encode(buffer, BASE, 2, 10, 4, 6, 6);
+		RingCodec.encode(buffer, BASE + 5 - 60, 1, 99, 99, 99, 99);
+		RingCodec.encode(buffer, BASE + 10, 1, 3, 3, 3, 3);
+		RecordBatch out = new RecordBatch(10);
+		assertEquals(2, RingCodec.decode(buffer.array(), "s", TSType.GAUGE, BASE, 5, out));
+		assertEquals(BASE, out.timestamps[0]);
+		assertEquals(2L, out.counts[0]);
+		assertEquals(10D, out.sums[0], 0D);
+		assertEquals(BASE + 10, out.timestamps[1]);
+	}
+}
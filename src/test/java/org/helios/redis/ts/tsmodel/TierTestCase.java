@@ -76,7 +76,19 @@ public class TierTestCase extends BaseTestCase {
 		tripletTest("c=60, p=15s, t=15m", 1, "t1", 15, 15*60, 60);
 	}
 	
-	
+
+	/**
+	 * Tests the period bucket and ring slot calculations
+	 */
+	@Test
+	public void testBucketAndSlot() {
+		Tier tier = Tier.newTier("p=15s, t=15m", 0);
+		long ts = 1350000007L;
+		assertEquals("Unexpected bucket", 1350000000L, tier.getBucket(ts));
+		assertEquals("Unexpected slot", 1350000000L % (15*60), tier.getSlot(ts));
+		assertEquals("Slot did not wrap", tier.getSlot(ts), tier.getSlot(ts + (15*60)));
+	}
+
 	/**
 	 * Tests a tier creation
 	 * @param tierDef The tier definition expressions